@@ -1,7 +1,10 @@
 package com.aeterhilrin.helpcachemeetpackager;
 
+import com.aeterhilrin.helpcachemeetpackager.download.BandwidthLimiter;
 import com.aeterhilrin.helpcachemeetpackager.download.DownloadManager;
 import com.aeterhilrin.helpcachemeetpackager.download.LanzouApiClient;
+import com.aeterhilrin.helpcachemeetpackager.download.ProgressSampler;
+import com.aeterhilrin.helpcachemeetpackager.download.ProjectQueue;
 import com.aeterhilrin.helpcachemeetpackager.file.PackageManager;
 import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
 import com.aeterhilrin.helpcachemeetpackager.model.FileInfo;
@@ -9,13 +12,18 @@ import com.aeterhilrin.helpcachemeetpackager.model.ProjectConfig;
 import com.aeterhilrin.helpcachemeetpackager.ui.LicenseDialog;
 import com.aeterhilrin.helpcachemeetpackager.ui.MainWindow;
 import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.CancellationToken;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
 import com.aeterhilrin.helpcachemeetpackager.util.FileUtils;
 
 import javax.swing.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
 
 /**
  * HelpCacheMeetPackager 主应用程序类
@@ -27,11 +35,14 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
     
     private MainWindow mainWindow;
     private DownloadManager downloadManager;
+    private volatile ProjectQueue projectQueue; // 拖入多个配置时创建
     private ProjectConfig currentConfig;
     private volatile boolean isShuttingDown = false;
+    private volatile CancellationToken packageCancellation = CancellationToken.NONE; // 正在进行的打包
     
     /**
      * 应用程序主入口点
+     * 带参数启动时不显示界面，把参数中的配置文件和目录加入项目队列批量构建
      */
     public static void main(String[] args) {
         // 设置系统属性
@@ -43,6 +54,11 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
             // 记录应用程序启动
             ApplicationLogger.logApplicationStart();
             
+            if (args.length > 0) {
+                System.exit(runBatch(args));
+                return;
+            }
+            
             // 创建并启动应用程序
             HelpCacheMeetPackagerApplication app = new HelpCacheMeetPackagerApplication();
             app.startup();
@@ -55,6 +71,73 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
         }
     }
     
+    /**
+     * 命令行批量构建
+     * 所有项目同时在项目队列中运行，输出每个项目的状态和每10%的下载进度，结束后输出汇总
+     * @param args 配置文件或包含配置文件的目录
+     * @return 退出码，所有项目都成功时为0，否则为1
+     */
+    static int runBatch(String[] args) {
+        List<File> paths = new ArrayList<>();
+        for (String arg : args) {
+            paths.add(new File(arg));
+        }
+        
+        ProjectQueue queue = new ProjectQueue();
+        Map<Integer, Integer> printedDeciles = new HashMap<>();
+        queue.setJobListener(new ProjectQueue.JobListener() {
+            @Override
+            public void onJobStateChanged(ProjectQueue.Job job) {
+                String detail = job.getErrorMessage() != null ? " - " + job.getErrorMessage() : "";
+                System.out.printf("[#%d %s] %s%s%n", job.getId(), job.getProjectName(),
+                    job.getState().getDescription(), detail);
+            }
+            
+            @Override
+            public void onJobProgress(ProjectQueue.Job job, ProgressSampler.Snapshot snapshot) {
+                int decile = snapshot.getPercent() / 10;
+                Integer printed;
+                synchronized (printedDeciles) {
+                    printed = printedDeciles.put(job.getId(), decile);
+                }
+                if (printed == null || printed != decile) {
+                    System.out.printf("[#%d %s] %d%% (%d/%d 个文件) %s/%s - %s/s%n", job.getId(),
+                        job.getProjectName(), snapshot.getPercent(), snapshot.getFinishedCount(),
+                        snapshot.getTasks().size(), FileUtils.formatFileSize(snapshot.getDownloaded()),
+                        FileUtils.formatFileSize(snapshot.getTotal()), FileUtils.formatFileSize(snapshot.getSpeed()));
+                }
+            }
+        });
+        
+        long startTime = System.currentTimeMillis();
+        List<ProjectQueue.Job> jobs = queue.submitPaths(paths);
+        if (jobs.isEmpty()) {
+            System.err.println("没有找到配置文件: " + String.join(" ", args));
+            queue.shutdown();
+            return 1;
+        }
+        queue.awaitAll();
+        
+        int succeeded = 0;
+        System.out.println();
+        System.out.println("构建汇总:");
+        for (ProjectQueue.Job job : queue.getJobs()) {
+            String result = job.getState() == ProjectQueue.State.COMPLETED
+                ? job.getOutputPath() : job.getErrorMessage() != null ? job.getErrorMessage() : "";
+            System.out.printf("  #%d %-24s %s %s (%s)%n", job.getId(), job.getProjectName(),
+                job.getState().getDescription(), result,
+                FileUtils.formatDuration(job.getEndTime() - job.getStartTime()));
+            if (job.getState() == ProjectQueue.State.COMPLETED) {
+                succeeded++;
+            }
+        }
+        System.out.printf("成功 %d/%d，用时 %s%n", succeeded, jobs.size(),
+            FileUtils.formatDuration(System.currentTimeMillis() - startTime));
+        
+        queue.shutdown();
+        return succeeded == jobs.size() ? 0 : 1;
+    }
+    
     /**
      * 应用程序启动
      */
@@ -141,6 +224,7 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
         // 创建主窗口
         mainWindow = new MainWindow();
         mainWindow.setMainWindowListener(this);
+        mainWindow.updateBandwidthLimit(BandwidthLimiter.getInstance().getBytesPerSecond() / 1024);
         
         ApplicationLogger.logInfo("组件初始化完成");
     }
@@ -178,8 +262,7 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
      * 下载进度处理器
      */
     private class DownloadProgressHandler implements DownloadManager.DownloadProgressListener {
-        private volatile long lastProgressUpdate = 0;
-        private static final long PROGRESS_UPDATE_INTERVAL = 200; // 200毫秒更新一次进度，避免闪烁
+        private final Map<String, Long> loggedDeciles = new HashMap<>(); // 只在进度采样线程中访问
         
         @Override
         public void onTaskStarted(DownloadTask task) {
@@ -192,32 +275,49 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
         }
         
         @Override
-        public void onTaskProgress(DownloadTask task, long downloaded, long total) {
-            // 使用节流机制防止进度条闪烁，特别是大文件下载时
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - lastProgressUpdate < PROGRESS_UPDATE_INTERVAL) {
-                return; // 跳过过于频繁的更新
+        public void onProgressSnapshot(ProgressSampler.Snapshot snapshot) {
+            // 快照由采样线程按固定频率发布，这里每次只提交一次界面更新
+            List<ProgressSampler.TaskProgress> active = snapshot.getActiveTasks();
+            String text;
+            if (active.size() == 1) {
+                ProgressSampler.TaskProgress progress = active.get(0);
+                DownloadTask task = progress.getTask();
+                String fileName = task.getFileName() != null ? task.getFileName() : task.getPrefix();
+                text = String.format("%s: %s/%s - %s/s, 剩余 %s",
+                    fileName,
+                    FileUtils.formatFileSize(progress.getDownloaded()),
+                    progress.getTotal() > 0 ? FileUtils.formatFileSize(progress.getTotal()) : "未知",
+                    FileUtils.formatFileSize(progress.getSpeed()),
+                    FileUtils.formatDuration(progress.getRemainingMillis()));
+            } else {
+                text = String.format("下载中 %d 个文件 (%d/%d 已完成): %s/%s - %s/s, 剩余 %s",
+                    active.size(), snapshot.getFinishedCount(), snapshot.getTasks().size(),
+                    FileUtils.formatFileSize(snapshot.getDownloaded()),
+                    FileUtils.formatFileSize(snapshot.getTotal()),
+                    FileUtils.formatFileSize(snapshot.getSpeed()),
+                    FileUtils.formatDuration(snapshot.getRemainingMillis()));
+            }
+            int percent = active.size() == 1 ? active.get(0).getPercent() : snapshot.getPercent();
+            
+            // 每10%记录一次进度
+            for (ProgressSampler.TaskProgress progress : active) {
+                if (progress.getTotal() > 0) {
+                    long decile = progress.getDownloaded() * 10 / progress.getTotal();
+                    Long logged = loggedDeciles.put(progress.getTask().getTaskId(), decile);
+                    if (logged == null || logged != decile) {
+                        DownloadTask task = progress.getTask();
+                        ApplicationLogger.logDownloadProgress(
+                            task.getFileName() != null ? task.getFileName() : task.getPrefix(),
+                            progress.getDownloaded(), progress.getTotal());
+                    }
+                }
             }
-            lastProgressUpdate = currentTime;
             
             SwingUtilities.invokeLater(() -> {
-                int progress = total > 0 ? (int) (downloaded * 100 / total) : 0;
-                String fileName = task.getFileName() != null ? task.getFileName() : task.getPrefix();
-                String text = String.format("%s: %s/%s", 
-                    fileName,
-                    FileUtils.formatFileSize(downloaded),
-                    total > 0 ? FileUtils.formatFileSize(total) : "未知"
-                );
-                
                 // 使用带缓冲的进度更新，避免连续的UI重绘
                 if (!text.equals(mainWindow.getLastProgressText()) || 
-                    Math.abs(progress - mainWindow.getLastProgressValue()) >= 2) {
-                    mainWindow.updateDownloadProgress(progress, text);
-                }
-                
-                // 每10%记录一次进度
-                if (total > 0 && (downloaded * 10 / total) % 1 == 0) {
-                    ApplicationLogger.logDownloadProgress(fileName, downloaded, total);
+                    Math.abs(percent - mainWindow.getLastProgressValue()) >= 2) {
+                    mainWindow.updateDownloadProgress(percent, text);
                 }
             });
         }
@@ -244,6 +344,15 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
             });
         }
         
+        @Override
+        public void onTaskRetry(DownloadTask task, String reason) {
+            SwingUtilities.invokeLater(() -> {
+                String fileName = task.getFileName() != null ? task.getFileName() : task.getPrefix();
+                mainWindow.updateStatus(String.format("解析重试: %s (重试 %d 次, 失败 %d 次) - %s",
+                    fileName, task.getRetryCount(), task.getFailureCount(), reason));
+            });
+        }
+        
         @Override
         public void onAllTasksCompleted(List<FileInfo> downloadedFiles) {
             SwingUtilities.invokeLater(() -> {
@@ -309,6 +418,16 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
         // 清空之前的文件列表
         mainWindow.clearFileList();
         
+        // 立即开始预解析直链，点击下载时直链和文件大小已经就绪
+        downloadManager.prepareTasks(config);
+        
+        // 所有文件都已缓存时不需要联网
+        if (downloadManager.isFullyCached()) {
+            ApplicationLogger.logInfo("所有文件均已缓存，跳过网络测试");
+            mainWindow.updateStatus("所有文件均已缓存，可离线完成");
+            return;
+        }
+        
         // 测试网络连接
         testNetworkConnection();
     }
@@ -332,8 +451,11 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
         // 创建下载任务
         downloadManager.createTasksFromConfig(config);
         
+        // 配置文件中可能设置了限速，同步到界面
+        mainWindow.updateBandwidthLimit(BandwidthLimiter.getInstance().getBytesPerSecond() / 1024);
+        
         // 开始下载
-        CompletableFuture.runAsync(() -> {
+        ExecutionMode.runAsync(() -> {
             try {
                 downloadManager.startAllDownloads();
             } catch (Exception e) {
@@ -358,12 +480,17 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
         ApplicationLogger.logPackageStart(projectName, selectedFiles.size());
         
         // 在后台线程执行打包
-        CompletableFuture.supplyAsync(() -> {
+        CancellationToken cancellation = new CancellationToken();
+        packageCancellation = cancellation;
+        ExecutionMode.supplyAsync(() -> {
             return PackageManager.packageFiles(selectedFiles, projectName, 
-                new PackageProgressHandler());
+                new PackageProgressHandler(), cancellation);
         }).thenAccept(result -> {
             SwingUtilities.invokeLater(() -> {
-                if (result.isSuccess()) {
+                if (result.isCancelled()) {
+                    mainWindow.onPackageCancelled();
+                    ApplicationLogger.logInfo("打包已取消 - 项目: {}", projectName);
+                } else if (result.isSuccess()) {
                     mainWindow.onPackageCompleted(result.getOutputPath());
                     ApplicationLogger.logPackageCompleted(
                         projectName, 
@@ -400,6 +527,123 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
         ApplicationLogger.logInfo("用户请求刷新，已清理临时文件");
     }
     
+    @Override
+    public void onBandwidthLimitChanged(long kbPerSecond) {
+        // 修改立即对正在进行的下载生效
+        BandwidthLimiter.getInstance().setBytesPerSecond(kbPerSecond * 1024);
+    }
+    
+    @Override
+    public void onCancelRequested() {
+        // 正在进行的连接立即关闭，之后可以直接加载其他配置重新开始
+        ApplicationLogger.logInfo("用户请求取消当前任务");
+        downloadManager.cancelAllDownloads();
+        packageCancellation.cancel();
+        if (projectQueue != null) {
+            projectQueue.cancelAll();
+        }
+    }
+    
+    @Override
+    public void onConfigsQueued(List<File> files) {
+        if (projectQueue == null) {
+            projectQueue = new ProjectQueue();
+            projectQueue.setJobListener(new ProjectQueueHandler());
+        }
+        
+        List<ProjectQueue.Job> jobs = projectQueue.submitPaths(files);
+        if (jobs.isEmpty()) {
+            mainWindow.showError("配置错误", "拖入的文件和目录中没有配置文件 (.yaml 或 .yml)");
+            return;
+        }
+        ApplicationLogger.logInfo("{} 个项目加入队列", jobs.size());
+        mainWindow.updateStatus(String.format("%d 个项目加入队列", jobs.size()));
+    }
+    
+    /**
+     * 项目队列处理器，在状态栏显示所有项目的汇总进度，全部结束后显示结果
+     */
+    private class ProjectQueueHandler implements ProjectQueue.JobListener {
+        
+        @Override
+        public void onJobStateChanged(ProjectQueue.Job job) {
+            SwingUtilities.invokeLater(() -> {
+                ProjectQueue queue = projectQueue;
+                if (queue == null) {
+                    return;
+                }
+                String detail = job.getErrorMessage() != null ? " - " + job.getErrorMessage() : "";
+                mainWindow.updateStatus(String.format("项目 %s: %s%s",
+                    job.getProjectName(), job.getState().getDescription(), detail));
+                updateQueueProgress(queue);
+                
+                if (job.getState().isFinished() && queue.isIdle()) {
+                    showQueueSummary(queue);
+                }
+            });
+        }
+        
+        @Override
+        public void onJobProgress(ProjectQueue.Job job, ProgressSampler.Snapshot snapshot) {
+            SwingUtilities.invokeLater(() -> {
+                ProjectQueue queue = projectQueue;
+                if (queue != null) {
+                    updateQueueProgress(queue);
+                }
+            });
+        }
+        
+        /**
+         * 汇总所有项目的进度，已结束的项目按100%计算
+         */
+        private void updateQueueProgress(ProjectQueue queue) {
+            List<ProjectQueue.Job> jobs = queue.getJobs();
+            int finished = 0;
+            int running = 0;
+            int percentSum = 0;
+            long speed = 0;
+            for (ProjectQueue.Job job : jobs) {
+                if (job.getState().isFinished()) {
+                    finished++;
+                    percentSum += 100;
+                } else if (job.getState() != ProjectQueue.State.QUEUED) {
+                    running++;
+                    ProgressSampler.Snapshot snapshot = job.getLastSnapshot();
+                    if (snapshot != null) {
+                        percentSum += snapshot.getPercent();
+                        speed += snapshot.getSpeed();
+                    }
+                }
+            }
+            int percent = jobs.isEmpty() ? 0 : percentSum / jobs.size();
+            mainWindow.updateDownloadProgress(percent, String.format("项目队列: %d/%d 已结束, %d 个进行中 - %s/s",
+                finished, jobs.size(), running, FileUtils.formatFileSize(speed)));
+        }
+        
+        private void showQueueSummary(ProjectQueue queue) {
+            StringBuilder summary = new StringBuilder();
+            int succeeded = 0;
+            for (ProjectQueue.Job job : queue.getJobs()) {
+                summary.append(job.getProjectName()).append(": ").append(job.getState().getDescription());
+                if (job.getState() == ProjectQueue.State.COMPLETED) {
+                    succeeded++;
+                    summary.append(" -> ").append(job.getOutputPath());
+                } else if (job.getErrorMessage() != null) {
+                    summary.append(" - ").append(job.getErrorMessage());
+                }
+                summary.append("\n");
+            }
+            int total = queue.getJobs().size();
+            ApplicationLogger.logInfo("项目队列全部结束 - 成功: {}/{}", succeeded, total);
+            summary.insert(0, String.format("成功 %d/%d 个项目\n\n", succeeded, total));
+            if (succeeded == total) {
+                mainWindow.showInfo("项目队列完成", summary.toString());
+            } else {
+                mainWindow.showError("项目队列完成", summary.toString());
+            }
+        }
+    }
+    
     /**
      * 打包进度处理器
      */
@@ -468,7 +712,7 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
      * 测试网络连接
      */
     private void testNetworkConnection() {
-        CompletableFuture.runAsync(() -> {
+        ExecutionMode.runAsync(() -> {
             boolean apiReachable = LanzouApiClient.testConnection();
             boolean internetReachable = FileUtils.isNetworkReachable("www.baidu.com", 5000);
             
@@ -506,6 +750,11 @@ public class HelpCacheMeetPackagerApplication implements MainWindow.MainWindowLi
                 downloadManager.shutdown();
             }
             
+            // 关闭项目队列，取消其中的所有项目
+            if (projectQueue != null) {
+                projectQueue.shutdown();
+            }
+            
             // 清理临时文件
             if (downloadManager != null) {
                 downloadManager.cleanupTempFiles();
@@ -1,5 +1,9 @@
 package com.aeterhilrin.helpcachemeetpackager.config;
 
+import com.aeterhilrin.helpcachemeetpackager.download.ContentHasher;
+import com.aeterhilrin.helpcachemeetpackager.download.DownloadConcurrencyTuner;
+import com.aeterhilrin.helpcachemeetpackager.download.DownloadScheduler;
+import com.aeterhilrin.helpcachemeetpackager.download.SegmentedDownloader;
 import com.aeterhilrin.helpcachemeetpackager.model.ProjectConfig;
 
 import java.io.File;
@@ -30,6 +34,9 @@ public class ConfigValidator {
         "[\\\\/:*?\"<>|]"
     );
     
+    // 带宽权重上限
+    private static final int MAX_WEIGHT = 100;
+    
     /**
      * 验证配置文件
      * @param file 配置文件
@@ -75,6 +82,29 @@ public class ConfigValidator {
         // 验证下载项目列表
         validateDownloadItems(config.getItems(), errors, warnings);
         
+        // 验证额外的解析接口
+        validateResolverEndpoints(config.getResolverEndpoints(), errors);
+        
+        // 验证分段数
+        validateSegments(config.getSegments(), "项目", errors);
+        
+        // 验证并发下载数
+        if (config.getConcurrency() < 0 || config.getConcurrency() > DownloadConcurrencyTuner.MAX_CONCURRENCY) {
+            errors.add("并发数必须在 1 到 " + DownloadConcurrencyTuner.MAX_CONCURRENCY + " 之间");
+        }
+        
+        // 验证下载限速
+        if (config.getBandwidthLimit() < 0) {
+            errors.add("限速不能为负数");
+        }
+        
+        // 验证调度策略
+        String schedulePolicy = config.getSchedulePolicy();
+        if (schedulePolicy != null && !schedulePolicy.trim().isEmpty()
+                && DownloadScheduler.Policy.fromName(schedulePolicy) == null) {
+            errors.add("无法识别的调度策略: " + schedulePolicy + "（可选: 后缀顺序、大文件优先、小文件优先）");
+        }
+        
         return new ValidationResult(errors.isEmpty(), errors, warnings);
     }
     
@@ -222,11 +252,48 @@ public class ConfigValidator {
         // 验证链接
         validateLanzouUrl(item.getLanzouUrl(), itemDesc, errors, warnings);
         
+        // 验证镜像链接
+        validateMirrors(item, itemDesc, errors, warnings);
+        
         // 验证密码
         validatePassword(item.getPassword(), itemDesc, warnings);
         
         // 验证后缀
         validateSuffix(item.getSuffix(), itemDesc, errors, warnings);
+        
+        // 验证分段数
+        validateSegments(item.getSegments(), itemDesc, errors);
+        
+        // 验证带宽权重
+        if (item.getWeight() < 0 || item.getWeight() > MAX_WEIGHT) {
+            errors.add(itemDesc + " 权重必须在 1 到 " + MAX_WEIGHT + " 之间");
+        }
+        
+        // 验证期望的哈希
+        if (item.getExpectedHash() != null && ContentHasher.normalizeSha256(item.getExpectedHash()) == null) {
+            errors.add(itemDesc + " 哈希格式不正确，应为64位十六进制的SHA-256");
+        }
+    }
+    
+    /**
+     * 验证镜像链接
+     */
+    private static void validateMirrors(ProjectConfig.DownloadItem item, String itemDesc,
+                                      List<String> errors, List<String> warnings) {
+        Set<String> seen = new HashSet<>();
+        if (item.getLanzouUrl() != null) {
+            seen.add(item.getLanzouUrl().trim());
+        }
+        
+        for (int i = 0; i < item.getMirrors().size(); i++) {
+            String mirror = item.getMirrors().get(i);
+            String mirrorDesc = itemDesc + " 的第 " + (i + 1) + " 个镜像";
+            validateLanzouUrl(mirror, mirrorDesc, errors, warnings);
+            
+            if (mirror != null && !seen.add(mirror.trim())) {
+                warnings.add(mirrorDesc + " 与主链接或其他镜像重复");
+            }
+        }
     }
     
     /**
@@ -326,6 +393,35 @@ public class ConfigValidator {
         }
     }
     
+    /**
+     * 验证分段数（0表示未设置）
+     */
+    private static void validateSegments(int segments, String desc, List<String> errors) {
+        if (segments < 0 || segments > SegmentedDownloader.MAX_SEGMENTS) {
+            errors.add(desc + " 分段数必须在 1 到 " + SegmentedDownloader.MAX_SEGMENTS + " 之间");
+        }
+    }
+    
+    /**
+     * 验证解析接口地址
+     */
+    private static void validateResolverEndpoints(List<String> endpoints, List<String> errors) {
+        if (endpoints == null) {
+            return;
+        }
+        
+        for (String endpoint : endpoints) {
+            try {
+                URL url = new URL(endpoint);
+                if (!"http".equalsIgnoreCase(url.getProtocol()) && !"https".equalsIgnoreCase(url.getProtocol())) {
+                    errors.add("解析接口必须以 http:// 或 https:// 开头: " + endpoint);
+                }
+            } catch (MalformedURLException e) {
+                errors.add("解析接口地址格式不正确: " + endpoint);
+            }
+        }
+    }
+    
     /**
      * 验证后缀连续性
      */
@@ -6,6 +6,7 @@ import org.yaml.snakeyaml.Yaml;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -116,6 +117,36 @@ public class YamlParser {
             throw new IllegalArgumentException("配置文件中没有有效的下载项目");
         }
         
+        // 解析额外的直链解析接口（可选）
+        config.setResolverEndpoints(getStringList(data, "解析接口", "resolvers", "resolverEndpoints"));
+        
+        // 解析分段下载的分段数（可选）
+        Integer segments = getInteger(data, "分段数", "segments");
+        if (segments != null) {
+            config.setSegments(segments);
+        }
+        
+        // 解析并发下载数（可选，未设置时自动调节）
+        Integer concurrency = getInteger(data, "并发数", "concurrency");
+        if (concurrency != null) {
+            config.setConcurrency(concurrency);
+        }
+        
+        // 解析下载限速（可选，单位KB/s）
+        Integer bandwidthLimit = getInteger(data, "限速", "bandwidthLimit");
+        if (bandwidthLimit != null) {
+            config.setBandwidthLimit(bandwidthLimit);
+        }
+        
+        // 解析下载调度策略（可选）
+        config.setSchedulePolicy(getString(data, "调度策略", "schedulePolicy"));
+        
+        // 是否边下载边解压（可选，默认关闭）
+        Boolean streamingExtraction = getBoolean(data, "边下边解压", "streamingExtraction");
+        if (streamingExtraction != null) {
+            config.setStreamingExtraction(streamingExtraction);
+        }
+        
         return config;
     }
     
@@ -196,7 +227,35 @@ public class YamlParser {
             password = null;
         }
         
-        return new ProjectConfig.DownloadItem(prefix, url, password, suffix);
+        ProjectConfig.DownloadItem item = new ProjectConfig.DownloadItem(prefix, url, password, suffix);
+        
+        // 单个项目的分段数（可选），覆盖项目级设置
+        Integer segments = getInteger(itemMap, "分段数", "segments");
+        if (segments != null) {
+            item.setSegments(segments);
+        }
+        
+        Integer weight = getInteger(itemMap, "权重", "weight");
+        if (weight != null) {
+            item.setWeight(weight);
+        }
+        
+        // 调度优先级（可选），数值大的先下载
+        Integer priority = getInteger(itemMap, "优先级", "priority");
+        if (priority != null) {
+            item.setPriority(priority);
+        }
+        
+        // 期望的SHA-256（可选），下载完成后校验
+        String hash = getString(itemMap, "哈希", "hash", "sha256");
+        if (hash != null && !hash.trim().isEmpty()) {
+            item.setExpectedHash(hash.trim());
+        }
+        
+        // 镜像链接（可选），下载时与主链接竞速，失败或变慢时切换
+        item.setMirrors(getStringList(itemMap, "镜像", "mirrors"));
+        
+        return item;
     }
     
     /**
@@ -253,6 +312,48 @@ public class YamlParser {
         return null;
     }
     
+    /**
+     * 从Map中获取字符串列表，支持单个字符串或列表
+     */
+    private static List<String> getStringList(Map<String, Object> map, String... keys) {
+        List<String> result = new ArrayList<>();
+        for (String key : keys) {
+            Object value = map.get(key);
+            if (value instanceof List) {
+                for (Object element : (List<?>) value) {
+                    if (element != null && !element.toString().trim().isEmpty()) {
+                        result.add(element.toString().trim());
+                    }
+                }
+                return result;
+            } else if (value != null && !value.toString().trim().isEmpty()) {
+                result.add(value.toString().trim());
+                return result;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 从Map中获取布尔值，支持true/false、是/否、开/关
+     */
+    private static Boolean getBoolean(Map<String, Object> map, String... keys) {
+        for (String key : keys) {
+            Object value = map.get(key);
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            } else if (value != null) {
+                String text = value.toString().trim().toLowerCase();
+                if ("true".equals(text) || "是".equals(text) || "开".equals(text) || "1".equals(text)) {
+                    return Boolean.TRUE;
+                } else if ("false".equals(text) || "否".equals(text) || "关".equals(text) || "0".equals(text)) {
+                    return Boolean.FALSE;
+                }
+            }
+        }
+        return null;
+    }
+    
     /**
      * 从Map中获取整数值
      */
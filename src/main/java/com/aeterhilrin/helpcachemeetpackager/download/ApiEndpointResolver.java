@@ -0,0 +1,63 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+/**
+ * 基于HTTP解析接口的直链解析器
+ * 调用与默认接口协议相同（url/pwd参数，JSON响应）的解析服务
+ * 
+ * @author AeterHilrin
+ */
+public class ApiEndpointResolver implements LinkResolver {
+    
+    private final String name;
+    private final String apiBaseUrl;
+    
+    /**
+     * 使用默认解析接口（供ServiceLoader加载）
+     */
+    public ApiEndpointResolver() {
+        this(LanzouApiClient.getDefaultApiBaseUrl());
+    }
+    
+    public ApiEndpointResolver(String apiBaseUrl) {
+        this(extractHost(apiBaseUrl), apiBaseUrl);
+    }
+    
+    public ApiEndpointResolver(String name, String apiBaseUrl) {
+        this.name = name;
+        this.apiBaseUrl = apiBaseUrl;
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+    
+    public String getApiBaseUrl() {
+        return apiBaseUrl;
+    }
+    
+    @Override
+    public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag) {
+        return LanzouApiClient.parseDirectUrlWithEndpoint(apiBaseUrl, lanzouUrl, password, taskTag);
+    }
+    
+    /**
+     * 从接口地址提取主机名作为解析器名称
+     */
+    private static String extractHost(String apiBaseUrl) {
+        try {
+            String host = new java.net.URL(apiBaseUrl).getHost();
+            return host != null && !host.isEmpty() ? host : apiBaseUrl;
+        } catch (Exception e) {
+            return apiBaseUrl;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ApiEndpointResolver{" +
+                "name='" + name + '\'' +
+                ", apiBaseUrl='" + apiBaseUrl + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,187 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 全局下载限速器
+ * 令牌桶按GCRA（理论到达时间）实现，状态只有一个AtomicLong，读取路径上只做CAS，不加锁。
+ * 每个下载任务持有一个按权重分配速率的租约：全局带宽用满时各任务按权重分享，
+ * 全局带宽有空闲时任务可以超出自己的份额，不浪费带宽。
+ * 限速可以在运行时修改，0表示不限速。
+ *
+ * @author AeterHilrin
+ */
+public class BandwidthLimiter {
+    
+    private static final long DEFAULT_BURST_MILLIS = 500; // 允许的突发量，按限速下多少毫秒的数据计算
+    private static final long MAX_PARK_NANOS = 200_000_000L; // 单次等待上限，便于及时响应取消和限速修改
+    
+    private static final BandwidthLimiter INSTANCE = new BandwidthLimiter();
+    
+    private final Bucket globalBucket = new Bucket();
+    private final AtomicLong activeWeight = new AtomicLong();
+    private final long burstMillis;
+    private volatile long bytesPerSecond;
+    
+    /**
+     * 单个任务的限速租约
+     * 任务开始下载时申请，结束后释放
+     */
+    public static final class Lease implements AutoCloseable {
+        private final BandwidthLimiter limiter;
+        private final int weight;
+        private final Bucket bucket = new Bucket();
+        private volatile boolean closed;
+        
+        private Lease(BandwidthLimiter limiter, int weight) {
+            this.limiter = limiter;
+            this.weight = weight;
+        }
+        
+        public int getWeight() {
+            return weight;
+        }
+        
+        /**
+         * 全局带宽用满时该租约按权重分到的速率（字节/秒），不限速时返回0
+         */
+        public long getFairShare() {
+            long rate = limiter.bytesPerSecond;
+            long totalWeight = limiter.activeWeight.get();
+            return rate > 0 ? rate * weight / Math.max(weight, totalWeight) : 0;
+        }
+        
+        /**
+         * 读取数据后调用，超出限速时阻塞当前线程
+         * @param bytes 本次读取的字节数
+         */
+        public void acquire(long bytes) {
+            limiter.acquire(this, bytes);
+        }
+        
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                limiter.activeWeight.addAndGet(-weight);
+            }
+        }
+    }
+    
+    /**
+     * 无锁的GCRA令牌桶状态
+     */
+    private static final class Bucket {
+        private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+        
+        /**
+         * 预约发送bytes字节所需的时间
+         * @param nanosPerByte 每字节耗时
+         * @param burstNanos 允许的突发时间
+         * @return 需要等待的纳秒数
+         */
+        long reserve(long bytes, double nanosPerByte, long burstNanos) {
+            long cost = (long) (bytes * nanosPerByte);
+            while (true) {
+                long now = System.nanoTime();
+                long current = theoreticalArrival.get();
+                long start = Math.max(current, now - burstNanos);
+                if (theoreticalArrival.compareAndSet(current, start + cost)) {
+                    return Math.max(0, start - now);
+                }
+            }
+        }
+        
+        /**
+         * 桶当前是否空闲（没有积压的预约）
+         */
+        boolean isIdle() {
+            return theoreticalArrival.get() <= System.nanoTime();
+        }
+        
+        void reset() {
+            theoreticalArrival.set(System.nanoTime());
+        }
+    }
+    
+    private BandwidthLimiter() {
+        this.burstMillis = Math.max(0, Long.getLong("hcmp.download.burstMillis", DEFAULT_BURST_MILLIS));
+        setBytesPerSecond(Math.max(0, Long.getLong("hcmp.download.bandwidthLimit", 0L)));
+    }
+    
+    /**
+     * 获取全局限速器实例
+     */
+    public static BandwidthLimiter getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 修改全局限速
+     * @param bytesPerSecond 每秒字节数，0表示不限速
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        long rate = Math.max(0, bytesPerSecond);
+        if (rate == this.bytesPerSecond) {
+            return;
+        }
+        this.bytesPerSecond = rate;
+        // 重新开始计算，避免旧限速下的积压影响新限速
+        globalBucket.reset();
+        ApplicationLogger.logInfo("下载限速: {}", rate > 0 ? rate / 1024 + " KB/s" : "不限速");
+    }
+    
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+    
+    /**
+     * 为下载任务申请租约
+     * @param weight 任务权重，小于1时按1处理
+     */
+    public Lease register(int weight) {
+        Lease lease = new Lease(this, Math.max(1, weight));
+        activeWeight.addAndGet(lease.weight);
+        return lease;
+    }
+    
+    private void acquire(Lease lease, long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0 || bytes <= 0) {
+            return;
+        }
+        
+        double nanosPerByte = 1_000_000_000.0 / rate;
+        long burstNanos = burstMillis * 1_000_000L;
+        
+        // 全局带宽饱和时，先按权重份额限制任务自身的速率，
+        // 等到份额允许后再占用全局令牌，避免等待中的任务占着全局带宽
+        long totalWeight = Math.max(lease.weight, activeWeight.get());
+        if (totalWeight > lease.weight && !globalBucket.isIdle()) {
+            double shareNanosPerByte = nanosPerByte * totalWeight / lease.weight;
+            park(lease.bucket.reserve(bytes, shareNanosPerByte, burstNanos));
+            rate = bytesPerSecond;
+            if (rate <= 0) {
+                return;
+            }
+            nanosPerByte = 1_000_000_000.0 / rate;
+        }
+        park(globalBucket.reserve(bytes, nanosPerByte, burstNanos));
+    }
+    
+    private void park(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+            remaining = deadline - System.nanoTime();
+            if (bytesPerSecond == 0) {
+                // 等待期间取消了限速
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * NIO数据传输工具
+ * 从响应流直接读入按吞吐量调整大小的缓冲区，再按位置写入FileChannel，
+ * 避免BufferedInputStream、byte[]和BufferedOutputStream之间的多次堆内复制。
+ *
+ * @author AeterHilrin
+ */
+public final class ChannelTransfer {
+    
+    private ChannelTransfer() {
+    }
+    
+    /**
+     * 把缓冲区剩余的数据全部写入文件指定位置
+     * @return 写入的字节数
+     */
+    public static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+        return length;
+    }
+    
+    /**
+     * 把文件扩展到指定长度，使按位置写入和续传时的长度检查不依赖写入顺序
+     * 只修改文件长度，多数文件系统上得到的是稀疏文件，磁盘空间仍在写入时才分配
+     * @param channel 文件通道
+     * @param size 文件大小，小于等于当前长度时不处理
+     */
+    public static void extendTo(FileChannel channel, long size) throws IOException {
+        if (size > channel.size()) {
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            writeFully(channel, lastByte, size - 1);
+        }
+    }
+    
+    /**
+     * 自适应缓冲区大小的读取器
+     * 每隔一段时间根据观察到的吞吐量调整缓冲区大小，使每次读取约为20ms的数据量：
+     * 慢速连接使用小缓冲区，快速连接使用大缓冲区减少系统调用次数。
+     * 数据直接从响应流读入堆数组再包装为ByteBuffer，不经过Channels.newChannel的8KB中转，
+     * 哈希和解压可以直接使用数组，写入FileChannel时由JDK复制一次到临时直接缓冲区。
+     * 每批数据都要经过限速、哈希和边下边解压，所以不使用FileChannel.transferFrom。
+     */
+    public static class Reader implements Closeable {
+        private static final int DEFAULT_INITIAL_SIZE = 64 * 1024;
+        private static final long ADJUST_INTERVAL_NANOS = 200_000_000L; // 每200ms调整一次
+        private static final double BUFFER_SECONDS = 0.02; // 缓冲区容纳约20ms的数据
+        
+        private final InputStream source;
+        private byte[] array;
+        private ByteBuffer buffer;
+        private boolean endOfStream;
+        private long windowStart;
+        private long windowBytes;
+        
+        public Reader(InputStream source) {
+            this.source = source;
+            allocate(DirectBufferPool.normalize(
+                Integer.getInteger("hcmp.download.bufferSize", DEFAULT_INITIAL_SIZE)));
+            this.windowStart = System.nanoTime();
+        }
+        
+        /**
+         * 读取一批数据
+         * 第一次读取阻塞到有数据为止，之后把已经到达的数据一起取走，直到缓冲区满
+         * @return 包含已读数据的缓冲区（下次read前有效），读到末尾时返回null
+         */
+        public ByteBuffer read() throws IOException {
+            if (endOfStream) {
+                return null;
+            }
+            adjustBufferSize();
+            
+            int count;
+            do {
+                count = source.read(array, 0, array.length);
+            } while (count == 0);
+            if (count < 0) {
+                endOfStream = true;
+                return null;
+            }
+            
+            while (count < array.length && source.available() > 0) {
+                int bytesRead = source.read(array, count, array.length - count);
+                if (bytesRead < 0) {
+                    // 先交出已读的数据，下次read再返回null
+                    endOfStream = true;
+                    break;
+                }
+                count += bytesRead;
+            }
+            
+            windowBytes += count;
+            buffer.clear();
+            buffer.limit(count);
+            return buffer;
+        }
+        
+        /**
+         * 当前缓冲区大小
+         */
+        public int getBufferSize() {
+            return array.length;
+        }
+        
+        private void allocate(int size) {
+            array = new byte[size];
+            buffer = ByteBuffer.wrap(array);
+        }
+        
+        private void adjustBufferSize() {
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (elapsed < ADJUST_INTERVAL_NANOS) {
+                return;
+            }
+            
+            double bytesPerSecond = windowBytes * 1_000_000_000.0 / elapsed;
+            int target = DirectBufferPool.normalize((int) Math.min(Integer.MAX_VALUE, bytesPerSecond * BUFFER_SECONDS));
+            if (target != array.length) {
+                allocate(target);
+            }
+            windowStart = now;
+            windowBytes = 0;
+        }
+        
+        /**
+         * 释放缓冲区，不关闭数据源（由响应负责关闭）
+         */
+        @Override
+        public void close() {
+            array = null;
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 组合直链解析器
+ * 维护多个解析后端的延迟和错误率统计，按健康度排序调用：
+ * 主后端超过延迟分位数仍未返回时，向下一个后端发送对冲请求，取最先成功的结果；
+ * 主后端临时失败（网络错误、限流等）时立即切换到下一个后端；
+ * 链接失效、密码错误等确定性失败换一个后端结果也一样，直接返回。
+ *
+ * @author AeterHilrin
+ */
+public class CompositeLinkResolver implements LinkResolver {
+    
+    private static final int LATENCY_SAMPLE_SIZE = 64; // 每个后端保留的延迟样本数
+    private static final int MIN_SAMPLES_FOR_PERCENTILE = 5; // 计算分位数所需最少样本数
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 2000; // 样本不足时的对冲延迟
+    private static final long MIN_HEDGE_DELAY_MILLIS = 200;
+    private static final long MAX_HEDGE_DELAY_MILLIS = 10000;
+    private static final double ERROR_RATE_ALPHA = 0.2; // 错误率指数移动平均系数
+    private static final double DEFAULT_HEDGE_PERCENTILE = 0.9;
+    
+    private final List<Backend> backends;
+    private final ExecutorService executor;
+    private final double hedgePercentile;
+    
+    /**
+     * 单个解析后端及其统计信息
+     */
+    private static class Backend {
+        private final LinkResolver resolver;
+        private final long[] latencySamples = new long[LATENCY_SAMPLE_SIZE];
+        private int sampleCount;
+        private int sampleIndex;
+        private double errorRate;
+        private long totalCalls;
+        private long totalErrors;
+        
+        Backend(LinkResolver resolver) {
+            this.resolver = resolver;
+        }
+        
+        synchronized void record(long latencyMillis, boolean error) {
+            latencySamples[sampleIndex] = latencyMillis;
+            sampleIndex = (sampleIndex + 1) % LATENCY_SAMPLE_SIZE;
+            sampleCount = Math.min(sampleCount + 1, LATENCY_SAMPLE_SIZE);
+            errorRate = errorRate * (1 - ERROR_RATE_ALPHA) + (error ? ERROR_RATE_ALPHA : 0);
+            totalCalls++;
+            if (error) {
+                totalErrors++;
+            }
+        }
+        
+        /**
+         * 获取延迟分位数，样本不足时返回-1
+         */
+        synchronized long latencyPercentile(double percentile) {
+            if (sampleCount < MIN_SAMPLES_FOR_PERCENTILE) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(latencySamples, sampleCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * sampleCount) - 1;
+            return sorted[Math.max(0, Math.min(index, sampleCount - 1))];
+        }
+        
+        synchronized double getErrorRate() {
+            return errorRate;
+        }
+        
+        /**
+         * 健康度评分，越小越优先
+         */
+        double score() {
+            long median = latencyPercentile(0.5);
+            double latency = median >= 0 ? median : DEFAULT_HEDGE_DELAY_MILLIS;
+            return latency * (1 + 4 * getErrorRate());
+        }
+        
+        @Override
+        public synchronized String toString() {
+            return String.format("%s(调用: %d, 失败: %d, 错误率: %.2f)",
+                resolver.getName(), totalCalls, totalErrors, errorRate);
+        }
+    }
+    
+    /**
+     * 单次解析尝试的结果
+     */
+    private static class Attempt {
+        private final Backend backend;
+        private final LanzouApiClient.ApiResponse response;
+        
+        Attempt(Backend backend, LanzouApiClient.ApiResponse response) {
+            this.backend = backend;
+            this.response = response;
+        }
+    }
+    
+    public CompositeLinkResolver(List<LinkResolver> resolvers) {
+        if (resolvers == null || resolvers.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个解析后端");
+        }
+        
+        this.backends = new ArrayList<>();
+        for (LinkResolver resolver : resolvers) {
+            backends.add(new Backend(resolver));
+        }
+        
+        double percentile = DEFAULT_HEDGE_PERCENTILE;
+        try {
+            percentile = Double.parseDouble(System.getProperty("hcmp.resolver.hedgePercentile",
+                String.valueOf(DEFAULT_HEDGE_PERCENTILE)));
+        } catch (NumberFormatException e) {
+            // 使用默认值
+        }
+        this.hedgePercentile = Math.max(0.5, Math.min(0.99, percentile));
+        
+        this.executor = ExecutionMode.newUnboundedExecutor("link-resolver", new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(0);
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "link-resolver-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    @Override
+    public String getName() {
+        StringBuilder sb = new StringBuilder("composite[");
+        for (int i = 0; i < backends.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(backends.get(i).resolver.getName());
+        }
+        return sb.append("]").toString();
+    }
+    
+    @Override
+    public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag) {
+        List<Backend> ordered = new ArrayList<>(backends);
+        ordered.sort(Comparator.comparingDouble(Backend::score));
+        
+        if (ordered.size() == 1) {
+            return invoke(ordered.get(0), lanzouUrl, password, taskTag, new AtomicBoolean(false)).response;
+        }
+        
+        CompletionService<Attempt> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Attempt>> futures = new ArrayList<>();
+        AtomicBoolean settled = new AtomicBoolean(false);
+        LanzouApiClient.ApiResponse lastFailure = null;
+        int nextBackend = 0;
+        int inFlight = 0;
+        
+        try {
+            futures.add(submit(completionService, ordered.get(nextBackend++), lanzouUrl, password, taskTag, settled));
+            inFlight++;
+            long hedgeDelay = hedgeDelayMillis(ordered.get(0));
+            
+            while (inFlight > 0) {
+                Future<Attempt> done;
+                if (nextBackend < ordered.size()) {
+                    done = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        // 超过延迟分位数仍未返回，发送对冲请求
+                        Backend hedge = ordered.get(nextBackend++);
+                        ApplicationLogger.logInfo("[{}] 解析超过 {}ms 未返回，向 {} 发送对冲请求",
+                            LanzouApiClient.shortTag(taskTag), hedgeDelay, hedge.resolver.getName());
+                        futures.add(submit(completionService, hedge, lanzouUrl, password, taskTag, settled));
+                        inFlight++;
+                        hedgeDelay = hedgeDelayMillis(hedge);
+                        continue;
+                    }
+                } else {
+                    done = completionService.take();
+                }
+                
+                inFlight--;
+                Attempt attempt = done.get();
+                if (attempt.response.isSuccess()) {
+                    return attempt.response;
+                }
+                
+                if (!attempt.response.isRetryable()) {
+                    // 确定性失败，不再等待或调用其他后端
+                    return attempt.response;
+                }
+                lastFailure = attempt.response;
+                
+                // 临时失败时立即切换到下一个后端
+                if (nextBackend < ordered.size()) {
+                    Backend failover = ordered.get(nextBackend++);
+                    ApplicationLogger.logWarn("[{}] {} 解析失败，切换到 {}: {}",
+                        LanzouApiClient.shortTag(taskTag), attempt.backend.resolver.getName(),
+                        failover.resolver.getName(), attempt.response.getErrorMessage());
+                    futures.add(submit(completionService, failover, lanzouUrl, password, taskTag, settled));
+                    inFlight++;
+                    hedgeDelay = hedgeDelayMillis(failover);
+                }
+            }
+        
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new LanzouApiClient.ApiResponse(false, null, null, 0, "解析被中断", true);
+        } catch (ExecutionException e) {
+            return new LanzouApiClient.ApiResponse(false, null, null, 0,
+                "解析异常: " + e.getCause().getMessage(), true);
+        } finally {
+            // 取消仍在进行的请求（其延迟仍会计入统计）
+            settled.set(true);
+            for (Future<Attempt> future : futures) {
+                future.cancel(true);
+            }
+        }
+        
+        return lastFailure;
+    }
+    
+    /**
+     * 提交一次解析尝试
+     */
+    private Future<Attempt> submit(CompletionService<Attempt> completionService, Backend backend,
+                                   String lanzouUrl, String password, String taskTag,
+                                   AtomicBoolean settled) {
+        return completionService.submit(() -> invoke(backend, lanzouUrl, password, taskTag, settled));
+    }
+    
+    /**
+     * 调用单个后端并记录统计信息
+     */
+    private Attempt invoke(Backend backend, String lanzouUrl, String password, String taskTag,
+                           AtomicBoolean settled) {
+        long startTime = System.currentTimeMillis();
+        LanzouApiClient.ApiResponse response;
+        
+        try {
+            response = backend.resolver.resolve(lanzouUrl, password, taskTag);
+        } catch (Exception e) {
+            response = new LanzouApiClient.ApiResponse(false, null, null, 0,
+                backend.resolver.getName() + " 解析异常: " + e.getMessage(), true);
+        }
+        
+        if (response == null) {
+            response = new LanzouApiClient.ApiResponse(false, null, null, 0,
+                backend.resolver.getName() + " 未返回结果", true);
+        }
+        
+        // 只有临时失败计入后端错误率，密码错误等确定性失败与后端健康无关；
+        // 其他后端已返回结果后才结束（被取消）的请求只记录延迟
+        boolean error = !response.isSuccess() && response.isRetryable() && !settled.get();
+        backend.record(System.currentTimeMillis() - startTime, error);
+        return new Attempt(backend, response);
+    }
+    
+    /**
+     * 计算对冲延迟：后端延迟的指定分位数
+     */
+    private long hedgeDelayMillis(Backend backend) {
+        long percentile = backend.latencyPercentile(hedgePercentile);
+        if (percentile < 0) {
+            return DEFAULT_HEDGE_DELAY_MILLIS;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, Math.min(MAX_HEDGE_DELAY_MILLIS, percentile));
+    }
+    
+    /**
+     * 获取各后端统计信息
+     */
+    public List<String> getBackendStats() {
+        List<String> stats = new ArrayList<>();
+        for (Backend backend : backends) {
+            stats.add(backend.toString());
+        }
+        return stats;
+    }
+}
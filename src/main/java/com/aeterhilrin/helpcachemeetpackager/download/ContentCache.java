@@ -0,0 +1,433 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.MemoryTier;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按内容寻址的本地下载缓存
+ * 下载完成并校验后的文件按SHA-256存放在分片目录中（objects/ab/cd/abcd...），
+ * 同时按来源（链接+密码）建立索引。再次下载时先按配置中的哈希查找，没有哈希时按来源查找，
+ * 命中的任务不需要解析直链，也不需要联网。
+ * 索引是每行一个条目的文本文件，启动时只读索引，不检查对象文件；对象文件丢失时在查找时剔除。
+ * 缓存总大小超过上限（hcmp.cache.maxBytes）时按最近使用时间淘汰。
+ *
+ * @author AeterHilrin
+ */
+public class ContentCache {
+    
+    private static final String CACHE_DIR = "Cache/content"; // 缓存目录（不会被临时文件清理）
+    private static final String OBJECTS_DIR = "objects";
+    private static final String INDEX_FILE = "index.tsv";
+    private static final String INDEX_HEADER = "# hcmp-content-cache 1";
+    private static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024 * 1024; // 默认上限4GB
+    
+    private static volatile ContentCache instance;
+    
+    private final Path root;
+    private final Path indexFile;
+    private final boolean enabled;
+    private final Map<String, Entry> bySha = new HashMap<>();
+    private final Map<String, String> bySource = new HashMap<>(); // 来源键 -> SHA-256
+    private volatile long maxBytes;
+    private long totalBytes;
+    
+    /**
+     * 缓存条目
+     */
+    public static final class Entry {
+        private final String sha256;
+        private final String fastHash;
+        private final long size;
+        private final String fileName;
+        private final Set<String> sources = new LinkedHashSet<>();
+        private long lastAccess;
+        
+        Entry(String sha256, String fastHash, long size, String fileName, long lastAccess) {
+            this.sha256 = sha256;
+            this.fastHash = fastHash;
+            this.size = size;
+            this.fileName = fileName;
+            this.lastAccess = lastAccess;
+        }
+        
+        public String getSha256() { return sha256; }
+        public String getFastHash() { return fastHash; }
+        public long getSize() { return size; }
+        public String getFileName() { return fileName; }
+        
+        String toLine() {
+            return sha256 + '\t' + fastHash + '\t' + size + '\t' + lastAccess + '\t'
+                + fileName + '\t' + String.join(",", sources);
+        }
+        
+        static Entry fromLine(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 6 || ContentHasher.normalizeSha256(fields[0]) == null) {
+                return null;
+            }
+            try {
+                Entry entry = new Entry(fields[0], fields[1], Long.parseLong(fields[2]),
+                    fields[4], Long.parseLong(fields[3]));
+                for (String source : fields[5].split(",")) {
+                    if (!source.isEmpty()) {
+                        entry.sources.add(source);
+                    }
+                }
+                return entry;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * 获取全局共享的下载缓存
+     */
+    public static ContentCache getInstance() {
+        if (instance == null) {
+            synchronized (ContentCache.class) {
+                if (instance == null) {
+                    instance = new ContentCache(Paths.get(System.getProperty("hcmp.cache.dir", CACHE_DIR)),
+                        Boolean.parseBoolean(System.getProperty("hcmp.cache.enabled", "true")));
+                }
+            }
+        }
+        return instance;
+    }
+    
+    public ContentCache(Path root, boolean enabled) {
+        this.root = root;
+        this.indexFile = root.resolve(INDEX_FILE);
+        this.enabled = enabled;
+        this.maxBytes = Math.max(0, Long.getLong("hcmp.cache.maxBytes", DEFAULT_MAX_BYTES));
+        if (enabled) {
+            loadIndex();
+        }
+    }
+    
+    public boolean isEnabled() {
+        return enabled && maxBytes > 0;
+    }
+    
+    /**
+     * 设置缓存总大小上限，0表示不再写入缓存
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        if (evict(null)) {
+            saveIndex();
+        }
+    }
+    
+    /**
+     * 查找任务对应的缓存，不更新使用时间
+     * 配置了哈希时只按哈希查找；否则按来源查找，已知文件大小时还要求大小一致
+     * @return 缓存条目，未命中时返回null
+     */
+    public synchronized Entry find(DownloadTask task) {
+        if (!isEnabled()) {
+            return null;
+        }
+        
+        String sha256 = task.getExpectedSha256();
+        if (sha256 == null) {
+            sha256 = bySource.get(sourceKey(task));
+        }
+        Entry entry = sha256 != null ? bySha.get(sha256) : null;
+        if (entry == null) {
+            return null;
+        }
+        if (task.getExpectedSha256() == null && task.getFileSize() > 0 && task.getFileSize() != entry.size) {
+            // 来源上的文件已经变化
+            return null;
+        }
+        
+        Path object = objectPath(entry.sha256);
+        try {
+            if (Files.size(object) == entry.size) {
+                return entry;
+            }
+        } catch (IOException e) {
+            // 对象文件丢失
+        }
+        ApplicationLogger.logWarn("缓存文件丢失或已损坏，移除: {}", entry.sha256);
+        remove(entry);
+        saveIndex();
+        return null;
+    }
+    
+    /**
+     * 把缓存的文件放到目标位置，优先使用硬链接，不支持时复制
+     * @param entry find返回的缓存条目
+     * @param target 目标文件，已存在时覆盖
+     */
+    public void materialize(Entry entry, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        Path object = objectPath(entry.sha256);
+        if (!tryLink(target, object)) {
+            Path tempFile = target.resolveSibling(target.getFileName() + ".cache.tmp");
+            Files.copy(object, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        
+        synchronized (this) {
+            entry.lastAccess = System.currentTimeMillis();
+            saveIndex();
+        }
+    }
+    
+    /**
+     * 把下载完成并计算过哈希的文件加入缓存
+     * 失败只记录日志，不影响下载结果
+     * @param task 已记录哈希的下载任务
+     * @param file 下载完成的文件
+     * @param fileName 文件的实际名称
+     */
+    public void store(DownloadTask task, Path file, String fileName) {
+        store(task, file, null, fileName);
+    }
+    
+    /**
+     * 把下载到内存暂存中并计算过哈希的文件加入缓存
+     * 失败只记录日志，不影响下载结果
+     * @param task 已记录哈希的下载任务
+     * @param buffer 下载完成的内存暂存
+     * @param fileName 文件的实际名称
+     */
+    public void store(DownloadTask task, MemoryTier.Buffer buffer, String fileName) {
+        store(task, null, buffer, fileName);
+    }
+    
+    private void store(DownloadTask task, Path file, MemoryTier.Buffer buffer, String fileName) {
+        String sha256 = task.getSha256();
+        if (!isEnabled() || sha256 == null) {
+            return;
+        }
+        
+        try {
+            long size = file != null ? Files.size(file) : buffer.getSize();
+            if (size > maxBytes) {
+                return;
+            }
+            
+            Path object = objectPath(sha256);
+            synchronized (this) {
+                Entry existing = bySha.get(sha256);
+                if (existing != null && Files.exists(object)) {
+                    addSource(existing, sourceKey(task));
+                    existing.lastAccess = System.currentTimeMillis();
+                    saveIndex();
+                    return;
+                }
+            }
+            
+            // 复制可能较慢，在锁外进行，完成后再原子移动到位
+            Files.createDirectories(object.getParent());
+            if (!Files.exists(object) && (file == null || !tryLink(object, file))) {
+                Path tempFile = object.resolveSibling(sha256 + ".tmp");
+                if (file != null) {
+                    Files.copy(file, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    try (InputStream in = buffer.openStream()) {
+                        Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                try {
+                    Files.move(tempFile, object, StandardCopyOption.REPLACE_EXISTING,
+                              StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Files.move(tempFile, object, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            
+            synchronized (this) {
+                Entry entry = bySha.get(sha256);
+                if (entry == null) {
+                    entry = new Entry(sha256, task.getFastHash(), size, sanitize(fileName), System.currentTimeMillis());
+                    bySha.put(sha256, entry);
+                    totalBytes += size;
+                }
+                addSource(entry, sourceKey(task));
+                evict(entry);
+                saveIndex();
+            }
+            ApplicationLogger.logInfo("[{}] 已加入下载缓存: {} ({} 字节)",
+                LanzouApiClient.shortTag(task.getTaskId()), sha256, size);
+        
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("[{}] 加入下载缓存失败: {}",
+                LanzouApiClient.shortTag(task.getTaskId()), e.getMessage());
+        }
+    }
+    
+    /**
+     * 缓存条目数
+     */
+    public synchronized int size() {
+        return bySha.size();
+    }
+    
+    /**
+     * 缓存文件总大小
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+    
+    private void addSource(Entry entry, String source) {
+        String previous = bySource.put(source, entry.sha256);
+        if (previous != null && !previous.equals(entry.sha256)) {
+            // 同一来源的内容已经变化，旧内容仍可按哈希命中
+            Entry old = bySha.get(previous);
+            if (old != null) {
+                old.sources.remove(source);
+            }
+        }
+        entry.sources.add(source);
+    }
+    
+    /**
+     * 按最近使用时间淘汰，直到总大小不超过上限
+     * @param keep 不淘汰的条目（刚加入的条目）
+     * @return 是否淘汰了条目
+     */
+    private boolean evict(Entry keep) {
+        if (totalBytes <= maxBytes) {
+            return false;
+        }
+        List<Entry> candidates = new ArrayList<>(bySha.values());
+        candidates.sort(Comparator.comparingLong(entry -> entry.lastAccess));
+        boolean evicted = false;
+        for (Entry entry : candidates) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            if (entry == keep) {
+                continue;
+            }
+            remove(entry);
+            evicted = true;
+            ApplicationLogger.logInfo("下载缓存超过上限，淘汰: {} ({} 字节)", entry.sha256, entry.size);
+        }
+        return evicted;
+    }
+    
+    private void remove(Entry entry) {
+        if (bySha.remove(entry.sha256) == null) {
+            return;
+        }
+        totalBytes -= entry.size;
+        for (String source : entry.sources) {
+            bySource.remove(source, entry.sha256);
+        }
+        try {
+            Files.deleteIfExists(objectPath(entry.sha256));
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("删除缓存文件失败: {} - {}", entry.sha256, e.getMessage());
+        }
+    }
+    
+    /**
+     * 对象文件路径，按哈希前两级分片，避免单个目录下文件过多
+     */
+    private Path objectPath(String sha256) {
+        return root.resolve(OBJECTS_DIR).resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+    
+    private static String sourceKey(DownloadTask task) {
+        return ResolveCache.buildKey(task.getOriginalUrl(), task.getPassword());
+    }
+    
+    private static String sanitize(String fileName) {
+        return fileName == null ? "" : fileName.replaceAll("[\\t\\r\\n]", " ");
+    }
+    
+    /**
+     * 创建硬链接，文件系统不支持时返回false
+     */
+    private static boolean tryLink(Path link, Path existing) {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 读取索引
+     */
+    private void loadIndex() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!INDEX_HEADER.equals(line)) {
+                ApplicationLogger.logWarn("下载缓存索引版本不匹配，忽略: {}", indexFile);
+                return;
+            }
+            while ((line = reader.readLine()) != null) {
+                Entry entry = Entry.fromLine(line);
+                if (entry == null || bySha.containsKey(entry.sha256)) {
+                    continue;
+                }
+                bySha.put(entry.sha256, entry);
+                totalBytes += entry.size;
+                for (String source : entry.sources) {
+                    bySource.put(source, entry.sha256);
+                }
+            }
+            ApplicationLogger.logInfo("加载下载缓存索引，条目数: {}，总大小: {} 字节", bySha.size(), totalBytes);
+        
+        } catch (Exception e) {
+            ApplicationLogger.logWarn("读取下载缓存索引失败: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 写入索引，先写临时文件再原子替换
+     */
+    private void saveIndex() {
+        try {
+            Files.createDirectories(root);
+            Path tempFile = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(INDEX_HEADER);
+                writer.newLine();
+                for (Entry entry : bySha.values()) {
+                    writer.write(entry.toLine());
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING,
+                          StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception e) {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        
+        } catch (Exception e) {
+            ApplicationLogger.logWarn("写入下载缓存索引失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.XxHash64;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 下载内容哈希
+ * 在写入文件的同时计算SHA-256（用于校验）和XXH64（用于缓存键），不需要再读一遍文件。
+ *
+ * @author AeterHilrin
+ */
+public class ContentHasher {
+    
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final Pattern SHA256_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    
+    private final MessageDigest sha256;
+    private final XxHash64 fastHash = new XxHash64();
+    private long length;
+    
+    public ContentHasher() {
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // 所有Java平台都必须支持SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * 追加缓冲区中剩余的数据，不改变缓冲区的位置
+     */
+    public void update(ByteBuffer buffer) {
+        fastHash.update(buffer);
+        length += buffer.remaining();
+        sha256.update(buffer.duplicate());
+    }
+    
+    public void update(byte[] data, int offset, int count) {
+        update(ByteBuffer.wrap(data, offset, count));
+    }
+    
+    /**
+     * 从文件中读取指定范围追加（续传时补上已经写入的部分）
+     */
+    public void update(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = DirectBufferPool.acquire(READ_BUFFER_SIZE);
+        try {
+            long position = from;
+            while (position < to) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), to - position));
+                int bytesRead = channel.read(buffer, position);
+                if (bytesRead < 0) {
+                    throw new IOException("文件长度不足，无法计算哈希: " + position + "/" + to);
+                }
+                buffer.flip();
+                update(buffer);
+                position += bytesRead;
+            }
+        } finally {
+            DirectBufferPool.release(buffer);
+        }
+    }
+    
+    /**
+     * 计算整个文件的哈希（分段下载的数据不是按顺序到达的，只能在下载完成后计算）
+     */
+    public static ContentHasher ofFile(Path file) throws IOException {
+        ContentHasher hasher = new ContentHasher();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            hasher.update(channel, 0, channel.size());
+        }
+        return hasher;
+    }
+    
+    /**
+     * 已追加的字节数
+     */
+    public long getLength() {
+        return length;
+    }
+    
+    /**
+     * 结束计算，返回结果
+     */
+    public Result finish() {
+        byte[] digest = sha256.digest();
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return new Result(hex.toString(), fastHash.getHexValue(), length);
+    }
+    
+    /**
+     * 规范化用户填写的SHA-256：去掉空白和"sha256:"前缀，转为小写
+     * @return 规范化后的值，格式不正确时返回null
+     */
+    public static String normalizeSha256(String value) {
+        if (value == null) {
+            return null;
+        }
+        String normalized = value.trim().toLowerCase(Locale.ROOT);
+        if (normalized.startsWith("sha256:") || normalized.startsWith("sha-256:")) {
+            normalized = normalized.substring(normalized.indexOf(':') + 1).trim();
+        }
+        return SHA256_PATTERN.matcher(normalized).matches() ? normalized : null;
+    }
+    
+    /**
+     * 哈希结果
+     */
+    public static final class Result {
+        private final String sha256;
+        private final String fastHash;
+        private final long length;
+        
+        Result(String sha256, String fastHash, long length) {
+            this.sha256 = sha256;
+            this.fastHash = fastHash;
+            this.length = length;
+        }
+        
+        public String getSha256() { return sha256; }
+        public String getFastHash() { return fastHash; }
+        public long getLength() { return length; }
+        
+        /**
+         * 与期望的SHA-256比较
+         * @param expected 规范化后的期望值，为空时视为匹配
+         */
+        public boolean matches(String expected) {
+            return expected == null || expected.equals(sha256);
+        }
+        
+        /**
+         * 校验SHA-256
+         * @param expected 规范化后的期望值，为空时不校验
+         * @throws HashMismatchException 与期望值不一致
+         */
+        public void verify(String expected) throws HashMismatchException {
+            if (!matches(expected)) {
+                throw new HashMismatchException("SHA-256不一致，期望 " + expected + "，实际 " + sha256);
+            }
+        }
+    }
+    
+    /**
+     * 下载内容与配置中的哈希不一致
+     */
+    static class HashMismatchException extends IOException {
+        HashMismatchException(String message) {
+            super(message);
+        }
+    }
+}
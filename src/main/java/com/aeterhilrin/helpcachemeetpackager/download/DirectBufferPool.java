@@ -0,0 +1,85 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接缓冲区池
+ * 下载时反复申请和释放直接内存的开销较大，这里按2的幂大小分级缓存用过的缓冲区，
+ * 缓存总量不超过hcmp.download.bufferPoolBytes（默认16MB），超出时交给GC回收。
+ *
+ * @author AeterHilrin
+ */
+public final class DirectBufferPool {
+    
+    public static final int MIN_BUFFER_SIZE = 16 * 1024;
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    private static final long DEFAULT_POOL_BYTES = 16L * 1024 * 1024;
+    
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int MAX_SHIFT = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE);
+    
+    private static final List<Queue<ByteBuffer>> POOLS = new ArrayList<>();
+    private static final AtomicLong pooledBytes = new AtomicLong();
+    private static final long maxPooledBytes = Math.max(0,
+        Long.getLong("hcmp.download.bufferPoolBytes", DEFAULT_POOL_BYTES));
+    
+    static {
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            POOLS.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+    
+    private DirectBufferPool() {
+    }
+    
+    /**
+     * 把大小规整为池中的分级大小（2的幂，限制在最小和最大值之间）
+     */
+    public static int normalize(int size) {
+        int clamped = Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, size));
+        int highest = Integer.highestOneBit(clamped);
+        return highest == clamped ? clamped : Math.min(MAX_BUFFER_SIZE, highest << 1);
+    }
+    
+    /**
+     * 获取缓冲区，返回的缓冲区已清空
+     * @param size 期望大小，会被规整为分级大小
+     */
+    public static ByteBuffer acquire(int size) {
+        int normalized = normalize(size);
+        ByteBuffer buffer = POOLS.get(indexOf(normalized)).poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(normalized);
+        }
+        pooledBytes.addAndGet(-normalized);
+        buffer.clear();
+        return buffer;
+    }
+    
+    /**
+     * 归还缓冲区
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (capacity != normalize(capacity)) {
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        POOLS.get(indexOf(capacity)).offer(buffer);
+    }
+    
+    private static int indexOf(int normalizedSize) {
+        return Integer.numberOfTrailingZeros(normalizedSize) - MIN_SHIFT;
+    }
+}
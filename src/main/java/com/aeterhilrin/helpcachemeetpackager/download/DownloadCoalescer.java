@@ -0,0 +1,100 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 相同来源的下载合并
+ * 链接和密码都相同的任务（同一项目中的重复项，或同时运行的多个项目中的相同项）只下载一次：
+ * 第一个开始的任务负责下载，其余任务等待它结束，再以硬链接（不支持时复制）
+ * 得到带有自己前缀和后缀的文件。负责下载的任务失败或取消时，等待中的任务重新开始，
+ * 其中第一个接替负责下载。
+ *
+ * @author AeterHilrin
+ */
+public class DownloadCoalescer {
+    
+    private static final DownloadCoalescer INSTANCE = new DownloadCoalescer();
+    
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    
+    /**
+     * 正在进行的下载
+     */
+    private static final class Flight {
+        private final DownloadTask leader;
+        private final CompletableFuture<DownloadTask> result = new CompletableFuture<>();
+        
+        Flight(DownloadTask leader) {
+            this.leader = leader;
+        }
+    }
+    
+    private DownloadCoalescer() {
+    }
+    
+    /**
+     * 获取全局共享的下载合并器，多个下载管理器共用
+     */
+    public static DownloadCoalescer getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 加入任务来源对应的下载，没有正在进行的下载时由该任务负责
+     * @param task 下载任务
+     * @return 负责下载的任务结束时完成，成功时为该任务，失败或取消时为null；
+     *         当前任务自己负责下载时返回null
+     */
+    public CompletableFuture<DownloadTask> join(DownloadTask task) {
+        Flight flight = new Flight(task);
+        Flight existing = flights.putIfAbsent(keyOf(task), flight);
+        if (existing == null || existing.leader == task) {
+            return null;
+        }
+        return existing.result;
+    }
+    
+    /**
+     * 负责下载的任务结束时调用，唤醒等待中的任务；其他任务调用时没有作用
+     */
+    public void finish(DownloadTask task) {
+        String key = keyOf(task);
+        Flight flight = flights.get(key);
+        if (flight != null && flight.leader == task && flights.remove(key, flight)) {
+            flight.result.complete(task.isSuccessful() ? task : null);
+        }
+    }
+    
+    /**
+     * 下载来源键，与解析缓存使用相同的(链接, 密码)键
+     */
+    static String keyOf(DownloadTask task) {
+        return ResolveCache.buildKey(task.getOriginalUrl(), task.getPassword());
+    }
+    
+    /**
+     * 把已下载的文件放到目标位置，优先使用硬链接，不支持时复制
+     * @param source 负责下载的任务得到的文件
+     * @param target 目标文件，已存在时覆盖
+     */
+    static void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+            return;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            // 文件系统不支持硬链接，改为复制
+        }
+        Path tempFile = target.resolveSibling(target.getFileName() + ".copy.tmp");
+        Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,173 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载并发数自动调节器
+ * 定期统计所有下载任务的总吞吐量，按爬山法增减同时进行的下载数：
+ * 上一次调整使吞吐量提高时继续同方向调整，吞吐量下降时反向调整，持平时保持不变并定期试探。
+ * 初始值根据CPU核数和可用内存确定，项目配置可以指定固定的并发数。
+ *
+ * @author AeterHilrin
+ */
+public class DownloadConcurrencyTuner {
+    
+    public static final int MAX_CONCURRENCY = 32; // 并发数硬上限
+    private static final int DEFAULT_MIN_CONCURRENCY = 1;
+    private static final int DEFAULT_MAX_CONCURRENCY = 16;
+    private static final long DEFAULT_INTERVAL_MILLIS = 2000; // 采样间隔
+    private static final long MEMORY_PER_DOWNLOAD = 64L * 1024 * 1024; // 每个下载预留的内存
+    private static final double TOLERANCE = 0.05; // 吞吐量变化小于5%视为持平
+    private static final int PROBE_AFTER_FLAT_SAMPLES = 3; // 持平多少次后试探增加并发
+    
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService sampler;
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long intervalMillis;
+    
+    private int limit;
+    private int direction = 1;
+    private double lastThroughput = -1;
+    private int flatSamples;
+    private boolean fixed;
+    
+    public DownloadConcurrencyTuner(ThreadPoolExecutor executor) {
+        this.executor = executor;
+        this.minConcurrency = Math.max(1, Math.min(MAX_CONCURRENCY,
+            Integer.getInteger("hcmp.download.minConcurrency", DEFAULT_MIN_CONCURRENCY)));
+        this.maxConcurrency = Math.max(minConcurrency, Math.min(MAX_CONCURRENCY,
+            Integer.getInteger("hcmp.download.maxConcurrency", DEFAULT_MAX_CONCURRENCY)));
+        this.intervalMillis = Math.max(200, Long.getLong("hcmp.download.tuneIntervalMillis", DEFAULT_INTERVAL_MILLIS));
+        this.limit = executor.getCorePoolSize();
+        
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "download-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleWithFixedDelay(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 根据CPU核数和最大堆内存计算初始并发数
+     */
+    public static int initialConcurrency() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        long byMemory = Runtime.getRuntime().maxMemory() / MEMORY_PER_DOWNLOAD;
+        // 下载以等待网络为主，按核数的两倍加一（单核时与原来的固定值3相同）
+        int initial = (int) Math.min(processors * 2 + 1, byMemory);
+        int floor = Math.max(1, Integer.getInteger("hcmp.download.minConcurrency", DEFAULT_MIN_CONCURRENCY));
+        int ceiling = Math.max(floor, Math.min(MAX_CONCURRENCY,
+            Integer.getInteger("hcmp.download.maxConcurrency", DEFAULT_MAX_CONCURRENCY)));
+        return Math.max(floor, Math.min(ceiling, initial));
+    }
+    
+    /**
+     * 开始新一批下载前设置并发数
+     * @param configured 项目配置的并发数，0表示自动调节
+     */
+    public synchronized void configure(int configured) {
+        boolean wasFixed = fixed;
+        fixed = configured > 0;
+        direction = 1;
+        lastThroughput = -1;
+        flatSamples = 0;
+        transferredBytes.set(0);
+        
+        // 自动调节时沿用上一批下载调节后的并发数
+        int target = fixed ? configured : wasFixed ? initialConcurrency() : limit;
+        applyLimit(Math.max(minConcurrency, Math.min(maxConcurrency, target)));
+        ApplicationLogger.logInfo("下载并发数: {}{}", limit, fixed ? "（项目配置）" : "（自动调节）");
+    }
+    
+    /**
+     * 记录已下载的字节数
+     */
+    public void recordBytes(long bytes) {
+        transferredBytes.addAndGet(bytes);
+    }
+    
+    /**
+     * 获取当前并发数
+     */
+    public synchronized int getConcurrencyLimit() {
+        return limit;
+    }
+    
+    /**
+     * 采样一次吞吐量并调整并发数
+     */
+    private synchronized void sample() {
+        double throughput = transferredBytes.getAndSet(0) * 1000.0 / intervalMillis;
+        if (fixed || executor.getActiveCount() == 0) {
+            // 没有下载在进行时的吞吐量没有参考意义
+            lastThroughput = -1;
+            return;
+        }
+        
+        boolean backlog = !executor.getQueue().isEmpty();
+        if (lastThroughput < 0) {
+            lastThroughput = throughput;
+            if (backlog) {
+                step(1);
+            }
+            return;
+        }
+        
+        if (throughput < lastThroughput * (1 - TOLERANCE)) {
+            // 上一次调整使吞吐量下降，反向调整
+            direction = -direction;
+            flatSamples = 0;
+            step(direction);
+        } else if (throughput > lastThroughput * (1 + TOLERANCE)) {
+            // 吞吐量提高，继续同方向调整（还有排队任务时才增加）
+            flatSamples = 0;
+            if (direction < 0 || backlog) {
+                step(direction);
+            }
+        } else if (backlog && ++flatSamples >= PROBE_AFTER_FLAT_SAMPLES) {
+            // 持平一段时间后试探增加并发
+            flatSamples = 0;
+            direction = 1;
+            step(direction);
+        }
+        lastThroughput = throughput;
+    }
+    
+    private void step(int delta) {
+        int target = Math.max(minConcurrency, Math.min(maxConcurrency, limit + delta));
+        if (target != limit) {
+            ApplicationLogger.logInfo("下载并发数调整: {} -> {}", limit, target);
+            applyLimit(target);
+        }
+    }
+    
+    /**
+     * 修改线程池大小，减少时正在进行的下载完成后多余的线程才退出
+     */
+    private void applyLimit(int target) {
+        if (target > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(target);
+            executor.setCorePoolSize(target);
+        } else {
+            executor.setCorePoolSize(target);
+            executor.setMaximumPoolSize(target);
+        }
+        limit = target;
+    }
+    
+    /**
+     * 停止采样
+     */
+    public void shutdown() {
+        sampler.shutdownNow();
+    }
+}
@@ -4,53 +4,137 @@ import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
 import com.aeterhilrin.helpcachemeetpackager.model.FileInfo;
 import com.aeterhilrin.helpcachemeetpackager.model.ProjectConfig;
 import com.aeterhilrin.helpcachemeetpackager.file.FileRenamer;
+import com.aeterhilrin.helpcachemeetpackager.file.StreamingExtractor;
 import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.CancellationToken;
+import com.aeterhilrin.helpcachemeetpackager.util.MemoryTier;
 
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 下载管理器
  * 负责管理多个下载任务的执行
+ * 单独使用时自己创建线程池；在项目队列中运行时与其他项目共用DownloadPools，
+ * 解析和下载按项目公平分配线程，文件下载到TempFiles/projects/<项目名>。
  * 
  * @author AeterHilrin
  */
 public class DownloadManager {
     
-    private static final int MAX_CONCURRENT_DOWNLOADS = 3; // 最大并发下载数
-    private static final int DOWNLOAD_BUFFER_SIZE = 8192; // 下载缓冲区大小
     private static final String TEMP_DIR = "TempFiles"; // 临时文件目录
-    private static final String USER_AGENT = "HelpCacheMeetPackager/1.0.0";
+    private static final String PROJECTS_DIR = "projects"; // 项目队列中各项目的下载目录
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int MAX_RE_RESOLVES = 2; // 直链过期后最多重新解析次数
+    private static final int MAX_INTERRUPTIONS = 3; // 连接中断后最多续传次数
+    private static final int MAX_HASH_MISMATCHES = 1; // 哈希校验失败后最多重新下载次数
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final long DEFAULT_PART_RETENTION_DAYS = 7; // 部分下载文件保留天数
+    private static final int MEMORY_READ_CHUNK = 64 * 1024; // 下载到内存时每次读取的字节数
     
-    private final ExecutorService downloadExecutor;
+    private final DownloadPools pools;
+    private final boolean ownsPools; // 线程池由本管理器创建，关闭时一并关闭
+    private final FairShareExecutor.Lane downloadExecutor; // 本项目在共用下载线程池中的通道
+    private final FairShareExecutor.Lane resolveExecutor; // 本项目在共用解析线程池中的通道
+    private final Path filesDir; // 下载文件所在目录
+    private final DownloadScheduler scheduler;
+    private final DownloadConcurrencyTuner concurrencyTuner;
+    private final ProgressSampler progressSampler;
+    private final HttpTransport httpTransport;
+    private final TransferWatchdog transferWatchdog;
+    private final ResolveCache resolveCache;
+    private final ContentCache contentCache;
+    private final DownloadCoalescer coalescer; // 合并相同来源的下载，多个下载管理器共用
+    private final MemoryTier memoryTier; // 小文件的内存暂存，多个下载管理器共用预算
+    private final FileRenamer.NamePlan namePlan; // 下载目录中已分配的最终文件名
+    private final MirrorRace mirrorRace;
+    private final ResolveAheadStage resolveAheadStage;
+    private final SegmentedDownloader segmentedDownloader;
+    private volatile LinkResolver linkResolver;
     private final List<DownloadTask> tasks;
     private final AtomicInteger completedTasks;
-    private DownloadProgressListener progressListener;
-    private volatile boolean isCancelled = false;
+    private final ResolveGovernor.RetryListener retryListener;
+    private volatile DownloadProgressListener progressListener;
+    private volatile CancellationToken cancellation = new CancellationToken(); // 当前这批任务的取消令牌
+    private volatile boolean streamingExtraction; // 是否边下载边解压
+    private volatile ProjectConfig preparedConfig; // 已创建任务并开始预解析的配置
     
     /**
      * 下载进度监听器接口
      */
     public interface DownloadProgressListener {
         void onTaskStarted(DownloadTask task);
-        void onTaskProgress(DownloadTask task, long downloaded, long total);
+        /**
+         * 进度快照，由进度采样线程按固定频率调用
+         */
+        void onProgressSnapshot(ProgressSampler.Snapshot snapshot);
         void onTaskCompleted(DownloadTask task, FileInfo fileInfo);
         void onTaskFailed(DownloadTask task, String errorMessage);
+        void onTaskRetry(DownloadTask task, String reason);
         void onAllTasksCompleted(List<FileInfo> downloadedFiles);
         void onDownloadCancelled();
     }
     
     public DownloadManager() {
-        this.downloadExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_DOWNLOADS);
-        this.tasks = new ArrayList<>();
+        this(new DownloadPools(), true, null);
+    }
+    
+    /**
+     * 创建在项目队列中运行的下载管理器
+     * @param pools 多个项目共用的线程池，关闭本管理器时不关闭
+     * @param projectName 项目名称，用于公平分配线程和区分下载目录
+     */
+    public DownloadManager(DownloadPools pools, String projectName) {
+        this(pools, false, projectName);
+    }
+    
+    private DownloadManager(DownloadPools pools, boolean ownsPools, String projectName) {
+        this.pools = pools;
+        this.ownsPools = ownsPools;
+        String laneName = projectName != null ? projectName : "default";
+        // 排队的下载在本项目的通道中按调度器的顺序取出
+        this.scheduler = new DownloadScheduler();
+        this.downloadExecutor = pools.getDownloadExecutor().newLane(laneName);
+        this.resolveExecutor = pools.getResolveExecutor().newLane(laneName);
+        this.filesDir = projectName != null
+            ? Paths.get(TEMP_DIR, PROJECTS_DIR, sanitizeFileName(projectName))
+            : Paths.get(TEMP_DIR);
+        this.concurrencyTuner = pools.getConcurrencyTuner();
+        this.httpTransport = HttpTransport.getInstance();
+        this.transferWatchdog = TransferWatchdog.getInstance();
+        this.resolveCache = ResolveCache.getInstance();
+        this.contentCache = ContentCache.getInstance();
+        this.coalescer = DownloadCoalescer.getInstance();
+        this.memoryTier = MemoryTier.getInstance();
+        this.namePlan = new FileRenamer.NamePlan();
+        this.mirrorRace = pools.getMirrorRace();
+        this.resolveAheadStage = new ResolveAheadStage(resolveCache, httpTransport, mirrorRace,
+            resolveExecutor, pools.getPrefetchExecutor());
+        this.segmentedDownloader = pools.getSegmentedDownloader();
+        this.tasks = new CopyOnWriteArrayList<>();
+        this.progressSampler = new ProgressSampler(() -> tasks, snapshot -> {
+            DownloadProgressListener listener = progressListener;
+            if (listener != null) {
+                listener.onProgressSnapshot(snapshot);
+            }
+        });
+        this.retryListener = createRetryListener();
+        this.linkResolver = bindLinkResolver(null, LinkResolvers.getDefault());
         this.completedTasks = new AtomicInteger(0);
         
         // 创建临时目录
@@ -64,6 +148,85 @@ public class DownloadManager {
         this.progressListener = listener;
     }
     
+    /**
+     * 设置直链解析器
+     */
+    public void setLinkResolver(LinkResolver resolver) {
+        this.linkResolver = bindLinkResolver(linkResolver,
+            resolver != null ? resolver : LinkResolvers.getDefault());
+    }
+    
+    /**
+     * 切换解析器，并把重试监听器从旧的调控器转移到新的调控器上
+     */
+    private LinkResolver bindLinkResolver(LinkResolver oldResolver, LinkResolver newResolver) {
+        if (oldResolver instanceof ResolveGovernor) {
+            ((ResolveGovernor) oldResolver).removeRetryListener(retryListener);
+        }
+        if (newResolver instanceof ResolveGovernor) {
+            ((ResolveGovernor) newResolver).addRetryListener(retryListener);
+        }
+        return newResolver;
+    }
+    
+    /**
+     * 创建重试监听器，把调控器的重试事件关联到对应任务
+     */
+    private ResolveGovernor.RetryListener createRetryListener() {
+        return new ResolveGovernor.RetryListener() {
+            @Override
+            public void onResolveRetry(String taskTag, int attempt, long delayMillis, String reason) {
+                DownloadTask task = findTask(taskTag);
+                if (task == null) {
+                    return;
+                }
+                
+                task.recordRetry();
+                if (progressListener != null) {
+                    progressListener.onTaskRetry(task, reason);
+                }
+            }
+            
+            @Override
+            public void onCircuitStateChanged(ResolveGovernor.CircuitState state) {
+                ApplicationLogger.logInfo("解析接口熔断器状态: {}", state.getDescription());
+            }
+        };
+    }
+    
+    /**
+     * 根据任务ID查找任务
+     */
+    private DownloadTask findTask(String taskId) {
+        for (DownloadTask task : tasks) {
+            if (task.getTaskId().equals(taskId)) {
+                return task;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 加载配置后立即创建任务并开始预解析直链
+     * 随后对同一配置调用createTasksFromConfig时会复用这些任务
+     * @param config 项目配置
+     */
+    public void prepareTasks(ProjectConfig config) {
+        createTasksFromConfig(config);
+        
+        if (!tasks.isEmpty()) {
+            preparedConfig = config;
+            ApplicationLogger.logInfo("开始预解析直链，任务数: {}", tasks.size());
+            Set<String> sources = new HashSet<>();
+            for (DownloadTask task : scheduler.order(tasks)) {
+                // 已缓存的任务和重复的链接不需要解析直链
+                if (sources.add(DownloadCoalescer.keyOf(task)) && contentCache.find(task) == null) {
+                    resolveAheadStage.submit(task, linkResolver, cancellation);
+                }
+            }
+        }
+    }
+    
     /**
      * 从项目配置创建下载任务
      * @param config 项目配置
@@ -73,6 +236,14 @@ public class DownloadManager {
             return;
         }
         
+        // 同一配置已经在预解析，直接复用已创建的任务
+        if (config == preparedConfig && !tasks.isEmpty() && !cancellation.isCancelled()
+                && tasks.stream().noneMatch(DownloadTask::isFinished)) {
+            ApplicationLogger.logInfo("复用预解析的下载任务，项目: {}", config.getProjectName());
+            return;
+        }
+        preparedConfig = null;
+        
         // 先取消之前的任务（如果有）
         if (!tasks.isEmpty()) {
             ApplicationLogger.logInfo("检测到已存在的任务，清理中...");
@@ -80,8 +251,12 @@ public class DownloadManager {
         }
         
         tasks.clear();
+        namePlan.clear();
         completedTasks.set(0);
-        isCancelled = false;
+        cancellation = new CancellationToken();
+        
+        // 项目配置了额外的解析接口时，合并到解析器中
+        linkResolver = bindLinkResolver(linkResolver, LinkResolvers.forEndpoints(config.getResolverEndpoints()));
         
         ApplicationLogger.logInfo("创建新的下载任务，项目: {}, 任务数: {}", 
             config.getProjectName(), config.getItems().size());
@@ -93,8 +268,30 @@ public class DownloadManager {
                 item.getSuffix(),
                 item.getPassword()
             );
+            // 单个项目的分段数优先于项目级设置
+            task.setSegments(item.getSegments() > 0 ? item.getSegments() : config.getSegments());
+            task.setWeight(item.getWeight() > 0 ? item.getWeight() : 1);
+            task.setPriority(item.getPriority());
+            task.setExpectedSha256(ContentHasher.normalizeSha256(item.getExpectedHash()));
+            task.setMirrorUrls(item.getMirrors());
             tasks.add(task);
         }
+        
+        scheduler.configure(config.getSchedulePolicy());
+        streamingExtraction = StreamingExtractor.isEnabled(config.isStreamingExtraction());
+        
+        if (ownsPools) {
+            // 项目配置了并发下载数时固定使用，否则自动调节
+            concurrencyTuner.configure(config.getConcurrency());
+        } else {
+            // 共用线程池的大小按所有项目调节，项目配置的并发数只限制本项目同时下载的数量
+            downloadExecutor.setMaxRunning(config.getConcurrency());
+        }
+        
+        // 项目配置了限速时覆盖当前限速，之后仍可在界面中修改
+        if (config.getBandwidthLimit() > 0) {
+            BandwidthLimiter.getInstance().setBytesPerSecond(config.getBandwidthLimit() * 1024L);
+        }
     }
     
     /**
@@ -108,20 +305,195 @@ public class DownloadManager {
             return;
         }
         
-        isCancelled = false;
+        if (cancellation.isCancelled()) {
+            cancellation = new CancellationToken();
+        }
+        CancellationToken token = cancellation;
         completedTasks.set(0);
         
-        // 提交所有下载任务
-        for (DownloadTask task : tasks) {
-            downloadExecutor.submit(() -> executeDownloadTask(task));
+        // 直链解析在独立的预解析线程池中进行，解析完成后才占用下载线程，
+        // 解析和下载都按调度顺序进行；已缓存的任务直接从缓存取出，不解析也不联网
+        for (DownloadTask task : scheduler.order(tasks)) {
+            ContentCache.Entry cached = contentCache.find(task);
+            if (cached != null) {
+                downloadExecutor.execute(scheduler.schedule(task, () -> executeCachedTask(task, cached, token)));
+            } else {
+                startDownload(task, token);
+            }
+        }
+    }
+    
+    /**
+     * 配置中的所有任务是否都已缓存（此时整个下载过程不需要联网）
+     */
+    public boolean isFullyCached() {
+        return !tasks.isEmpty() && tasks.stream().allMatch(task -> contentCache.find(task) != null);
+    }
+    
+    /**
+     * 开始下载任务
+     * 相同链接和密码的任务（本项目或其他项目中）正在下载时，等它结束后复制结果，不再重复解析和下载
+     */
+    private void startDownload(DownloadTask task, CancellationToken token) {
+        CompletableFuture<DownloadTask> flight = coalescer.join(task);
+        if (flight == null) {
+            // 取消时立即结束本任务负责的下载，排队中的下载被丢弃时等待的任务（包括其他项目中的）也能接替
+            CancellationToken.Registration release = token.onCancel(() -> coalescer.finish(task));
+            submitDownload(task, token, () -> {
+                release.close();
+                coalescer.finish(task);
+            });
+            return;
+        }
+        
+        ApplicationLogger.logInfo("[{}] 相同链接正在下载，等待共用结果: {}",
+            LanzouApiClient.shortTag(task.getTaskId()), task.getOriginalUrl());
+        flight.whenComplete((leader, throwable) -> {
+            if (token.isCancelled()) {
+                return;
+            }
+            downloadExecutor.execute(scheduler.schedule(task, () -> executeCoalescedTask(task, leader, token)));
+        });
+    }
+    
+    /**
+     * 解析直链后提交下载，下载结束时唤醒等待相同链接的任务
+     * @param finishFlight 结束本任务负责的下载，每条退出路径都调用
+     */
+    private void submitDownload(DownloadTask task, CancellationToken token, Runnable finishFlight) {
+        CompletableFuture<LanzouApiClient.ApiResponse> resolving;
+        try {
+            resolving = resolveAheadStage.submit(task, linkResolver, token);
+        } catch (RejectedExecutionException e) {
+            // 解析线程池已关闭
+            finishFlight.run();
+            return;
+        }
+        resolving.whenComplete((apiResponse, throwable) -> {
+            resolveAheadStage.forget(task.getTaskId(), resolving);
+            if (token.isCancelled()) {
+                finishFlight.run();
+                return;
+            }
+            LanzouApiClient.ApiResponse result = throwable == null ? apiResponse
+                : new LanzouApiClient.ApiResponse(false, null, null, 0, "解析异常: " + throwable.getMessage(), true);
+            if (result.isSuccess()) {
+                // 解析完成即可确定最终文件名，下载完成时直接移动到位
+                planFilePath(task);
+            }
+            try {
+                downloadExecutor.execute(scheduler.schedule(task, () -> {
+                    try {
+                        executeDownloadTask(task, result, token);
+                    } finally {
+                        finishFlight.run();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // 下载线程池已关闭
+                finishFlight.run();
+            }
+        });
+    }
+    
+    /**
+     * 使用相同链接的任务下载的文件完成任务
+     * 该任务失败或取消、或文件已不存在时，重新开始下载
+     * @param leader 负责下载的任务，失败或取消时为null
+     */
+    private void executeCoalescedTask(DownloadTask task, DownloadTask leader, CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        
+        String tag = LanzouApiClient.shortTag(task.getTaskId());
+        if (leader == null) {
+            ApplicationLogger.logInfo("[{}] 共用的下载没有完成，重新下载", tag);
+            startDownload(task, token);
+            return;
         }
+        
+        // 下载缓存中已有时直接从缓存取出
+        ContentCache.Entry cached = contentCache.find(task);
+        if (cached != null) {
+            executeCachedTask(task, cached, token);
+            return;
+        }
+        
+        task.setFileName(leader.getFileName());
+        String filePath = planFilePath(task);
+        try {
+            // 负责下载的任务的文件在内存中时共用同一份内容
+            if (!memoryTier.share(Paths.get(leader.getFilePath()), Paths.get(filePath))) {
+                DownloadCoalescer.linkOrCopy(Paths.get(leader.getFilePath()), Paths.get(filePath));
+            }
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("[{}] 复制共用的下载文件失败 ({})，重新下载", tag, e.getMessage());
+            startDownload(task, token);
+            return;
+        }
+        
+        task.setStagedExtractionPath(null);
+        task.setFileSize(leader.getFileSize());
+        task.setDownloadedSize(leader.getFileSize());
+        task.setSha256(leader.getSha256());
+        task.setFastHash(leader.getFastHash());
+        task.setStatus(DownloadTask.TaskStatus.COMPLETED);
+        ApplicationLogger.logInfo("[{}] 与 [{}] 共用下载结果: {}",
+            tag, LanzouApiClient.shortTag(leader.getTaskId()), Paths.get(filePath).getFileName());
+        
+        if (progressListener != null) {
+            progressListener.onTaskStarted(task);
+            progressListener.onTaskCompleted(task, createFileInfo(task, filePath));
+        }
+        checkAllTasksCompleted();
+    }
+    
+    /**
+     * 从下载缓存完成任务
+     * 缓存文件在此期间被删除时回退到正常下载
+     */
+    private void executeCachedTask(DownloadTask task, ContentCache.Entry cached, CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        
+        task.setFileName(cached.getFileName());
+        String filePath = planFilePath(task);
+        try {
+            contentCache.materialize(cached, Paths.get(filePath));
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("[{}] 读取下载缓存失败 ({})，重新下载",
+                LanzouApiClient.shortTag(task.getTaskId()), e.getMessage());
+            startDownload(task, token);
+            return;
+        }
+        
+        task.setStagedExtractionPath(null);
+        task.setFileSize(cached.getSize());
+        task.setDownloadedSize(cached.getSize());
+        task.setSha256(cached.getSha256());
+        task.setFastHash(cached.getFastHash());
+        task.setStatus(DownloadTask.TaskStatus.COMPLETED);
+        ApplicationLogger.logInfo("[{}] 命中下载缓存: {} ({})",
+            LanzouApiClient.shortTag(task.getTaskId()), cached.getFileName(), cached.getSha256());
+        
+        if (progressListener != null) {
+            progressListener.onTaskStarted(task);
+            progressListener.onTaskCompleted(task, createFileInfo(task, filePath));
+        }
+        checkAllTasksCompleted();
     }
     
     /**
      * 执行单个下载任务
+     * @param task 下载任务
+     * @param apiResponse 预解析阶段得到的直链解析结果
+     * @param token 取消令牌，取消的任务不算失败，也不参与完成统计
      */
-    private void executeDownloadTask(DownloadTask task) {
-        if (isCancelled) {
+    private void executeDownloadTask(DownloadTask task, LanzouApiClient.ApiResponse apiResponse,
+                                     CancellationToken token) {
+        if (token.isCancelled()) {
             return;
         }
         
@@ -131,13 +503,8 @@ public class DownloadManager {
                 progressListener.onTaskStarted(task);
             }
             
-            // 解析直链
-            task.setStatus(DownloadTask.TaskStatus.PARSING_URL);
-            LanzouApiClient.ApiResponse apiResponse = LanzouApiClient.parseDirectUrl(
-                task.getOriginalUrl(), task.getPassword()
-            );
-            
             if (!apiResponse.isSuccess()) {
+                task.recordFailure();
                 task.setStatus(DownloadTask.TaskStatus.FAILED);
                 task.setErrorMessage(apiResponse.getErrorMessage());
                 
@@ -149,14 +516,15 @@ public class DownloadManager {
                 return;
             }
             
-            // 设置解析结果
-            task.setDirectUrl(apiResponse.getDirectUrl());
-            task.setFileName(apiResponse.getFileName());
-            task.setFileSize(apiResponse.getFileSize());
-            
             // 开始下载
             task.setStatus(DownloadTask.TaskStatus.DOWNLOADING);
-            FileInfo fileInfo = downloadFile(task);
+            FileInfo fileInfo = downloadFile(task, token);
+            
+            if (token.isCancelled()) {
+                // 已完成的文件保持完成状态，下次下载时从缓存取出
+                task.setStatus(fileInfo != null ? DownloadTask.TaskStatus.COMPLETED : DownloadTask.TaskStatus.CANCELLED);
+                return;
+            }
             
             if (fileInfo != null) {
                 task.setStatus(DownloadTask.TaskStatus.COMPLETED);
@@ -165,14 +533,20 @@ public class DownloadManager {
                     progressListener.onTaskCompleted(task, fileInfo);
                 }
             } else {
+                task.recordFailure();
                 task.setStatus(DownloadTask.TaskStatus.FAILED);
                 
                 if (progressListener != null) {
                     progressListener.onTaskFailed(task, task.getErrorMessage());
                 }
             }
-            
+        
         } catch (Exception e) {
+            if (token.isCancelled()) {
+                task.setStatus(DownloadTask.TaskStatus.CANCELLED);
+                return;
+            }
+            task.recordFailure();
             task.setStatus(DownloadTask.TaskStatus.FAILED);
             task.setErrorMessage("下载异常: " + e.getMessage());
             
@@ -186,97 +560,727 @@ public class DownloadManager {
     
     /**
      * 下载文件
+     * 数据先写入可续传的部分文件，直链过期或失效时自动重新解析，并从已写入的位置继续下载；
+     * 取消或失败后保留部分文件，下次下载同一链接时继续；取消时立即关闭连接，丢弃已解压的部分
      */
-    private FileInfo downloadFile(DownloadTask task) {
-        if (isCancelled) {
+    private FileInfo downloadFile(DownloadTask task, CancellationToken token) {
+        if (token.isCancelled()) {
             return null;
         }
         
+        String filePath = planFilePath(task);
+        String tag = LanzouApiClient.shortTag(task.getTaskId());
+        PartialDownload partial = PartialDownload.open(
+            Paths.get(TEMP_DIR), task.getOriginalUrl(), task.getPassword(), task.getTaskId());
+        BandwidthLimiter.Lease bandwidth = BandwidthLimiter.getInstance().register(task.getWeight());
+        task.setStagedExtractionPath(null);
+        task.setSha256(null);
+        task.setFastHash(null);
+        
         try {
-            URL url = new URL(task.getDirectUrl());
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            
-            // 设置请求属性
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(30000);
-            connection.setRequestProperty("User-Agent", USER_AGENT);
-            connection.setRequestProperty("Accept", "*/*");
-            connection.setInstanceFollowRedirects(true);
-            
-            int responseCode = connection.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                task.setErrorMessage("HTTP " + responseCode);
+            // 预解析阶段已预取文件开头时，没有可续传的进度则先写入预取数据
+            byte[] prefetchedHead = resolveAheadStage.takePrefetchedHead(task.getTaskId());
+            boolean resuming = partial.hasProgress();
+            try {
+                if (resuming) {
+                    prefetchedHead = null;
+                    if (task.hasMirrors()) {
+                        // 上次可能使用的是其他镜像，ETag不可比较，续传时仍校验文件大小和末尾字节
+                        partial.forgetEtag();
+                    }
+                    task.setDownloadedSize(partial.getCompletedBytes());
+                    ApplicationLogger.logInfo("[{}] 继续未完成的下载，已下载: {}/{}",
+                        tag, partial.getCompletedBytes(), partial.getTotalSize());
+                } else {
+                    // 小文件直接下载到内存，不成功时按原方式写入部分文件
+                    FileInfo inMemory = downloadToMemory(task, filePath, prefetchedHead, bandwidth, token);
+                    if (inMemory != null || token.isCancelled()) {
+                        return inMemory;
+                    }
+                    
+                    partial.reset(task.getFileSize(), null);
+                    if (prefetchedHead != null) {
+                        Files.write(partial.getPartFile(), prefetchedHead);
+                        partial.checkpoint(prefetchedHead.length, true);
+                        task.setDownloadedSize(prefetchedHead.length);
+                        if (prefetchedHead.length == task.getFileSize()) {
+                            ContentHasher hasher = new ContentHasher();
+                            hasher.update(prefetchedHead, 0, prefetchedHead.length);
+                            ContentHasher.Result hashes = hasher.finish();
+                            if (hashes.matches(task.getExpectedSha256())) {
+                                recordHashes(task, hashes);
+                                partial.complete(Paths.get(filePath));
+                                contentCache.store(task, Paths.get(filePath), determineActualFileName(task));
+                                return createFileInfo(task, filePath);
+                            }
+                            
+                            // 预取的数据校验失败，丢弃后重新下载
+                            ApplicationLogger.logWarn("[{}] 预取的文件校验失败，重新下载", tag);
+                            partial.reset(task.getFileSize(), null);
+                            prefetchedHead = null;
+                            task.setDownloadedSize(0);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                task.setErrorMessage("写入文件失败: " + e.getMessage());
                 return null;
             }
             
-            // 获取文件大小
-            long contentLength = connection.getContentLengthLong();
-            if (contentLength > 0) {
-                task.setFileSize(contentLength);
-            }
+            // 分段下载计划，在直链重新解析和连接中断后继续使用
+            int segments = resolveSegments(task);
+            boolean segmentable = prefetchedHead == null && (segments > 1 || partial.isSegmented());
+            SegmentedDownloader.SegmentPlan plan = null;
             
-            // 生成文件名
-            String fileName = determineFileName(task, connection);
-            String filePath = generateFilePath(task, fileName);
+            int reResolveCount = 0;
+            int interruptionCount = 0;
+            int hashMismatchCount = 0;
+            boolean restarted = false;
+            long lastInterruptedAt = -1; // 上次中断时已下载的字节数
+            Set<String> failedSources = new HashSet<>(); // 本次下载中失败的来源，切换镜像时跳过
             
-            // 下载文件
-            try (InputStream inputStream = connection.getInputStream();
-                 FileOutputStream outputStream = new FileOutputStream(filePath);
-                 BufferedInputStream bufferedInput = new BufferedInputStream(inputStream);
-                 BufferedOutputStream bufferedOutput = new BufferedOutputStream(outputStream)) {
+            while (true) {
+                try {
+                    if (segmentable && plan == null) {
+                        plan = resuming
+                            ? segmentedDownloader.resume(task.getDirectUrl(), partial)
+                            : segmentedDownloader.plan(task.getDirectUrl(), segments);
+                        // 服务器不支持Range或文件太小时回退到单连接下载
+                        segmentable = plan != null;
+                        if (plan == null && partial.isSegmented()) {
+                            throw new PartialDownload.ResumeMismatchException("服务器不再支持Range，无法继续分段下载");
+                        }
+                        if (plan != null) {
+                            task.setFileSize(plan.getTotalSize());
+                            partial.updateIdentity(plan.getTotalSize(), plan.getEtag());
+                            ApplicationLogger.logInfo("[{}] 使用分段下载，文件大小: {}, 分段数: {}",
+                                tag, plan.getTotalSize(), plan.getSegmentCount());
+                        }
+                    }
+                    
+                    ContentHasher.Result hashes = null;
+                    if (plan != null) {
+                        SegmentedDownloader.SegmentPlan currentPlan = plan;
+                        AtomicLong reported = new AtomicLong(plan.getCompletedBytes());
+                        try {
+                            segmentedDownloader.download(task.getDirectUrl(), partial.getPartFile().toFile(), plan,
+                                (downloaded, total) -> {
+                                    concurrencyTuner.recordBytes(downloaded - reported.getAndSet(downloaded));
+                                    task.setDownloadedSize(downloaded);
+                                    partial.checkpoint(currentPlan, false);
+                                }, bandwidth, token);
+                        } finally {
+                            partial.checkpoint(plan, true);
+                        }
+                    } else {
+                        // 还有其他镜像可以切换时检测来源变慢
+                        MirrorRace.SpeedWatch speedWatch = hasUntriedSource(task, failedSources)
+                            ? mirrorRace.watchSpeed() : null;
+                        hashes = transferFile(task, partial, partial.getValidatedOffset(), bandwidth, speedWatch, token);
+                    }
+                    
+                    if (!token.isCancelled()) {
+                        // 分段下载的数据不是按顺序到达的，下载完成后读取整个文件计算哈希
+                        if (hashes == null) {
+                            hashes = ContentHasher.ofFile(partial.getPartFile()).finish();
+                        }
+                        hashes.verify(task.getExpectedSha256());
+                        recordHashes(task, hashes);
+                    }
+                    break;
                 
-                byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
-                long totalBytesRead = 0;
-                int bytesRead;
+                } catch (ContentHasher.HashMismatchException e) {
+                    // 下载的内容与配置中的哈希不一致，丢弃后重新解析直链并下载
+                    if (token.isCancelled()) {
+                        break;
+                    }
+                    discardStagedExtraction(task);
+                    partial.discard();
+                    if (hashMismatchCount >= MAX_HASH_MISMATCHES) {
+                        task.setErrorMessage("文件校验失败: " + e.getMessage());
+                        return null;
+                    }
+                    hashMismatchCount++;
+                    
+                    ApplicationLogger.logWarn("[{}] 文件校验失败 ({})，重新下载", tag, e.getMessage());
+                    partial.reset(-1, null);
+                    resuming = false;
+                    plan = null;
+                    segmentable = segments > 1;
+                    task.setDownloadedSize(0);
+                    if (!reResolveDirectUrl(task, "文件校验失败，重新下载", token)) {
+                        return null;
+                    }
+                
+                } catch (PartialDownload.ResumeMismatchException e) {
+                    // 服务器上的文件与已下载的部分不一致，丢弃后从头下载
+                    if (token.isCancelled()) {
+                        break;
+                    }
+                    if (restarted) {
+                        task.setErrorMessage("续传校验失败: " + e.getMessage());
+                        return null;
+                    }
+                    restarted = true;
+                    
+                    ApplicationLogger.logWarn("[{}] 续传校验失败 ({})，从头下载", tag, e.getMessage());
+                    partial.discard();
+                    partial.reset(-1, null);
+                    resuming = false;
+                    plan = null;
+                    segmentable = segments > 1;
+                    task.setDownloadedSize(0);
+                    task.recordRetry();
+                    if (progressListener != null) {
+                        progressListener.onTaskRetry(task, "续传校验失败，从头下载");
+                    }
+                
+                } catch (ExpiredLinkException e) {
+                    // 直链已过期，重新解析后从已写入的位置继续
+                    if (token.isCancelled()) {
+                        break;
+                    }
+                    if (reResolveCount >= MAX_RE_RESOLVES) {
+                        if (switchSource(task, partial, failedSources, "直链多次失效", token)) {
+                            reResolveCount = 0;
+                            continue;
+                        }
+                        task.setErrorMessage("直链已失效: " + e.getMessage());
+                        return null;
+                    }
+                    reResolveCount++;
+                    
+                    ApplicationLogger.logWarn("[{}] 直链已失效 ({})，重新解析后从 {} 字节继续",
+                        tag, e.getMessage(), partial.getCompletedBytes());
+                    if (!reResolveDirectUrl(task, "直链已失效，重新解析", token)
+                            && !switchSource(task, partial, failedSources, "重新解析直链失败", token)) {
+                        return null;
+                    }
                 
-                while ((bytesRead = bufferedInput.read(buffer)) != -1 && !isCancelled) {
-                    bufferedOutput.write(buffer, 0, bytesRead);
-                    totalBytesRead += bytesRead;
-                    task.setDownloadedSize(totalBytesRead);
+                } catch (IOException e) {
+                    // 连接中断或来源变慢，有其他镜像时切换，否则使用同一直链从已写入的位置继续
+                    if (token.isCancelled()) {
+                        break;
+                    }
+                    if (switchSource(task, partial, failedSources, e.getMessage(), token)) {
+                        continue;
+                    }
+                    if (token.isCancelled()) {
+                        break;
+                    }
+                    // 只统计没有进展的连续中断，长时间下载中偶尔的停滞或断线不会耗尽重连次数
+                    if (partial.getCompletedBytes() > lastInterruptedAt) {
+                        interruptionCount = 0;
+                    }
+                    lastInterruptedAt = partial.getCompletedBytes();
+                    if (interruptionCount >= MAX_INTERRUPTIONS) {
+                        task.setErrorMessage("下载失败: " + e.getMessage());
+                        return null;
+                    }
+                    interruptionCount++;
                     
-                    // 通知进度更新
+                    ApplicationLogger.logWarn("[{}] 下载中断 ({})，从 {} 字节继续",
+                        tag, e.getMessage(), partial.getCompletedBytes());
+                    task.recordRetry();
                     if (progressListener != null) {
-                        progressListener.onTaskProgress(task, totalBytesRead, task.getFileSize());
+                        progressListener.onTaskRetry(task, "下载中断: " + e.getMessage());
                     }
                 }
+            }
+            
+            if (token.isCancelled()) {
+                // 保留部分文件，下次下载时继续
+                discardStagedExtraction(task);
+                ApplicationLogger.logInfo("[{}] 下载已取消，保留已下载的 {} 字节", tag, partial.getCompletedBytes());
+                return null;
+            }
+            
+            try {
+                partial.complete(Paths.get(filePath));
+            } catch (IOException e) {
+                task.setErrorMessage("移动下载文件失败: " + e.getMessage());
+                return null;
+            }
+            
+            ApplicationLogger.logInfo("下载完成 - 文件: {}, 实际文件名: {}", 
+                filePath, determineActualFileName(task));
+            contentCache.store(task, Paths.get(filePath), determineActualFileName(task));
+            return createFileInfo(task, filePath);
+        
+        } catch (IOException e) {
+            task.setErrorMessage("重置部分下载文件失败: " + e.getMessage());
+            return null;
+        } finally {
+            partial.release();
+            bandwidth.close();
+        }
+    }
+    
+    /**
+     * 从指定位置请求直链并写入部分文件
+     * 续传时多请求续传位置之前的一小段数据，与本地文件比对一致后再继续写入
+     * @param task 下载任务
+     * @param partial 部分下载文件
+     * @param offset 已确认写入的字节数，大于0时使用Range请求续传
+     * @param bandwidth 任务的限速租约
+     * @param speedWatch 来源变慢检测，为null时不检测
+     * @param token 取消令牌，取消时立即关闭连接
+     * @return 文件内容的哈希，取消下载或没有传输数据时返回null
+     * @throws ExpiredLinkException 直链已过期或失效
+     * @throws PartialDownload.ResumeMismatchException 服务器上的文件与已下载的部分不一致
+     * @throws MirrorRace.SlowSourceException 来源明显变慢，应切换镜像
+     * @throws TransferWatchdog.StalledTransferException 连接停滞，应从当前位置重新连接
+     * @throws IOException 网络或写入错误
+     */
+    private ContentHasher.Result transferFile(DownloadTask task, PartialDownload partial, long offset,
+                                              BandwidthLimiter.Lease bandwidth, MirrorRace.SpeedWatch speedWatch,
+                                              CancellationToken token)
+            throws IOException {
+        int verifyBytes = offset > 0 ? partial.verifyBytesBefore(offset) : 0;
+        Map<String, String> headers = offset > 0
+            ? Collections.singletonMap("Range", "bytes=" + (offset - verifyBytes) + "-")
+            : null;
+        
+        // 超时按下载主机观察到的延迟调整
+        String url = task.getDirectUrl();
+        try (HttpTransport.Response response = httpTransport.get(url, headers,
+                httpTransport.connectTimeoutFor(url, CONNECT_TIMEOUT), httpTransport.readTimeoutFor(url, READ_TIMEOUT))) {
+            CancellationToken.Registration abortOnCancel = token.onCancel(
+                () -> httpTransport.abortInBackground(response));
+            try (TransferWatchdog.Monitor health = transferWatchdog.watch(
+                     LanzouApiClient.shortTag(task.getTaskId()), bandwidth, () -> httpTransport.abortInBackground(response));
+                 FileChannel channel = partial.openChannel()) {
+                
+                int responseCode = response.getStatusCode();
+                if (ExpiredLinkException.isExpired(response)) {
+                    response.abort();
+                    throw ExpiredLinkException.from(response);
+                }
                 
-                if (isCancelled) {
-                    // 删除未完成的文件
-                    new File(filePath).delete();
+                // 续传位置已经是文件末尾
+                if (offset > 0 && responseCode == HTTP_RANGE_NOT_SATISFIABLE
+                        && ResolveAheadStage.parseTotalSize(response.getHeader("Content-Range")) == offset) {
+                    partial.checkpoint(offset, true);
                     return null;
                 }
                 
-                // 使用临时文件名下载，后续会重命名
-                String tempFileName = "temp_" + task.getTaskId() + ".zip";
+                boolean resumed = offset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL;
+                if (responseCode != HttpURLConnection.HTTP_OK && !resumed) {
+                    throw new HttpTransport.HttpStatusException(responseCode, "HTTP " + responseCode, 0);
+                }
+                
+                // 记录重定向后的下载主机，后续任务解析时预热
+                httpTransport.rememberDownloadHost(response.getUrl());
                 
-                // 创建文件信息对象，使用实际的文件名
-                String actualFileName = determineActualFileName(task);
-                FileInfo fileInfo = new FileInfo(actualFileName, filePath, task.getPrefix(), task.getSuffix());
-                fileInfo.setTaskId(task.getTaskId());
+                // 服务器不支持Range时从头下载；续传时Content-Length只是剩余部分
+                long totalBytesRead = resumed ? offset : 0;
+                long contentLength = response.getContentLength();
+                long expectedSize = contentLength > 0 ? totalBytesRead - verifyBytes + contentLength : -1;
+                String etag = response.getHeader("ETag");
+                if (resumed) {
+                    partial.checkIdentity(ResolveAheadStage.parseTotalSize(response.getHeader("Content-Range")), etag);
+                    if (verifyBytes > 0) {
+                        PartialDownload.verifyTail(response.getBody(), channel, offset, verifyBytes);
+                    }
+                }
+                partial.updateIdentity(expectedSize, etag);
+                if (expectedSize > 0) {
+                    task.setFileSize(expectedSize);
+                }
                 
-                ApplicationLogger.logInfo("下载完成 - 临时文件: {}, 实际文件名: {}", 
-                    tempFileName, actualFileName);
+                // 丢弃续传位置之后未确认的数据，再把文件扩展到Content-Length（没有时按解析接口返回的大小）
+                channel.truncate(totalBytesRead);
                 
-                return fileInfo;
+                // 边写入边计算哈希，续传时先补上已经写入的部分
+                ContentHasher hasher = new ContentHasher();
+                if (totalBytesRead > 0) {
+                    hasher.update(channel, 0, totalBytesRead);
+                }
+                ChannelTransfer.extendTo(channel, expectedSize > 0 ? expectedSize : task.getFileSize());
                 
+                // 从头下载ZIP文件时可以边下载边解压，从中途续传时打包阶段再解压
+                StreamingExtractor extractor = totalBytesRead == 0 ? startStreamingExtraction(task) : null;
+                try {
+                    try (ChannelTransfer.Reader reader = new ChannelTransfer.Reader(response.getBody())) {
+                        ByteBuffer buffer;
+                        while (!token.isCancelled() && (buffer = reader.read()) != null) {
+                            bandwidth.acquire(buffer.remaining());
+                            hasher.update(buffer);
+                            if (extractor != null) {
+                                extractor.feed(buffer);
+                            }
+                            int bytesWritten = ChannelTransfer.writeFully(channel, buffer, totalBytesRead);
+                            totalBytesRead += bytesWritten;
+                            concurrencyTuner.recordBytes(bytesWritten);
+                            task.setDownloadedSize(totalBytesRead);
+                            partial.checkpoint(totalBytesRead, false);
+                            health.record(bytesWritten);
+                            health.throwIfStalled();
+                            if (speedWatch != null) {
+                                speedWatch.record(bytesWritten);
+                            }
+                        }
+                        
+                        if (token.isCancelled()) {
+                            // 连接不再复用
+                            response.abort();
+                            return null;
+                        }
+                    } catch (IOException e) {
+                        throw health.translate(e);
+                    } finally {
+                        partial.checkpoint(totalBytesRead, true);
+                    }
+                    
+                    if (expectedSize > 0 && totalBytesRead < expectedSize) {
+                        throw new EOFException("连接提前关闭，已接收 " + totalBytesRead + "/" + expectedSize + " 字节");
+                    }
+                    
+                    // 按解析接口返回的大小扩展时可能有多余的长度
+                    if (channel.size() > totalBytesRead) {
+                        channel.truncate(totalBytesRead);
+                    }
+                    
+                    if (extractor != null) {
+                        Path staged = extractor.finish();
+                        task.setStagedExtractionPath(staged != null ? staged.toString() : null);
+                    }
+                    return hasher.finish();
+                } finally {
+                    if (extractor != null) {
+                        // 没有完整下载时放弃已解压的部分
+                        extractor.abort();
+                    }
+                }
+            } finally {
+                abortOnCancel.close();
+            }
+        }
+    }
+    
+    /**
+     * 把小文件下载到内存暂存
+     * 文件大小在内存暂存的阈值内时使用；连接中断、直链失效、校验失败等任何问题都放弃内存暂存，
+     * 由调用方按原方式写入可续传的部分文件，并在那里处理重新解析和重试
+     * @param prefetchedHead 预解析阶段预取的文件开头，可为null
+     * @return 文件信息，不适合放在内存中、内存预算不足、下载失败或取消时返回null
+     */
+    private FileInfo downloadToMemory(DownloadTask task, String filePath, byte[] prefetchedHead,
+                                      BandwidthLimiter.Lease bandwidth, CancellationToken token) {
+        if (!memoryTier.accepts(task.getFileSize())) {
+            return null;
+        }
+        
+        String tag = LanzouApiClient.shortTag(task.getTaskId());
+        MemoryTier.Buffer buffer = null;
+        boolean completed = false;
+        try {
+            if (prefetchedHead != null && prefetchedHead.length == task.getFileSize()) {
+                // 预取的数据已经是整个文件
+                buffer = memoryTier.allocate(Paths.get(filePath), prefetchedHead.length);
+                if (buffer != null) {
+                    System.arraycopy(prefetchedHead, 0, buffer.array(), 0, prefetchedHead.length);
+                }
+            } else {
+                buffer = transferToMemory(task, filePath, prefetchedHead, bandwidth, token);
+            }
+            if (buffer == null) {
+                return null;
             }
             
-        } catch (Exception e) {
-            task.setErrorMessage("下载失败: " + e.getMessage());
+            ContentHasher hasher = new ContentHasher();
+            hasher.update(buffer.array(), 0, buffer.getSize());
+            ContentHasher.Result hashes = hasher.finish();
+            hashes.verify(task.getExpectedSha256());
+            recordHashes(task, hashes);
+            buffer.seal();
+            completed = true;
+        
+        } catch (IOException e) {
+            if (!token.isCancelled()) {
+                ApplicationLogger.logWarn("[{}] 下载到内存失败 ({})，改为写入磁盘", tag, e.getMessage());
+            }
+            task.setDownloadedSize(0);
             return null;
+        } finally {
+            if (!completed && buffer != null) {
+                buffer.release();
+            }
+        }
+        
+        ApplicationLogger.logInfo("下载完成 - 文件: {}（内存暂存，{} 字节）, 实际文件名: {}",
+            filePath, buffer.getSize(), determineActualFileName(task));
+        contentCache.store(task, buffer, determineActualFileName(task));
+        return createFileInfo(task, filePath);
+    }
+    
+    /**
+     * 请求直链，把整个文件读入内存暂存
+     * 有预取的文件开头时只请求剩余部分，服务器不支持Range时从头读取
+     * @param prefetchedHead 预取的文件开头，可为null
+     * @return 内存暂存，服务器返回的大小不适合放在内存中或内存预算不足时返回null
+     * @throws ExpiredLinkException 直链已过期或失效
+     * @throws IOException 网络错误、连接停滞或取消
+     */
+    private MemoryTier.Buffer transferToMemory(DownloadTask task, String filePath, byte[] prefetchedHead,
+                                               BandwidthLimiter.Lease bandwidth, CancellationToken token)
+            throws IOException {
+        int offset = prefetchedHead != null ? prefetchedHead.length : 0;
+        Map<String, String> headers = offset > 0
+            ? Collections.singletonMap("Range", "bytes=" + offset + "-")
+            : null;
+        
+        String url = task.getDirectUrl();
+        try (HttpTransport.Response response = httpTransport.get(url, headers,
+                httpTransport.connectTimeoutFor(url, CONNECT_TIMEOUT), httpTransport.readTimeoutFor(url, READ_TIMEOUT))) {
+            CancellationToken.Registration abortOnCancel = token.onCancel(
+                () -> httpTransport.abortInBackground(response));
+            try (TransferWatchdog.Monitor health = transferWatchdog.watch(
+                     LanzouApiClient.shortTag(task.getTaskId()), bandwidth, () -> httpTransport.abortInBackground(response))) {
+                
+                if (ExpiredLinkException.isExpired(response)) {
+                    response.abort();
+                    throw ExpiredLinkException.from(response);
+                }
+                
+                int responseCode = response.getStatusCode();
+                long totalSize;
+                if (offset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    totalSize = ResolveAheadStage.parseTotalSize(response.getHeader("Content-Range"));
+                } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                    offset = 0;
+                    totalSize = response.getContentLength();
+                } else {
+                    throw new HttpTransport.HttpStatusException(responseCode, "HTTP " + responseCode, 0);
+                }
+                
+                MemoryTier.Buffer buffer = totalSize >= offset ? memoryTier.allocate(Paths.get(filePath), totalSize) : null;
+                if (buffer == null) {
+                    response.abort();
+                    return null;
+                }
+                
+                boolean filled = false;
+                try {
+                    httpTransport.rememberDownloadHost(response.getUrl());
+                    task.setFileSize(totalSize);
+                    
+                    byte[] data = buffer.array();
+                    if (offset > 0) {
+                        System.arraycopy(prefetchedHead, 0, data, 0, offset);
+                    }
+                    int position = offset;
+                    task.setDownloadedSize(position);
+                    
+                    InputStream body = response.getBody();
+                    int bytesRead;
+                    while (position < data.length && !token.isCancelled()
+                            && (bytesRead = body.read(data, position, Math.min(MEMORY_READ_CHUNK, data.length - position))) != -1) {
+                        bandwidth.acquire(bytesRead);
+                        position += bytesRead;
+                        concurrencyTuner.recordBytes(bytesRead);
+                        task.setDownloadedSize(position);
+                        health.record(bytesRead);
+                        health.throwIfStalled();
+                    }
+                    token.throwIfCancelled();
+                    
+                    if (position < data.length) {
+                        throw new EOFException("连接提前关闭，已接收 " + position + "/" + data.length + " 字节");
+                    }
+                    filled = true;
+                    return buffer;
+                } catch (IOException e) {
+                    throw health.translate(e);
+                } finally {
+                    if (!filled) {
+                        buffer.release();
+                    }
+                }
+            } finally {
+                abortOnCancel.close();
+            }
+        }
+    }
+    
+    /**
+     * 记录下载内容的哈希
+     */
+    private void recordHashes(DownloadTask task, ContentHasher.Result hashes) {
+        task.setSha256(hashes.getSha256());
+        task.setFastHash(hashes.getFastHash());
+        ApplicationLogger.logInfo("[{}] SHA-256: {}{}", LanzouApiClient.shortTag(task.getTaskId()),
+            hashes.getSha256(), task.getExpectedSha256() != null ? "（校验通过）" : "");
+    }
+    
+    /**
+     * 丢弃边下载边解压的结果
+     */
+    private void discardStagedExtraction(DownloadTask task) {
+        String staged = task.getStagedExtractionPath();
+        if (staged == null) {
+            return;
+        }
+        task.setStagedExtractionPath(null);
+        try {
+            StreamingExtractor.deleteDirectory(Paths.get(staged));
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("删除暂存目录失败: {} - {}", staged, e.getMessage());
+        }
+    }
+    
+    /**
+     * 启用了边下载边解压且文件是ZIP时开始流式解压
+     * @return 流式解压器，不需要或无法开始时返回null
+     */
+    private StreamingExtractor startStreamingExtraction(DownloadTask task) {
+        if (!streamingExtraction || !determineActualFileName(task).toLowerCase().endsWith(".zip")) {
+            return null;
+        }
+        try {
+            return StreamingExtractor.start(filesDir, task.getTaskId());
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("[{}] 无法创建解压暂存目录，打包时再解压: {}",
+                LanzouApiClient.shortTag(task.getTaskId()), e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 确定任务的分段数：项目配置优先，其次是全局默认值
+     */
+    private int resolveSegments(DownloadTask task) {
+        return task.getSegments() > 0 ? task.getSegments() : SegmentedDownloader.getDefaultSegments();
+    }
+    
+    /**
+     * 使缓存的直链失效并重新解析
+     * @return 是否解析成功，取消时中断等待中的解析并返回false
+     */
+    private boolean reResolveDirectUrl(DownloadTask task, String reason, CancellationToken token) {
+        task.recordRetry();
+        if (progressListener != null) {
+            progressListener.onTaskRetry(task, reason);
+        }
+        
+        resolveCache.invalidate(task.getSourceUrl(), task.getPassword());
+        LanzouApiClient.ApiResponse apiResponse;
+        CancellationToken.Registration interruptOnCancel = token.interruptOnCancel();
+        try {
+            apiResponse = resolveCache.resolve(
+                task.getSourceUrl(), task.getPassword(), task.getTaskId(), linkResolver);
+        } finally {
+            interruptOnCancel.close();
         }
+        
+        if (token.isCancelled()) {
+            return false;
+        }
+        if (!apiResponse.isSuccess()) {
+            task.setErrorMessage("重新解析直链失败: " + apiResponse.getErrorMessage());
+            return false;
+        }
+        
+        task.setDirectUrl(apiResponse.getDirectUrl());
+        return true;
+    }
+    
+    /**
+     * 是否还有本次下载中没有失败过的其他来源
+     */
+    private boolean hasUntriedSource(DownloadTask task, Set<String> failedSources) {
+        for (String source : task.getSourceUrls()) {
+            if (!source.equals(task.getSourceUrl()) && !failedSources.contains(source)) {
+                return true;
+            }
+        }
+        return false;
     }
     
     /**
-     * 确定文件名
+     * 当前来源失败或变慢时切换到下一个可用的镜像，从已下载的位置继续
+     * 没有配置镜像或所有镜像都已失败时不做任何事
+     * @param reason 切换原因
+     * @return 是否切换成功
      */
-    private String determineFileName(DownloadTask task, HttpURLConnection connection) {
-        // 下载阶段使用临时文件名，避免依赖可能不准确的URL文件名
-        // 重命名会在下载完成后根据实际内容和配置进行
-        String tempFileName = "temp_" + task.getTaskId() + ".zip";
-        ApplicationLogger.logInfo("使用临时文件名进行下载: {}", tempFileName);
-        return tempFileName;
+    private boolean switchSource(DownloadTask task, PartialDownload partial, Set<String> failedSources,
+                                 String reason, CancellationToken token) {
+        if (!hasUntriedSource(task, failedSources)) {
+            return false;
+        }
+        failedSources.add(task.getSourceUrl());
+        
+        for (String source : task.getSourceUrls()) {
+            if (failedSources.contains(source)) {
+                continue;
+            }
+            
+            LanzouApiClient.ApiResponse apiResponse;
+            CancellationToken.Registration interruptOnCancel = token.interruptOnCancel();
+            try {
+                apiResponse = resolveCache.resolve(source, task.getPassword(), task.getTaskId(), linkResolver);
+            } finally {
+                interruptOnCancel.close();
+            }
+            if (token.isCancelled()) {
+                return false;
+            }
+            if (!apiResponse.isSuccess()) {
+                failedSources.add(source);
+                ApplicationLogger.logWarn("[{}] 镜像解析失败: {} - {}",
+                    LanzouApiClient.shortTag(task.getTaskId()), source, apiResponse.getErrorMessage());
+                continue;
+            }
+            
+            ApplicationLogger.logWarn("[{}] {}，切换到镜像 {}，从 {} 字节继续",
+                LanzouApiClient.shortTag(task.getTaskId()), reason, source, partial.getCompletedBytes());
+            task.setSourceUrl(source);
+            task.setDirectUrl(apiResponse.getDirectUrl());
+            // 不同镜像的ETag不可比较，续传时仍校验文件大小和末尾字节
+            partial.forgetEtag();
+            task.recordRetry();
+            if (progressListener != null) {
+                progressListener.onTaskRetry(task, reason + "，切换镜像");
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * 创建下载完成的文件信息，使用实际的文件名
+     */
+    private FileInfo createFileInfo(DownloadTask task, String filePath) {
+        FileInfo fileInfo = new FileInfo(determineActualFileName(task), filePath, task.getPrefix(), task.getSuffix());
+        fileInfo.setTaskId(task.getTaskId());
+        fileInfo.setStagedExtractionPath(task.getStagedExtractionPath());
+        fileInfo.setSha256(task.getSha256());
+        fileInfo.setFastHash(task.getFastHash());
+        fileInfo.setMemoryBuffer(memoryTier.find(Paths.get(filePath)));
+        return fileInfo;
+    }
+    
+    /**
+     * 确定任务的最终文件路径（格式为[前缀]文件名[后缀].zip）
+     * 解析完成后第一次调用时分配，同一批任务中的重名在内存中处理，之后保持不变
+     */
+    private String planFilePath(DownloadTask task) {
+        String filePath = task.getFilePath();
+        if (filePath != null) {
+            return filePath;
+        }
+        
+        synchronized (task) {
+            if (task.getFilePath() == null) {
+                String formattedName = FileRenamer.generateFormattedFileName(
+                    task.getPrefix(), determineActualFileName(task), task.getSuffix());
+                Path planned = namePlan.reserve(filesDir, formattedName);
+                task.setFilePath(planned.toString());
+                ApplicationLogger.logInfo("[{}] 最终文件名: {}",
+                    LanzouApiClient.shortTag(task.getTaskId()), planned.getFileName());
+            }
+            return task.getFilePath();
+        }
     }
     
     /**
@@ -363,7 +1367,7 @@ public class DownloadManager {
                 ApplicationLogger.logInfo("从URL参数提取文件名: {}", decodedFileName);
                 return decodedFileName;
             }
-            
+        
         } catch (Exception e) {
             ApplicationLogger.logWarn("提取URL文件名失败: {}", e.getMessage());
         }
@@ -379,22 +1383,13 @@ public class DownloadManager {
         return fileName.replaceAll("[\\\\/:*?\"<>|]", "_");
     }
     
-    /**
-     * 生成文件路径（下载时使用原始文件名）
-     */
-    private String generateFilePath(DownloadTask task, String originalFileName) {
-        // 下载时使用原始文件名，不添加前缀和后缀
-        return Paths.get(TEMP_DIR, originalFileName).toString();
-    }
-    
     /**
      * 创建临时目录
      */
     private void createTempDirectory() {
         try {
-            Path tempDir = Paths.get(TEMP_DIR);
-            if (!Files.exists(tempDir)) {
-                Files.createDirectories(tempDir);
+            if (!Files.exists(filesDir)) {
+                Files.createDirectories(filesDir);
             }
         } catch (Exception e) {
             System.err.println("创建临时目录失败: " + e.getMessage());
@@ -403,102 +1398,23 @@ public class DownloadManager {
     
     /**
      * 检查是否所有任务都已完成
+     * 每个文件在自己完成时已经移动到最终位置，这里只收集结果
      */
     private void checkAllTasksCompleted() {
         int completed = completedTasks.incrementAndGet();
         
         if (completed >= tasks.size()) {
-            // 所有任务完成，收集结果并进行文件重命名
             List<FileInfo> downloadedFiles = new ArrayList<>();
             
             for (DownloadTask task : tasks) {
-                if (task.isSuccessful()) {
-                    // 生成临时文件路径
-                    String tempFileName = "temp_" + task.getTaskId() + ".zip";
-                    String filePath = generateFilePath(task, tempFileName);
-                    
-                    if (new File(filePath).exists()) {
-                        // 获取实际的文件名（用于重命名）
-                        String actualFileName = determineActualFileName(task);
-                        
-                        // 创建FileInfo对象，使用实际文件名作为原始文件名
-                        FileInfo fileInfo = new FileInfo(actualFileName, filePath, 
-                            task.getPrefix(), task.getSuffix());
-                        fileInfo.setTaskId(task.getTaskId());
-                        downloadedFiles.add(fileInfo);
-                        
-                        ApplicationLogger.logInfo("添加下载成功文件: 临时文件={}, 实际文件名={}", 
-                            tempFileName, actualFileName);
-                    }
+                String filePath = task.getFilePath();
+                if (task.isSuccessful() && filePath != null
+                        && (memoryTier.find(Paths.get(filePath)) != null || new File(filePath).exists())) {
+                    downloadedFiles.add(createFileInfo(task, filePath));
                 }
             }
             
-            // 执行文件重命名
-            if (!downloadedFiles.isEmpty()) {
-                renameDownloadedFiles(downloadedFiles);
-            } else {
-                // 没有成功下载的文件，直接通知完成
-                notifyAllTasksCompleted(downloadedFiles);
-            }
-        }
-    }
-    
-    /**
-     * 重命名下载的文件
-     */
-    private void renameDownloadedFiles(List<FileInfo> downloadedFiles) {
-        try {
-            int originalDownloadCount = downloadedFiles.size();
-            ApplicationLogger.logInfo("开始重命名下载的文件，文件数: {}", originalDownloadCount);
-            
-            List<FileRenamer.RenameResult> renameResults = FileRenamer.batchRename(
-                downloadedFiles, 
-                new FileRenamer.BatchRenameListener() {
-                    @Override
-                    public void onFileRenamed(String oldName, String newName, int currentFile, int totalFiles) {
-                        ApplicationLogger.logFileRenamed(oldName, newName);
-                    }
-                    
-                    @Override
-                    public void onRenameCompleted(List<FileRenamer.RenameResult> results) {
-                        ApplicationLogger.logInfo("文件重命名完成，成功: {}, 失败: {}", 
-                            results.stream().mapToInt(r -> r.isSuccess() ? 1 : 0).sum(),
-                            results.stream().mapToInt(r -> r.isSuccess() ? 0 : 1).sum());
-                    }
-                    
-                    @Override
-                    public void onRenameError(String errorMessage) {
-                        ApplicationLogger.logError("文件重命名错误: {}", errorMessage);
-                    }
-                }
-            );
-            
-            // 更新成功重命名的文件列表
-            List<FileInfo> renamedFiles = new ArrayList<>();
-            for (int i = 0; i < downloadedFiles.size() && i < renameResults.size(); i++) {
-                FileRenamer.RenameResult result = renameResults.get(i);
-                FileInfo fileInfo = downloadedFiles.get(i);
-                
-                if (result.isSuccess()) {
-                    // 更新文件信息对象的路径
-                    fileInfo.setFilePath(result.getNewPath());
-                    renamedFiles.add(fileInfo);
-                } else {
-                    ApplicationLogger.logFileRenameFailed(
-                        fileInfo.getOriginalFileName(), 
-                        result.getErrorMessage());
-                    // 即使重命名失败，也将文件加入列表（使用原文件名）
-                    renamedFiles.add(fileInfo);
-                }
-            }
-            
-            // 传递下载成功的文件数量（不是重命名成功数量）
-            notifyAllTasksCompleted(renamedFiles);
-            
-        } catch (Exception e) {
-            ApplicationLogger.logException("文件重命名过程", e);
-            // 即使重命名失败，也要通知完成
-            notifyAllTasksCompleted(downloadedFiles); 
+            notifyAllTasksCompleted(downloadedFiles);
         }
     }
     
@@ -507,7 +1423,7 @@ public class DownloadManager {
      */
     private void notifyAllTasksCompleted(List<FileInfo> finalFiles) {
         if (progressListener != null) {
-            if (isCancelled) {
+            if (cancellation.isCancelled()) {
                 progressListener.onDownloadCancelled();
             } else {
                 progressListener.onAllTasksCompleted(finalFiles);
@@ -517,9 +1433,12 @@ public class DownloadManager {
     
     /**
      * 取消所有下载任务
+     * 正在进行的解析、下载和解压立即停止，不需要等待网络读取超时
      */
     public void cancelAllDownloads() {
-        isCancelled = true;
+        cancellation.cancel();
+        preparedConfig = null;
+        resolveAheadStage.cancelAll();
         
         for (DownloadTask task : tasks) {
             if (!task.isFinished()) {
@@ -569,13 +1488,24 @@ public class DownloadManager {
     
     /**
      * 清理临时文件
+     * 可续传的部分下载文件会保留，超过保留天数（hcmp.download.partRetentionDays，默认7天）后才删除；
+     * 内存暂存的文件一并释放
      */
     public void cleanupTempFiles() {
+        memoryTier.releaseUnder(Paths.get(TEMP_DIR));
+        
+        long retentionMillis = TimeUnit.DAYS.toMillis(
+            Long.getLong("hcmp.download.partRetentionDays", DEFAULT_PART_RETENTION_DAYS));
+        long expireBefore = System.currentTimeMillis() - retentionMillis;
+        
         try {
             Path tempDir = Paths.get(TEMP_DIR);
             if (Files.exists(tempDir)) {
+                Path projectsDir = tempDir.resolve(PROJECTS_DIR);
                 Files.walk(tempDir)
                      .filter(Files::isRegularFile)
+                     .filter(file -> !file.startsWith(projectsDir)) // 项目队列中的项目自己清理
+                     .filter(file -> !isRetainedPartialFile(file, expireBefore))
                      .forEach(file -> {
                          try {
                              Files.delete(file);
@@ -584,25 +1514,62 @@ public class DownloadManager {
                          }
                      });
             }
+            
+            // 删除边下载边解压留下的暂存目录
+            StreamingExtractor.deleteDirectory(tempDir.resolve(StreamingExtractor.STAGING_DIR));
         } catch (Exception e) {
             System.err.println("清理临时文件失败: " + e.getMessage());
         }
     }
     
+    /**
+     * 删除本管理器下载的文件和解压暂存，项目队列中的项目打包完成或失败后调用
+     * 可续传的部分下载文件在共用的临时目录中，不受影响
+     */
+    public void discardDownloadedFiles() {
+        memoryTier.releaseUnder(filesDir);
+        if (filesDir.equals(Paths.get(TEMP_DIR))) {
+            cleanupTempFiles();
+            return;
+        }
+        try {
+            StreamingExtractor.deleteDirectory(filesDir);
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("删除项目下载目录失败: {} - {}", filesDir, e.getMessage());
+        }
+    }
+    
+    /**
+     * 判断是否为需要保留的部分下载文件
+     */
+    private boolean isRetainedPartialFile(Path file, long expireBefore) {
+        if (!PartialDownload.isPartialFile(file)) {
+            return false;
+        }
+        try {
+            return Files.getLastModifiedTime(file).toMillis() >= expireBefore;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
     /**
      * 关闭下载管理器
      */
     public void shutdown() {
         cancelAllDownloads();
-        downloadExecutor.shutdown();
-        
-        try {
-            if (!downloadExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                downloadExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            downloadExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
+        // 令牌已取消，排队中的操作只做收尾：解析立即以"已取消"完成，下载释放负责的合并下载
+        for (Runnable pending : resolveExecutor.close()) {
+            pending.run();
+        }
+        for (Runnable pending : downloadExecutor.close()) {
+            pending.run();
+        }
+        progressSampler.shutdown();
+        resolveAheadStage.shutdown();
+        if (ownsPools) {
+            pools.shutdown();
         }
+        resolveCache.flush();
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 下载管理器使用的线程池
+ * 单独使用的下载管理器自己创建一份；项目队列中同时运行的多个下载管理器共用一份，
+ * 直链解析和下载线程按项目公平分配，并发数调节器按所有项目的总吞吐量调节下载线程数，
+ * 分段下载和镜像竞速的线程也只有一套。
+ *
+ * @author AeterHilrin
+ */
+public class DownloadPools {
+    
+    private static final int DEFAULT_RESOLVE_THREADS = 4; // 预解析线程数
+    
+    private final FairShareExecutor downloadExecutor;
+    private final FairShareExecutor resolveExecutor;
+    private final ExecutorService prefetchExecutor;
+    private final DownloadConcurrencyTuner concurrencyTuner;
+    private final MirrorRace mirrorRace;
+    private final SegmentedDownloader segmentedDownloader;
+    
+    public DownloadPools() {
+        HttpTransport httpTransport = HttpTransport.getInstance();
+        this.downloadExecutor = new FairShareExecutor(DownloadConcurrencyTuner.initialConcurrency(),
+            ExecutionMode.threadFactory("download", Executors.defaultThreadFactory()));
+        this.concurrencyTuner = new DownloadConcurrencyTuner(downloadExecutor.getPool());
+        
+        int resolveThreads = Math.max(1, Integer.getInteger("hcmp.resolveAhead.threads", DEFAULT_RESOLVE_THREADS));
+        this.resolveExecutor = new FairShareExecutor(resolveThreads,
+            ExecutionMode.threadFactory("resolve-ahead", namedThreadFactory("resolve-ahead", Thread.NORM_PRIORITY)));
+        this.prefetchExecutor = ExecutionMode.newBoundedExecutor(
+            "prefetch", 1, namedThreadFactory("prefetch", Thread.MIN_PRIORITY));
+        
+        this.mirrorRace = new MirrorRace(ResolveCache.getInstance(), httpTransport);
+        this.segmentedDownloader = new SegmentedDownloader(httpTransport);
+    }
+    
+    FairShareExecutor getDownloadExecutor() {
+        return downloadExecutor;
+    }
+    
+    FairShareExecutor getResolveExecutor() {
+        return resolveExecutor;
+    }
+    
+    ExecutorService getPrefetchExecutor() {
+        return prefetchExecutor;
+    }
+    
+    DownloadConcurrencyTuner getConcurrencyTuner() {
+        return concurrencyTuner;
+    }
+    
+    MirrorRace getMirrorRace() {
+        return mirrorRace;
+    }
+    
+    SegmentedDownloader getSegmentedDownloader() {
+        return segmentedDownloader;
+    }
+    
+    /**
+     * 关闭所有线程池，等待正在进行的下载最多5秒
+     */
+    public void shutdown() {
+        concurrencyTuner.shutdown();
+        resolveExecutor.shutdownNow();
+        prefetchExecutor.shutdownNow();
+        mirrorRace.shutdown();
+        segmentedDownloader.shutdown();
+        downloadExecutor.shutdown();
+        
+        try {
+            if (!downloadExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                downloadExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            downloadExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static ThreadFactory namedThreadFactory(String prefix, int priority) {
+        AtomicInteger counter = new AtomicInteger(0);
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,183 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载调度器
+ * 决定解析完成的任务以什么顺序占用下载线程：任务的优先级先于调度策略，
+ * 优先级和策略都相同时按提交顺序。
+ * 下载线程池使用优先队列，排队中的任务由schedule包装后按这里的顺序取出。
+ *
+ * @author AeterHilrin
+ */
+public class DownloadScheduler {
+    
+    /**
+     * 调度策略
+     */
+    public enum Policy {
+        /**
+         * 按后缀顺序，与打包时解压的顺序一致，打包可以尽早开始
+         */
+        SUFFIX("后缀顺序", "suffix", "后缀"),
+        /**
+         * 大文件优先（LPT），文件大小已知时总耗时最短
+         */
+        LARGEST_FIRST("大文件优先", "largest", "lpt"),
+        /**
+         * 小文件优先（SPT），尽快看到完成的文件
+         */
+        SMALLEST_FIRST("小文件优先", "smallest", "spt");
+        
+        private final String description;
+        private final String[] aliases;
+        
+        Policy(String description, String... aliases) {
+            this.description = description;
+            this.aliases = aliases;
+        }
+        
+        public String getDescription() {
+            return description;
+        }
+        
+        /**
+         * 根据名称查找策略，支持枚举名、描述和别名，忽略大小写
+         * @return 对应的策略，无法识别时返回null
+         */
+        public static Policy fromName(String name) {
+            if (name == null || name.trim().isEmpty()) {
+                return null;
+            }
+            String normalized = name.trim().toLowerCase(Locale.ROOT).replace('-', '_');
+            for (Policy policy : values()) {
+                if (policy.name().toLowerCase(Locale.ROOT).equals(normalized)
+                        || policy.description.equals(normalized)) {
+                    return policy;
+                }
+                for (String alias : policy.aliases) {
+                    if (alias.equals(normalized)) {
+                        return policy;
+                    }
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * 策略本身的比较规则，不含优先级
+         */
+        Comparator<DownloadTask> comparator() {
+            Comparator<DownloadTask> bySuffix = Comparator.comparingInt(DownloadTask::getSuffix);
+            switch (this) {
+                case LARGEST_FIRST:
+                    return knownSizeFirst().thenComparing(
+                        Comparator.comparingLong(DownloadTask::getFileSize).reversed()).thenComparing(bySuffix);
+                case SMALLEST_FIRST:
+                    return knownSizeFirst().thenComparingLong(DownloadTask::getFileSize).thenComparing(bySuffix);
+                case SUFFIX:
+                default:
+                    return bySuffix;
+            }
+        }
+        
+        /**
+         * 大小未知的任务（尚未解析或接口未返回大小）排在大小已知的任务之后
+         */
+        private static Comparator<DownloadTask> knownSizeFirst() {
+            return Comparator.comparing(task -> task.getFileSize() <= 0);
+        }
+    }
+    
+    private static final Policy DEFAULT_POLICY = Policy.SUFFIX;
+    
+    private final Policy defaultPolicy;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile Policy policy;
+    private volatile Comparator<DownloadTask> comparator;
+    
+    /**
+     * 排队中的下载，按调度顺序比较
+     */
+    private final class ScheduledDownload implements Runnable, Comparable<ScheduledDownload> {
+        private final DownloadTask task;
+        private final Runnable action;
+        private final long order;
+        
+        ScheduledDownload(DownloadTask task, Runnable action) {
+            this.task = task;
+            this.action = action;
+            this.order = sequence.getAndIncrement();
+        }
+        
+        @Override
+        public void run() {
+            action.run();
+        }
+        
+        @Override
+        public int compareTo(ScheduledDownload other) {
+            int result = comparator.compare(task, other.task);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+    }
+    
+    public DownloadScheduler() {
+        Policy configured = Policy.fromName(System.getProperty("hcmp.download.schedulePolicy"));
+        this.defaultPolicy = configured != null ? configured : DEFAULT_POLICY;
+        setPolicy(defaultPolicy);
+    }
+    
+    /**
+     * 按项目配置切换策略，应在创建新任务时调用
+     * @param name 策略名称，为空或无法识别时使用默认策略
+     */
+    public void configure(String name) {
+        Policy configured = Policy.fromName(name);
+        if (configured == null && name != null && !name.trim().isEmpty()) {
+            ApplicationLogger.logWarn("无法识别的调度策略: {}，使用{}", name, defaultPolicy.getDescription());
+        }
+        setPolicy(configured != null ? configured : defaultPolicy);
+    }
+    
+    public void setPolicy(Policy policy) {
+        Policy newPolicy = policy != null ? policy : defaultPolicy;
+        if (newPolicy == this.policy) {
+            return;
+        }
+        this.comparator = Comparator.comparing(DownloadTask::getPriority, Comparator.reverseOrder())
+            .thenComparing(newPolicy.comparator());
+        this.policy = newPolicy;
+        ApplicationLogger.logInfo("下载调度策略: {}", newPolicy.getDescription());
+    }
+    
+    public Policy getPolicy() {
+        return policy;
+    }
+    
+    /**
+     * 按当前调度顺序排列任务（排序稳定，相同时保持原顺序）
+     * 用于决定提交直链解析的顺序，此时文件大小可能还未知
+     */
+    public List<DownloadTask> order(Collection<DownloadTask> tasks) {
+        List<DownloadTask> ordered = new ArrayList<>(tasks);
+        ordered.sort(comparator);
+        return ordered;
+    }
+    
+    /**
+     * 包装下载操作，使其在下载线程池的优先队列中按调度顺序排队
+     * 包装后的操作必须通过execute提交，submit会把它包装成不可比较的FutureTask
+     */
+    public Runnable schedule(DownloadTask task, Runnable action) {
+        return new ScheduledDownload(task, action);
+    }
+}
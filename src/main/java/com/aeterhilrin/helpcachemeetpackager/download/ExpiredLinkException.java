@@ -0,0 +1,42 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+/**
+ * 直链已过期或失效
+ * 下载过程中抛出，调用方应重新解析直链后从已写入的位置继续
+ *
+ * @author AeterHilrin
+ */
+class ExpiredLinkException extends IOException {
+
+    ExpiredLinkException(String message) {
+        super(message);
+    }
+
+    /**
+     * 判断响应是否说明直链已过期或失效
+     * 签名过期时服务器返回403/404/410，或者返回HTML错误页面而不是文件内容
+     */
+    static boolean isExpired(HttpTransport.Response response) {
+        int responseCode = response.getStatusCode();
+        if (responseCode == HttpURLConnection.HTTP_FORBIDDEN
+                || responseCode == HttpURLConnection.HTTP_NOT_FOUND
+                || responseCode == HttpURLConnection.HTTP_GONE) {
+            return true;
+        }
+
+        String contentType = response.getHeader("Content-Type");
+        return response.isSuccessful() && contentType != null
+            && contentType.toLowerCase(Locale.ROOT).startsWith("text/html");
+    }
+
+    /**
+     * 根据响应创建异常
+     */
+    static ExpiredLinkException from(HttpTransport.Response response) {
+        return new ExpiredLinkException("HTTP " + response.getStatusCode() + ", " + response.getHeader("Content-Type"));
+    }
+}
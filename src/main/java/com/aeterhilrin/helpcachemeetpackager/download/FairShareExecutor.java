@@ -0,0 +1,260 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按项目公平分配的线程池
+ * 多个项目同时运行时共用一个线程池，每个项目使用一条通道，通道内按自己的顺序排队
+ * （可比较的操作按比较结果，例如下载调度器包装的下载，其余按提交顺序）。
+ * 线程空闲时从"正在执行数/权重"最小的通道取出下一个操作，相同时选最久没有被选中的通道，
+ * 排队多的项目不会占满线程池，后加入的项目也能立即分到线程。
+ * 线程池的大小仍可由下载并发数调节器直接修改。
+ *
+ * @author AeterHilrin
+ */
+public class FairShareExecutor {
+    
+    private final ThreadPoolExecutor pool;
+    private final List<Lane> lanes = new ArrayList<>();
+    private long sequence; // 提交顺序
+    private long serveCount; // 选中顺序
+    private int deferred; // 因通道达到上限而没有取出操作的次数，通道有空位时补上
+    
+    /**
+     * 一个项目的通道
+     */
+    public final class Lane implements Executor {
+        private final String name;
+        private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+        private int weight = 1;
+        private int maxRunning; // 同时执行数上限，0表示不限
+        private int running;
+        private long lastServed;
+        private boolean closed;
+        
+        private Lane(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public void execute(Runnable action) {
+            synchronized (FairShareExecutor.this) {
+                if (closed) {
+                    throw new RejectedExecutionException("通道已关闭: " + name);
+                }
+                queue.add(new Entry(action, sequence++));
+            }
+            // 每个排队的操作对应线程池中的一次取出，取出时才决定执行哪个通道的操作
+            pool.execute(FairShareExecutor.this::runNext);
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * 设置权重，权重为2的通道可以同时执行的操作是权重为1的两倍
+         */
+        public void setWeight(int weight) {
+            synchronized (FairShareExecutor.this) {
+                this.weight = Math.max(1, weight);
+            }
+        }
+        
+        /**
+         * 设置同时执行数上限，0表示不限
+         */
+        public void setMaxRunning(int maxRunning) {
+            int pending;
+            synchronized (FairShareExecutor.this) {
+                this.maxRunning = Math.max(0, maxRunning);
+                pending = deferred;
+            }
+            // 上限提高后可能有多个操作可以执行，多补上的取出没有作用
+            for (int i = 0; i < pending; i++) {
+                releaseDeferred();
+            }
+        }
+        
+        public int getQueuedCount() {
+            synchronized (FairShareExecutor.this) {
+                return queue.size();
+            }
+        }
+        
+        public int getRunningCount() {
+            synchronized (FairShareExecutor.this) {
+                return running;
+            }
+        }
+        
+        /**
+         * 关闭通道，之后提交的操作被拒绝，正在执行的操作不受影响
+         * 排队中的操作从线程池中移除并返回，它们可能持有资源（例如合并下载的负责权），
+         * 调用方应在取消后自己执行它们以完成收尾
+         * @return 尚未开始的操作，按通道内的顺序
+         */
+        public List<Runnable> close() {
+            List<Runnable> pending = new ArrayList<>();
+            synchronized (FairShareExecutor.this) {
+                closed = true;
+                Entry entry;
+                while ((entry = queue.poll()) != null) {
+                    pending.add(entry.action);
+                }
+                lanes.remove(this);
+            }
+            return pending;
+        }
+        
+        private boolean isEligible() {
+            return !queue.isEmpty() && (maxRunning <= 0 || running < maxRunning);
+        }
+    }
+    
+    /**
+     * 通道中排队的操作
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final Runnable action;
+        private final long order;
+        
+        Entry(Runnable action, long order) {
+            this.action = action;
+            this.order = order;
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compareTo(Entry other) {
+            if (action instanceof Comparable && action.getClass() == other.action.getClass()) {
+                int result = ((Comparable<Object>) action).compareTo(other.action);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+    
+    /**
+     * @param threads 线程数
+     * @param threadFactory 线程工厂
+     */
+    public FairShareExecutor(int threads, ThreadFactory threadFactory) {
+        this.pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), threadFactory);
+    }
+    
+    /**
+     * 创建新的通道
+     * @param name 通道名称，用于日志
+     */
+    public synchronized Lane newLane(String name) {
+        Lane lane = new Lane(name);
+        lanes.add(lane);
+        return lane;
+    }
+    
+    /**
+     * 底层线程池，供并发数调节器修改线程数
+     */
+    ThreadPoolExecutor getPool() {
+        return pool;
+    }
+    
+    /**
+     * 取出并执行一个操作
+     */
+    private void runNext() {
+        Lane lane;
+        Entry entry;
+        synchronized (this) {
+            lane = pick();
+            if (lane == null) {
+                // 有排队的操作但所在通道都达到上限时，等通道有空位再取出
+                for (Lane candidate : lanes) {
+                    if (!candidate.queue.isEmpty()) {
+                        deferred++;
+                        break;
+                    }
+                }
+                return;
+            }
+            entry = lane.queue.poll();
+            lane.running++;
+            lane.lastServed = ++serveCount;
+        }
+        
+        try {
+            entry.action.run();
+        } finally {
+            synchronized (this) {
+                lane.running--;
+            }
+            releaseDeferred();
+        }
+    }
+    
+    /**
+     * 选出正在执行数与权重之比最小的通道
+     */
+    private Lane pick() {
+        Lane best = null;
+        for (Lane lane : lanes) {
+            if (!lane.isEligible()) {
+                continue;
+            }
+            if (best == null) {
+                best = lane;
+                continue;
+            }
+            long share = (long) lane.running * best.weight;
+            long bestShare = (long) best.running * lane.weight;
+            if (share < bestShare || (share == bestShare && lane.lastServed < best.lastServed)) {
+                best = lane;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * 补上之前因通道达到上限而跳过的取出
+     */
+    private void releaseDeferred() {
+        synchronized (this) {
+            if (deferred == 0) {
+                return;
+            }
+            deferred--;
+        }
+        try {
+            pool.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭
+        }
+    }
+    
+    /**
+     * 停止接受新操作，已排队的操作继续执行
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+    
+    public void shutdownNow() {
+        pool.shutdownNow();
+    }
+    
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,772 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP传输层
+ * 直链解析和文件下载共用的连接管理：复用keep-alive连接、限制每个主机的并发连接数、
+ * 缓存DNS解析结果，并在解析直链期间预热下载主机的连接。
+ * 运行在支持java.net.http的JDK上时使用HTTP/2多路复用。
+ *
+ * @author AeterHilrin
+ */
+public class HttpTransport {
+    
+    public static final String USER_AGENT = "HelpCacheMeetPackager/1.0.0";
+    
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8; // 每个主机的最大并发连接数
+    private static final int DEFAULT_DNS_CACHE_SECONDS = 300; // DNS缓存时间
+    private static final long WARM_UP_INTERVAL_MILLIS = 5000; // 同一主机的预热间隔（JDK默认空闲连接保留5秒）
+    private static final int MAX_DRAIN_BYTES = 64 * 1024; // 关闭响应时最多读取的剩余字节数
+    private static final int MAX_KNOWN_HOSTS = 16;
+    
+    private static volatile HttpTransport instance;
+    
+    private final int maxConnectionsPerHost;
+    private final Map<String, Semaphore> hostPermits;
+    private final Map<String, Long> lastWarmUp;
+    private final Map<String, Long> dnsPrefetched;
+    private final Set<String> knownDownloadHosts;
+    private final Set<String> http1OnlyHosts;
+    private final LatencyEstimator latency;
+    private final ExecutorService backgroundExecutor;
+    private final HttpEngine http1Engine;
+    private final HttpEngine http2Engine;
+    
+    /**
+     * HTTP请求执行器
+     */
+    interface HttpEngine {
+        Response execute(URL url, String method, Map<String, String> headers,
+                         int connectTimeout, int readTimeout) throws IOException;
+        
+        String getName();
+    }
+    
+    /**
+     * HTTP响应
+     * 使用完毕后必须关闭，关闭时读完剩余内容以便连接被复用
+     */
+    public static class Response implements Closeable {
+        private final int statusCode;
+        private final URL url;
+        private final Map<String, List<String>> headers;
+        private final InputStream body;
+        private final Runnable abortAction;
+        private Runnable releaseAction;
+        private boolean closed;
+        
+        Response(int statusCode, URL url, Map<String, List<String>> headers,
+                 InputStream body, Runnable abortAction) {
+            this.statusCode = statusCode;
+            this.url = url;
+            this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            if (headers != null) {
+                for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                    if (entry.getKey() != null) {
+                        this.headers.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            this.body = body != null ? body : new ByteArrayInputStream(new byte[0]);
+            this.abortAction = abortAction;
+        }
+        
+        public int getStatusCode() {
+            return statusCode;
+        }
+        
+        public boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+        
+        /**
+         * 获取最终地址（跟随重定向后）
+         */
+        public URL getUrl() {
+            return url;
+        }
+        
+        public String getHeader(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+        
+        /**
+         * 获取Content-Length，未知时返回-1
+         */
+        public long getContentLength() {
+            String value = getHeader("Content-Length");
+            if (value == null) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        
+        public InputStream getBody() {
+            return body;
+        }
+        
+        /**
+         * 读取全部响应内容为字符串
+         */
+        public String readString() throws IOException {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = body.read(buffer)) != -1) {
+                output.write(buffer, 0, bytesRead);
+            }
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+        
+        /**
+         * 中止响应并断开连接（不复用）
+         */
+        public void abort() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            cut();
+            disconnect();
+        }
+        
+        /**
+         * 中止响应，调用方不等待连接关闭
+         * 能直接关闭底层连接时，阻塞中的读取立即以异常返回；连接名额立即归还，断开连接在指定线程池中执行
+         */
+        void abortAsync(Executor executor) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            cut();
+            release();
+            executor.execute(this::disconnect);
+        }
+        
+        private void cut() {
+            if (body instanceof AbortableStream) {
+                ((AbortableStream) body).abort();
+            }
+        }
+        
+        private void disconnect() {
+            try {
+                if (abortAction != null) {
+                    abortAction.run();
+                }
+                body.close();
+            } catch (Exception e) {
+                // 忽略
+            } finally {
+                release();
+            }
+        }
+        
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            
+            try {
+                // 读完少量剩余内容，连接可以放回keep-alive池
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int bytesRead;
+                while (drained < MAX_DRAIN_BYTES && (bytesRead = body.read(buffer)) != -1) {
+                    drained += bytesRead;
+                }
+                body.close();
+            } catch (Exception e) {
+                // 忽略
+            } finally {
+                release();
+            }
+        }
+        
+        void setReleaseAction(Runnable releaseAction) {
+            this.releaseAction = releaseAction;
+        }
+        
+        private synchronized void release() {
+            if (releaseAction != null) {
+                releaseAction.run();
+                releaseAction = null;
+            }
+        }
+    }
+    
+    /**
+     * 可以从其他线程中止的HttpURLConnection响应流
+     * HttpURLConnection的disconnect()要先关闭响应流，而关闭要等阻塞中的读取释放流的锁，
+     * 所以中止时由中止线程直接关闭底层Socket，阻塞中的读取立即结束，随后再由后台线程断开连接。
+     * 取不到Socket时只标记中止，阻塞的那次读取要等到收到数据或读取超时才返回。
+     * 中止后的读取一律抛出IOException，TLS连接被关闭时读取可能返回-1，不能当作正常结束。
+     */
+    static final class AbortableStream extends FilterInputStream {
+        private final Socket socket;
+        private volatile boolean aborted;
+        
+        AbortableStream(InputStream in, Socket socket) {
+            super(in);
+            this.socket = socket;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            checkAborted();
+            int value;
+            try {
+                value = in.read();
+            } catch (IOException e) {
+                throw aborted ? new IOException("连接已中止", e) : e;
+            }
+            if (value < 0) {
+                checkAborted();
+            }
+            return value;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkAborted();
+            int bytesRead;
+            try {
+                bytesRead = in.read(b, off, len);
+            } catch (IOException e) {
+                throw aborted ? new IOException("连接已中止", e) : e;
+            }
+            if (bytesRead < 0) {
+                checkAborted();
+            }
+            return bytesRead;
+        }
+        
+        @Override
+        public int available() throws IOException {
+            return aborted ? 0 : in.available();
+        }
+        
+        /**
+         * 让正在阻塞和之后的读取立即失败
+         */
+        void abort() {
+            aborted = true;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+            }
+        }
+        
+        private void checkAborted() throws IOException {
+            if (aborted) {
+                throw new IOException("连接已中止");
+            }
+        }
+    }
+    
+    /**
+     * 获取全局共享的传输层
+     */
+    public static HttpTransport getInstance() {
+        if (instance == null) {
+            synchronized (HttpTransport.class) {
+                if (instance == null) {
+                    instance = new HttpTransport();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    private HttpTransport() {
+        this.maxConnectionsPerHost = Math.max(1,
+            Integer.getInteger("hcmp.http.maxConnectionsPerHost", DEFAULT_MAX_CONNECTIONS_PER_HOST));
+        this.hostPermits = new ConcurrentHashMap<>();
+        this.lastWarmUp = new ConcurrentHashMap<>();
+        this.dnsPrefetched = new ConcurrentHashMap<>();
+        this.knownDownloadHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this.http1OnlyHosts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this.latency = new LatencyEstimator();
+        
+        configureJdkDefaults(maxConnectionsPerHost);
+        
+        this.backgroundExecutor = ExecutionMode.newUnboundedExecutor("http-transport", new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(0);
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "http-transport-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+        this.http1Engine = new UrlConnectionEngine();
+        this.http2Engine = loadHttp2Engine();
+        
+        ApplicationLogger.logInfo("HTTP传输层已初始化，引擎: {}, 每主机最大连接数: {}",
+            http2Engine != null ? http2Engine.getName() : http1Engine.getName(), maxConnectionsPerHost);
+    }
+    
+    /**
+     * 配置JDK的keep-alive连接池和DNS缓存
+     * 只在用户未显式指定时生效
+     */
+    private static void configureJdkDefaults(int maxConnectionsPerHost) {
+        if (System.getProperty("http.keepAlive") == null) {
+            System.setProperty("http.keepAlive", "true");
+        }
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerHost));
+        }
+        
+        try {
+            if (Security.getProperty("networkaddress.cache.ttl") == null) {
+                int ttl = Integer.getInteger("hcmp.dns.cacheSeconds", DEFAULT_DNS_CACHE_SECONDS);
+                Security.setProperty("networkaddress.cache.ttl", String.valueOf(ttl));
+            }
+        } catch (SecurityException e) {
+            ApplicationLogger.logWarn("无法设置DNS缓存时间: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 加载HTTP/2引擎
+     * 引擎类位于多版本JAR的META-INF/versions/11，只有在Java 11及以上运行时才能被加载
+     */
+    private static HttpEngine loadHttp2Engine() {
+        if (!Boolean.parseBoolean(System.getProperty("hcmp.http.http2", "true"))) {
+            return null;
+        }
+        
+        try {
+            Class.forName("java.net.http.HttpClient");
+            Class<?> engineClass = Class.forName(
+                "com.aeterhilrin.helpcachemeetpackager.download.Http2Engine");
+            return (HttpEngine) engineClass.getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            // 运行在Java 8上，或不是从多版本JAR启动，使用HttpURLConnection
+            return null;
+        }
+    }
+    
+    /**
+     * 从其他线程中止响应（例如取消下载），调用方不等待连接关闭
+     * 连接名额立即归还。HTTP/2引擎立即关闭流；HttpURLConnection由当前线程直接关闭底层Socket，
+     * 阻塞在读取上的线程立即收到IOException，之后由后台线程断开连接。
+     * 取不到Socket时（Java 9及以上且没有开放sun.net相关包），阻塞的那次读取返回后才会断开。
+     */
+    public void abortInBackground(Response response) {
+        response.abortAsync(backgroundExecutor);
+    }
+    
+    /**
+     * 发送GET请求
+     * @param url 请求地址
+     * @param headers 额外请求头，可为null
+     * @param connectTimeout 连接超时（毫秒）
+     * @param readTimeout 读取超时（毫秒）
+     * @return 响应，使用完毕后需要关闭
+     */
+    public Response get(String url, Map<String, String> headers, int connectTimeout, int readTimeout)
+            throws IOException {
+        return execute("GET", url, headers, connectTimeout, readTimeout);
+    }
+    
+    /**
+     * 发送HEAD请求
+     */
+    public Response head(String url, Map<String, String> headers, int connectTimeout, int readTimeout)
+            throws IOException {
+        return execute("HEAD", url, headers, connectTimeout, readTimeout);
+    }
+    
+    /**
+     * 发送请求，占用目标主机的一个连接名额直到响应被关闭
+     */
+    public Response execute(String method, String url, Map<String, String> headers,
+                            int connectTimeout, int readTimeout) throws IOException {
+        URL target = new URL(url);
+        String hostKey = hostKey(target);
+        Semaphore permits = hostPermits.computeIfAbsent(hostKey,
+            key -> new Semaphore(maxConnectionsPerHost, true));
+        
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待连接名额时被中断: " + hostKey);
+        }
+        
+        Map<String, String> requestHeaders = new LinkedHashMap<>();
+        requestHeaders.put("User-Agent", USER_AGENT);
+        requestHeaders.put("Accept", "*/*");
+        if (headers != null) {
+            requestHeaders.putAll(headers);
+        }
+        
+        try {
+            long start = System.nanoTime();
+            Response response = selectEngine(target).execute(target, method, requestHeaders,
+                connectTimeout, readTimeout);
+            latency.record(hostKey, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            response.setReleaseAction(permits::release);
+            return response;
+        
+        } catch (HttpVersionException e) {
+            // 服务器不兼容HTTP/2客户端，此后该主机改用HttpURLConnection
+            http1OnlyHosts.add(hostKey);
+            ApplicationLogger.logWarn("{} 不兼容HTTP/2客户端，改用HTTP/1.1: {}", hostKey, e.getMessage());
+            try {
+                Response response = http1Engine.execute(target, method, requestHeaders,
+                    connectTimeout, readTimeout);
+                response.setReleaseAction(permits::release);
+                return response;
+            } catch (IOException | RuntimeException retryError) {
+                permits.release();
+                throw retryError;
+            }
+        
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * 按目标主机观察到的延迟计算连接超时
+     * @param url 请求地址
+     * @param defaultTimeout 延迟样本不足时使用的超时（毫秒）
+     */
+    public int connectTimeoutFor(String url, int defaultTimeout) {
+        try {
+            return latency.connectTimeout(hostKey(new URL(url)), defaultTimeout);
+        } catch (MalformedURLException e) {
+            return defaultTimeout;
+        }
+    }
+    
+    /**
+     * 按目标主机观察到的延迟计算读取超时
+     * @param url 请求地址
+     * @param defaultTimeout 延迟样本不足时使用的超时（毫秒）
+     */
+    public int readTimeoutFor(String url, int defaultTimeout) {
+        try {
+            return latency.readTimeout(hostKey(new URL(url)), defaultTimeout);
+        } catch (MalformedURLException e) {
+            return defaultTimeout;
+        }
+    }
+    
+    private HttpEngine selectEngine(URL target) {
+        if (http2Engine != null && "https".equalsIgnoreCase(target.getProtocol())
+                && !http1OnlyHosts.contains(hostKey(target))) {
+            return http2Engine;
+        }
+        return http1Engine;
+    }
+    
+    /**
+     * 记录下载主机，之后解析直链时会提前预热这些主机的连接
+     */
+    public void rememberDownloadHost(URL url) {
+        if (url == null || url.getHost() == null || url.getHost().isEmpty()) {
+            return;
+        }
+        
+        String origin = url.getProtocol() + "://" + url.getHost()
+            + (url.getPort() > 0 ? ":" + url.getPort() : "");
+        if (knownDownloadHosts.size() < MAX_KNOWN_HOSTS || knownDownloadHosts.contains(origin)) {
+            knownDownloadHosts.add(origin);
+        }
+    }
+    
+    /**
+     * 预热所有已知下载主机
+     * 在解析直链期间调用，解析完成时连接已经就绪
+     */
+    public void warmUpKnownHosts() {
+        for (String origin : knownDownloadHosts) {
+            warmUp(origin);
+        }
+    }
+    
+    /**
+     * 异步预热指定主机：解析DNS并建立连接放入连接池
+     */
+    public void warmUp(String url) {
+        final URL target;
+        try {
+            target = new URL(url);
+        } catch (Exception e) {
+            return;
+        }
+        
+        String hostKey = hostKey(target);
+        long now = System.currentTimeMillis();
+        Long last = lastWarmUp.get(hostKey);
+        if (last != null && now - last < WARM_UP_INTERVAL_MILLIS) {
+            return;
+        }
+        lastWarmUp.put(hostKey, now);
+        
+        // 有空闲连接名额时才预热，避免和正在进行的下载抢占连接
+        Semaphore permits = hostPermits.get(hostKey);
+        if (permits != null && permits.availablePermits() == 0) {
+            return;
+        }
+        
+        backgroundExecutor.execute(() -> {
+            prefetchDns(target.getHost());
+            String root = target.getProtocol() + "://" + target.getAuthority() + "/";
+            try (Response response = head(root, null, 5000, 5000)) {
+                ApplicationLogger.logDebug("已预热连接: {} (HTTP {})", hostKey, response.getStatusCode());
+            } catch (Exception e) {
+                ApplicationLogger.logDebug("预热连接失败: {} - {}", hostKey, e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * 异步预解析域名，结果进入JDK的DNS缓存
+     */
+    public void prefetchDnsAsync(String url) {
+        try {
+            String host = new URL(url).getHost();
+            backgroundExecutor.execute(() -> prefetchDns(host));
+        } catch (Exception e) {
+            // 忽略无效地址
+        }
+    }
+    
+    private void prefetchDns(String host) {
+        if (host == null || host.isEmpty()) {
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        Long expiresAt = dnsPrefetched.get(host);
+        if (expiresAt != null && now < expiresAt) {
+            return;
+        }
+        
+        try {
+            InetAddress.getAllByName(host);
+            long ttlMillis = TimeUnit.SECONDS.toMillis(
+                Integer.getInteger("hcmp.dns.cacheSeconds", DEFAULT_DNS_CACHE_SECONDS));
+            dnsPrefetched.put(host, now + ttlMillis);
+        } catch (Exception e) {
+            ApplicationLogger.logDebug("预解析域名失败: {} - {}", host, e.getMessage());
+        }
+    }
+    
+    /**
+     * 获取主机当前可用的连接名额
+     */
+    public int getAvailableConnections(String url) {
+        try {
+            Semaphore permits = hostPermits.get(hostKey(new URL(url)));
+            return permits != null ? permits.availablePermits() : maxConnectionsPerHost;
+        } catch (Exception e) {
+            return maxConnectionsPerHost;
+        }
+    }
+    
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+    
+    private static String hostKey(URL url) {
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        return url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+    }
+    
+    /**
+     * 服务器返回非成功状态码时抛出，携带状态码和Retry-After
+     */
+    public static class HttpStatusException extends IOException {
+        private final int statusCode;
+        private final long retryAfterMillis;
+        
+        public HttpStatusException(int statusCode, String message, long retryAfterMillis) {
+            super(message);
+            this.statusCode = statusCode;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+        
+        public int getStatusCode() {
+            return statusCode;
+        }
+        
+        /**
+         * 服务器要求的等待时间，未指定时为0
+         */
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+        
+        /**
+         * 是否为限流、超时或服务端错误等临时失败
+         */
+        public boolean isTransient() {
+            return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+        }
+    }
+    
+    /**
+     * 解析Retry-After响应头（秒数或HTTP日期）
+     * @return 需要等待的毫秒数，无法解析时返回0
+     */
+    public static long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        
+        String trimmed = value.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(trimmed)));
+        } catch (NumberFormatException e) {
+            // 不是秒数，按HTTP日期解析
+        }
+        
+        try {
+            java.text.SimpleDateFormat format = new java.text.SimpleDateFormat(
+                "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            long retryAt = format.parse(trimmed).getTime();
+            return Math.max(0, retryAt - System.currentTimeMillis());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * 服务器不兼容当前HTTP版本时抛出，调用方会回退到HTTP/1.1
+     */
+    static class HttpVersionException extends IOException {
+        HttpVersionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+    
+    /**
+     * 基于HttpURLConnection的HTTP/1.1引擎
+     * 不调用disconnect()，由JDK的keep-alive缓存复用连接
+     */
+    private static class UrlConnectionEngine implements HttpEngine {
+        
+        @Override
+        public Response execute(URL url, String method, Map<String, String> headers,
+                                int connectTimeout, int readTimeout) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setInstanceFollowRedirects(true);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            
+            try {
+                int responseCode = connection.getResponseCode();
+                InputStream body = responseCode >= 400
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+                return new Response(responseCode, connection.getURL(), connection.getHeaderFields(),
+                    body != null ? new AbortableStream(body, ConnectionSockets.socketOf(connection)) : null,
+                    connection::disconnect);
+            } catch (IOException | RuntimeException e) {
+                connection.disconnect();
+                throw e;
+            }
+        }
+        
+        @Override
+        public String getName() {
+            return "HTTP/1.1 (HttpURLConnection)";
+        }
+    }
+    
+    /**
+     * 读取HttpURLConnection底层的Socket，用于从其他线程立即中止阻塞的读取
+     * JDK没有公开该对象，只能通过反射读取内部字段。Java 9及以上需要开放java.base的
+     * sun.net、sun.net.www.protocol.http和sun.net.www.protocol.https（可执行JAR的清单中已声明Add-Opens），
+     * 无法访问时返回null
+     */
+    private static final class ConnectionSockets {
+        private static final Field HTTPS_DELEGATE = findField("sun.net.www.protocol.https.HttpsURLConnectionImpl", "delegate");
+        private static final Field HTTP_CLIENT = findField("sun.net.www.protocol.http.HttpURLConnection", "http");
+        private static final Field SERVER_SOCKET = findField("sun.net.NetworkClient", "serverSocket");
+        
+        static {
+            if (HTTP_CLIENT == null || SERVER_SOCKET == null) {
+                ApplicationLogger.logDebug("无法访问HttpURLConnection的Socket，中止时要等阻塞的读取返回后才能断开连接");
+            }
+        }
+        
+        private ConnectionSockets() {
+        }
+        
+        static Socket socketOf(HttpURLConnection connection) {
+            if (HTTP_CLIENT == null || SERVER_SOCKET == null) {
+                return null;
+            }
+            try {
+                Object target = connection;
+                if (HTTPS_DELEGATE != null && HTTPS_DELEGATE.getDeclaringClass().isInstance(target)) {
+                    target = HTTPS_DELEGATE.get(target);
+                }
+                if (!HTTP_CLIENT.getDeclaringClass().isInstance(target)) {
+                    return null;
+                }
+                Object client = HTTP_CLIENT.get(target);
+                return client != null ? (Socket) SERVER_SOCKET.get(client) : null;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+        
+        private static Field findField(String className, String fieldName) {
+            try {
+                Field field = Class.forName(className).getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return field;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Java 9及以上没有开放对应的包时setAccessible会失败
+                return null;
+            }
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package com.aeterhilrin.helpcachemeetpackager.download;
 
 import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
 import org.json.JSONObject;
 
 import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 蓝奏云API解析
@@ -18,10 +27,30 @@ public class LanzouApiClient {
     private static final String API_BASE_URL = "https://api.ulq.cc/int/v1/lanzou";
     private static final int CONNECT_TIMEOUT = 15000; // 15秒
     private static final int READ_TIMEOUT = 30000; // 30秒
-    private static final String USER_AGENT = "HelpCacheMeetPackager/1.0.0";
     
-    // 同步锁，防止多线程并发时日志输出混乱
-    private static final Object API_LOCK = new Object();
+    // 解析线程池大小，用于异步批量解析
+    private static final int ASYNC_RESOLVE_THREADS = 8;
+    
+    // API错误消息中表示链接失效的关键字（分享已取消、文件被删除等）
+    private static final String[] LINK_INVALID_KEYWORDS = {
+        "失效", "不存在", "取消分享", "已删除", "已被删除", "来晚了", "来晚啦", "违规"
+    };
+    
+    // 请求序号，未指定任务ID时用于区分日志
+    private static final AtomicLong REQUEST_SEQUENCE = new AtomicLong(0);
+    
+    // 异步解析线程池（守护线程，不阻止JVM退出）
+    private static final ExecutorService RESOLVE_EXECUTOR = ExecutionMode.newBoundedExecutor(
+        "lanzou-resolve", ASYNC_RESOLVE_THREADS, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(0);
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "lanzou-resolve-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     
     /**
      * API响应结果类
@@ -32,13 +61,27 @@ public class LanzouApiClient {
         private final String fileName;
         private final String errorMessage;
         private final long fileSize;
+        private final boolean retryable;    // 失败是否为网络等临时原因（可重试，不应缓存）
+        private final long retryAfterMillis; // 服务器要求的重试等待时间，0表示未指定
         
         public ApiResponse(boolean success, String directUrl, String fileName, long fileSize, String errorMessage) {
+            this(success, directUrl, fileName, fileSize, errorMessage, false);
+        }
+        
+        public ApiResponse(boolean success, String directUrl, String fileName, long fileSize, 
+                          String errorMessage, boolean retryable) {
+            this(success, directUrl, fileName, fileSize, errorMessage, retryable, 0);
+        }
+        
+        public ApiResponse(boolean success, String directUrl, String fileName, long fileSize, 
+                          String errorMessage, boolean retryable, long retryAfterMillis) {
             this.success = success;
             this.directUrl = directUrl;
             this.fileName = fileName;
             this.fileSize = fileSize;
             this.errorMessage = errorMessage;
+            this.retryable = retryable;
+            this.retryAfterMillis = retryAfterMillis;
         }
         
         public boolean isSuccess() { return success; }
@@ -46,6 +89,8 @@ public class LanzouApiClient {
         public String getFileName() { return fileName; }
         public String getErrorMessage() { return errorMessage; }
         public long getFileSize() { return fileSize; }
+        public boolean isRetryable() { return retryable; }
+        public long getRetryAfterMillis() { return retryAfterMillis; }
         
         @Override
         public String toString() {
@@ -55,6 +100,8 @@ public class LanzouApiClient {
                     ", fileName='" + fileName + '\'' +
                     ", fileSize=" + fileSize +
                     ", errorMessage='" + errorMessage + '\'' +
+                    ", retryable=" + retryable +
+                    (retryAfterMillis > 0 ? ", retryAfterMillis=" + retryAfterMillis : "") +
                     '}';
         }
     }
@@ -71,51 +118,124 @@ public class LanzouApiClient {
      * 处理密码参数，当密码为"无"时传递空的pwd参数
      */
     public static ApiResponse parseDirectUrl(String lanzouUrl, String password) {
+        return parseDirectUrl(lanzouUrl, password, null);
+    }
+    
+    /**
+     * 解析蓝奏云链接为直链（带任务标识）
+     * 不再使用全局锁，多个任务可以并发解析；日志通过任务标识区分
+     * @param lanzouUrl 蓝奏云链接
+     * @param password 链接密码
+     * @param taskTag 任务标识，为空时自动生成请求序号
+     * @return 解析结果
+     */
+    public static ApiResponse parseDirectUrl(String lanzouUrl, String password, String taskTag) {
+        return parseDirectUrlWithEndpoint(API_BASE_URL, lanzouUrl, password, taskTag);
+    }
+    
+    /**
+     * 通过指定的解析接口解析蓝奏云链接为直链
+     * @param apiBaseUrl 解析接口地址
+     * @param lanzouUrl 蓝奏云链接
+     * @param password 链接密码
+     * @param taskTag 任务标识，为空时自动生成请求序号
+     * @return 解析结果
+     */
+    public static ApiResponse parseDirectUrlWithEndpoint(String apiBaseUrl, String lanzouUrl, 
+                                                        String password, String taskTag) {
+        String tag = resolveTag(taskTag);
+        
         if (lanzouUrl == null || lanzouUrl.trim().isEmpty()) {
             return new ApiResponse(false, null, null, 0, "蓝奏云链接不能为空");
         }
         
-        // 使用同步锁确保每个下载任务的日志输出是独立和有序的
-        synchronized (API_LOCK) {
-            ApplicationLogger.logInfo("===== 蓝奏云API调试信息 =====");
-            ApplicationLogger.logInfo("线程: {}", Thread.currentThread().getName());
-            ApplicationLogger.logInfo("开始解析蓝奏云链接: {}", lanzouUrl);
-            ApplicationLogger.logInfo("原始密码参数: {}", password);
+        long startTime = System.currentTimeMillis();
+        ApplicationLogger.logInfo("[{}] 开始解析蓝奏云链接: {} (线程: {}, 原始密码参数: {})", 
+            tag, lanzouUrl, Thread.currentThread().getName(), password);
+        
+        try {
+            // 构建请求URL - 这是关键修复点
+            String requestUrl = buildRequestUrl(apiBaseUrl, lanzouUrl, password, tag);
+            ApplicationLogger.logInfo("[{}] 最终请求URL: {}", tag, requestUrl);
             
-            try {
-                // 构建请求URL - 这是关键修复点
-                String requestUrl = buildRequestUrl(lanzouUrl, password);
-                ApplicationLogger.logInfo("最终请求URL: {}", requestUrl);
-                
-                // 发送HTTP请求
-                String response = sendHttpRequest(requestUrl);
-                ApplicationLogger.logInfo("API响应: {}", response);
-                
-                // 解析响应
-                ApiResponse result = parseApiResponse(response);
-                ApplicationLogger.logInfo("解析结果: {}", result.toString());
-                ApplicationLogger.logInfo("===== 蓝奏云API调试结束 =====\n");
-                
-                return result;
-                
-            } catch (Exception e) {
-                ApplicationLogger.logError("API调用异常: {}", e.getMessage());
-                ApplicationLogger.logInfo("===== 蓝奏云API调试结束 =====\n");
-                return new ApiResponse(false, null, null, 0, "API调用失败: " + e.getMessage());
-            }
+            // 发送HTTP请求
+            String response = sendHttpRequest(requestUrl, tag);
+            ApplicationLogger.logInfo("[{}] API响应: {}", tag, response);
+            
+            // 解析响应
+            ApiResponse result = parseApiResponse(response, tag);
+            ApplicationLogger.logInfo("[{}] 解析结果: {}, 耗时: {}ms", 
+                tag, result.toString(), System.currentTimeMillis() - startTime);
+            
+            return result;
+            
+        } catch (HttpTransport.HttpStatusException e) {
+            ApplicationLogger.logError("[{}] API返回错误状态: {}, 耗时: {}ms", 
+                tag, e.getStatusCode(), System.currentTimeMillis() - startTime);
+            // 限流和服务端错误可以重试，其他4xx错误重试也不会成功
+            return new ApiResponse(false, null, null, 0, "API调用失败: " + e.getMessage(), 
+                e.isTransient(), e.getRetryAfterMillis());
+            
+        } catch (Exception e) {
+            ApplicationLogger.logError("[{}] API调用异常: {}, 耗时: {}ms", 
+                tag, e.getMessage(), System.currentTimeMillis() - startTime);
+            // 网络异常属于临时失败，允许调用方重试
+            return new ApiResponse(false, null, null, 0, "API调用失败: " + e.getMessage(), true);
         }
     }
     
+    /**
+     * 异步解析蓝奏云链接为直链
+     * 使用内部解析线程池，便于调用方一次性并发提交大量解析请求
+     * @param lanzouUrl 蓝奏云链接
+     * @param password 链接密码
+     * @param taskTag 任务标识
+     * @return 包装解析结果的CompletableFuture，解析失败时以失败的ApiResponse正常完成
+     */
+    public static CompletableFuture<ApiResponse> parseDirectUrlAsync(String lanzouUrl, String password, 
+                                                                    String taskTag) {
+        return parseDirectUrlAsync(lanzouUrl, password, taskTag, RESOLVE_EXECUTOR);
+    }
+    
+    /**
+     * 使用指定线程池异步解析蓝奏云链接为直链
+     */
+    public static CompletableFuture<ApiResponse> parseDirectUrlAsync(String lanzouUrl, String password, 
+                                                                    String taskTag, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> parseDirectUrl(lanzouUrl, password, taskTag), executor);
+    }
+    
+    /**
+     * 生成日志使用的任务标识
+     */
+    private static String resolveTag(String taskTag) {
+        if (taskTag == null || taskTag.trim().isEmpty()) {
+            return "req-" + REQUEST_SEQUENCE.incrementAndGet();
+        }
+        return shortTag(taskTag);
+    }
+    
+    /**
+     * 截取任务标识前8位，用于日志显示
+     */
+    static String shortTag(String taskTag) {
+        if (taskTag == null) {
+            return "-";
+        }
+        return taskTag.length() > 8 ? taskTag.substring(0, 8) : taskTag;
+    }
+    
     /**
      * 构建请求URL
      * 关键修复：正确处理密码参数
      */
-    private static String buildRequestUrl(String lanzouUrl, String password) throws UnsupportedEncodingException {
-        StringBuilder urlBuilder = new StringBuilder(API_BASE_URL);
+    private static String buildRequestUrl(String apiBaseUrl, String lanzouUrl, String password, 
+                                          String tag) throws UnsupportedEncodingException {
+        StringBuilder urlBuilder = new StringBuilder(apiBaseUrl);
         
         // 编码URL参数
         String encodedUrl = URLEncoder.encode(lanzouUrl, StandardCharsets.UTF_8.name());
-        ApplicationLogger.logInfo("编码后的URL: {}", encodedUrl);
+        ApplicationLogger.logInfo("[{}] 编码后的URL: {}", tag, encodedUrl);
         
         // 添加url参数
         urlBuilder.append("?url=").append(encodedUrl);
@@ -124,12 +244,12 @@ public class LanzouApiClient {
         if (password == null || "无".equals(password) || password.trim().isEmpty()) {
             // 当密码为空、null或"无"时，传递空的pwd参数
             urlBuilder.append("&pwd=");
-            ApplicationLogger.logInfo("添加空密码参数: &pwd=");
+            ApplicationLogger.logInfo("[{}] 添加空密码参数: &pwd=", tag);
         } else {
             // 有实际密码时，编码并传递
             String encodedPassword = URLEncoder.encode(password.trim(), StandardCharsets.UTF_8.name());
             urlBuilder.append("&pwd=").append(encodedPassword);
-            ApplicationLogger.logInfo("添加密码参数: &pwd={}", encodedPassword);
+            ApplicationLogger.logInfo("[{}] 添加密码参数: &pwd={}", tag, encodedPassword);
         }
         
         return urlBuilder.toString();
@@ -137,78 +257,51 @@ public class LanzouApiClient {
     
     /**
      * 发送HTTP请求
+     * 通过共享的HttpTransport发送，连接会被后续解析请求复用
      */
-    private static String sendHttpRequest(String requestUrl) throws IOException {
-        ApplicationLogger.logInfo("发送HTTP GET请求: {}", requestUrl);
+    private static String sendHttpRequest(String requestUrl, String tag) throws IOException {
+        ApplicationLogger.logInfo("[{}] 发送HTTP GET请求: {}", tag, requestUrl);
         
-        URL url = new URL(requestUrl);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Accept", "application/json, text/plain, */*");
+        headers.put("Accept-Language", "zh-CN,zh;q=0.9,en;q=0.8");
+        headers.put("Cache-Control", "no-cache");
         
-        try {
-            // 设置请求属性
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(CONNECT_TIMEOUT);
-            connection.setReadTimeout(READ_TIMEOUT);
-            connection.setRequestProperty("User-Agent", USER_AGENT);
-            connection.setRequestProperty("Accept", "application/json, text/plain, */*");
-            connection.setRequestProperty("Accept-Language", "zh-CN,zh;q=0.9,en;q=0.8");
-            connection.setRequestProperty("Cache-Control", "no-cache");
+        try (HttpTransport.Response response = HttpTransport.getInstance().get(
+                requestUrl, headers, CONNECT_TIMEOUT, READ_TIMEOUT)) {
             
-            // 发送请求
-            int responseCode = connection.getResponseCode();
-            ApplicationLogger.logInfo("HTTP响应码: {}", responseCode);
+            int responseCode = response.getStatusCode();
+            ApplicationLogger.logInfo("[{}] HTTP响应码: {}", tag, responseCode);
             
             if (responseCode == HttpURLConnection.HTTP_OK) {
-                String response = readResponse(connection.getInputStream());
-                ApplicationLogger.logInfo("成功响应内容: {}", response.substring(0, Math.min(200, response.length())) + "...");
-                return response;
+                String body = response.readString();
+                ApplicationLogger.logInfo("[{}] 成功响应内容: {}", tag, body.substring(0, Math.min(200, body.length())) + "...");
+                return body;
             } else {
-                String errorResponse = readResponse(connection.getErrorStream());
-                ApplicationLogger.logError("错误响应内容: {}", errorResponse);
-                throw new IOException("HTTP " + responseCode + ": " + errorResponse);
-            }
-            
-        } finally {
-            connection.disconnect();
-        }
-    }
-    
-    /**
-     * 读取响应内容
-     */
-    private static String readResponse(InputStream inputStream) throws IOException {
-        if (inputStream == null) {
-            return "";
-        }
-        
-        StringBuilder response = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
-            
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+                String errorResponse = response.readString();
+                ApplicationLogger.logError("[{}] 错误响应内容: {}", tag, errorResponse);
+                throw new HttpTransport.HttpStatusException(responseCode,
+                    "HTTP " + responseCode + ": " + errorResponse,
+                    HttpTransport.parseRetryAfter(response.getHeader("Retry-After")));
             }
         }
-        
-        return response.toString();
     }
     
     /**
      * 解析API响应
      */
-    private static ApiResponse parseApiResponse(String responseText) {
+    private static ApiResponse parseApiResponse(String responseText, String tag) {
         if (responseText == null || responseText.trim().isEmpty()) {
-            return new ApiResponse(false, null, null, 0, "API响应为空");
+            return new ApiResponse(false, null, null, 0, "API响应为空", true);
         }
         
         try {
-            ApplicationLogger.logInfo("解析JSON响应: {}", responseText);
+            ApplicationLogger.logInfo("[{}] 解析JSON响应: {}", tag, responseText);
             JSONObject jsonResponse = new JSONObject(responseText);
             
             // 检查状态码
             int code = jsonResponse.optInt("code", -1);
-            ApplicationLogger.logInfo("响应状态码: {}", code);
+            ApplicationLogger.logInfo("[{}] 响应状态码: {}", tag, code);
             
             if (code != 200) {
                 String message = jsonResponse.optString("msg", "");
@@ -223,13 +316,15 @@ public class LanzouApiClient {
                     }
                 }
                 
-                ApplicationLogger.logError("API错误 - 状态码: {}, 消息: {}", code, message);
-                return new ApiResponse(false, null, null, 0, "API错误 " + code + ": " + message);
+                // 只有链接失效和密码错误是确定性失败，繁忙、限流和未知状态码都可以重试
+                boolean retryable = !isPermanentApiError(code, message);
+                ApplicationLogger.logError("[{}] API错误 - 状态码: {}, 消息: {}, 可重试: {}", tag, code, message, retryable);
+                return new ApiResponse(false, null, null, 0, "API错误 " + code + ": " + message, retryable);
             }
             
             // 获取响应消息
             String msg = jsonResponse.optString("msg", "");
-            ApplicationLogger.logInfo("响应消息: {}", msg);
+            ApplicationLogger.logInfo("[{}] 响应消息: {}", tag, msg);
             
             // 解析data字段中的文件信息
             JSONObject dataObj = jsonResponse.optJSONObject("data");
@@ -241,9 +336,9 @@ public class LanzouApiClient {
                 fileName = dataObj.optString("name", null);
                 fileSize = dataObj.optString("size", "0");
                 downUrl = dataObj.optString("url", null);
-                ApplicationLogger.logInfo("从data字段解析 - 文件名: {}, 大小: {}", fileName, fileSize);
+                ApplicationLogger.logInfo("[{}] 从data字段解析 - 文件名: {}, 大小: {}", tag, fileName, fileSize);
             } else {
-                ApplicationLogger.logWarn("响应中未找到data字段");
+                ApplicationLogger.logWarn("[{}] 响应中未找到data字段", tag);
                 // 如果没有data字段，尝试直接从根级别解析（兼容旧格式）
                 fileName = jsonResponse.optString("name", null);
                 fileSize = jsonResponse.optString("filesize", "0");
@@ -252,14 +347,14 @@ public class LanzouApiClient {
             
             // 如果仍然没有找到下载链接，尝试搜索包含https://的字段
             if (downUrl == null || downUrl.trim().isEmpty()) {
-                ApplicationLogger.logInfo("未找到下载链接字段，尝试搜索包含https://的链接");
-                downUrl = extractUrlFromResponse(responseText);
+                ApplicationLogger.logInfo("[{}] 未找到下载链接字段，尝试搜索包含https://的链接", tag);
+                downUrl = extractUrlFromResponse(responseText, tag);
             }
             
             if (downUrl != null && !downUrl.trim().isEmpty()) {
-                ApplicationLogger.logInfo("找到下载链接: {}", downUrl.substring(0, Math.min(80, downUrl.length())) + "...");
+                ApplicationLogger.logInfo("[{}] 找到下载链接: {}", tag, downUrl.substring(0, Math.min(80, downUrl.length())) + "...");
             } else {
-                ApplicationLogger.logError("未能从响应中提取到有效的下载链接");
+                ApplicationLogger.logError("[{}] 未能从响应中提取到有效的下载链接", tag);
                 return new ApiResponse(false, null, null, 0, "未能获取到有效的下载链接");
             }
             
@@ -269,15 +364,37 @@ public class LanzouApiClient {
             return new ApiResponse(true, downUrl.trim(), fileName, fileSizeBytes, null);
             
         } catch (Exception e) {
-            ApplicationLogger.logError("解析响应异常: {}", e.getMessage());
-            return new ApiResponse(false, null, null, 0, "解析响应失败: " + e.getMessage());
+            ApplicationLogger.logError("[{}] 解析响应异常: {}", tag, e.getMessage());
+            // 通常是服务繁忙时返回的错误页面，按临时失败处理
+            return new ApiResponse(false, null, null, 0, "解析响应失败: " + e.getMessage(), true);
+        }
+    }
+    
+    /**
+     * 判断API错误是否为确定性失败
+     * 链接失效（已取消分享、文件被删除）和密码错误重试也不会成功；
+     * 其他状态码（服务繁忙、限流、未知错误）都按临时失败处理
+     * @param code API返回的状态码
+     * @param message API返回的错误消息
+     */
+    static boolean isPermanentApiError(int code, String message) {
+        if (message != null) {
+            if (message.contains("密码")) {
+                return true;
+            }
+            for (String keyword : LINK_INVALID_KEYWORDS) {
+                if (message.contains(keyword)) {
+                    return true;
+                }
+            }
         }
+        return code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE;
     }
     
     /**
      * 从响应文本中提取包含https://的URL链接
      */
-    private static String extractUrlFromResponse(String responseText) {
+    private static String extractUrlFromResponse(String responseText, String tag) {
         if (responseText == null) {
             return null;
         }
@@ -290,15 +407,15 @@ public class LanzouApiClient {
             
             if (matcher.find()) {
                 String foundUrl = matcher.group();
-                ApplicationLogger.logInfo("通过正则匹配找到URL: {}", foundUrl);
+                ApplicationLogger.logInfo("[{}] 通过正则匹配找到URL: {}", tag, foundUrl);
                 return foundUrl;
             }
             
-            ApplicationLogger.logWarn("未能通过正则表达式找到https://链接");
+            ApplicationLogger.logWarn("[{}] 未能通过正则表达式找到https://链接", tag);
             return null;
             
         } catch (Exception e) {
-            ApplicationLogger.logError("提取URL时发生异常: {}", e.getMessage());
+            ApplicationLogger.logError("[{}] 提取URL时发生异常: {}", tag, e.getMessage());
             return null;
         }
     }
@@ -345,24 +462,32 @@ public class LanzouApiClient {
         }
     }
     
+    /**
+     * 获取默认解析接口地址
+     */
+    public static String getDefaultApiBaseUrl() {
+        return API_BASE_URL;
+    }
+    
     /**
      * 测试API连接
      */
     public static boolean testConnection() {
+        return testConnection(API_BASE_URL);
+    }
+    
+    /**
+     * 测试指定解析接口的连接
+     */
+    public static boolean testConnection(String apiBaseUrl) {
         try {
-            URL url = new URL(API_BASE_URL);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            
-            connection.setRequestMethod("HEAD");
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(5000);
-            connection.setRequestProperty("User-Agent", USER_AGENT);
-            
-            int responseCode = connection.getResponseCode();
-            connection.disconnect();
-            
-            return responseCode == HttpURLConnection.HTTP_OK || 
-                   responseCode == HttpURLConnection.HTTP_BAD_REQUEST;
+            try (HttpTransport.Response response = HttpTransport.getInstance().head(
+                    apiBaseUrl, null, 5000, 5000)) {
+                
+                int responseCode = response.getStatusCode();
+                return responseCode == HttpURLConnection.HTTP_OK || 
+                       responseCode == HttpURLConnection.HTTP_BAD_REQUEST;
+            }
             
         } catch (Exception e) {
             return false;
@@ -0,0 +1,97 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按主机统计的请求延迟
+ * 记录每次请求从发出到收到响应头的耗时，按RFC 6298的方式平滑（SRTT和RTTVAR），
+ * 据此计算连接和读取超时：延迟低的主机更快发现失效的连接，延迟高的主机不会被过早判定超时。
+ * 样本不足或关闭自适应超时（hcmp.http.adaptiveTimeouts=false）时使用调用方给出的默认值。
+ *
+ * @author AeterHilrin
+ */
+class LatencyEstimator {
+    
+    private static final int MIN_SAMPLES = 3; // 开始自适应前需要的样本数
+    private static final int MIN_CONNECT_TIMEOUT = 3000;
+    private static final int MIN_READ_TIMEOUT = 8000;
+    private static final int CONNECT_MULTIPLIER = 3; // 连接超时为重传超时估计的倍数
+    private static final int READ_MULTIPLIER = 8; // 读取超时为重传超时估计的倍数
+    private static final int MAX_HOSTS = 256;
+    
+    private final Map<String, Estimate> estimates = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    
+    /**
+     * 单个主机的平滑延迟
+     */
+    private static final class Estimate {
+        private double srtt;
+        private double rttvar;
+        private int samples;
+        
+        synchronized void add(long millis) {
+            if (samples == 0) {
+                srtt = millis;
+                rttvar = millis / 2.0;
+            } else {
+                rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - millis);
+                srtt = 0.875 * srtt + 0.125 * millis;
+            }
+            samples++;
+        }
+        
+        /**
+         * 重传超时估计（SRTT + 4 * RTTVAR），样本不足时返回-1
+         */
+        synchronized long rto() {
+            return samples >= MIN_SAMPLES ? (long) (srtt + 4 * rttvar) : -1;
+        }
+    }
+    
+    LatencyEstimator() {
+        this.enabled = Boolean.parseBoolean(System.getProperty("hcmp.http.adaptiveTimeouts", "true"));
+    }
+    
+    /**
+     * 记录一次请求收到响应头的耗时
+     */
+    void record(String hostKey, long millis) {
+        if (!enabled || millis < 0) {
+            return;
+        }
+        Estimate estimate = estimates.get(hostKey);
+        if (estimate == null) {
+            if (estimates.size() >= MAX_HOSTS) {
+                return;
+            }
+            estimate = estimates.computeIfAbsent(hostKey, key -> new Estimate());
+        }
+        estimate.add(millis);
+    }
+    
+    /**
+     * 连接超时，在最小值和默认值的两倍之间
+     */
+    int connectTimeout(String hostKey, int defaultTimeout) {
+        return adapt(hostKey, defaultTimeout, CONNECT_MULTIPLIER, MIN_CONNECT_TIMEOUT);
+    }
+    
+    /**
+     * 读取超时，在最小值和默认值的两倍之间
+     */
+    int readTimeout(String hostKey, int defaultTimeout) {
+        return adapt(hostKey, defaultTimeout, READ_MULTIPLIER, MIN_READ_TIMEOUT);
+    }
+    
+    private int adapt(String hostKey, int defaultTimeout, int multiplier, int minimum) {
+        Estimate estimate = enabled ? estimates.get(hostKey) : null;
+        long rto = estimate != null ? estimate.rto() : -1;
+        if (rto < 0) {
+            return defaultTimeout;
+        }
+        long timeout = rto * multiplier;
+        return (int) Math.max(Math.min(minimum, defaultTimeout), Math.min(2L * defaultTimeout, timeout));
+    }
+}
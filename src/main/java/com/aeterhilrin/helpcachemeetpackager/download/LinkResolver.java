@@ -0,0 +1,26 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+/**
+ * 直链解析器接口
+ * 将蓝奏云分享链接解析为直链。可通过ServiceLoader（META-INF/services）
+ * 或配置文件中的解析接口地址注册多个实现。
+ * 
+ * @author AeterHilrin
+ */
+public interface LinkResolver {
+    
+    /**
+     * 获取解析器名称（用于日志和统计）
+     */
+    String getName();
+    
+    /**
+     * 解析蓝奏云链接为直链
+     * 实现类不应抛出异常，失败时返回失败的ApiResponse
+     * @param lanzouUrl 蓝奏云链接
+     * @param password 链接密码
+     * @param taskTag 任务标识（用于日志）
+     * @return 解析结果
+     */
+    LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag);
+}
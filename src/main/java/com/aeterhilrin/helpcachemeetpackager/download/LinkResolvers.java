@@ -0,0 +1,103 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 直链解析器工厂
+ * 通过ServiceLoader加载已注册的解析器，并合并系统属性
+ * hcmp.resolver.endpoints（逗号分隔）与项目配置中的解析接口地址。
+ * 多个后端时返回带对冲和故障转移的组合解析器，并统一由ResolveGovernor控制请求压力。
+ * 
+ * @author AeterHilrin
+ */
+public class LinkResolvers {
+    
+    private static final String ENDPOINTS_PROPERTY = "hcmp.resolver.endpoints";
+    
+    // 按后端组合缓存解析器，保证统计信息在多次运行间延续
+    private static final Map<String, LinkResolver> RESOLVER_CACHE = new ConcurrentHashMap<>();
+    
+    /**
+     * 获取默认解析器（ServiceLoader + 系统属性）
+     */
+    public static LinkResolver getDefault() {
+        return forEndpoints(Collections.emptyList());
+    }
+    
+    /**
+     * 获取包含额外解析接口的解析器
+     * @param extraEndpoints 额外的解析接口地址，可为空
+     * @return 解析器
+     */
+    public static LinkResolver forEndpoints(List<String> extraEndpoints) {
+        Set<String> endpoints = new LinkedHashSet<>();
+        
+        String property = System.getProperty(ENDPOINTS_PROPERTY);
+        if (property != null) {
+            for (String endpoint : property.split(",")) {
+                if (!endpoint.trim().isEmpty()) {
+                    endpoints.add(endpoint.trim());
+                }
+            }
+        }
+        
+        if (extraEndpoints != null) {
+            for (String endpoint : extraEndpoints) {
+                if (endpoint != null && !endpoint.trim().isEmpty()) {
+                    endpoints.add(endpoint.trim());
+                }
+            }
+        }
+        
+        String cacheKey = String.join("|", endpoints);
+        return RESOLVER_CACHE.computeIfAbsent(cacheKey, key -> createResolver(endpoints));
+    }
+    
+    /**
+     * 创建解析器
+     */
+    private static LinkResolver createResolver(Set<String> endpoints) {
+        List<LinkResolver> resolvers = new ArrayList<>();
+        Set<String> knownBaseUrls = new LinkedHashSet<>();
+        
+        // 通过ServiceLoader加载已注册的解析器
+        try {
+            Iterator<LinkResolver> iterator = ServiceLoader.load(LinkResolver.class).iterator();
+            while (iterator.hasNext()) {
+                LinkResolver resolver = iterator.next();
+                resolvers.add(resolver);
+                if (resolver instanceof ApiEndpointResolver) {
+                    knownBaseUrls.add(((ApiEndpointResolver) resolver).getApiBaseUrl());
+                }
+            }
+        } catch (ServiceConfigurationError e) {
+            ApplicationLogger.logWarn("加载解析器服务失败: {}", e.getMessage());
+        }
+        
+        // 追加配置的解析接口
+        for (String endpoint : endpoints) {
+            if (knownBaseUrls.add(endpoint)) {
+                resolvers.add(new ApiEndpointResolver(endpoint));
+            }
+        }
+        
+        if (resolvers.isEmpty()) {
+            resolvers.add(new ApiEndpointResolver());
+        }
+        
+        LinkResolver resolver = resolvers.size() == 1 ? resolvers.get(0) : new CompositeLinkResolver(resolvers);
+        ApplicationLogger.logInfo("直链解析器已就绪: {}", resolver.getName());
+        return new ResolveGovernor(resolver);
+    }
+}
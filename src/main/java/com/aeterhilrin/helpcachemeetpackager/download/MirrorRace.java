@@ -0,0 +1,278 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 镜像竞速
+ * 下载项配置了镜像链接时，并行解析所有分享链接，各自请求文件开头的一小段数据，
+ * 最先读完的来源被选用，其余来源的解析和连接立即取消。
+ * 下载中途当前来源失败或明显变慢时，由下载管理器切换到下一个来源并从已下载的位置继续。
+ *
+ * @author AeterHilrin
+ */
+public class MirrorRace {
+    
+    private static final int DEFAULT_PROBE_BYTES = 64 * 1024; // 每个来源探测的字节数
+    private static final int MAX_PROBE_BYTES = 1024 * 1024;
+    private static final long DEFAULT_SLOW_WINDOW_MILLIS = 5000; // 测速窗口
+    private static final double DEFAULT_SLOW_RATIO = 0.25; // 低于最快窗口速度的这个比例时判定变慢
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 15000;
+    
+    private final ResolveCache resolveCache;
+    private final HttpTransport httpTransport;
+    private final ExecutorService raceExecutor;
+    private final int probeBytes;
+    private final long slowWindowMillis;
+    private final double slowRatio;
+    
+    /**
+     * 来源变慢，应切换到其他镜像
+     */
+    public static class SlowSourceException extends IOException {
+        public SlowSourceException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * 单个来源的竞速结果
+     */
+    private static class Candidate {
+        private final String sourceUrl;
+        private final LanzouApiClient.ApiResponse response;
+        private final long elapsedMillis;
+        private final int probedBytes;
+        
+        Candidate(String sourceUrl, LanzouApiClient.ApiResponse response, long elapsedMillis, int probedBytes) {
+            this.sourceUrl = sourceUrl;
+            this.response = response;
+            this.elapsedMillis = elapsedMillis;
+            this.probedBytes = probedBytes;
+        }
+    }
+    
+    /**
+     * 下载中途的测速
+     * 按固定窗口统计速度，某个窗口的速度低于之前最快窗口的一定比例时判定来源变慢
+     */
+    static final class SpeedWatch {
+        private final long windowNanos;
+        private final double ratio;
+        private long windowStart = System.nanoTime();
+        private long windowBytes;
+        private double peakRate; // 字节/秒
+        
+        private SpeedWatch(long windowMillis, double ratio) {
+            this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            this.ratio = ratio;
+        }
+        
+        /**
+         * 记录写入的字节数，窗口结束时检查速度
+         * @throws SlowSourceException 当前窗口的速度明显低于之前最快的窗口
+         */
+        void record(long bytes) throws SlowSourceException {
+            windowBytes += bytes;
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (elapsed < windowNanos) {
+                return;
+            }
+            
+            double rate = windowBytes * 1e9 / elapsed;
+            if (peakRate > 0 && rate < peakRate * ratio) {
+                throw new SlowSourceException(String.format("来源速度下降: %d KB/s，之前最快 %d KB/s",
+                    (long) (rate / 1024), (long) (peakRate / 1024)));
+            }
+            peakRate = Math.max(peakRate, rate);
+            windowStart = now;
+            windowBytes = 0;
+        }
+    }
+    
+    public MirrorRace(ResolveCache resolveCache, HttpTransport httpTransport) {
+        this.resolveCache = resolveCache;
+        this.httpTransport = httpTransport;
+        this.probeBytes = Math.max(1, Math.min(MAX_PROBE_BYTES,
+            Integer.getInteger("hcmp.mirror.probeBytes", DEFAULT_PROBE_BYTES)));
+        this.slowWindowMillis = Math.max(1000, Long.getLong("hcmp.mirror.slowWindowMillis", DEFAULT_SLOW_WINDOW_MILLIS));
+        this.slowRatio = parseRatio(System.getProperty("hcmp.mirror.slowRatio"));
+        
+        AtomicInteger counter = new AtomicInteger(0);
+        this.raceExecutor = ExecutionMode.newUnboundedExecutor("mirror-race", r -> {
+            Thread thread = new Thread(r, "mirror-race-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    private static double parseRatio(String value) {
+        if (value == null) {
+            return DEFAULT_SLOW_RATIO;
+        }
+        try {
+            return Math.max(0, Math.min(1, Double.parseDouble(value.trim())));
+        } catch (NumberFormatException e) {
+            ApplicationLogger.logWarn("无效的hcmp.mirror.slowRatio: {}，使用默认值 {}", value, DEFAULT_SLOW_RATIO);
+            return DEFAULT_SLOW_RATIO;
+        }
+    }
+    
+    /**
+     * 并行解析并探测任务的所有来源，选用最先读完开头数据的来源
+     * 所有来源都探测失败时，按配置顺序使用第一个解析成功的来源
+     * @param task 配置了镜像的下载任务，选中的来源记录到任务中
+     * @param resolver 缓存未命中时使用的解析器
+     * @return 选中来源的解析结果，全部解析失败时返回原始链接的失败结果
+     * @throws InterruptedException 等待期间线程被中断（取消）
+     */
+    public LanzouApiClient.ApiResponse race(DownloadTask task, LinkResolver resolver) throws InterruptedException {
+        String tag = LanzouApiClient.shortTag(task.getTaskId());
+        List<String> sources = task.getSourceUrls();
+        CompletableFuture<Candidate> winner = new CompletableFuture<>();
+        Map<String, LanzouApiClient.ApiResponse> resolved = new ConcurrentHashMap<>();
+        Set<HttpTransport.Response> probing = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        AtomicInteger remaining = new AtomicInteger(sources.size());
+        List<Future<?>> workers = new ArrayList<>();
+        
+        for (String source : sources) {
+            workers.add(raceExecutor.submit(() -> {
+                try {
+                    Candidate candidate = runCandidate(task, source, resolver, winner, probing, resolved);
+                    if (candidate != null) {
+                        winner.complete(candidate);
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        winner.complete(null);
+                    }
+                }
+            }));
+        }
+        
+        Candidate chosen;
+        try {
+            chosen = winner.get();
+        } catch (ExecutionException e) {
+            chosen = null;
+        } finally {
+            winner.complete(null);
+            // 取消落选来源的解析和探测连接
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+            for (HttpTransport.Response response : probing) {
+                httpTransport.abortInBackground(response);
+            }
+        }
+        
+        if (chosen != null) {
+            task.setSourceUrl(chosen.sourceUrl);
+            ApplicationLogger.logInfo("[{}] 镜像竞速选择: {}，开头 {} 字节用时 {} ms（共 {} 个来源）",
+                tag, chosen.sourceUrl, chosen.probedBytes, chosen.elapsedMillis, sources.size());
+            return chosen.response;
+        }
+        
+        // 所有来源都没有探测成功，使用第一个解析成功的来源
+        for (String source : sources) {
+            LanzouApiClient.ApiResponse response = resolved.get(source);
+            if (response != null && response.isSuccess()) {
+                task.setSourceUrl(source);
+                ApplicationLogger.logWarn("[{}] 所有镜像探测失败，使用 {}", tag, source);
+                return response;
+            }
+        }
+        
+        LanzouApiClient.ApiResponse primary = resolved.get(task.getOriginalUrl());
+        return primary != null ? primary
+            : new LanzouApiClient.ApiResponse(false, null, null, 0, "所有镜像解析失败", true);
+    }
+    
+    /**
+     * 解析单个来源并读取文件开头的数据
+     * @return 竞速结果，解析或探测失败、已经有来源胜出时返回null
+     */
+    private Candidate runCandidate(DownloadTask task, String source, LinkResolver resolver,
+                                   CompletableFuture<Candidate> winner, Set<HttpTransport.Response> probing,
+                                   Map<String, LanzouApiClient.ApiResponse> resolved) {
+        String tag = LanzouApiClient.shortTag(task.getTaskId());
+        LanzouApiClient.ApiResponse response = resolveCache.resolve(source, task.getPassword(), task.getTaskId(), resolver);
+        resolved.put(source, response);
+        if (!response.isSuccess() || winner.isDone()) {
+            return null;
+        }
+        
+        long start = System.nanoTime();
+        Map<String, String> headers = Collections.singletonMap("Range", "bytes=0-" + (probeBytes - 1));
+        String url = response.getDirectUrl();
+        try (HttpTransport.Response probe = httpTransport.get(url, headers,
+                httpTransport.connectTimeoutFor(url, CONNECT_TIMEOUT), httpTransport.readTimeoutFor(url, READ_TIMEOUT))) {
+            probing.add(probe);
+            try {
+                // 登记后再检查，避免与选出胜者后的关闭连接错过
+                if (winner.isDone() || ExpiredLinkException.isExpired(probe)) {
+                    probe.abort();
+                    return null;
+                }
+                
+                int statusCode = probe.getStatusCode();
+                if (statusCode != HttpURLConnection.HTTP_PARTIAL && statusCode != HttpURLConnection.HTTP_OK) {
+                    probe.abort();
+                    return null;
+                }
+                
+                InputStream body = probe.getBody();
+                byte[] buffer = new byte[8192];
+                int total = 0;
+                int bytesRead;
+                while (total < probeBytes
+                        && (bytesRead = body.read(buffer, 0, Math.min(buffer.length, probeBytes - total))) != -1) {
+                    total += bytesRead;
+                }
+                if (statusCode == HttpURLConnection.HTTP_OK) {
+                    // 服务器忽略了Range，剩余部分不再读取
+                    probe.abort();
+                }
+                
+                httpTransport.rememberDownloadHost(probe.getUrl());
+                return new Candidate(source, response, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), total);
+            } finally {
+                probing.remove(probe);
+            }
+        } catch (IOException e) {
+            if (!winner.isDone()) {
+                ApplicationLogger.logDebug("[{}] 镜像探测失败: {} - {}", tag, source, e.getMessage());
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * 创建下载中途的测速，hcmp.mirror.slowRatio为0时不检测变慢
+     * @return 测速器，不检测时返回null
+     */
+    SpeedWatch watchSpeed() {
+        return slowRatio > 0 ? new SpeedWatch(slowWindowMillis, slowRatio) : null;
+    }
+    
+    /**
+     * 关闭竞速线程池
+     */
+    public void shutdown() {
+        raceExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,392 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 可续传的部分下载文件
+ * 数据写入.part文件，旁边的.part.json记录链接、文件大小、ETag和尚未下载的区间，
+ * 取消、失败或程序重启后可以从已确认写入的位置继续下载。
+ * 续传前会重新下载已写入部分的末尾并与本地数据比对，不一致时从头下载。
+ *
+ * @author AeterHilrin
+ */
+public class PartialDownload {
+    
+    public static final String PART_SUFFIX = ".part";
+    public static final String META_SUFFIX = ".part.json";
+    public static final int VERIFY_BYTES = 64 * 1024; // 续传时校验的末尾字节数
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000; // 元数据写盘间隔
+    private static final int META_VERSION = 1;
+    
+    // 当前进程中正在使用的部分文件，避免同一链接的两个任务写同一个文件
+    private static final Set<String> ACTIVE_KEYS = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    
+    private final String key;
+    private final Path partFile;
+    private final Path metaFile;
+    private final String sourceUrl;
+    private long totalSize = -1;
+    private String etag;
+    private List<long[]> pendingRanges = new ArrayList<>();
+    private long lastCheckpoint;
+    
+    /**
+     * 续传校验失败：服务器上的文件和本地已下载的部分不一致
+     */
+    static class ResumeMismatchException extends IOException {
+        ResumeMismatchException(String message) {
+            super(message);
+        }
+    }
+    
+    private PartialDownload(String key, Path directory, String sourceUrl) {
+        this.key = key;
+        this.partFile = directory.resolve(key + PART_SUFFIX);
+        this.metaFile = directory.resolve(key + META_SUFFIX);
+        this.sourceUrl = sourceUrl;
+    }
+    
+    /**
+     * 打开链接对应的部分下载文件，存在元数据时加载已下载的进度
+     * @param directory 临时文件目录
+     * @param lanzouUrl 蓝奏云链接
+     * @param password 链接密码
+     * @param taskId 任务ID，同一链接已被其他任务占用时用于生成独立的文件名
+     */
+    public static PartialDownload open(Path directory, String lanzouUrl, String password, String taskId) {
+        String key = ResolveCache.buildKey(lanzouUrl, password).substring(0, 32);
+        if (!ACTIVE_KEYS.add(key)) {
+            // 同一链接正在被其他任务下载，本任务使用独立文件（不能跨重启续传）
+            key = key + "-" + taskId;
+            ACTIVE_KEYS.add(key);
+        }
+        
+        PartialDownload partial = new PartialDownload(key, directory, lanzouUrl);
+        partial.load();
+        return partial;
+    }
+    
+    /**
+     * 读取元数据；元数据与部分文件不匹配时丢弃
+     */
+    private void load() {
+        if (!Files.exists(metaFile) || !Files.exists(partFile)) {
+            pendingRanges = new ArrayList<>();
+            return;
+        }
+        
+        try {
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(metaFile), StandardCharsets.UTF_8));
+            if (json.optInt("version") != META_VERSION || !sourceUrl.equals(json.optString("url"))) {
+                discard();
+                return;
+            }
+            
+            totalSize = json.optLong("totalSize", -1);
+            etag = json.isNull("etag") ? null : json.optString("etag", null);
+            List<long[]> ranges = new ArrayList<>();
+            JSONArray pending = json.optJSONArray("pending");
+            if (pending != null) {
+                for (int i = 0; i < pending.length(); i++) {
+                    JSONArray range = pending.getJSONArray(i);
+                    ranges.add(new long[]{range.getLong(0), range.getLong(1)});
+                }
+            }
+            pendingRanges = ranges;
+            
+            // 单连接下载时，文件可能比记录的位置短（写入未落盘）
+            long fileLength = Files.size(partFile);
+            if (getValidatedOffset() > fileLength) {
+                discard();
+                return;
+            }
+            
+            ApplicationLogger.logInfo("发现可续传的部分下载: {}, 已下载: {}/{}",
+                partFile.getFileName(), getCompletedBytes(), totalSize);
+        
+        } catch (Exception e) {
+            ApplicationLogger.logWarn("读取续传信息失败，将重新下载: {}", e.getMessage());
+            discard();
+        }
+    }
+    
+    public Path getPartFile() {
+        return partFile;
+    }
+    
+    public long getTotalSize() {
+        return totalSize;
+    }
+    
+    public String getEtag() {
+        return etag;
+    }
+    
+    /**
+     * 是否有可续传的进度
+     */
+    public boolean hasProgress() {
+        return !pendingRanges.isEmpty() && getCompletedBytes() > 0;
+    }
+    
+    /**
+     * 是否为分段下载的进度（多个未完成区间）
+     */
+    public boolean isSegmented() {
+        return pendingRanges.size() > 1;
+    }
+    
+    /**
+     * 单连接下载时已确认写入的字节数
+     */
+    public long getValidatedOffset() {
+        if (pendingRanges.isEmpty()) {
+            return 0;
+        }
+        long offset = Long.MAX_VALUE;
+        for (long[] range : pendingRanges) {
+            offset = Math.min(offset, range[0]);
+        }
+        return offset;
+    }
+    
+    /**
+     * 已完成的字节数
+     */
+    public long getCompletedBytes() {
+        if (totalSize <= 0) {
+            return getValidatedOffset();
+        }
+        long remaining = 0;
+        for (long[] range : pendingRanges) {
+            remaining += (range[1] < 0 ? totalSize : range[1]) - range[0];
+        }
+        return totalSize - remaining;
+    }
+    
+    /**
+     * 尚未下载的区间 [起始, 结束)，结束为-1表示文件大小未知
+     */
+    public List<long[]> getPendingRanges() {
+        return new ArrayList<>(pendingRanges);
+    }
+    
+    /**
+     * 续传某个位置时需要校验的字节数
+     * 只有该位置之前的数据已经确认写入时才校验
+     */
+    public int verifyBytesBefore(long position) {
+        if (position < VERIFY_BYTES) {
+            return 0;
+        }
+        long verifyStart = position - VERIFY_BYTES;
+        for (long[] range : pendingRanges) {
+            long end = range[1] < 0 ? Long.MAX_VALUE : range[1];
+            if (range[0] < position && end > verifyStart) {
+                return 0;
+            }
+        }
+        return VERIFY_BYTES;
+    }
+    
+    /**
+     * 检查服务器返回的文件是否仍是同一个文件
+     * @throws ResumeMismatchException 文件大小或ETag发生变化
+     */
+    public void checkIdentity(long serverTotalSize, String serverEtag) throws ResumeMismatchException {
+        if (totalSize > 0 && serverTotalSize > 0 && totalSize != serverTotalSize) {
+            throw new ResumeMismatchException("文件大小已变化: " + totalSize + " -> " + serverTotalSize);
+        }
+        if (etag != null && serverEtag != null && !etag.equals(serverEtag)) {
+            throw new ResumeMismatchException("ETag已变化: " + etag + " -> " + serverEtag);
+        }
+    }
+    
+    /**
+     * 开始新的下载，删除旧的部分文件
+     */
+    public synchronized void reset(long totalSize, String etag) throws IOException {
+        Files.deleteIfExists(partFile);
+        Files.deleteIfExists(metaFile);
+        this.totalSize = totalSize;
+        this.etag = etag;
+        this.pendingRanges = new ArrayList<>();
+        this.pendingRanges.add(new long[]{0, totalSize > 0 ? totalSize : -1});
+    }
+    
+    /**
+     * 更新文件信息（首次收到响应时得知大小和ETag）
+     */
+    public synchronized void updateIdentity(long totalSize, String etag) {
+        if (totalSize > 0) {
+            this.totalSize = totalSize;
+        }
+        if (etag != null) {
+            this.etag = etag;
+        }
+    }
+    
+    /**
+     * 切换到其他来源（镜像）后不再比较ETag，只比较文件大小
+     */
+    public synchronized void forgetEtag() {
+        this.etag = null;
+    }
+    
+    /**
+     * 记录单连接下载的进度
+     * @param validatedOffset 已写入磁盘的字节数
+     * @param force 是否忽略写盘间隔立即保存
+     */
+    public synchronized void checkpoint(long validatedOffset, boolean force) {
+        List<long[]> ranges = new ArrayList<>();
+        if (totalSize <= 0 || validatedOffset < totalSize) {
+            ranges.add(new long[]{validatedOffset, totalSize > 0 ? totalSize : -1});
+        }
+        pendingRanges = ranges;
+        saveIfDue(force);
+    }
+    
+    /**
+     * 记录分段下载的进度
+     */
+    public synchronized void checkpoint(SegmentedDownloader.SegmentPlan plan, boolean force) {
+        totalSize = plan.getTotalSize();
+        pendingRanges = plan.pendingRanges();
+        saveIfDue(force);
+    }
+    
+    private void saveIfDue(boolean force) {
+        long now = System.currentTimeMillis();
+        if (!force && now - lastCheckpoint < CHECKPOINT_INTERVAL_MILLIS) {
+            return;
+        }
+        lastCheckpoint = now;
+        
+        JSONObject json = new JSONObject();
+        json.put("version", META_VERSION);
+        json.put("url", sourceUrl);
+        json.put("totalSize", totalSize);
+        json.put("etag", etag != null ? etag : JSONObject.NULL);
+        JSONArray pending = new JSONArray();
+        for (long[] range : pendingRanges) {
+            pending.put(new JSONArray().put(range[0]).put(range[1]));
+        }
+        json.put("pending", pending);
+        json.put("updatedAt", now);
+        
+        try {
+            // 先写临时文件再替换，避免中断时元数据损坏
+            Path tempFile = metaFile.resolveSibling(metaFile.getFileName() + ".tmp");
+            Files.write(tempFile, json.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempFile, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tempFile, metaFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("保存续传信息失败: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 下载完成，把部分文件移动到目标位置并删除元数据
+     */
+    public synchronized void complete(Path target) throws IOException {
+        try {
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(metaFile);
+        pendingRanges = new ArrayList<>();
+    }
+    
+    /**
+     * 丢弃部分文件和元数据
+     */
+    public synchronized void discard() {
+        try {
+            Files.deleteIfExists(partFile);
+            Files.deleteIfExists(metaFile);
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("删除部分下载文件失败: {}", e.getMessage());
+        }
+        totalSize = -1;
+        etag = null;
+        pendingRanges = new ArrayList<>();
+    }
+    
+    /**
+     * 释放占用，本任务不再使用该部分文件
+     */
+    public void release() {
+        ACTIVE_KEYS.remove(key);
+    }
+    
+    /**
+     * 读取响应开头的数据并与本地文件比对
+     * @param body 从 position - length 开始的响应内容
+     * @param channel 本地文件
+     * @param position 续传位置
+     * @param length 校验的字节数
+     * @throws ResumeMismatchException 数据不一致
+     */
+    static void verifyTail(InputStream body, FileChannel channel, long position, int length) throws IOException {
+        byte[] remote = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = body.read(remote, read, length - read);
+            if (n == -1) {
+                throw new EOFException("校验续传数据时连接提前关闭");
+            }
+            read += n;
+        }
+        
+        ByteBuffer local = ByteBuffer.allocate(length);
+        long readPosition = position - length;
+        while (local.hasRemaining()) {
+            int n = channel.read(local, readPosition + local.position());
+            if (n == -1) {
+                throw new ResumeMismatchException("本地文件长度不足");
+            }
+        }
+        
+        if (!java.util.Arrays.equals(remote, local.array())) {
+            throw new ResumeMismatchException("续传位置之前的数据与服务器不一致");
+        }
+    }
+    
+    /**
+     * 打开部分文件用于写入
+     */
+    FileChannel openChannel() throws IOException {
+        return FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    
+    /**
+     * 判断文件是否为部分下载文件或其元数据
+     */
+    public static boolean isPartialFile(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(PART_SUFFIX) || name.endsWith(META_SUFFIX);
+    }
+}
@@ -0,0 +1,252 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 下载进度采样器
+ * 下载线程只更新任务的已下载字节数，由单独的采样线程按固定频率读取，
+ * 计算指数加权移动平均速度和剩余时间，发布不可变的进度快照。
+ *
+ * @author AeterHilrin
+ */
+public class ProgressSampler {
+    
+    private static final long DEFAULT_INTERVAL_MILLIS = 200; // 采样间隔
+    private static final double SMOOTHING_SECONDS = 2.0; // 速度平滑的时间常数
+    
+    private final Supplier<List<DownloadTask>> taskSupplier;
+    private final Consumer<Snapshot> publisher;
+    private final ScheduledExecutorService sampler;
+    private final Map<String, SpeedState> speedStates = new HashMap<>(); // 只在采样线程中访问
+    private boolean wasActive;
+    
+    /**
+     * 单个任务的进度
+     */
+    public static final class TaskProgress {
+        private final DownloadTask task;
+        private final DownloadTask.TaskStatus status;
+        private final long downloaded;
+        private final long total;
+        private final long speed;
+        private final long remainingMillis;
+        
+        TaskProgress(DownloadTask task, DownloadTask.TaskStatus status, long downloaded, long total,
+                     long speed, long remainingMillis) {
+            this.task = task;
+            this.status = status;
+            this.downloaded = downloaded;
+            this.total = total;
+            this.speed = speed;
+            this.remainingMillis = remainingMillis;
+        }
+        
+        public DownloadTask getTask() { return task; }
+        public DownloadTask.TaskStatus getStatus() { return status; }
+        public long getDownloaded() { return downloaded; }
+        public long getTotal() { return total; }
+        public long getSpeed() { return speed; }
+        public long getRemainingMillis() { return remainingMillis; }
+        
+        /**
+         * 下载进度百分比（0-100），大小未知时返回0
+         */
+        public int getPercent() {
+            return total > 0 ? (int) Math.min(100, downloaded * 100 / total) : 0;
+        }
+    }
+    
+    /**
+     * 某一时刻所有任务的进度快照
+     */
+    public static final class Snapshot {
+        private final long timestamp;
+        private final List<TaskProgress> tasks;
+        private final List<TaskProgress> activeTasks;
+        private final long downloaded;
+        private final long total;
+        private final long speed;
+        private final long remainingMillis;
+        private final int finishedCount;
+        
+        Snapshot(long timestamp, List<TaskProgress> tasks) {
+            this.timestamp = timestamp;
+            this.tasks = Collections.unmodifiableList(tasks);
+            
+            List<TaskProgress> active = new ArrayList<>();
+            long downloadedSum = 0;
+            long totalSum = 0;
+            long speedSum = 0;
+            int finished = 0;
+            for (TaskProgress progress : tasks) {
+                downloadedSum += progress.downloaded;
+                totalSum += Math.max(progress.total, progress.downloaded);
+                speedSum += progress.speed;
+                if (progress.status == DownloadTask.TaskStatus.DOWNLOADING) {
+                    active.add(progress);
+                } else if (progress.task.isFinished()) {
+                    finished++;
+                }
+            }
+            
+            this.activeTasks = Collections.unmodifiableList(active);
+            this.downloaded = downloadedSum;
+            this.total = totalSum;
+            this.speed = speedSum;
+            this.remainingMillis = speedSum > 0 && totalSum > 0 ? (totalSum - downloadedSum) * 1000 / speedSum : -1;
+            this.finishedCount = finished;
+        }
+        
+        public long getTimestamp() { return timestamp; }
+        public List<TaskProgress> getTasks() { return tasks; }
+        public List<TaskProgress> getActiveTasks() { return activeTasks; }
+        public long getDownloaded() { return downloaded; }
+        public long getTotal() { return total; }
+        public long getSpeed() { return speed; }
+        public long getRemainingMillis() { return remainingMillis; }
+        public int getFinishedCount() { return finishedCount; }
+        
+        /**
+         * 总体进度百分比（0-100）
+         */
+        public int getPercent() {
+            return total > 0 ? (int) Math.min(100, downloaded * 100 / total) : 0;
+        }
+    }
+    
+    /**
+     * 任务的速度计算状态
+     */
+    private static class SpeedState {
+        long lastBytes;
+        long lastNanos;
+        double speed = -1;
+        boolean primed; // 已记录开始下载后的基准值
+    }
+    
+    /**
+     * @param taskSupplier 当前任务列表
+     * @param publisher 快照发布目标，在采样线程中调用
+     */
+    public ProgressSampler(Supplier<List<DownloadTask>> taskSupplier, Consumer<Snapshot> publisher) {
+        this.taskSupplier = taskSupplier;
+        this.publisher = publisher;
+        
+        long intervalMillis = Math.max(50, Long.getLong("hcmp.progress.intervalMillis", DEFAULT_INTERVAL_MILLIS));
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "progress-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 采样一次，有任务在下载时（以及下载刚结束时）发布快照
+     */
+    private void sample() {
+        try {
+            List<DownloadTask> tasks = taskSupplier.get();
+            boolean active = false;
+            for (DownloadTask task : tasks) {
+                if (task.getStatus() == DownloadTask.TaskStatus.DOWNLOADING) {
+                    active = true;
+                    break;
+                }
+            }
+            
+            if (!active && !wasActive) {
+                speedStates.clear();
+                return;
+            }
+            wasActive = active;
+            
+            long now = System.nanoTime();
+            List<TaskProgress> progresses = new ArrayList<>(tasks.size());
+            Map<String, SpeedState> seen = new HashMap<>();
+            for (DownloadTask task : tasks) {
+                DownloadTask.TaskStatus status = task.getStatus();
+                long downloaded = task.getDownloadedSize();
+                long total = task.getFileSize();
+                
+                SpeedState state = speedStates.get(task.getTaskId());
+                if (state == null) {
+                    state = new SpeedState();
+                    state.lastBytes = downloaded;
+                    state.lastNanos = now;
+                }
+                seen.put(task.getTaskId(), state);
+                
+                long speed = 0;
+                if (status == DownloadTask.TaskStatus.DOWNLOADING) {
+                    speed = updateSpeed(state, downloaded, now);
+                } else {
+                    state.speed = -1;
+                    state.primed = false;
+                    state.lastBytes = downloaded;
+                    state.lastNanos = now;
+                }
+                task.setDownloadSpeed(speed);
+                
+                long remaining = speed > 0 && total > downloaded ? (total - downloaded) * 1000 / speed : -1;
+                progresses.add(new TaskProgress(task, status, downloaded, total, speed, remaining));
+            }
+            speedStates.keySet().retainAll(seen.keySet());
+            speedStates.putAll(seen);
+            
+            publisher.accept(new Snapshot(System.currentTimeMillis(), progresses));
+        } catch (RuntimeException e) {
+            // 采样线程不能因为单次异常退出
+        }
+    }
+    
+    /**
+     * 按指数加权移动平均更新速度，平滑系数随采样间隔变化
+     */
+    private static long updateSpeed(SpeedState state, long downloaded, long now) {
+        long elapsedNanos = now - state.lastNanos;
+        if (!state.primed) {
+            // 开始下载后的第一次采样只记录基准值，避免把续传的已有字节算进速度
+            state.primed = true;
+            state.lastBytes = downloaded;
+            state.lastNanos = now;
+            return 0;
+        }
+        if (elapsedNanos <= 0) {
+            return (long) Math.max(0, state.speed);
+        }
+        
+        // 重新下载时已下载字节数会变小，此时重新开始计算
+        long delta = Math.max(0, downloaded - state.lastBytes);
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        double instant = delta / seconds;
+        if (state.speed < 0) {
+            state.speed = instant;
+        } else {
+            double alpha = 1 - Math.exp(-seconds / SMOOTHING_SECONDS);
+            state.speed += alpha * (instant - state.speed);
+        }
+        
+        state.lastBytes = downloaded;
+        state.lastNanos = now;
+        return (long) state.speed;
+    }
+    
+    /**
+     * 停止采样
+     */
+    public void shutdown() {
+        sampler.shutdownNow();
+    }
+}
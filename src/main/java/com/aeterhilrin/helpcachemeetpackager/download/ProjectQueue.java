@@ -0,0 +1,483 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.config.ConfigValidator;
+import com.aeterhilrin.helpcachemeetpackager.config.YamlParser;
+import com.aeterhilrin.helpcachemeetpackager.file.PackageManager;
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+import com.aeterhilrin.helpcachemeetpackager.model.FileInfo;
+import com.aeterhilrin.helpcachemeetpackager.model.ProjectConfig;
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.CancellationToken;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多项目任务队列
+ * 接受多个项目配置（拖入的多个文件、命令行参数或目录中的配置文件），在同一进程中同时构建：
+ * 所有项目共用一套解析、下载线程池，按项目公平分配线程，打包在共用的打包线程池中进行。
+ * 同时运行的项目数由hcmp.queue.maxActiveProjects限制（默认4），打包线程数由
+ * hcmp.queue.packageThreads设置（默认CPU核数的一半）；项目名相同的任务依次运行，
+ * 避免写入同一个输出目录。每个项目有自己的下载管理器、进度和输出目录。
+ *
+ * @author AeterHilrin
+ */
+public class ProjectQueue {
+    
+    private static final int DEFAULT_MAX_ACTIVE_PROJECTS = 4;
+    
+    private final DownloadPools pools;
+    private final ExecutorService packageExecutor;
+    private final int maxActiveProjects;
+    private final List<Job> jobs = new CopyOnWriteArrayList<>();
+    private final Deque<Job> waiting = new ArrayDeque<>();
+    private final Set<String> activeProjects = new HashSet<>(); // 正在运行的项目名
+    private final AtomicInteger jobCounter = new AtomicInteger(0);
+    private volatile JobListener jobListener;
+    private volatile boolean shutdown;
+    
+    /**
+     * 任务状态
+     */
+    public enum State {
+        QUEUED("排队中"),
+        DOWNLOADING("下载中"),
+        PACKAGING("打包中"),
+        COMPLETED("已完成"),
+        FAILED("失败"),
+        CANCELLED("已取消");
+        
+        private final String description;
+        
+        State(String description) {
+            this.description = description;
+        }
+        
+        public String getDescription() {
+            return description;
+        }
+        
+        public boolean isFinished() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+    
+    /**
+     * 任务监听器，由下载和打包线程调用
+     */
+    public interface JobListener {
+        void onJobStateChanged(Job job);
+        /**
+         * 项目的下载进度快照，由该项目的进度采样线程按固定频率调用
+         */
+        void onJobProgress(Job job, ProgressSampler.Snapshot snapshot);
+    }
+    
+    /**
+     * 队列中的一个项目
+     */
+    public static final class Job {
+        private final int id;
+        private final ProjectConfig config;
+        private final String source;
+        private final CancellationToken cancellation = new CancellationToken(); // 打包使用
+        private final CompletableFuture<Job> completion = new CompletableFuture<>();
+        private volatile State state = State.QUEUED;
+        private volatile DownloadManager manager;
+        private volatile ProgressSampler.Snapshot lastSnapshot;
+        private volatile String outputPath;
+        private volatile String errorMessage;
+        private volatile long startTime;
+        private volatile long endTime;
+        
+        private Job(int id, ProjectConfig config, String source) {
+            this.id = id;
+            this.config = config;
+            this.source = source;
+        }
+        
+        public int getId() { return id; }
+        public ProjectConfig getConfig() { return config; }
+        public String getSource() { return source; }
+        public State getState() { return state; }
+        public ProgressSampler.Snapshot getLastSnapshot() { return lastSnapshot; }
+        public String getOutputPath() { return outputPath; }
+        public String getErrorMessage() { return errorMessage; }
+        public long getStartTime() { return startTime; }
+        public long getEndTime() { return endTime; }
+        
+        /**
+         * 项目名称，配置无法读取时为配置文件名
+         */
+        public String getProjectName() {
+            return config != null ? config.getProjectName() : new File(source).getName();
+        }
+        
+        /**
+         * 任务结束（完成、失败或取消）时完成
+         */
+        public CompletableFuture<Job> getCompletion() {
+            return completion;
+        }
+        
+        @Override
+        public String toString() {
+            return "Job{" +
+                    "id=" + id +
+                    ", project='" + getProjectName() + '\'' +
+                    ", state=" + state +
+                    '}';
+        }
+    }
+    
+    public ProjectQueue() {
+        this.pools = new DownloadPools();
+        int packageThreads = Math.max(1, Integer.getInteger("hcmp.queue.packageThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+        AtomicInteger threadCounter = new AtomicInteger(0);
+        this.packageExecutor = ExecutionMode.newBoundedExecutor("package", packageThreads, r -> {
+            Thread thread = new Thread(r, "package-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxActiveProjects = Math.max(1,
+            Integer.getInteger("hcmp.queue.maxActiveProjects", DEFAULT_MAX_ACTIVE_PROJECTS));
+    }
+    
+    /**
+     * 设置任务监听器
+     */
+    public void setJobListener(JobListener listener) {
+        this.jobListener = listener;
+    }
+    
+    /**
+     * 加入一个项目
+     * @param config 项目配置
+     * @param source 配置来源（文件路径等），用于显示
+     */
+    public Job submit(ProjectConfig config, String source) {
+        Job job = new Job(jobCounter.incrementAndGet(), config, source);
+        jobs.add(job);
+        ApplicationLogger.logInfo("项目加入队列 #{}: {} ({} 个文件, 来源: {})",
+            job.id, config.getProjectName(), config.getItems().size(), source);
+        synchronized (this) {
+            waiting.add(job);
+        }
+        notifyStateChanged(job);
+        startWaitingJobs();
+        return job;
+    }
+    
+    /**
+     * 加入配置文件，目录中的所有.yaml/.yml文件按文件名顺序加入
+     * 无法读取或验证失败的配置文件作为失败的任务加入，不影响其他项目
+     */
+    public List<Job> submitPaths(List<File> paths) {
+        List<Job> submitted = new ArrayList<>();
+        for (File file : expandConfigFiles(paths)) {
+            ConfigValidator.ValidationResult validation = ConfigValidator.validateConfigFile(file);
+            if (!validation.isValid()) {
+                submitted.add(submitInvalid(file, String.join("; ", validation.getErrors())));
+                continue;
+            }
+            try {
+                submitted.add(submit(YamlParser.parseFromFile(file), file.getPath()));
+            } catch (Exception e) {
+                submitted.add(submitInvalid(file, "配置文件解析失败: " + e.getMessage()));
+            }
+        }
+        return submitted;
+    }
+    
+    /**
+     * 展开目录，返回其中的配置文件
+     */
+    public static List<File> expandConfigFiles(List<File> paths) {
+        List<File> files = new ArrayList<>();
+        for (File path : paths) {
+            if (path.isDirectory()) {
+                File[] children = path.listFiles((dir, name) -> isConfigFileName(name));
+                if (children != null) {
+                    Arrays.sort(children);
+                    files.addAll(Arrays.asList(children));
+                }
+            } else {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+    
+    private static boolean isConfigFileName(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".yaml") || lower.endsWith(".yml");
+    }
+    
+    private Job submitInvalid(File file, String errorMessage) {
+        Job job = new Job(jobCounter.incrementAndGet(), null, file.getPath());
+        job.errorMessage = errorMessage;
+        job.state = State.FAILED;
+        job.startTime = job.endTime = System.currentTimeMillis();
+        jobs.add(job);
+        ApplicationLogger.logWarn("配置文件无效，跳过 #{}: {} - {}", job.id, file, errorMessage);
+        notifyStateChanged(job);
+        job.completion.complete(job);
+        return job;
+    }
+    
+    /**
+     * 获取所有任务（按加入顺序）
+     */
+    public List<Job> getJobs() {
+        return Collections.unmodifiableList(new ArrayList<>(jobs));
+    }
+    
+    /**
+     * 所有任务是否都已结束
+     */
+    public boolean isIdle() {
+        return jobs.stream().allMatch(job -> job.state.isFinished());
+    }
+    
+    /**
+     * 取消一个项目，正在进行的下载和打包立即停止，排队中的项目不再开始
+     */
+    public void cancel(Job job) {
+        boolean queued;
+        synchronized (this) {
+            queued = waiting.remove(job);
+        }
+        job.cancellation.cancel();
+        if (queued) {
+            finish(job, State.CANCELLED, null);
+            return;
+        }
+        DownloadManager manager = job.manager;
+        if (manager != null) {
+            manager.cancelAllDownloads();
+        }
+    }
+    
+    /**
+     * 取消所有项目
+     */
+    public void cancelAll() {
+        for (Job job : jobs) {
+            if (!job.state.isFinished()) {
+                cancel(job);
+            }
+        }
+    }
+    
+    /**
+     * 等待当前所有任务结束
+     */
+    public void awaitAll() {
+        for (Job job : getJobs()) {
+            job.completion.join();
+        }
+    }
+    
+    /**
+     * 取消所有项目并关闭线程池
+     */
+    public void shutdown() {
+        shutdown = true;
+        cancelAll();
+        packageExecutor.shutdownNow();
+        pools.shutdown();
+    }
+    
+    /**
+     * 在同时运行数的限制内开始排队中的项目，项目名与正在运行的项目相同时继续等待
+     */
+    private void startWaitingJobs() {
+        List<Job> starting = new ArrayList<>();
+        synchronized (this) {
+            for (Job job : new ArrayList<>(waiting)) {
+                if (shutdown || activeProjects.size() >= maxActiveProjects) {
+                    break;
+                }
+                if (activeProjects.add(job.getProjectName())) {
+                    waiting.remove(job);
+                    starting.add(job);
+                }
+            }
+        }
+        for (Job job : starting) {
+            start(job);
+        }
+    }
+    
+    /**
+     * 开始一个项目的下载，完成后在打包线程池中打包
+     */
+    private void start(Job job) {
+        DownloadManager manager = new DownloadManager(pools, job.getProjectName());
+        job.manager = manager;
+        job.startTime = System.currentTimeMillis();
+        job.state = State.DOWNLOADING;
+        notifyStateChanged(job);
+        manager.setProgressListener(new JobProgressHandler(job));
+        
+        try {
+            manager.createTasksFromConfig(job.config);
+            if (job.cancellation.isCancelled()) {
+                finish(job, State.CANCELLED, null);
+                return;
+            }
+            manager.startAllDownloads();
+        } catch (Exception e) {
+            ApplicationLogger.logException("项目下载 #" + job.id, e);
+            finish(job, State.FAILED, "下载过程中发生错误: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 下载完成后打包
+     */
+    private void startPackaging(Job job, List<FileInfo> downloadedFiles) {
+        job.state = State.PACKAGING;
+        notifyStateChanged(job);
+        try {
+            packageExecutor.execute(() -> {
+                try {
+                    PackageManager.PackageResult result = PackageManager.packageFiles(
+                        downloadedFiles, job.getProjectName(), null, job.cancellation);
+                    if (result.isCancelled()) {
+                        finish(job, State.CANCELLED, null);
+                    } else if (result.isSuccess()) {
+                        job.outputPath = result.getOutputPath();
+                        finish(job, State.COMPLETED, null);
+                    } else {
+                        finish(job, State.FAILED, String.join("; ", result.getErrors()));
+                    }
+                } catch (Exception e) {
+                    ApplicationLogger.logException("项目打包 #" + job.id, e);
+                    finish(job, State.FAILED, "打包过程中发生异常: " + e.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            // 打包线程池已关闭
+            finish(job, State.CANCELLED, null);
+        }
+    }
+    
+    /**
+     * 结束任务，释放下载管理器并开始下一个排队中的项目；重复调用时没有作用
+     */
+    private void finish(Job job, State state, String errorMessage) {
+        synchronized (job) {
+            if (job.state.isFinished()) {
+                return;
+            }
+            job.errorMessage = errorMessage;
+            job.endTime = System.currentTimeMillis();
+            job.state = state;
+        }
+        
+        DownloadManager manager = job.manager;
+        if (manager != null) {
+            manager.setProgressListener(null);
+            manager.shutdown();
+            manager.discardDownloadedFiles();
+            job.manager = null;
+            synchronized (this) {
+                activeProjects.remove(job.getProjectName());
+            }
+        }
+        
+        if (state == State.COMPLETED) {
+            ApplicationLogger.logInfo("项目完成 #{}: {} -> {}", job.id, job.getProjectName(), job.outputPath);
+        } else if (state == State.FAILED) {
+            ApplicationLogger.logWarn("项目失败 #{}: {} - {}", job.id, job.getProjectName(), errorMessage);
+        } else {
+            ApplicationLogger.logInfo("项目已取消 #{}: {}", job.id, job.getProjectName());
+        }
+        notifyStateChanged(job);
+        job.completion.complete(job);
+        startWaitingJobs();
+    }
+    
+    private void notifyStateChanged(Job job) {
+        JobListener listener = jobListener;
+        if (listener != null) {
+            listener.onJobStateChanged(job);
+        }
+    }
+    
+    /**
+     * 单个项目的下载进度处理
+     */
+    private class JobProgressHandler implements DownloadManager.DownloadProgressListener {
+        private final Job job;
+        
+        JobProgressHandler(Job job) {
+            this.job = job;
+        }
+        
+        @Override
+        public void onTaskStarted(DownloadTask task) {
+        }
+        
+        @Override
+        public void onProgressSnapshot(ProgressSampler.Snapshot snapshot) {
+            job.lastSnapshot = snapshot;
+            JobListener listener = jobListener;
+            if (listener != null) {
+                listener.onJobProgress(job, snapshot);
+            }
+        }
+        
+        @Override
+        public void onTaskCompleted(DownloadTask task, FileInfo fileInfo) {
+        }
+        
+        @Override
+        public void onTaskFailed(DownloadTask task, String errorMessage) {
+            ApplicationLogger.logWarn("项目 #{} 下载失败: {} - {}", job.id,
+                task.getFileName() != null ? task.getFileName() : task.getPrefix(), errorMessage);
+        }
+        
+        @Override
+        public void onTaskRetry(DownloadTask task, String reason) {
+        }
+        
+        @Override
+        public void onAllTasksCompleted(List<FileInfo> downloadedFiles) {
+            DownloadManager manager = job.manager;
+            if (manager == null || job.state != State.DOWNLOADING) {
+                return;
+            }
+            int failed = manager.getTotalTasks() - manager.getSuccessfulTasks();
+            if (failed > 0) {
+                // 缺少文件时打包结果不完整，整个项目视为失败
+                finish(job, State.FAILED, String.format("%d/%d 个文件下载失败",
+                    failed, manager.getTotalTasks()));
+            } else {
+                startPackaging(job, downloadedFiles);
+            }
+        }
+        
+        @Override
+        public void onDownloadCancelled() {
+            // 打包中取消时由打包结果结束任务，避免在打包期间删除下载的文件
+            if (job.state == State.DOWNLOADING) {
+                finish(job, State.CANCELLED, null);
+            }
+        }
+    }
+}
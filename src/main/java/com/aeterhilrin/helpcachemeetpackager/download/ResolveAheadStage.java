@@ -0,0 +1,237 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.CancellationToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * 预解析阶段
+ * 加载配置后立即使用独立的线程池解析直链，下载线程只处理已经拿到直链的任务，
+ * 不会因为等待解析接口而空闲。可选地以低优先级预取文件开头的部分字节，
+ * 同时确认文件大小，下载时从预取位置继续。
+ * 线程池由DownloadPools提供，项目队列中的多个项目共用，这里只保存本项目的解析结果和预取数据。
+ *
+ * @author AeterHilrin
+ */
+public class ResolveAheadStage {
+
+    private static final int DEFAULT_PREFETCH_BYTES = 0; // 预取字节数，0表示不预取
+    private static final int MAX_PREFETCH_BYTES = 4 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private final ResolveCache resolveCache;
+    private final HttpTransport httpTransport;
+    private final MirrorRace mirrorRace;
+    private final Executor resolveExecutor;
+    private final Executor prefetchExecutor;
+    private final Map<String, CompletableFuture<LanzouApiClient.ApiResponse>> resolveFutures;
+    private final Map<String, byte[]> prefetchedHeads;
+    private final int prefetchBytes;
+
+    /**
+     * @param resolveExecutor 解析线程池（本项目的公平分配通道）
+     * @param prefetchExecutor 预取线程池
+     */
+    public ResolveAheadStage(ResolveCache resolveCache, HttpTransport httpTransport, MirrorRace mirrorRace,
+                             Executor resolveExecutor, Executor prefetchExecutor) {
+        this.resolveCache = resolveCache;
+        this.httpTransport = httpTransport;
+        this.mirrorRace = mirrorRace;
+        this.resolveFutures = new ConcurrentHashMap<>();
+        this.prefetchedHeads = new ConcurrentHashMap<>();
+        this.prefetchBytes = Math.max(0, Math.min(MAX_PREFETCH_BYTES,
+            Integer.getInteger("hcmp.resolveAhead.prefetchBytes", DEFAULT_PREFETCH_BYTES)));
+        this.resolveExecutor = resolveExecutor;
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * 提交任务的直链解析，进行中或已成功的解析直接复用
+     * 已经失败的解析（例如加载配置时网络尚未就绪）不复用，重新解析
+     * @param task 下载任务
+     * @param resolver 缓存未命中时使用的解析器
+     * @param cancellation 取消令牌，取消时中断等待中的解析
+     * @return 解析结果，失败时以失败的ApiResponse正常完成
+     */
+    public CompletableFuture<LanzouApiClient.ApiResponse> submit(DownloadTask task, LinkResolver resolver,
+                                                                 CancellationToken cancellation) {
+        return resolveFutures.compute(task.getTaskId(), (id, existing) -> {
+            if (existing != null && !isFailed(existing)) {
+                return existing;
+            }
+            return CompletableFuture.supplyAsync(() -> resolveTask(task, resolver, cancellation), resolveExecutor);
+        });
+    }
+
+    /**
+     * 下载已经使用了解析结果，移除记录，之后再次提交时重新解析
+     */
+    public void forget(String taskId, CompletableFuture<LanzouApiClient.ApiResponse> future) {
+        resolveFutures.remove(taskId, future);
+    }
+
+    /**
+     * 解析是否已经结束且没有成功
+     */
+    private static boolean isFailed(CompletableFuture<LanzouApiClient.ApiResponse> future) {
+        if (!future.isDone()) {
+            return false;
+        }
+        if (future.isCompletedExceptionally()) {
+            return true;
+        }
+        LanzouApiClient.ApiResponse response = future.getNow(null);
+        return response == null || !response.isSuccess();
+    }
+
+    /**
+     * 解析单个任务并记录结果
+     */
+    private LanzouApiClient.ApiResponse resolveTask(DownloadTask task, LinkResolver resolver,
+                                                    CancellationToken cancellation) {
+        if (cancellation.isCancelled()) {
+            return new LanzouApiClient.ApiResponse(false, null, null, 0, "解析已取消", true);
+        }
+
+        // 解析期间预热已知下载主机的连接
+        task.setStatus(DownloadTask.TaskStatus.PARSING_URL);
+        httpTransport.warmUpKnownHosts();
+
+        LanzouApiClient.ApiResponse response;
+        CancellationToken.Registration interruptOnCancel = cancellation.interruptOnCancel();
+        try {
+            // 配置了镜像时所有来源竞速，选用最快的来源
+            response = task.hasMirrors()
+                ? mirrorRace.race(task, resolver)
+                : resolveCache.resolve(task.getSourceUrl(), task.getPassword(), task.getTaskId(), resolver);
+        } catch (Exception e) {
+            response = new LanzouApiClient.ApiResponse(false, null, null, 0, "解析异常: " + e.getMessage(), true);
+        } finally {
+            interruptOnCancel.close();
+        }
+
+        if (cancellation.isCancelled()) {
+            // 已取消的任务不再更新状态，也不预取
+            return new LanzouApiClient.ApiResponse(false, null, null, 0, "解析已取消", true);
+        }
+
+        if (response.isSuccess()) {
+            task.setDirectUrl(response.getDirectUrl());
+            task.setFileName(response.getFileName());
+            task.setFileSize(response.getFileSize());
+            task.setStatus(DownloadTask.TaskStatus.PENDING);
+
+            if (prefetchBytes > 0) {
+                prefetchExecutor.execute(() -> prefetchHead(task));
+            }
+        }
+
+        return response;
+    }
+
+    /**
+     * 预取文件开头的部分字节，同时从Content-Range确认文件大小
+     */
+    private void prefetchHead(DownloadTask task) {
+        // 任务已经开始下载时不再预取
+        if (task.getStatus() != DownloadTask.TaskStatus.PENDING || task.getDirectUrl() == null) {
+            return;
+        }
+
+        Map<String, String> headers = Collections.singletonMap("Range", "bytes=0-" + (prefetchBytes - 1));
+        String url = task.getDirectUrl();
+        try (HttpTransport.Response response = httpTransport.get(url, headers,
+                httpTransport.connectTimeoutFor(url, CONNECT_TIMEOUT), httpTransport.readTimeoutFor(url, READ_TIMEOUT))) {
+
+            httpTransport.rememberDownloadHost(response.getUrl());
+
+            if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+                // 服务器不支持Range，只记录文件大小，不下载整个文件
+                long contentLength = response.getContentLength();
+                if (response.getStatusCode() == HttpURLConnection.HTTP_OK && contentLength > 0) {
+                    task.setFileSize(contentLength);
+                }
+                response.abort();
+                return;
+            }
+
+            long totalSize = parseTotalSize(response.getHeader("Content-Range"));
+            if (totalSize > 0) {
+                task.setFileSize(totalSize);
+            }
+
+            ByteArrayOutputStream head = new ByteArrayOutputStream(prefetchBytes);
+            InputStream body = response.getBody();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while (head.size() < prefetchBytes && (bytesRead = body.read(buffer)) != -1) {
+                head.write(buffer, 0, Math.min(bytesRead, prefetchBytes - head.size()));
+            }
+
+            if (task.getStatus() == DownloadTask.TaskStatus.PENDING) {
+                prefetchedHeads.put(task.getTaskId(), head.toByteArray());
+                ApplicationLogger.logInfo("[{}] 已预取文件开头 {} 字节，文件大小: {}",
+                    LanzouApiClient.shortTag(task.getTaskId()), head.size(), task.getFileSize());
+            }
+
+        } catch (Exception e) {
+            ApplicationLogger.logDebug("[{}] 预取失败: {}", LanzouApiClient.shortTag(task.getTaskId()), e.getMessage());
+        }
+    }
+
+    /**
+     * 从Content-Range头（bytes 0-99/1234）中解析文件总大小
+     */
+    static long parseTotalSize(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+
+        int slashIndex = contentRange.lastIndexOf('/');
+        if (slashIndex < 0) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentRange.substring(slashIndex + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 取出任务的预取数据，下载开始后调用
+     * @return 预取的文件开头字节，没有时返回null
+     */
+    public byte[] takePrefetchedHead(String taskId) {
+        return prefetchedHeads.remove(taskId);
+    }
+
+    /**
+     * 取消所有未完成的解析并清空预取数据
+     */
+    public void cancelAll() {
+        for (CompletableFuture<LanzouApiClient.ApiResponse> future : resolveFutures.values()) {
+            future.cancel(false);
+        }
+        resolveFutures.clear();
+        prefetchedHeads.clear();
+    }
+
+    /**
+     * 停止本项目的预解析，线程池由DownloadPools关闭
+     */
+    public void shutdown() {
+        cancelAll();
+    }
+}
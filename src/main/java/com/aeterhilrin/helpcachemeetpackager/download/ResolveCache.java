@@ -0,0 +1,417 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直链解析缓存
+ * 位于LanzouApiClient之前的内存+磁盘两级缓存，按(链接, 密码)缓存解析结果。
+ * 成功结果按直链有效期缓存，密码错误、链接失效等确定性失败短时间缓存，
+ * 网络异常等临时失败不缓存。
+ * 同一(链接, 密码)同时只解析一次，其他调用方等待并共用结果。
+ *
+ * @author AeterHilrin
+ */
+public class ResolveCache {
+    
+    private static final String CACHE_DIR = "Cache"; // 缓存目录（不会被临时文件清理）
+    private static final String CACHE_FILE = "resolve-cache.json";
+    private static final long DEFAULT_TTL_SECONDS = 20 * 60; // 直链默认有效期20分钟
+    private static final long DEFAULT_NEGATIVE_TTL_SECONDS = 60; // 失败结果缓存1分钟
+    private static final long FLUSH_DELAY_MILLIS = 1000; // 写盘延迟，合并短时间内的多次更新
+    
+    private static volatile ResolveCache instance;
+    
+    private final Map<String, CacheEntry> entries;
+    private final Map<String, InFlight> inFlight; // 正在解析的链接
+    private final Path cacheFile;
+    private final ScheduledExecutorService flushExecutor;
+    private final AtomicBoolean flushScheduled;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private volatile long ttlMillis;
+    private volatile long negativeTtlMillis;
+    
+    /**
+     * 缓存条目
+     */
+    private static class CacheEntry {
+        private final boolean success;
+        private final String directUrl;
+        private final String fileName;
+        private final long fileSize;
+        private final String errorMessage;
+        private final long expiresAt;
+        
+        CacheEntry(boolean success, String directUrl, String fileName, long fileSize,
+                   String errorMessage, long expiresAt) {
+            this.success = success;
+            this.directUrl = directUrl;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.errorMessage = errorMessage;
+            this.expiresAt = expiresAt;
+        }
+        
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+        
+        LanzouApiClient.ApiResponse toResponse() {
+            return new LanzouApiClient.ApiResponse(success, directUrl, fileName, fileSize, errorMessage);
+        }
+        
+        JSONObject toJson(String key) {
+            JSONObject json = new JSONObject();
+            json.put("key", key);
+            json.put("success", success);
+            json.put("directUrl", directUrl != null ? directUrl : JSONObject.NULL);
+            json.put("fileName", fileName != null ? fileName : JSONObject.NULL);
+            json.put("fileSize", fileSize);
+            json.put("errorMessage", errorMessage != null ? errorMessage : JSONObject.NULL);
+            json.put("expiresAt", expiresAt);
+            return json;
+        }
+        
+        static CacheEntry fromJson(JSONObject json) {
+            return new CacheEntry(
+                json.optBoolean("success", false),
+                json.isNull("directUrl") ? null : json.optString("directUrl", null),
+                json.isNull("fileName") ? null : json.optString("fileName", null),
+                json.optLong("fileSize", 0),
+                json.isNull("errorMessage") ? null : json.optString("errorMessage", null),
+                json.optLong("expiresAt", 0)
+            );
+        }
+    }
+    
+    /**
+     * 正在进行的解析
+     */
+    private static class InFlight {
+        private final CompletableFuture<LanzouApiClient.ApiResponse> result = new CompletableFuture<>();
+        private volatile boolean interrupted; // 负责解析的线程被中断（取消），结果不代表链接本身的状态
+    }
+    
+    /**
+     * 获取全局共享的解析缓存
+     */
+    public static ResolveCache getInstance() {
+        if (instance == null) {
+            synchronized (ResolveCache.class) {
+                if (instance == null) {
+                    instance = new ResolveCache(Paths.get(CACHE_DIR, CACHE_FILE));
+                }
+            }
+        }
+        return instance;
+    }
+    
+    public ResolveCache(Path cacheFile) {
+        this.entries = new ConcurrentHashMap<>();
+        this.inFlight = new ConcurrentHashMap<>();
+        this.cacheFile = cacheFile;
+        this.flushScheduled = new AtomicBoolean(false);
+        this.hitCount = new AtomicLong(0);
+        this.missCount = new AtomicLong(0);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(
+            Long.getLong("hcmp.resolveCache.ttlSeconds", DEFAULT_TTL_SECONDS));
+        this.negativeTtlMillis = TimeUnit.SECONDS.toMillis(
+            Long.getLong("hcmp.resolveCache.negativeTtlSeconds", DEFAULT_NEGATIVE_TTL_SECONDS));
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "resolve-cache-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        loadFromDisk();
+    }
+    
+    /**
+     * 解析链接，优先使用缓存
+     * @param lanzouUrl 蓝奏云链接
+     * @param password 链接密码
+     * @param taskTag 任务标识（用于日志）
+     * @return 解析结果
+     */
+    public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag) {
+        return resolve(lanzouUrl, password, taskTag, LinkResolvers.getDefault());
+    }
+    
+    /**
+     * 使用指定解析器解析链接，优先使用缓存
+     * @param lanzouUrl 蓝奏云链接
+     * @param password 链接密码
+     * @param taskTag 任务标识（用于日志）
+     * @param resolver 缓存未命中时使用的解析器
+     * @return 解析结果
+     */
+    public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag,
+                                               LinkResolver resolver) {
+        LanzouApiClient.ApiResponse cached = get(lanzouUrl, password);
+        if (cached != null) {
+            ApplicationLogger.logInfo("[{}] 命中解析缓存: {} (成功: {})",
+                LanzouApiClient.shortTag(taskTag), lanzouUrl, cached.isSuccess());
+            return cached;
+        }
+        
+        String key = buildKey(lanzouUrl, password);
+        while (true) {
+            InFlight flight = new InFlight();
+            InFlight existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                try {
+                    LanzouApiClient.ApiResponse response = resolver.resolve(lanzouUrl, password, taskTag);
+                    put(lanzouUrl, password, response);
+                    flight.interrupted = Thread.currentThread().isInterrupted();
+                    flight.result.complete(response);
+                    return response;
+                } catch (RuntimeException e) {
+                    flight.result.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    inFlight.remove(key, flight);
+                }
+            }
+            
+            // 相同链接正在解析，等待并共用结果
+            ApplicationLogger.logInfo("[{}] 等待进行中的相同链接解析: {}", LanzouApiClient.shortTag(taskTag), lanzouUrl);
+            try {
+                LanzouApiClient.ApiResponse shared = existing.result.get();
+                if (!existing.interrupted) {
+                    return shared;
+                }
+                // 负责解析的任务已取消，由当前调用方重新解析
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new LanzouApiClient.ApiResponse(false, null, null, 0, "解析被中断", true);
+            } catch (ExecutionException e) {
+                return new LanzouApiClient.ApiResponse(false, null, null, 0,
+                    "解析异常: " + e.getCause().getMessage(), true);
+            }
+        }
+    }
+    
+    /**
+     * 查询缓存
+     * @return 未过期的缓存结果，没有时返回null
+     */
+    public LanzouApiClient.ApiResponse get(String lanzouUrl, String password) {
+        if (lanzouUrl == null) {
+            return null;
+        }
+        
+        String key = buildKey(lanzouUrl, password);
+        CacheEntry entry = entries.get(key);
+        
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            missCount.incrementAndGet();
+            return null;
+        }
+        
+        hitCount.incrementAndGet();
+        return entry.toResponse();
+    }
+    
+    /**
+     * 写入缓存
+     * 可重试的临时失败不会被缓存
+     */
+    public void put(String lanzouUrl, String password, LanzouApiClient.ApiResponse response) {
+        if (lanzouUrl == null || response == null || response.isRetryable()) {
+            return;
+        }
+        
+        long ttl = response.isSuccess() ? ttlMillis : negativeTtlMillis;
+        if (ttl <= 0) {
+            return;
+        }
+        
+        CacheEntry entry = new CacheEntry(
+            response.isSuccess(),
+            response.getDirectUrl(),
+            response.getFileName(),
+            response.getFileSize(),
+            response.getErrorMessage(),
+            System.currentTimeMillis() + ttl
+        );
+        entries.put(buildKey(lanzouUrl, password), entry);
+        scheduleFlush();
+    }
+    
+    /**
+     * 使缓存条目失效（例如直链已过期）
+     */
+    public void invalidate(String lanzouUrl, String password) {
+        if (lanzouUrl == null) {
+            return;
+        }
+        
+        if (entries.remove(buildKey(lanzouUrl, password)) != null) {
+            scheduleFlush();
+        }
+    }
+    
+    /**
+     * 清空全部缓存
+     */
+    public void clear() {
+        entries.clear();
+        scheduleFlush();
+    }
+    
+    /**
+     * 设置成功结果的缓存有效期
+     */
+    public void setTtl(long duration, TimeUnit unit) {
+        this.ttlMillis = unit.toMillis(duration);
+    }
+    
+    /**
+     * 设置失败结果的缓存有效期
+     */
+    public void setNegativeTtl(long duration, TimeUnit unit) {
+        this.negativeTtlMillis = unit.toMillis(duration);
+    }
+    
+    public long getHitCount() {
+        return hitCount.get();
+    }
+    
+    public long getMissCount() {
+        return missCount.get();
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * 立即将缓存写入磁盘
+     */
+    public synchronized void flush() {
+        flushScheduled.set(false);
+        
+        try {
+            long now = System.currentTimeMillis();
+            JSONArray array = new JSONArray();
+            for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+                if (e.getValue().isExpired(now)) {
+                    entries.remove(e.getKey(), e.getValue());
+                } else {
+                    array.put(e.getValue().toJson(e.getKey()));
+                }
+            }
+            
+            JSONObject root = new JSONObject();
+            root.put("version", 1);
+            root.put("entries", array);
+            
+            Path parent = cacheFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            
+            // 先写临时文件再原子替换，避免写入中断导致缓存文件损坏
+            Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+            Files.write(tempFile, root.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING,
+                          StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception e) {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        
+        } catch (Exception e) {
+            ApplicationLogger.logWarn("写入解析缓存失败: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 延迟写盘，合并短时间内的多次更新
+     */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * 从磁盘加载缓存，丢弃已过期条目
+     */
+    private void loadFromDisk() {
+        if (!Files.exists(cacheFile)) {
+            return;
+        }
+        
+        try {
+            String content = new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8);
+            JSONArray array = new JSONObject(content).optJSONArray("entries");
+            if (array == null) {
+                return;
+            }
+            
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject json = array.optJSONObject(i);
+                if (json == null || !json.has("key")) {
+                    continue;
+                }
+                
+                CacheEntry entry = CacheEntry.fromJson(json);
+                if (!entry.isExpired(now)) {
+                    entries.put(json.getString("key"), entry);
+                }
+            }
+            
+            ApplicationLogger.logInfo("已加载解析缓存，有效条目数: {}", entries.size());
+        
+        } catch (Exception e) {
+            ApplicationLogger.logWarn("读取解析缓存失败，将忽略旧缓存: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 生成缓存键
+     * 使用SHA-256摘要，避免在磁盘上明文保存链接密码
+     */
+    static String buildKey(String lanzouUrl, String password) {
+        String normalizedPassword = password == null || "无".equals(password.trim()) ? "" : password.trim();
+        String raw = lanzouUrl.trim() + "\n" + normalizedPassword;
+        
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hashBytes = md.digest(raw.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hashBytes) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return raw;
+        }
+    }
+}
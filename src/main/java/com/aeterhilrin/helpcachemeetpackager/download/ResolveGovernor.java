@@ -0,0 +1,329 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 解析请求调控器
+ * 包装直链解析器，控制对解析接口的请求压力：
+ * 按AIMD方式自适应调整并发数，遵循Retry-After，临时失败时按指数退避加随机抖动重试，
+ * 接口连续失败时熔断，暂停所有解析请求直到冷却结束。
+ *
+ * @author AeterHilrin
+ */
+public class ResolveGovernor implements LinkResolver {
+
+    private static final int DEFAULT_INITIAL_CONCURRENCY = 4;
+    private static final int DEFAULT_MAX_CONCURRENCY = 8;
+    private static final int DEFAULT_MAX_RETRIES = 4;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+    private static final long DECREASE_INTERVAL_MILLIS = 1000; // 两次减半之间的最小间隔，避免一波失败把并发压到底
+    private static final int FAILURE_THRESHOLD = 5; // 连续失败多少次后熔断
+    private static final long BASE_OPEN_MILLIS = 10000; // 熔断冷却时间
+    private static final long MAX_OPEN_MILLIS = 120000;
+
+    private final LinkResolver delegate;
+    private final int maxConcurrency;
+    private final int maxRetries;
+    private final List<RetryListener> listeners;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+    private double concurrencyLimit;
+    private int inFlight;
+    private long lastDecreaseTime;
+    private long pausedUntil; // Retry-After要求的暂停截止时间
+    private CircuitState circuitState = CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long openMillis = BASE_OPEN_MILLIS;
+    private boolean probeInFlight;
+
+    /**
+     * 熔断器状态
+     */
+    public enum CircuitState {
+        CLOSED("正常"),
+        OPEN("熔断"),
+        HALF_OPEN("试探");
+
+        private final String description;
+
+        CircuitState(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * 重试监听器接口
+     */
+    public interface RetryListener {
+        /**
+         * 一次解析尝试失败且即将重试
+         * @param taskTag 任务标识
+         * @param attempt 已失败的尝试次数
+         * @param delayMillis 重试前的等待时间
+         * @param reason 失败原因
+         */
+        void onResolveRetry(String taskTag, int attempt, long delayMillis, String reason);
+
+        /**
+         * 熔断器状态变化
+         */
+        void onCircuitStateChanged(CircuitState state);
+    }
+
+    public ResolveGovernor(LinkResolver delegate) {
+        this.delegate = delegate;
+        this.maxConcurrency = Math.max(1,
+            Integer.getInteger("hcmp.resolver.maxConcurrency", DEFAULT_MAX_CONCURRENCY));
+        this.maxRetries = Math.max(0,
+            Integer.getInteger("hcmp.resolver.maxRetries", DEFAULT_MAX_RETRIES));
+        this.concurrencyLimit = Math.min(maxConcurrency,
+            Math.max(1, Integer.getInteger("hcmp.resolver.initialConcurrency", DEFAULT_INITIAL_CONCURRENCY)));
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    public void addRetryListener(RetryListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeRetryListener(RetryListener listener) {
+        listeners.remove(listener);
+    }
+
+    public LinkResolver getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag) {
+        String tag = LanzouApiClient.shortTag(taskTag);
+        LanzouApiClient.ApiResponse response = null;
+
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            boolean probe;
+            try {
+                probe = acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new LanzouApiClient.ApiResponse(false, null, null, 0, "解析被中断", true);
+            }
+
+            try {
+                response = delegate.resolve(lanzouUrl, password, taskTag);
+            } catch (Exception e) {
+                response = new LanzouApiClient.ApiResponse(false, null, null, 0,
+                    "解析异常: " + e.getMessage(), true);
+            } finally {
+                release();
+            }
+
+            if (response == null) {
+                response = new LanzouApiClient.ApiResponse(false, null, null, 0, "解析器未返回结果", true);
+            }
+
+            // 成功或确定性失败（密码错误、链接失效等）都说明接口工作正常
+            if (response.isSuccess() || !response.isRetryable()) {
+                onSuccess(probe);
+                return response;
+            }
+
+            onFailure(probe, response.getRetryAfterMillis());
+
+            if (attempt == maxRetries) {
+                break;
+            }
+
+            long delay = Math.max(response.getRetryAfterMillis(), backoffMillis(attempt));
+            ApplicationLogger.logWarn("[{}] 解析失败，{}ms后进行第{}次重试: {}",
+                tag, delay, attempt + 1, response.getErrorMessage());
+            for (RetryListener listener : listeners) {
+                listener.onResolveRetry(taskTag, attempt + 1, delay, response.getErrorMessage());
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return response;
+            }
+        }
+
+        ApplicationLogger.logError("[{}] 解析重试{}次后仍然失败: {}",
+            tag, maxRetries, response.getErrorMessage());
+        return response;
+    }
+
+    /**
+     * 等待可用的并发名额，熔断或Retry-After暂停期间阻塞
+     * @return 本次请求是否为半开状态下的试探请求
+     */
+    private boolean acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+
+                if (circuitState == CircuitState.OPEN && now >= openUntil) {
+                    setCircuitState(CircuitState.HALF_OPEN);
+                }
+
+                long waitMillis = 0;
+                if (circuitState == CircuitState.OPEN) {
+                    waitMillis = openUntil - now;
+                } else if (now < pausedUntil) {
+                    waitMillis = pausedUntil - now;
+                } else if (circuitState == CircuitState.HALF_OPEN) {
+                    // 半开状态只放行一个试探请求
+                    if (!probeInFlight && inFlight == 0) {
+                        probeInFlight = true;
+                        inFlight++;
+                        return true;
+                    }
+                } else if (inFlight < (int) concurrencyLimit) {
+                    inFlight++;
+                    return false;
+                }
+
+                if (waitMillis > 0) {
+                    stateChanged.await(waitMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    stateChanged.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求成功：加性增加并发数，关闭熔断器
+     */
+    private void onSuccess(boolean probe) {
+        lock.lock();
+        try {
+            consecutiveFailures = 0;
+            concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1.0 / concurrencyLimit);
+
+            if (probe) {
+                probeInFlight = false;
+            }
+            if (circuitState != CircuitState.CLOSED) {
+                openMillis = BASE_OPEN_MILLIS;
+                setCircuitState(CircuitState.CLOSED);
+                ApplicationLogger.logInfo("解析接口已恢复，熔断器关闭");
+            }
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 请求临时失败：乘性减少并发数，记录Retry-After，必要时熔断
+     */
+    private void onFailure(boolean probe, long retryAfterMillis) {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            consecutiveFailures++;
+
+            if (now - lastDecreaseTime >= DECREASE_INTERVAL_MILLIS) {
+                concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+                lastDecreaseTime = now;
+                ApplicationLogger.logInfo("解析接口出现临时失败，并发数降至 {}", (int) concurrencyLimit);
+            }
+
+            if (retryAfterMillis > 0) {
+                // 服务器要求等待时，所有解析请求一起暂停
+                pausedUntil = Math.max(pausedUntil, now + retryAfterMillis);
+            }
+
+            if (probe) {
+                // 试探失败，重新熔断并延长冷却时间
+                probeInFlight = false;
+                openMillis = Math.min(MAX_OPEN_MILLIS, openMillis * 2);
+                openCircuit(now);
+            } else if (circuitState == CircuitState.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+                openCircuit(now);
+            }
+            stateChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void openCircuit(long now) {
+        openUntil = now + openMillis;
+        setCircuitState(CircuitState.OPEN);
+        ApplicationLogger.logWarn("解析接口连续失败 {} 次，暂停解析 {}ms", consecutiveFailures, openMillis);
+    }
+
+    private void setCircuitState(CircuitState state) {
+        if (circuitState == state) {
+            return;
+        }
+        circuitState = state;
+        for (RetryListener listener : listeners) {
+            listener.onCircuitStateChanged(state);
+        }
+    }
+
+    /**
+     * 指数退避加完全随机抖动
+     */
+    private static long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS / 2, ceiling + 1);
+    }
+
+    /**
+     * 获取当前并发上限
+     */
+    public int getConcurrencyLimit() {
+        lock.lock();
+        try {
+            return (int) concurrencyLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CircuitState getCircuitState() {
+        lock.lock();
+        try {
+            return circuitState;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
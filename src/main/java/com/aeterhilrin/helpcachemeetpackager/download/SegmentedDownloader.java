@@ -0,0 +1,563 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.CancellationToken;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分段下载器
+ * 把文件按HTTP Range拆成多个分段，多个连接并行写入同一个已设置好长度的文件。
+ * 某个连接完成自己的分段后，会从剩余最多的分段中拆走后半部分继续下载（工作窃取），
+ * 避免慢连接拖慢整个文件。服务器不支持Range时由调用方回退到单连接下载。
+ *
+ * @author AeterHilrin
+ */
+public class SegmentedDownloader {
+    
+    public static final int DEFAULT_SEGMENTS = 4; // 默认分段数
+    public static final int MAX_SEGMENTS = 16;
+    private static final long DEFAULT_MIN_SEGMENT_SIZE = 4L * 1024 * 1024; // 每个分段最小4MB
+    private static final long MIN_STEAL_SIZE = 1024 * 1024; // 剩余不足2MB的分段不再拆分
+    private static final int MAX_SEGMENT_RETRIES = 3;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    
+    private final HttpTransport httpTransport;
+    private final ExecutorService segmentExecutor;
+    private final long minSegmentSize;
+    
+    /**
+     * 下载进度回调
+     */
+    public interface ProgressCallback {
+        void onProgress(long downloaded, long total);
+    }
+    
+    /**
+     * 单个分段，范围为[position, end)
+     * 其他连接窃取时会缩小end
+     */
+    static class Segment {
+        private long position;
+        private long end;
+        private int verifyBytes; // 续传时需要先与本地文件比对的字节数
+        
+        Segment(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+        
+        synchronized long getPosition() {
+            return position;
+        }
+        
+        synchronized long getEnd() {
+            return end;
+        }
+        
+        synchronized long remaining() {
+            return end - position;
+        }
+        
+        synchronized boolean isDone() {
+            return position >= end;
+        }
+        
+        /**
+         * 计算从当前位置最多可以写入多少字节（分段可能已被窃取缩短）
+         */
+        synchronized int writable(int length) {
+            return (int) Math.max(0, Math.min(length, end - position));
+        }
+        
+        synchronized void advance(int length) {
+            position += length;
+        }
+        
+        synchronized int getVerifyBytes() {
+            return verifyBytes;
+        }
+        
+        synchronized void setVerifyBytes(int verifyBytes) {
+            this.verifyBytes = verifyBytes;
+        }
+        
+        /**
+         * 未完成的范围 [position, end)
+         */
+        synchronized long[] toRange() {
+            return new long[]{position, end};
+        }
+        
+        /**
+         * 拆出后半部分
+         * @return 新分段，剩余太少时返回null
+         */
+        synchronized Segment split(long minStealSize) {
+            long remaining = end - position;
+            if (remaining < minStealSize * 2) {
+                return null;
+            }
+            long middle = position + remaining / 2;
+            Segment stolen = new Segment(middle, end);
+            end = middle;
+            return stolen;
+        }
+    }
+    
+    /**
+     * 分段计划
+     * 在多次下载尝试之间保留，直链重新解析后从各分段的当前位置继续
+     */
+    public static class SegmentPlan {
+        private final long totalSize;
+        private final String etag;
+        private final List<Segment> segments;
+        private volatile boolean preallocated;
+        
+        SegmentPlan(long totalSize, String etag, List<Segment> segments) {
+            this.totalSize = totalSize;
+            this.etag = etag;
+            this.segments = Collections.synchronizedList(segments);
+        }
+        
+        public long getTotalSize() {
+            return totalSize;
+        }
+        
+        public String getEtag() {
+            return etag;
+        }
+        
+        public int getSegmentCount() {
+            return segments.size();
+        }
+        
+        /**
+         * 已经写入的字节数
+         */
+        public long getCompletedBytes() {
+            long remaining = 0;
+            synchronized (segments) {
+                for (Segment segment : segments) {
+                    remaining += segment.remaining();
+                }
+            }
+            return totalSize - remaining;
+        }
+        
+        public boolean isComplete() {
+            return getCompletedBytes() >= totalSize;
+        }
+        
+        /**
+         * 尚未下载的区间，用于记录续传进度
+         */
+        List<long[]> pendingRanges() {
+            List<long[]> result = new ArrayList<>();
+            synchronized (segments) {
+                for (Segment segment : segments) {
+                    long[] range = segment.toRange();
+                    if (range[0] < range[1]) {
+                        result.add(range);
+                    }
+                }
+            }
+            return result;
+        }
+        
+        List<Segment> unfinishedSegments() {
+            List<Segment> result = new ArrayList<>();
+            synchronized (segments) {
+                for (Segment segment : segments) {
+                    if (!segment.isDone()) {
+                        result.add(segment);
+                    }
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * 从剩余最多的分段中窃取后半部分
+         */
+        Segment steal(long minStealSize) {
+            synchronized (segments) {
+                Segment victim = null;
+                for (Segment segment : segments) {
+                    if (victim == null || segment.remaining() > victim.remaining()) {
+                        victim = segment;
+                    }
+                }
+                if (victim == null) {
+                    return null;
+                }
+                
+                Segment stolen = victim.split(minStealSize);
+                if (stolen != null) {
+                    segments.add(stolen);
+                }
+                return stolen;
+            }
+        }
+    }
+    
+    /**
+     * 一次分段下载过程中各连接共享的状态
+     */
+    private static class Session {
+        private final String url;
+        private final FileChannel channel;
+        private final SegmentPlan plan;
+        private final AtomicLong downloaded;
+        private final ProgressCallback callback;
+        private final BandwidthLimiter.Lease bandwidth;
+        private final CancellationToken cancellation;
+        private final AtomicReference<IOException> error = new AtomicReference<>();
+        
+        Session(String url, FileChannel channel, SegmentPlan plan, ProgressCallback callback,
+                BandwidthLimiter.Lease bandwidth, CancellationToken cancellation) {
+            this.url = url;
+            this.channel = channel;
+            this.plan = plan;
+            this.downloaded = new AtomicLong(plan.getCompletedBytes());
+            this.callback = callback;
+            this.bandwidth = bandwidth;
+            this.cancellation = cancellation;
+        }
+        
+        boolean isStopped() {
+            return error.get() != null || cancellation.isCancelled();
+        }
+        
+        void fail(IOException e) {
+            // 续传校验失败和直链过期优先报告，调用方需要据此重新下载或重新解析
+            if (error.compareAndSet(null, e)) {
+                return;
+            }
+            if (e instanceof PartialDownload.ResumeMismatchException
+                    || (e instanceof ExpiredLinkException
+                        && !(error.get() instanceof PartialDownload.ResumeMismatchException))) {
+                error.set(e);
+            }
+        }
+    }
+    
+    public SegmentedDownloader(HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+        this.minSegmentSize = Math.max(MIN_STEAL_SIZE * 2,
+            Long.getLong("hcmp.download.minSegmentSize", DEFAULT_MIN_SEGMENT_SIZE));
+        this.segmentExecutor = ExecutionMode.newUnboundedExecutor("download-segment", new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(0);
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "download-segment-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * 获取全局默认分段数
+     */
+    public static int getDefaultSegments() {
+        return Math.max(1, Math.min(MAX_SEGMENTS,
+            Integer.getInteger("hcmp.download.segments", DEFAULT_SEGMENTS)));
+    }
+    
+    /**
+     * 探测服务器是否支持Range并制定分段计划
+     * @param url 直链
+     * @param requestedSegments 期望的分段数
+     * @return 分段计划；服务器不支持Range或文件太小时返回null
+     * @throws ExpiredLinkException 直链已过期或失效
+     */
+    public SegmentPlan plan(String url, int requestedSegments) throws IOException {
+        if (requestedSegments <= 1) {
+            return null;
+        }
+        
+        Probe probe = probe(url);
+        if (probe == null) {
+            return null;
+        }
+        long totalSize = probe.totalSize;
+        
+        int segmentCount = (int) Math.min(Math.min(requestedSegments, MAX_SEGMENTS), totalSize / minSegmentSize);
+        if (segmentCount <= 1) {
+            return null;
+        }
+        
+        List<Segment> segments = new ArrayList<>();
+        long segmentSize = totalSize / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            long start = i * segmentSize;
+            long end = i == segmentCount - 1 ? totalSize : start + segmentSize;
+            segments.add(new Segment(start, end));
+        }
+        return new SegmentPlan(totalSize, probe.etag, segments);
+    }
+    
+    /**
+     * 根据部分下载记录恢复分段计划，已写入的区间不再下载
+     * 每个分段开始前先重新下载它前面已写入的一小段并与本地数据比对
+     * @param url 直链
+     * @param partial 部分下载记录
+     * @return 分段计划；服务器不支持Range时返回null
+     * @throws ExpiredLinkException 直链已过期或失效
+     * @throws PartialDownload.ResumeMismatchException 服务器上的文件已变化
+     */
+    public SegmentPlan resume(String url, PartialDownload partial) throws IOException {
+        Probe probe = probe(url);
+        if (probe == null) {
+            return null;
+        }
+        partial.checkIdentity(probe.totalSize, probe.etag);
+        
+        List<Segment> segments = new ArrayList<>();
+        for (long[] range : partial.getPendingRanges()) {
+            Segment segment = new Segment(range[0], range[1] < 0 ? probe.totalSize : range[1]);
+            segment.setVerifyBytes(partial.verifyBytesBefore(range[0]));
+            segments.add(segment);
+        }
+        
+        SegmentPlan plan = new SegmentPlan(probe.totalSize, probe.etag, segments);
+        plan.preallocated = partial.getPartFile().toFile().length() == probe.totalSize;
+        return plan;
+    }
+    
+    /**
+     * Range探测结果
+     */
+    private static class Probe {
+        private final long totalSize;
+        private final String etag;
+        
+        Probe(long totalSize, String etag) {
+            this.totalSize = totalSize;
+            this.etag = etag;
+        }
+    }
+    
+    /**
+     * 请求第一个字节，确认服务器支持Range并获取文件大小
+     * @return 探测结果；服务器不支持Range或没有返回文件大小时返回null
+     */
+    private Probe probe(String url) throws IOException {
+        try (HttpTransport.Response response = httpTransport.get(url,
+                Collections.singletonMap("Range", "bytes=0-0"),
+                httpTransport.connectTimeoutFor(url, CONNECT_TIMEOUT), httpTransport.readTimeoutFor(url, READ_TIMEOUT))) {
+            
+            if (ExpiredLinkException.isExpired(response)) {
+                response.abort();
+                throw ExpiredLinkException.from(response);
+            }
+            
+            if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+                // 服务器忽略Range，返回了完整文件
+                response.abort();
+                return null;
+            }
+            
+            httpTransport.rememberDownloadHost(response.getUrl());
+            long totalSize = ResolveAheadStage.parseTotalSize(response.getHeader("Content-Range"));
+            return totalSize > 0 ? new Probe(totalSize, response.getHeader("ETag")) : null;
+        }
+    }
+    
+    /**
+     * 按分段计划下载到文件，可以多次调用以继续未完成的分段
+     * @param url 直链
+     * @param file 目标文件
+     * @param plan 分段计划
+     * @param callback 进度回调
+     * @param bandwidth 任务的限速租约，所有分段共用
+     * @param cancellation 取消令牌，取消时立即关闭所有分段连接
+     * @throws ExpiredLinkException 直链已过期或失效
+     * @throws IOException 分段重试多次后仍然失败
+     */
+    public void download(String url, File file, SegmentPlan plan, ProgressCallback callback,
+                         BandwidthLimiter.Lease bandwidth, CancellationToken cancellation) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            if (!plan.preallocated) {
+                // 先设置文件长度，各分段按位置写入，已完成的分段在续传时也不会越过文件末尾
+                randomAccessFile.setLength(plan.getTotalSize());
+                plan.preallocated = true;
+            }
+            
+            Session session = new Session(url, randomAccessFile.getChannel(), plan, callback, bandwidth, cancellation);
+            List<Segment> pending = plan.unfinishedSegments();
+            if (pending.isEmpty()) {
+                return;
+            }
+            
+            // 当前线程处理第一个分段，其余分段交给分段线程池
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 1; i < pending.size(); i++) {
+                Segment segment = pending.get(i);
+                workers.add(segmentExecutor.submit(() -> runWorker(segment, session)));
+            }
+            runWorker(pending.get(0), session);
+            
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    session.fail(new IOException("分段下载被中断"));
+                } catch (ExecutionException e) {
+                    session.fail(new IOException("分段下载异常: " + e.getCause().getMessage(), e.getCause()));
+                }
+            }
+            
+            if (session.error.get() != null) {
+                throw session.error.get();
+            }
+            if (!cancellation.isCancelled() && !plan.isComplete()) {
+                throw new EOFException("分段下载未完成: " + plan.getCompletedBytes() + "/" + plan.getTotalSize());
+            }
+        }
+    }
+    
+    /**
+     * 下载分段，完成后继续窃取其他分段的剩余部分
+     */
+    private void runWorker(Segment first, Session session) {
+        Segment segment = first;
+        while (segment != null && !session.isStopped()) {
+            try {
+                downloadSegment(segment, session);
+            } catch (IOException e) {
+                session.fail(e);
+                return;
+            }
+            segment = session.plan.steal(MIN_STEAL_SIZE);
+        }
+    }
+    
+    /**
+     * 下载单个分段，连接中断时从分段当前位置重试
+     */
+    private void downloadSegment(Segment segment, Session session) throws IOException {
+        int attempts = 0;
+        
+        while (!segment.isDone() && !session.isStopped()) {
+            long from = segment.getPosition();
+            long to = segment.getEnd() - 1;
+            int verifyBytes = segment.getVerifyBytes();
+            
+            try (HttpTransport.Response response = httpTransport.get(session.url,
+                    Collections.singletonMap("Range", "bytes=" + (from - verifyBytes) + "-" + to),
+                    httpTransport.connectTimeoutFor(session.url, CONNECT_TIMEOUT),
+                    httpTransport.readTimeoutFor(session.url, READ_TIMEOUT))) {
+                CancellationToken.Registration abortOnCancel = session.cancellation.onCancel(
+                    () -> httpTransport.abortInBackground(response));
+                try (TransferWatchdog.Monitor health = TransferWatchdog.getInstance().watch(
+                         "分段 " + from + "-" + to, session.bandwidth, () -> httpTransport.abortInBackground(response))) {
+                    
+                    if (ExpiredLinkException.isExpired(response)) {
+                        response.abort();
+                        throw ExpiredLinkException.from(response);
+                    }
+                    if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+                        response.abort();
+                        throw new IOException("服务器未按Range返回数据: HTTP " + response.getStatusCode());
+                    }
+                    
+                    if (verifyBytes > 0) {
+                        // 续传的分段先确认前面已写入的数据与服务器一致
+                        PartialDownload.verifyTail(response.getBody(), session.channel, from, verifyBytes);
+                        segment.setVerifyBytes(0);
+                    }
+                    
+                    boolean fullyRead;
+                    try {
+                        fullyRead = transferSegment(response, segment, session, health);
+                    } catch (IOException e) {
+                        throw health.translate(e);
+                    }
+                    if (!fullyRead) {
+                        // 分段被窃取缩短或下载已停止，剩余数据不再需要
+                        response.abort();
+                        return;
+                    }
+                    
+                    if (!segment.isDone()) {
+                        throw new EOFException("分段连接提前关闭，位置: " + segment.getPosition());
+                    }
+                
+                } finally {
+                    abortOnCancel.close();
+                }
+            } catch (ExpiredLinkException | PartialDownload.ResumeMismatchException e) {
+                throw e;
+            } catch (IOException e) {
+                if (session.isStopped() || ++attempts > MAX_SEGMENT_RETRIES) {
+                    throw e;
+                }
+                ApplicationLogger.logWarn("分段 [{}-{}) 下载中断，第{}次重试: {}",
+                    segment.getPosition(), segment.getEnd(), attempts, e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 把响应内容写入分段对应的文件位置
+     * @return 响应是否被完整读取（false表示分段已被缩短或下载已停止）
+     */
+    private boolean transferSegment(HttpTransport.Response response, Segment segment, Session session,
+                                    TransferWatchdog.Monitor health) throws IOException {
+        try (ChannelTransfer.Reader reader = new ChannelTransfer.Reader(response.getBody())) {
+            ByteBuffer buffer;
+            while ((buffer = reader.read()) != null) {
+                if (session.isStopped()) {
+                    return false;
+                }
+                
+                int bytesRead = buffer.remaining();
+                health.record(bytesRead);
+                health.throwIfStalled();
+                session.bandwidth.acquire(bytesRead);
+                int writable = segment.writable(bytesRead);
+                if (writable > 0) {
+                    buffer.limit(buffer.position() + writable);
+                    ChannelTransfer.writeFully(session.channel, buffer, segment.getPosition());
+                    segment.advance(writable);
+                    
+                    long downloaded = session.downloaded.addAndGet(writable);
+                    session.callback.onProgress(downloaded, session.plan.getTotalSize());
+                }
+                
+                if (writable < bytesRead || segment.isDone()) {
+                    // 读到了分段末尾之后的数据（分段被窃取），或分段恰好完成
+                    return writable == bytesRead && reader.read() == null;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 关闭分段线程池
+     */
+    public void shutdown() {
+        segmentExecutor.shutdownNow();
+    }
+}
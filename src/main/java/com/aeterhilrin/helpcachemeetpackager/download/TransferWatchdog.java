@@ -0,0 +1,208 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 传输健康监控
+ * 每个下载连接登记一个监视，后台线程每秒采样一次已传输的字节数，
+ * 滑动窗口内的平均速度低于下限时判定连接停滞并立即中止连接，
+ * 由下载线程从当前位置用Range请求重新连接。
+ * 只剩几字节每秒的连接不会触发读取超时，没有监控时会一直占用下载名额。
+ *
+ * @author AeterHilrin
+ */
+public class TransferWatchdog {
+    
+    private static final long DEFAULT_MIN_BYTES_PER_SECOND = 1024; // 默认速度下限
+    private static final int DEFAULT_WINDOW_SECONDS = 20; // 默认滑动窗口长度
+    private static final int MIN_WINDOW_SECONDS = 3;
+    private static final long SAMPLE_INTERVAL_MILLIS = 1000;
+    
+    private static final TransferWatchdog INSTANCE = new TransferWatchdog();
+    
+    private final Set<Monitor> monitors = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final long minBytesPerSecond;
+    private final int windowSeconds;
+    private volatile ScheduledExecutorService sampler;
+    
+    /**
+     * 连接停滞，应从当前位置重新连接
+     */
+    public static class StalledTransferException extends IOException {
+        public StalledTransferException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+    
+    /**
+     * 单个连接的监视，连接结束后关闭
+     */
+    public static final class Monitor implements AutoCloseable {
+        private final TransferWatchdog watchdog;
+        private final String description;
+        private final BandwidthLimiter.Lease bandwidth;
+        private final Runnable abortAction;
+        private final AtomicLong transferred = new AtomicLong();
+        private final long[] sampleBytes; // 以下字段只由采样线程访问
+        private final long[] sampleTimes;
+        private int sampleCount;
+        private volatile String stallReason;
+        
+        private Monitor(TransferWatchdog watchdog, String description, BandwidthLimiter.Lease bandwidth,
+                        Runnable abortAction) {
+            this.watchdog = watchdog;
+            this.description = description;
+            this.bandwidth = bandwidth;
+            this.abortAction = abortAction;
+            int slots = watchdog != null ? watchdog.windowSeconds + 1 : 0;
+            this.sampleBytes = new long[slots];
+            this.sampleTimes = new long[slots];
+        }
+        
+        /**
+         * 记录收到的字节数
+         */
+        public void record(long bytes) {
+            transferred.addAndGet(bytes);
+        }
+        
+        public boolean isStalled() {
+            return stallReason != null;
+        }
+        
+        /**
+         * 连接已被判定停滞时抛出StalledTransferException
+         * 下载线程每次读取后调用，不必等被中止的读取返回
+         */
+        public void throwIfStalled() throws StalledTransferException {
+            if (stallReason != null) {
+                throw new StalledTransferException("传输停滞: " + stallReason, null);
+            }
+        }
+        
+        /**
+         * 连接因停滞被中止时，把读取异常转换为StalledTransferException
+         */
+        public IOException translate(IOException e) {
+            if (stallReason == null || e instanceof StalledTransferException) {
+                return e;
+            }
+            return new StalledTransferException("传输停滞: " + stallReason, e);
+        }
+        
+        /**
+         * 采样一次，滑动窗口内的平均速度低于下限时中止连接
+         * @return 是否判定停滞
+         */
+        private boolean sample(long now, long minBytesPerSecond) {
+            int slots = sampleBytes.length;
+            int index = sampleCount % slots;
+            sampleBytes[index] = transferred.get();
+            sampleTimes[index] = now;
+            sampleCount++;
+            if (sampleCount < slots) {
+                return false;
+            }
+            
+            // 最早的样本在下一个要写入的位置
+            int oldest = sampleCount % slots;
+            long elapsed = now - sampleTimes[oldest];
+            if (elapsed <= 0) {
+                return false;
+            }
+            long bytesPerSecond = (sampleBytes[index] - sampleBytes[oldest]) * 1_000_000_000L / elapsed;
+            
+            // 限速时按任务分到的带宽放宽下限，避免把限速误判为停滞
+            long limit = minBytesPerSecond;
+            long fairShare = bandwidth != null ? bandwidth.getFairShare() : 0;
+            if (fairShare > 0) {
+                limit = Math.min(limit, fairShare / 4);
+            }
+            if (bytesPerSecond >= limit) {
+                return false;
+            }
+            
+            stallReason = String.format("最近 %d 秒平均 %d B/s，低于下限 %d B/s",
+                TimeUnit.NANOSECONDS.toSeconds(elapsed), bytesPerSecond, limit);
+            ApplicationLogger.logWarn("[{}] 传输停滞（{}），断开后从当前位置重新连接", description, stallReason);
+            try {
+                abortAction.run();
+            } catch (RuntimeException e) {
+                ApplicationLogger.logWarn("[{}] 中止停滞连接失败: {}", description, e.getMessage());
+            }
+            return true;
+        }
+        
+        @Override
+        public void close() {
+            if (watchdog != null) {
+                watchdog.monitors.remove(this);
+            }
+        }
+    }
+    
+    private TransferWatchdog() {
+        this.minBytesPerSecond = Math.max(0, Long.getLong("hcmp.download.minSpeed", DEFAULT_MIN_BYTES_PER_SECOND));
+        this.windowSeconds = Math.max(MIN_WINDOW_SECONDS,
+            Integer.getInteger("hcmp.download.stallWindowSeconds", DEFAULT_WINDOW_SECONDS));
+    }
+    
+    /**
+     * 获取传输健康监控实例
+     */
+    public static TransferWatchdog getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 开始监视一个连接，hcmp.download.minSpeed为0时不监视
+     * @param description 日志中显示的连接描述
+     * @param bandwidth 连接所属任务的限速租约，可为null
+     * @param abortAction 判定停滞时执行，通常是中止响应
+     * @return 监视，连接结束后关闭
+     */
+    public Monitor watch(String description, BandwidthLimiter.Lease bandwidth, Runnable abortAction) {
+        if (minBytesPerSecond <= 0) {
+            return new Monitor(null, description, bandwidth, abortAction);
+        }
+        Monitor monitor = new Monitor(this, description, bandwidth, abortAction);
+        monitors.add(monitor);
+        ensureSampler();
+        return monitor;
+    }
+    
+    private void ensureSampler() {
+        if (sampler == null) {
+            synchronized (this) {
+                if (sampler == null) {
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "transfer-watchdog");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.scheduleAtFixedRate(this::sampleAll,
+                        SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    sampler = executor;
+                }
+            }
+        }
+    }
+    
+    private void sampleAll() {
+        long now = System.nanoTime();
+        for (Monitor monitor : monitors) {
+            if (monitor.sample(now, minBytesPerSecond)) {
+                monitors.remove(monitor);
+            }
+        }
+    }
+}
@@ -3,13 +3,20 @@ package com.aeterhilrin.helpcachemeetpackager.file;
 import com.aeterhilrin.helpcachemeetpackager.model.FileInfo;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * 文件重命名器
@@ -59,6 +66,71 @@ public class FileRenamer {
         }
     }
     
+    /**
+     * 文件名分配计划
+     * 在内存中记录每个目录已占用的文件名（不区分大小写），为每个文件分配唯一的最终名称，
+     * 文件完成时一次移动到位，不需要在批量重命名时逐个探测文件是否存在。
+     * 每个目录只在第一次分配时列出一次已有的文件。
+     */
+    public static class NamePlan {
+        private final Map<Path, Set<String>> reservedNames = new HashMap<>();
+        
+        /**
+         * 在目录中为文件分配唯一名称，重名时按"名称_序号.扩展名"依次尝试
+         * @param directory 目标目录
+         * @param fileName 期望的文件名
+         * @return 分配到的文件路径
+         */
+        public synchronized Path reserve(Path directory, String fileName) {
+            Path dir = directory.toAbsolutePath().normalize();
+            Set<String> names = reservedNames.computeIfAbsent(dir, NamePlan::listNames);
+            
+            String nameWithoutExt = fileName;
+            String extension = "";
+            int lastDotIndex = fileName.lastIndexOf('.');
+            if (lastDotIndex > 0) {
+                nameWithoutExt = fileName.substring(0, lastDotIndex);
+                extension = fileName.substring(lastDotIndex);
+            }
+            
+            String candidate = fileName;
+            for (int counter = 1; !names.add(candidate.toLowerCase(Locale.ROOT)); counter++) {
+                candidate = nameWithoutExt + "_" + counter + extension;
+            }
+            return dir.resolve(candidate);
+        }
+        
+        /**
+         * 释放已分配的名称
+         */
+        public synchronized void release(Path file) {
+            Path path = file.toAbsolutePath().normalize();
+            Set<String> names = reservedNames.get(path.getParent());
+            if (names != null) {
+                names.remove(path.getFileName().toString().toLowerCase(Locale.ROOT));
+            }
+        }
+        
+        /**
+         * 清空计划，下次分配时重新列出目录
+         */
+        public synchronized void clear() {
+            reservedNames.clear();
+        }
+        
+        private static Set<String> listNames(Path directory) {
+            Set<String> names = new HashSet<>();
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    files.forEach(file -> names.add(file.getFileName().toString().toLowerCase(Locale.ROOT)));
+                } catch (IOException e) {
+                    // 无法列出时按空目录处理，移动时覆盖同名文件
+                }
+            }
+            return names;
+        }
+    }
+    
     /**
      * 批量重命名操作监听器
      */
@@ -128,7 +200,7 @@ public class FileRenamer {
             Files.move(originalFilePath, newFilePath, StandardCopyOption.REPLACE_EXISTING);
             
             return new RenameResult(true, originalPath, newPath, null);
-            
+        
         } catch (Exception e) {
             return new RenameResult(false, originalPath, null, 
                 "重命名失败: " + e.getMessage());
@@ -176,7 +248,7 @@ public class FileRenamer {
             if (listener != null) {
                 listener.onRenameCompleted(results);
             }
-            
+        
         } catch (Exception e) {
             if (listener != null) {
                 listener.onRenameError("批量重命名过程中发生错误: " + e.getMessage());
@@ -336,7 +408,7 @@ public class FileRenamer {
             if (newFileName.length() > MAX_FILENAME_LENGTH) {
                 return "生成的文件名过长";
             }
-            
+        
         } catch (Exception e) {
             return "生成新文件名时出错: " + e.getMessage();
         }
@@ -366,7 +438,7 @@ public class FileRenamer {
                 );
                 
                 previews.add(originalName + " -> " + newName);
-                
+            
             } catch (Exception e) {
                 previews.add(fileInfo.getOriginalFileName() + " -> [错误: " + e.getMessage() + "]");
             }
@@ -412,7 +484,7 @@ public class FileRenamer {
                 
                 return new String[]{prefix, fileName, suffixStr};
             }
-            
+        
         } catch (Exception e) {
             // 解析失败
         }
@@ -1,6 +1,8 @@
 package com.aeterhilrin.helpcachemeetpackager.file;
 
 import com.aeterhilrin.helpcachemeetpackager.model.FileInfo;
+import com.aeterhilrin.helpcachemeetpackager.util.CancellationToken;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
 
 import java.io.File;
 import java.nio.file.Files;
@@ -43,10 +45,17 @@ public class PackageManager {
         private final List<String> errors;
         private final long startTime;
         private final long endTime;
+        private final boolean cancelled;
         
         public PackageResult(boolean success, String outputPath, 
                            List<String> processedFiles, List<String> conflictFiles,
                            List<String> errors, long startTime, long endTime) {
+            this(success, outputPath, processedFiles, conflictFiles, errors, startTime, endTime, false);
+        }
+        
+        private PackageResult(boolean success, String outputPath,
+                              List<String> processedFiles, List<String> conflictFiles,
+                              List<String> errors, long startTime, long endTime, boolean cancelled) {
             this.success = success;
             this.outputPath = outputPath;
             this.processedFiles = processedFiles != null ? new ArrayList<>(processedFiles) : new ArrayList<>();
@@ -54,9 +63,11 @@ public class PackageManager {
             this.errors = errors != null ? new ArrayList<>(errors) : new ArrayList<>();
             this.startTime = startTime;
             this.endTime = endTime;
+            this.cancelled = cancelled;
         }
         
         public boolean isSuccess() { return success; }
+        public boolean isCancelled() { return cancelled; }
         public String getOutputPath() { return outputPath; }
         public List<String> getProcessedFiles() { return new ArrayList<>(processedFiles); }
         public List<String> getConflictFiles() { return new ArrayList<>(conflictFiles); }
@@ -100,6 +111,21 @@ public class PackageManager {
      */
     public static PackageResult packageFiles(List<FileInfo> selectedFiles, String projectName,
                                            PackageProgressListener progressListener) {
+        return packageFiles(selectedFiles, projectName, progressListener, CancellationToken.NONE);
+    }
+    
+    /**
+     * 同步打包文件，可以取消
+     * 取消时不调用onPackageCompleted和onPackageError，返回的结果isCancelled()为true
+     * @param selectedFiles 选中的文件列表
+     * @param projectName 项目名称
+     * @param progressListener 进度监听器
+     * @param cancellation 取消令牌
+     * @return 打包结果
+     */
+    public static PackageResult packageFiles(List<FileInfo> selectedFiles, String projectName,
+                                           PackageProgressListener progressListener,
+                                           CancellationToken cancellation) {
         
         long startTime = System.currentTimeMillis();
         List<String> errors = new ArrayList<>();
@@ -150,11 +176,16 @@ public class PackageManager {
             
             // 执行解压操作
             ZipExtractor.ExtractionResult extractionResult = ZipExtractor.extractFiles(
-                sortedFiles, projectName, extractionListener
+                sortedFiles, projectName, extractionListener, cancellation
             );
             
             long endTime = System.currentTimeMillis();
             
+            if (extractionResult.isCancelled()) {
+                errors.add(extractionResult.getErrorMessage());
+                return new PackageResult(false, null, null, null, errors, startTime, endTime, true);
+            }
+            
             if (extractionResult.isSuccess()) {
                 PackageResult result = new PackageResult(
                     true,
@@ -214,7 +245,7 @@ public class PackageManager {
             List<FileInfo> selectedFiles, String projectName,
             PackageProgressListener progressListener) {
         
-        return CompletableFuture.supplyAsync(() -> {
+        return ExecutionMode.supplyAsync(() -> {
             try {
                 return packageFiles(selectedFiles, projectName, progressListener);
             } catch (Exception e) {
@@ -259,6 +290,11 @@ public class PackageManager {
             return String.format("第 %d 个文件路径为空", index);
         }
         
+        // 内存暂存的文件不在磁盘上
+        if (fileInfo.isInMemory()) {
+            return null;
+        }
+        
         File file = new File(fileInfo.getFilePath());
         if (!file.exists()) {
             return String.format("第 %d 个文件不存在: %s", index, fileInfo.getFilePath());
@@ -0,0 +1,259 @@
+package com.aeterhilrin.helpcachemeetpackager.file;
+
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.ExecutionMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 边下载边解压
+ * 下载线程把写入临时文件的数据同时交给解压线程，解压线程用ZipInputStream把条目解压到暂存目录，
+ * 下载完成时解压基本也已完成，打包时直接把暂存目录中的文件移动到输出目录，不必再读一遍ZIP文件。
+ * 流式读取只能使用一种字符编码（UTF-8），解压失败时丢弃暂存目录，打包时回退到普通解压。
+ *
+ * @author AeterHilrin
+ */
+public class StreamingExtractor {
+    
+    public static final String STAGING_DIR = "staging"; // 临时目录下的暂存目录名
+    
+    private static final int QUEUE_CAPACITY = 64; // 排队的数据块上限，解压跟不上时下载线程等待
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] END_OF_STREAM = new byte[0];
+    
+    private static final ExecutorService EXTRACT_EXECUTOR = ExecutionMode.newUnboundedExecutor(
+        "stream-extract", namedThreadFactory("stream-extract"));
+    
+    private final Path stagingDir;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final CompletableFuture<Boolean> result;
+    private volatile boolean failed;
+    private boolean finished;
+    
+    private StreamingExtractor(Path stagingDir) {
+        this.stagingDir = stagingDir;
+        this.result = CompletableFuture.supplyAsync(this::extract, EXTRACT_EXECUTOR);
+    }
+    
+    /**
+     * 是否启用了边下载边解压
+     * @param configured 项目配置中的设置
+     */
+    public static boolean isEnabled(boolean configured) {
+        return configured || Boolean.getBoolean("hcmp.extract.streaming");
+    }
+    
+    /**
+     * 开始流式解压
+     * @param tempDir 临时目录
+     * @param name 暂存目录名（通常为任务ID）
+     */
+    public static StreamingExtractor start(Path tempDir, String name) throws IOException {
+        Path stagingDir = tempDir.resolve(STAGING_DIR).resolve(name);
+        deleteDirectory(stagingDir);
+        Files.createDirectories(stagingDir);
+        return new StreamingExtractor(stagingDir);
+    }
+    
+    /**
+     * 提交一块已下载的数据，不改变缓冲区的位置
+     * 解压已失败时直接忽略
+     */
+    public void feed(ByteBuffer buffer) {
+        if (failed || !buffer.hasRemaining()) {
+            return;
+        }
+        byte[] chunk = new byte[buffer.remaining()];
+        buffer.duplicate().get(chunk);
+        try {
+            chunks.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+        }
+    }
+    
+    /**
+     * 数据已全部提交，等待解压完成
+     * @return 暂存目录，解压失败时返回null
+     */
+    public Path finish() {
+        if (finished) {
+            return null;
+        }
+        finished = true;
+        if (!failed) {
+            try {
+                chunks.put(END_OF_STREAM);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                return null;
+            }
+        }
+        return result.join() ? stagingDir : null;
+    }
+    
+    /**
+     * 放弃解压（下载中断、取消或从中途续传时），删除暂存目录
+     */
+    public void abort() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        failed = true;
+        chunks.clear();
+        chunks.offer(END_OF_STREAM);
+        result.join();
+    }
+    
+    /**
+     * 在解压线程中运行
+     */
+    private boolean extract() {
+        int entryCount = 0;
+        boolean success = false;
+        ChunkInputStream source = new ChunkInputStream();
+        try (ZipInputStream zis = new ZipInputStream(source, StandardCharsets.UTF_8)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            Path root = stagingDir.toAbsolutePath().normalize();
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                Path target = root.resolve(entry.getName()).normalize();
+                if (!target.startsWith(root) || target.equals(root)) {
+                    throw new IOException("非法的条目路径: " + entry.getName());
+                }
+                
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    try (OutputStream output = Files.newOutputStream(target)) {
+                        int bytesRead;
+                        while ((bytesRead = zis.read(buffer)) != -1) {
+                            output.write(buffer, 0, bytesRead);
+                        }
+                    }
+                }
+                zis.closeEntry();
+                entryCount++;
+            }
+            
+            if (entryCount == 0) {
+                throw new IOException("不是ZIP文件或没有条目");
+            }
+            
+            // 读完中央目录等剩余数据，下载线程才不会被阻塞
+            while (source.read(buffer, 0, buffer.length) != -1) {
+                // 丢弃
+            }
+            success = true;
+            return true;
+        
+        } catch (Exception e) {
+            if (!failed) {
+                ApplicationLogger.logWarn("边下载边解压失败，打包时将重新解压: {}", e.getMessage());
+            }
+            return false;
+        
+        } finally {
+            if (!success) {
+                cleanupAfterFailure();
+            }
+        }
+    }
+    
+    private void cleanupAfterFailure() {
+        failed = true;
+        chunks.clear();
+        try {
+            deleteDirectory(stagingDir);
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("删除暂存目录失败: {} - {}", stagingDir, e.getMessage());
+        }
+    }
+    
+    /**
+     * 递归删除目录
+     */
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+    
+    /**
+     * 从数据块队列读取的输入流
+     */
+    private class ChunkInputStream extends InputStream {
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean ended;
+        
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position >= current.length) {
+                if (ended) {
+                    return -1;
+                }
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("解压线程被中断");
+                }
+                position = 0;
+                if (current == END_OF_STREAM) {
+                    ended = true;
+                    if (failed) {
+                        throw new IOException("解压已放弃");
+                    }
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+    
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger(0);
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
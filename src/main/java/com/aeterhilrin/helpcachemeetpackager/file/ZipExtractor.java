@@ -1,15 +1,20 @@
 package com.aeterhilrin.helpcachemeetpackager.file;
 
 import com.aeterhilrin.helpcachemeetpackager.model.FileInfo;
+import com.aeterhilrin.helpcachemeetpackager.util.ApplicationLogger;
+import com.aeterhilrin.helpcachemeetpackager.util.CancellationToken;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -43,18 +48,34 @@ public class ZipExtractor {
         private final List<String> extractedFiles;
         private final List<String> conflictFiles;
         private final String errorMessage;
+        private final boolean cancelled;
         
         public ExtractionResult(boolean success, String outputPath, 
                               List<String> extractedFiles, List<String> conflictFiles, 
                               String errorMessage) {
+            this(success, outputPath, extractedFiles, conflictFiles, errorMessage, false);
+        }
+        
+        private ExtractionResult(boolean success, String outputPath,
+                                 List<String> extractedFiles, List<String> conflictFiles,
+                                 String errorMessage, boolean cancelled) {
             this.success = success;
             this.outputPath = outputPath;
             this.extractedFiles = extractedFiles != null ? new ArrayList<>(extractedFiles) : new ArrayList<>();
             this.conflictFiles = conflictFiles != null ? new ArrayList<>(conflictFiles) : new ArrayList<>();
             this.errorMessage = errorMessage;
+            this.cancelled = cancelled;
+        }
+        
+        /**
+         * 取消的解压结果，本次新建的文件已删除
+         */
+        static ExtractionResult cancelled() {
+            return new ExtractionResult(false, null, null, null, "解压已取消", true);
         }
         
         public boolean isSuccess() { return success; }
+        public boolean isCancelled() { return cancelled; }
         public String getOutputPath() { return outputPath; }
         public List<String> getExtractedFiles() { return new ArrayList<>(extractedFiles); }
         public List<String> getConflictFiles() { return new ArrayList<>(conflictFiles); }
@@ -81,6 +102,21 @@ public class ZipExtractor {
      */
     public static ExtractionResult extractFiles(List<FileInfo> fileInfoList, String projectName, 
                                               ExtractionProgressListener progressListener) {
+        return extractFiles(fileInfoList, projectName, progressListener, CancellationToken.NONE);
+    }
+    
+    /**
+     * 批量解压文件到项目目录，可以取消
+     * 取消时在当前条目处停止，删除本次解压新建的文件和目录（被覆盖的已有文件无法恢复）
+     * @param fileInfoList 要解压的文件列表
+     * @param projectName 项目名称
+     * @param progressListener 进度监听器
+     * @param cancellation 取消令牌
+     * @return 解压结果
+     */
+    public static ExtractionResult extractFiles(List<FileInfo> fileInfoList, String projectName,
+                                              ExtractionProgressListener progressListener,
+                                              CancellationToken cancellation) {
         if (fileInfoList == null || fileInfoList.isEmpty()) {
             return new ExtractionResult(false, null, null, null, "没有文件需要解压");
         }
@@ -89,9 +125,10 @@ public class ZipExtractor {
             return new ExtractionResult(false, null, null, null, "项目名称不能为空");
         }
         
+        OutputJournal journal = new OutputJournal(cancellation);
         try {
             // 创建输出目录
-            String outputPath = createOutputDirectory(projectName);
+            String outputPath = createOutputDirectory(projectName, journal);
             
             // 按后缀排序文件（确保按顺序解压）
             List<FileInfo> sortedFiles = new ArrayList<>(fileInfoList);
@@ -103,14 +140,16 @@ public class ZipExtractor {
             // 解压每个文件
             for (int i = 0; i < sortedFiles.size(); i++) {
                 FileInfo fileInfo = sortedFiles.get(i);
+                cancellation.throwIfCancelled();
                 
                 if (!fileInfo.isZipFile()) {
                     // 直接复制非ZIP文件
-                    copyNonZipFile(fileInfo, outputPath, extractedFiles);
-                } else {
-                    // 解压ZIP文件
+                    copyNonZipFile(fileInfo, outputPath, extractedFiles, journal);
+                } else if (!applyStagedExtraction(fileInfo, outputPath, extractedFiles, conflictFiles,
+                                                  progressListener, i + 1, sortedFiles.size(), journal)) {
+                    // 下载时没有解压到暂存目录，解压ZIP文件
                     extractSingleZipFile(fileInfo, outputPath, extractedFiles, conflictFiles, 
-                                       progressListener, i + 1, sortedFiles.size());
+                                       progressListener, i + 1, sortedFiles.size(), journal);
                 }
             }
             
@@ -120,6 +159,11 @@ public class ZipExtractor {
             
             return new ExtractionResult(true, outputPath, extractedFiles, conflictFiles, null);
             
+        } catch (CancellationToken.CancelledException e) {
+            journal.rollback();
+            ApplicationLogger.logInfo("解压已取消，已删除本次新建的 {} 个文件和目录", journal.size());
+            return ExtractionResult.cancelled();
+            
         } catch (Exception e) {
             String errorMessage = "解压过程中发生错误: " + e.getMessage();
             if (progressListener != null) {
@@ -135,10 +179,11 @@ public class ZipExtractor {
     private static void extractSingleZipFile(FileInfo fileInfo, String outputPath,
                                            List<String> extractedFiles, List<String> conflictFiles,
                                            ExtractionProgressListener progressListener,
-                                           int currentFile, int totalFiles) throws IOException {
+                                           int currentFile, int totalFiles, OutputJournal journal)
+            throws IOException {
         
-        File zipFile = new File(fileInfo.getFilePath());
-        if (!zipFile.exists()) {
+        // 内存暂存的文件直接从内存解压
+        if (!fileInfo.isInMemory() && !new File(fileInfo.getFilePath()).exists()) {
             throw new IOException("ZIP文件不存在: " + fileInfo.getFilePath());
         }
         
@@ -147,9 +192,11 @@ public class ZipExtractor {
         
         for (Charset charset : charsets) {
             try {
-                extractWithCharset(zipFile, outputPath, charset, extractedFiles, conflictFiles, 
-                                 progressListener, currentFile, totalFiles, fileInfo.getSuffix());
+                extractWithCharset(fileInfo, outputPath, charset, extractedFiles, conflictFiles, 
+                                 progressListener, currentFile, totalFiles, fileInfo.getSuffix(), journal);
                 return; // 成功解压，退出
+            } catch (CancellationToken.CancelledException e) {
+                throw e;
             } catch (Exception e) {
                 // 尝试下一个字符编码
                 if (charset == charsets[charsets.length - 1]) {
@@ -161,26 +208,99 @@ public class ZipExtractor {
         }
     }
     
+    /**
+     * 把下载时解压到暂存目录的文件移动到输出目录
+     * 移动失败时返回false，由调用方重新解压ZIP文件（已移动的文件会被覆盖）
+     * @return 是否已使用暂存目录
+     */
+    private static boolean applyStagedExtraction(FileInfo fileInfo, String outputPath,
+                                                 List<String> extractedFiles, List<String> conflictFiles,
+                                                 ExtractionProgressListener progressListener,
+                                                 int currentFile, int totalFiles, OutputJournal journal)
+            throws CancellationToken.CancelledException {
+        String stagedPath = fileInfo.getStagedExtractionPath();
+        if (stagedPath == null) {
+            return false;
+        }
+        Path stagingDir = Paths.get(stagedPath);
+        if (!Files.isDirectory(stagingDir)) {
+            fileInfo.setStagedExtractionPath(null);
+            return false;
+        }
+        
+        List<String> moved = new ArrayList<>();
+        try {
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(stagingDir)) {
+                paths = walk.filter(path -> !path.equals(stagingDir)).sorted().collect(Collectors.toList());
+            }
+            
+            for (Path source : paths) {
+                journal.cancellation.throwIfCancelled();
+                String fileName = stagingDir.relativize(source).toString().replace(File.separatorChar, '/');
+                Path targetPath = Paths.get(outputPath, fileName);
+                
+                if (Files.isDirectory(source)) {
+                    journal.createDirectories(targetPath);
+                    continue;
+                }
+                
+                journal.createDirectories(targetPath.getParent());
+                boolean existed = Files.exists(targetPath);
+                if (existed
+                        && !handleFileConflict(targetPath, fileInfo.getSuffix(), conflictFiles, progressListener)) {
+                    continue;
+                }
+                Files.move(source, targetPath, StandardCopyOption.REPLACE_EXISTING);
+                journal.recordFile(targetPath, existed);
+                moved.add(fileName);
+                
+                if (progressListener != null) {
+                    progressListener.onFileExtracted(fileName, currentFile, totalFiles);
+                }
+            }
+        } catch (CancellationToken.CancelledException e) {
+            throw e;
+        } catch (IOException e) {
+            ApplicationLogger.logWarn("使用暂存目录失败，重新解压 {}: {}", fileInfo.getOriginalFileName(), e.getMessage());
+            fileInfo.setStagedExtractionPath(null);
+            return false;
+        }
+        
+        extractedFiles.addAll(moved);
+        // 暂存的文件已经移走，再次打包时需要重新解压
+        fileInfo.setStagedExtractionPath(null);
+        try {
+            StreamingExtractor.deleteDirectory(stagingDir);
+        } catch (IOException e) {
+            // 忽略，清理临时文件时会再次删除
+        }
+        ApplicationLogger.logInfo("使用下载时解压的结果: {}, 文件数: {}", fileInfo.getOriginalFileName(), moved.size());
+        return true;
+    }
+    
     /**
      * 使用指定字符编码解压ZIP文件
      */
-    private static void extractWithCharset(File zipFile, String outputPath, Charset charset,
+    private static void extractWithCharset(FileInfo fileInfo, String outputPath, Charset charset,
                                          List<String> extractedFiles, List<String> conflictFiles,
                                          ExtractionProgressListener progressListener,
-                                         int currentFile, int totalFiles, int fileSuffix) throws IOException {
+                                         int currentFile, int totalFiles, int fileSuffix,
+                                         OutputJournal journal) throws IOException {
         
-        try (FileInputStream fis = new FileInputStream(zipFile);
-             ZipInputStream zis = new ZipInputStream(fis, charset)) {
+        try (InputStream in = fileInfo.openStream();
+             ZipInputStream zis = new ZipInputStream(in, charset)) {
             
             ZipEntry entry;
             while ((entry = zis.getNextEntry()) != null) {
+                journal.cancellation.throwIfCancelled();
                 if (entry.isDirectory()) {
                     // 创建目录
-                    createDirectory(outputPath, entry.getName());
+                    journal.createDirectories(Paths.get(outputPath, entry.getName()));
                 } else {
                     // 解压文件
                     extractFileEntry(zis, entry, outputPath, extractedFiles, conflictFiles,
-                                   progressListener, currentFile, totalFiles, fileSuffix);
+                                   progressListener, currentFile, totalFiles, fileSuffix, journal);
                 }
                 zis.closeEntry();
             }
@@ -193,31 +313,39 @@ public class ZipExtractor {
     private static void extractFileEntry(ZipInputStream zis, ZipEntry entry, String outputPath,
                                        List<String> extractedFiles, List<String> conflictFiles,
                                        ExtractionProgressListener progressListener,
-                                       int currentFile, int totalFiles, int fileSuffix) throws IOException {
+                                       int currentFile, int totalFiles, int fileSuffix,
+                                       OutputJournal journal) throws IOException {
         
         String fileName = entry.getName();
         Path targetPath = Paths.get(outputPath, fileName);
         
         // 创建父目录
-        Files.createDirectories(targetPath.getParent());
+        journal.createDirectories(targetPath.getParent());
         
         boolean shouldExtract = true;
         
         // 检查文件冲突
-        if (Files.exists(targetPath)) {
+        boolean existed = Files.exists(targetPath);
+        if (existed) {
             shouldExtract = handleFileConflict(targetPath, fileSuffix, conflictFiles, progressListener);
         }
         
         if (shouldExtract) {
             // 解压文件
+            journal.recordFile(targetPath, existed);
             try (FileOutputStream fos = new FileOutputStream(targetPath.toFile());
                  BufferedOutputStream bos = new BufferedOutputStream(fos)) {
                 
                 byte[] buffer = new byte[BUFFER_SIZE];
                 int bytesRead;
                 while ((bytesRead = zis.read(buffer)) != -1) {
+                    journal.cancellation.throwIfCancelled();
                     bos.write(buffer, 0, bytesRead);
                 }
+            } catch (CancellationToken.CancelledException e) {
+                // 写了一半的文件已经不完整，覆盖的已有文件也一并删除
+                Files.deleteIfExists(targetPath);
+                throw e;
             }
             
             extractedFiles.add(fileName);
@@ -266,16 +394,22 @@ public class ZipExtractor {
      * 复制非ZIP文件
      */
     private static void copyNonZipFile(FileInfo fileInfo, String outputPath, 
-                                     List<String> extractedFiles) throws IOException {
+                                     List<String> extractedFiles, OutputJournal journal) throws IOException {
         
-        Path sourcePath = Paths.get(fileInfo.getFilePath());
         Path targetPath = Paths.get(outputPath, fileInfo.getOriginalFileName());
         
         // 创建父目录
-        Files.createDirectories(targetPath.getParent());
+        journal.createDirectories(targetPath.getParent());
         
-        // 复制文件
-        Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        // 复制文件，内存暂存的文件从内存写出
+        journal.recordFile(targetPath, Files.exists(targetPath));
+        if (fileInfo.isInMemory()) {
+            try (InputStream in = fileInfo.openStream()) {
+                Files.copy(in, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            Files.copy(Paths.get(fileInfo.getFilePath()), targetPath, StandardCopyOption.REPLACE_EXISTING);
+        }
         
         extractedFiles.add(fileInfo.getOriginalFileName());
     }
@@ -283,7 +417,7 @@ public class ZipExtractor {
     /**
      * 创建输出目录
      */
-    private static String createOutputDirectory(String projectName) throws IOException {
+    private static String createOutputDirectory(String projectName, OutputJournal journal) throws IOException {
         // 清理项目名称中的非法字符
         String cleanProjectName = projectName.replaceAll("[\\\\/:*?\"<>|]", "_");
         
@@ -291,17 +425,61 @@ public class ZipExtractor {
         Path outputPath = outputBasePath.resolve(cleanProjectName);
         
         // 创建目录
-        Files.createDirectories(outputPath);
+        journal.createDirectories(outputPath);
         
         return outputPath.toString();
     }
     
     /**
-     * 创建目录
+     * 本次解压新建的文件和目录，取消时按创建的相反顺序删除
      */
-    private static void createDirectory(String basePath, String dirName) throws IOException {
-        Path dirPath = Paths.get(basePath, dirName);
-        Files.createDirectories(dirPath);
+    private static final class OutputJournal {
+        private final CancellationToken cancellation;
+        private final List<Path> created = new ArrayList<>();
+        
+        OutputJournal(CancellationToken cancellation) {
+            this.cancellation = cancellation;
+        }
+        
+        /**
+         * 创建目录（包括不存在的父目录），记录新建的部分
+         */
+        void createDirectories(Path dir) throws IOException {
+            List<Path> missing = new ArrayList<>();
+            for (Path path = dir.toAbsolutePath(); path != null && !Files.exists(path); path = path.getParent()) {
+                missing.add(path);
+            }
+            Files.createDirectories(dir);
+            for (int i = missing.size() - 1; i >= 0; i--) {
+                created.add(missing.get(i));
+            }
+        }
+        
+        /**
+         * 记录即将写入的文件，已存在的文件不记录
+         */
+        void recordFile(Path file, boolean existed) {
+            if (!existed) {
+                created.add(file.toAbsolutePath());
+            }
+        }
+        
+        int size() {
+            return created.size();
+        }
+        
+        void rollback() {
+            for (int i = created.size() - 1; i >= 0; i--) {
+                Path path = created.get(i);
+                try {
+                    Files.deleteIfExists(path);
+                } catch (DirectoryNotEmptyException e) {
+                    // 目录中还有本次之前已存在的文件
+                } catch (IOException e) {
+                    ApplicationLogger.logWarn("删除解压输出失败: {} - {}", path, e.getMessage());
+                }
+            }
+        }
     }
     
     /**
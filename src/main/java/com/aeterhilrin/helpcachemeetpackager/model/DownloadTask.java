@@ -1,5 +1,8 @@
 package com.aeterhilrin.helpcachemeetpackager.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -17,11 +20,24 @@ public class DownloadTask {
     private int suffix;                   // 后缀
     private TaskStatus status;            // 任务状态
     private long fileSize;                // 文件大小
-    private long downloadedSize;          // 已下载大小
+    private volatile long downloadedSize; // 已下载大小，下载线程更新，进度采样线程读取
+    private volatile long downloadSpeed;  // 平滑后的下载速度（字节/秒），由进度采样线程更新
     private String password;              // 链接密码
     private String errorMessage;          // 错误信息
     private long startTime;               // 开始时间
     private long endTime;                 // 结束时间
+    private int retryCount;               // 重试次数
+    private int failureCount;             // 失败次数（包括重试前的失败）
+    private int segments;                 // 分段下载的分段数，0表示使用全局默认值
+    private int weight = 1;               // 限速时的带宽权重
+    private int priority;                 // 调度优先级，数值大的先下载，相同时按调度策略排序
+    private volatile String stagedExtractionPath; // 边下载边解压的暂存目录，没有时为null
+    private String expectedSha256;        // 配置中期望的SHA-256（已规范化），为空时不校验
+    private volatile String sha256;       // 下载内容的SHA-256
+    private volatile String fastHash;     // 下载内容的XXH64，用作缓存键
+    private volatile String filePath;     // 分配的最终文件路径，解析完成后确定
+    private List<String> mirrorUrls = Collections.emptyList(); // 镜像链接，与原始链接是同一个文件
+    private volatile String sourceUrl;    // 当前使用的分享链接（原始链接或某个镜像），为空时使用原始链接
     
     /**
      * 任务状态枚举
@@ -167,6 +183,141 @@ public class DownloadTask {
         this.endTime = endTime;
     }
     
+    public int getRetryCount() {
+        return retryCount;
+    }
+    
+    public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+    
+    public int getFailureCount() {
+        return failureCount;
+    }
+    
+    public void setFailureCount(int failureCount) {
+        this.failureCount = failureCount;
+    }
+    
+    public int getSegments() {
+        return segments;
+    }
+    
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+    
+    public int getWeight() {
+        return weight;
+    }
+    
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+    
+    public int getPriority() {
+        return priority;
+    }
+    
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+    
+    public String getStagedExtractionPath() {
+        return stagedExtractionPath;
+    }
+    
+    public void setStagedExtractionPath(String stagedExtractionPath) {
+        this.stagedExtractionPath = stagedExtractionPath;
+    }
+    
+    public String getExpectedSha256() {
+        return expectedSha256;
+    }
+    
+    public void setExpectedSha256(String expectedSha256) {
+        this.expectedSha256 = expectedSha256;
+    }
+    
+    public String getSha256() {
+        return sha256;
+    }
+    
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+    
+    public String getFastHash() {
+        return fastHash;
+    }
+    
+    public void setFastHash(String fastHash) {
+        this.fastHash = fastHash;
+    }
+    
+    public String getFilePath() {
+        return filePath;
+    }
+    
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+    
+    public List<String> getMirrorUrls() {
+        return mirrorUrls;
+    }
+    
+    public void setMirrorUrls(List<String> mirrorUrls) {
+        this.mirrorUrls = mirrorUrls != null ? mirrorUrls : Collections.<String>emptyList();
+    }
+    
+    /**
+     * 当前使用的分享链接，直链从这个链接解析
+     */
+    public String getSourceUrl() {
+        return sourceUrl != null ? sourceUrl : originalUrl;
+    }
+    
+    public void setSourceUrl(String sourceUrl) {
+        this.sourceUrl = sourceUrl;
+    }
+    
+    /**
+     * 所有可用的分享链接，原始链接在前
+     */
+    public List<String> getSourceUrls() {
+        List<String> sources = new ArrayList<>();
+        sources.add(originalUrl);
+        for (String mirror : mirrorUrls) {
+            if (!sources.contains(mirror)) {
+                sources.add(mirror);
+            }
+        }
+        return sources;
+    }
+    
+    /**
+     * 是否配置了镜像链接
+     */
+    public boolean hasMirrors() {
+        return getSourceUrls().size() > 1;
+    }
+    
+    /**
+     * 记录一次失败后的重试
+     */
+    public synchronized void recordRetry() {
+        failureCount++;
+        retryCount++;
+    }
+    
+    /**
+     * 记录一次失败
+     */
+    public synchronized void recordFailure() {
+        failureCount++;
+    }
+    
     /**
      * 获取下载进度百分比
      * @return 下载进度（0-100）
@@ -192,17 +343,15 @@ public class DownloadTask {
     
     /**
      * 获取下载速度（字节/秒）
+     * 按指数加权移动平均计算的当前速度，反映最近几秒的下载情况
      * @return 下载速度
      */
     public long getDownloadSpeed() {
-        long currentTime = System.currentTimeMillis();
-        long elapsedTime = currentTime - startTime;
-        
-        if (elapsedTime <= 0) {
-            return 0;
-        }
-        
-        return downloadedSize * 1000 / elapsedTime; // 字节/秒
+        return downloadSpeed;
+    }
+    
+    public void setDownloadSpeed(long downloadSpeed) {
+        this.downloadSpeed = downloadSpeed;
     }
     
     /**
@@ -246,6 +395,7 @@ public class DownloadTask {
                 ", prefix='" + prefix + '\'' +
                 ", suffix=" + suffix +
                 ", status=" + status +
+                ", retries=" + retryCount +
                 ", progress=" + String.format("%.2f", getProgress()) + "%" +
                 '}';
     }
@@ -1,6 +1,12 @@
 package com.aeterhilrin.helpcachemeetpackager.model;
 
+import com.aeterhilrin.helpcachemeetpackager.util.MemoryTier;
+
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -20,6 +26,10 @@ public class FileInfo {
     private LocalDateTime downloadTime;   // 下载时间
     private boolean selected;             // 是否被选中用于打包
     private String taskId;                // 关联的任务ID
+    private String stagedExtractionPath;  // 边下载边解压的暂存目录，没有时为null
+    private String sha256;                // 文件内容的SHA-256
+    private String fastHash;              // 文件内容的XXH64
+    private MemoryTier.Buffer memoryBuffer; // 内存暂存，文件在磁盘上时为null
     
     public FileInfo() {
         this.downloadTime = LocalDateTime.now();
@@ -134,6 +144,63 @@ public class FileInfo {
         this.taskId = taskId;
     }
     
+    public String getStagedExtractionPath() {
+        return stagedExtractionPath;
+    }
+    
+    public void setStagedExtractionPath(String stagedExtractionPath) {
+        this.stagedExtractionPath = stagedExtractionPath;
+    }
+    
+    public String getSha256() {
+        return sha256;
+    }
+    
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+    
+    public String getFastHash() {
+        return fastHash;
+    }
+    
+    public void setFastHash(String fastHash) {
+        this.fastHash = fastHash;
+    }
+    
+    public MemoryTier.Buffer getMemoryBuffer() {
+        return memoryBuffer;
+    }
+    
+    /**
+     * 设置内存暂存，文件内容保存在内存中，filePath只是内存不足时写入的位置
+     */
+    public void setMemoryBuffer(MemoryTier.Buffer memoryBuffer) {
+        this.memoryBuffer = memoryBuffer;
+        if (memoryBuffer != null) {
+            this.fileSize = memoryBuffer.getSize();
+        }
+    }
+    
+    /**
+     * 文件内容是否在内存中
+     * @return 是否在内存中
+     */
+    public boolean isInMemory() {
+        return memoryBuffer != null && memoryBuffer.isInMemory();
+    }
+    
+    /**
+     * 打开文件内容，在内存中时读取内存，否则读取文件
+     * @return 文件内容的输入流
+     */
+    public InputStream openStream() throws IOException {
+        if (memoryBuffer != null) {
+            return memoryBuffer.openStream();
+        }
+        return Files.newInputStream(Paths.get(filePath));
+    }
+    
     /**
      * 获取格式化的文件大小
      * @return 格式化的文件大小字符串
@@ -166,6 +233,9 @@ public class FileInfo {
      * @return 文件是否存在
      */
     public boolean exists() {
+        if (isInMemory()) {
+            return true;
+        }
         if (filePath == null) {
             return false;
         }
@@ -226,6 +296,7 @@ public class FileInfo {
                 ", prefix='" + prefix + '\'' +
                 ", suffix=" + suffix +
                 ", selected=" + selected +
+                ", sha256='" + sha256 + '\'' +
                 '}';
     }
     
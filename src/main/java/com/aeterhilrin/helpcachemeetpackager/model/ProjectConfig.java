@@ -12,14 +12,22 @@ import java.util.ArrayList;
 public class ProjectConfig {
     private String projectName;           // 项目名称
     private List<DownloadItem> items;     // 下载项目列表
+    private List<String> resolverEndpoints; // 额外的直链解析接口地址
+    private int segments;                 // 分段下载的分段数，0表示使用全局默认值
+    private int concurrency;              // 同时进行的下载数，0表示自动调节
+    private int bandwidthLimit;           // 下载限速（KB/s），0表示不修改当前限速
+    private String schedulePolicy;        // 下载调度策略，为空时使用默认策略
+    private boolean streamingExtraction;  // 是否边下载边解压
     
     public ProjectConfig() {
         this.items = new ArrayList<>();
+        this.resolverEndpoints = new ArrayList<>();
     }
     
     public ProjectConfig(String projectName) {
         this.projectName = projectName;
         this.items = new ArrayList<>();
+        this.resolverEndpoints = new ArrayList<>();
     }
     
     // Getters and Setters
@@ -43,6 +51,54 @@ public class ProjectConfig {
         this.items.add(item);
     }
     
+    public List<String> getResolverEndpoints() {
+        return resolverEndpoints;
+    }
+    
+    public void setResolverEndpoints(List<String> resolverEndpoints) {
+        this.resolverEndpoints = resolverEndpoints != null ? resolverEndpoints : new ArrayList<>();
+    }
+    
+    public int getSegments() {
+        return segments;
+    }
+    
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+    
+    public int getConcurrency() {
+        return concurrency;
+    }
+    
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+    
+    public int getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+    
+    public void setBandwidthLimit(int bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+    
+    public String getSchedulePolicy() {
+        return schedulePolicy;
+    }
+    
+    public void setSchedulePolicy(String schedulePolicy) {
+        this.schedulePolicy = schedulePolicy;
+    }
+    
+    public boolean isStreamingExtraction() {
+        return streamingExtraction;
+    }
+    
+    public void setStreamingExtraction(boolean streamingExtraction) {
+        this.streamingExtraction = streamingExtraction;
+    }
+    
     /**
      * 验证配置是否有效
      * @return 配置是否有效
@@ -70,6 +126,12 @@ public class ProjectConfig {
         return "ProjectConfig{" +
                 "projectName='" + projectName + '\'' +
                 ", items=" + items +
+                ", resolverEndpoints=" + resolverEndpoints +
+                ", segments=" + segments +
+                ", concurrency=" + concurrency +
+                ", bandwidthLimit=" + bandwidthLimit +
+                ", schedulePolicy='" + schedulePolicy + '\'' +
+                ", streamingExtraction=" + streamingExtraction +
                 '}';
     }
     
@@ -82,6 +144,11 @@ public class ProjectConfig {
         private String lanzouUrl;         // 蓝奏云链接
         private String password;          // 链接密码
         private int suffix;               // 后缀（数字）
+        private int segments;             // 分段数，0表示使用项目或全局设置
+        private int weight;               // 限速时的带宽权重，0表示默认权重1
+        private int priority;             // 调度优先级，数值大的先下载，优先于调度策略
+        private String expectedHash;      // 期望的SHA-256，为空时不校验
+        private List<String> mirrors = new ArrayList<>(); // 镜像链接，与主链接是同一个文件，使用相同的密码
         
         public DownloadItem() {
         }
@@ -126,6 +193,46 @@ public class ProjectConfig {
             this.suffix = suffix;
         }
         
+        public int getSegments() {
+            return segments;
+        }
+        
+        public void setSegments(int segments) {
+            this.segments = segments;
+        }
+        
+        public int getWeight() {
+            return weight;
+        }
+        
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+        
+        public int getPriority() {
+            return priority;
+        }
+        
+        public void setPriority(int priority) {
+            this.priority = priority;
+        }
+        
+        public String getExpectedHash() {
+            return expectedHash;
+        }
+        
+        public void setExpectedHash(String expectedHash) {
+            this.expectedHash = expectedHash;
+        }
+        
+        public List<String> getMirrors() {
+            return mirrors;
+        }
+        
+        public void setMirrors(List<String> mirrors) {
+            this.mirrors = mirrors != null ? mirrors : new ArrayList<>();
+        }
+        
         /**
          * 验证下载项是否有效
          * @return 下载项是否有效
@@ -163,6 +270,11 @@ public class ProjectConfig {
                     ", lanzouUrl='" + lanzouUrl + '\'' +
                     ", password='" + password + '\'' +
                     ", suffix=" + suffix +
+                    ", segments=" + segments +
+                    ", weight=" + weight +
+                    ", priority=" + priority +
+                    ", expectedHash='" + expectedHash + '\'' +
+                    ", mirrors=" + mirrors +
                     '}';
         }
     }
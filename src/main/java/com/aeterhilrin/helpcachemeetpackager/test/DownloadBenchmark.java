@@ -0,0 +1,165 @@
+package com.aeterhilrin.helpcachemeetpackager.test;
+
+import com.aeterhilrin.helpcachemeetpackager.download.ChannelTransfer;
+import com.aeterhilrin.helpcachemeetpackager.download.HttpTransport;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+/**
+ * 下载写入路径基准测试
+ * 比较原来的流式复制（BufferedInputStream + 8KB byte[] + BufferedOutputStream）、
+ * NIO路径（自适应缓冲区 + FileChannel）和FileChannel.transferFrom的吞吐量。
+ * 用法: DownloadBenchmark [文件大小MB|URL] [轮数]
+ * 参数为文件大小时在本机启动HTTP服务，为URL时从该地址下载，测量真实网络上的吞吐量。
+ *
+ * @author AeterHilrin
+ */
+public class DownloadBenchmark {
+    
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    
+    public static void main(String[] args) throws Exception {
+        String source = args.length > 0 ? args[0] : "256";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        
+        System.out.println("=== 下载写入路径基准测试 ===");
+        
+        HttpServer server = null;
+        String url;
+        if (source.startsWith("http://") || source.startsWith("https://")) {
+            url = source;
+            System.out.println("下载地址: " + url + ", 轮数: " + rounds);
+        } else {
+            int sizeMb = Integer.parseInt(source);
+            System.out.println("文件大小: " + sizeMb + " MB, 轮数: " + rounds);
+            
+            byte[] chunk = new byte[1024 * 1024];
+            new Random(42).nextBytes(chunk);
+            long contentLength = (long) sizeMb * chunk.length;
+            
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/file", exchange -> {
+                exchange.sendResponseHeaders(200, contentLength);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    for (int i = 0; i < sizeMb; i++) {
+                        output.write(chunk);
+                    }
+                }
+            });
+            server.start();
+            url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+        }
+        
+        File target = File.createTempFile("hcmp-benchmark", ".bin");
+        target.deleteOnExit();
+        
+        try {
+            // 预热
+            streamPath(url, target);
+            long totalSize = target.length();
+            nioPath(url, target);
+            transferFromPath(url, target);
+            
+            long streamNanos = 0;
+            long nioNanos = 0;
+            long transferNanos = 0;
+            for (int round = 1; round <= rounds; round++) {
+                long stream = streamPath(url, target);
+                long nio = nioPath(url, target);
+                long transfer = transferFromPath(url, target);
+                streamNanos += stream;
+                nioNanos += nio;
+                transferNanos += transfer;
+                System.out.printf("第%d轮: 流式 %.1f MB/s, NIO %.1f MB/s, transferFrom %.1f MB/s%n",
+                    round, throughput(totalSize, stream), throughput(totalSize, nio),
+                    throughput(totalSize, transfer));
+            }
+            
+            System.out.println();
+            System.out.printf("平均: 流式 %.1f MB/s, NIO %.1f MB/s, transferFrom %.1f MB/s%n",
+                throughput(totalSize * rounds, streamNanos), throughput(totalSize * rounds, nioNanos),
+                throughput(totalSize * rounds, transferNanos));
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+            target.delete();
+        }
+        
+        System.out.println("测试完成！");
+        System.exit(0);
+    }
+    
+    /**
+     * 原来的流式复制路径
+     */
+    private static long streamPath(String url, File target) throws IOException {
+        long start = System.nanoTime();
+        try (HttpTransport.Response response = HttpTransport.getInstance().get(url, null, 10000, 30000);
+             InputStream inputStream = response.getBody();
+             BufferedInputStream bufferedInput = new BufferedInputStream(inputStream);
+             BufferedOutputStream bufferedOutput = new BufferedOutputStream(new FileOutputStream(target))) {
+            
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = bufferedInput.read(buffer)) != -1) {
+                bufferedOutput.write(buffer, 0, bytesRead);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+    
+    /**
+     * NIO路径
+     */
+    private static long nioPath(String url, File target) throws IOException {
+        long start = System.nanoTime();
+        try (HttpTransport.Response response = HttpTransport.getInstance().get(url, null, 10000, 30000);
+             FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING);
+             ChannelTransfer.Reader reader = new ChannelTransfer.Reader(response.getBody())) {
+            
+            ChannelTransfer.extendTo(channel, response.getContentLength());
+            long position = 0;
+            ByteBuffer buffer;
+            while ((buffer = reader.read()) != null) {
+                position += ChannelTransfer.writeFully(channel, buffer, position);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+    
+    /**
+     * FileChannel.transferFrom路径，没有限速、哈希和解压的挂钩，只作对照
+     */
+    private static long transferFromPath(String url, File target) throws IOException {
+        long start = System.nanoTime();
+        try (HttpTransport.Response response = HttpTransport.getInstance().get(url, null, 10000, 30000);
+             FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            
+            ChannelTransfer.extendTo(channel, response.getContentLength());
+            channel.transferFrom(Channels.newChannel(response.getBody()), 0, Long.MAX_VALUE);
+        }
+        return System.nanoTime() - start;
+    }
+    
+    private static double throughput(long bytes, long nanos) {
+        return bytes / 1024.0 / 1024.0 / (nanos / 1_000_000_000.0);
+    }
+}
@@ -33,6 +33,7 @@ public class LeftPanel extends JPanel implements DropTargetListener {
         void onConfigLoaded(ProjectConfig config);
         void onConfigLoadError(String errorMessage);
         void onRefreshRequested(); // 新增：刷新请求回调
+        void onConfigsQueued(List<File> files); // 拖入多个配置文件或目录时加入项目队列
     }
     
     public LeftPanel() {
@@ -147,7 +148,15 @@ public class LeftPanel extends JPanel implements DropTargetListener {
             return;
         }
         
-        File file = files.get(0); // 只处理第一个文件
+        // 多个文件或目录交给项目队列同时构建
+        if (files.size() > 1 || files.get(0).isDirectory()) {
+            if (configLoadListener != null) {
+                configLoadListener.onConfigsQueued(files);
+            }
+            return;
+        }
+        
+        File file = files.get(0);
         
         if (!isValidConfigFile(file)) {
             showError("请拖拽有效的配置文件 (.yaml 或 .yml)");
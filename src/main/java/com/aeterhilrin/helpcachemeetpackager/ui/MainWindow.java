@@ -7,6 +7,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.util.List;
 
 /**
@@ -20,7 +21,9 @@ public class MainWindow extends JFrame implements LeftPanel.ConfigLoadListener,
     private LeftPanel leftPanel;
     private RightPanel rightPanel;
     private JMenuBar menuBar;
+    private JMenuItem bandwidthLimitItem;
     private MainWindowListener mainWindowListener;
+    private long bandwidthLimitKb; // 当前限速（KB/s），0表示不限速
     
     // 进度缓存变量，用于防止进度条闪烁
     private volatile String lastProgressText = "";
@@ -33,6 +36,9 @@ public class MainWindow extends JFrame implements LeftPanel.ConfigLoadListener,
         void onPackageRequested(List<FileInfo> selectedFiles, String projectName);
         void onApplicationExit();
         void onRefreshRequested(); // 新增：刷新请求回调
+        void onBandwidthLimitChanged(long kbPerSecond); // 限速修改回调，0表示不限速
+        void onCancelRequested(); // 取消正在进行的下载和打包
+        void onConfigsQueued(List<File> files); // 多个配置文件或目录加入项目队列
     }
     
     public MainWindow() {
@@ -120,6 +126,27 @@ public class MainWindow extends JFrame implements LeftPanel.ConfigLoadListener,
         fileMenu.addSeparator();
         fileMenu.add(exitItem);
         
+        // 下载菜单
+        JMenu downloadMenu = new JMenu("下载");
+        downloadMenu.setFont(new Font("微软雅黑", Font.PLAIN, 12));
+        
+        bandwidthLimitItem = new JMenuItem();
+        bandwidthLimitItem.setFont(new Font("微软雅黑", Font.PLAIN, 12));
+        bandwidthLimitItem.addActionListener(e -> showBandwidthLimitDialog());
+        updateBandwidthLimitItem();
+        
+        JMenuItem cancelItem = new JMenuItem("取消当前任务");
+        cancelItem.setFont(new Font("微软雅黑", Font.PLAIN, 12));
+        cancelItem.addActionListener(e -> {
+            if (mainWindowListener != null) {
+                mainWindowListener.onCancelRequested();
+            }
+        });
+        
+        downloadMenu.add(bandwidthLimitItem);
+        downloadMenu.addSeparator();
+        downloadMenu.add(cancelItem);
+        
         // 帮助菜单
         JMenu helpMenu = new JMenu("帮助");
         helpMenu.setFont(new Font("微软雅黑", Font.PLAIN, 12));
@@ -131,6 +158,7 @@ public class MainWindow extends JFrame implements LeftPanel.ConfigLoadListener,
         helpMenu.add(aboutItem);
         
         menuBar.add(fileMenu);
+        menuBar.add(downloadMenu);
         menuBar.add(helpMenu);
         
         setJMenuBar(menuBar);
@@ -211,6 +239,51 @@ public class MainWindow extends JFrame implements LeftPanel.ConfigLoadListener,
         }
     }
     
+    /**
+     * 显示限速设置对话框
+     */
+    private void showBandwidthLimitDialog() {
+        Object input = JOptionPane.showInputDialog(this,
+                "下载限速（KB/s），0表示不限速：",
+                "限速设置",
+                JOptionPane.PLAIN_MESSAGE,
+                null,
+                null,
+                String.valueOf(bandwidthLimitKb));
+        if (input == null) {
+            return;
+        }
+        
+        long kbPerSecond;
+        try {
+            kbPerSecond = Long.parseLong(input.toString().trim());
+        } catch (NumberFormatException e) {
+            kbPerSecond = -1;
+        }
+        if (kbPerSecond < 0) {
+            showError("限速设置", "请输入不小于0的整数");
+            return;
+        }
+        
+        updateBandwidthLimit(kbPerSecond);
+        if (mainWindowListener != null) {
+            mainWindowListener.onBandwidthLimitChanged(kbPerSecond);
+        }
+    }
+    
+    /**
+     * 更新界面上显示的限速（例如配置文件中设置了限速时）
+     * @param kbPerSecond 限速（KB/s），0表示不限速
+     */
+    public void updateBandwidthLimit(long kbPerSecond) {
+        bandwidthLimitKb = Math.max(0, kbPerSecond);
+        updateBandwidthLimitItem();
+    }
+    
+    private void updateBandwidthLimitItem() {
+        bandwidthLimitItem.setText("限速设置... (" + (bandwidthLimitKb > 0 ? bandwidthLimitKb + " KB/s" : "不限速") + ")");
+    }
+    
     /**
      * 显示关于对话框
      */
@@ -325,6 +398,13 @@ public class MainWindow extends JFrame implements LeftPanel.ConfigLoadListener,
         }
     }
     
+    @Override
+    public void onConfigsQueued(List<File> files) {
+        if (mainWindowListener != null) {
+            mainWindowListener.onConfigsQueued(files);
+        }
+    }
+    
     @Override
     public void onConfigLoadError(String errorMessage) {
         showError("配置加载错误", errorMessage);
@@ -347,4 +427,11 @@ public class MainWindow extends JFrame implements LeftPanel.ConfigLoadListener,
     public void onPackageError(String errorMessage) {
         rightPanel.onPackageError(errorMessage);
     }
+    
+    /**
+     * 打包已取消
+     */
+    public void onPackageCancelled() {
+        rightPanel.onPackageCancelled();
+    }
 }
\ No newline at end of file
@@ -511,6 +511,16 @@ public class RightPanel extends JPanel {
         });
     }
     
+    /**
+     * 打包取消回调
+     */
+    public void onPackageCancelled() {
+        SwingUtilities.invokeLater(() -> {
+            packageButton.setEnabled(true);
+            updateStatus("打包已取消");
+        });
+    }
+    
     /**
      * 现代化文件信息渲染器
      */
@@ -0,0 +1,154 @@
+package com.aeterhilrin.helpcachemeetpackager.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 取消令牌
+ * 一次下载或打包共用一个令牌，解析、下载、重命名和解压各阶段都检查它。
+ * 取消时立即执行已登记的回调（关闭连接、中断等待中的线程），
+ * 阻塞在网络读取上的线程不需要等到读取超时。
+ *
+ * @author AeterHilrin
+ */
+public final class CancellationToken {
+    
+    /**
+     * 不会被取消的令牌
+     */
+    public static final CancellationToken NONE = new CancellationToken();
+    
+    private final List<Registration> registrations = new ArrayList<>();
+    private volatile boolean cancelled;
+    
+    /**
+     * 取消时执行的回调，用完后关闭以注销
+     * 关闭返回后回调不会再被执行
+     */
+    public static final class Registration implements AutoCloseable {
+        private static final Registration EMPTY = new Registration(null, null);
+        
+        private final CancellationToken token;
+        private final Runnable action;
+        private boolean active = true;
+        private boolean fired;
+        private Thread interruptedThread; // interruptOnCancel登记的线程
+        
+        private Registration(CancellationToken token, Runnable action) {
+            this.token = token;
+            this.action = action;
+        }
+        
+        private synchronized void fire() {
+            if (active) {
+                active = false;
+                fired = true;
+                try {
+                    action.run();
+                } catch (Exception e) {
+                    ApplicationLogger.logWarn("执行取消回调失败: {}", e.getMessage());
+                }
+            }
+        }
+        
+        @Override
+        public void close() {
+            boolean interrupted;
+            synchronized (this) {
+                active = false;
+                interrupted = fired && interruptedThread != null;
+            }
+            if (token != null) {
+                token.unregister(this);
+            }
+            if (interrupted && Thread.currentThread() == interruptedThread) {
+                // 清除由取消引起的中断状态
+                Thread.interrupted();
+            }
+        }
+    }
+    
+    /**
+     * 由于取消而中止的操作
+     */
+    public static class CancelledException extends IOException {
+        public CancelledException() {
+            super("操作已取消");
+        }
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * 取消，执行所有已登记的回调，重复调用没有作用
+     */
+    public void cancel() {
+        if (this == NONE) {
+            return;
+        }
+        List<Registration> pending;
+        synchronized (registrations) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pending = new ArrayList<>(registrations);
+            registrations.clear();
+        }
+        for (Registration registration : pending) {
+            registration.fire();
+        }
+    }
+    
+    /**
+     * 登记取消时执行的回调，已经取消时立即执行
+     */
+    public Registration onCancel(Runnable action) {
+        if (this == NONE) {
+            return Registration.EMPTY;
+        }
+        Registration registration = new Registration(this, action);
+        synchronized (registrations) {
+            if (!cancelled) {
+                registrations.add(registration);
+                return registration;
+            }
+        }
+        registration.fire();
+        return registration;
+    }
+    
+    /**
+     * 取消时中断当前线程，用于等待解析接口、重试退避等可中断的阻塞
+     * 注销时清除由取消引起的中断状态，线程池中的线程可以继续执行其他任务
+     */
+    public Registration interruptOnCancel() {
+        Thread thread = Thread.currentThread();
+        Registration registration = onCancel(thread::interrupt);
+        if (registration == Registration.EMPTY) {
+            return registration;
+        }
+        synchronized (registration) {
+            registration.interruptedThread = thread;
+        }
+        return registration;
+    }
+    
+    /**
+     * 已经取消时抛出CancelledException
+     */
+    public void throwIfCancelled() throws CancelledException {
+        if (cancelled) {
+            throw new CancelledException();
+        }
+    }
+    
+    private void unregister(Registration registration) {
+        synchronized (registrations) {
+            registrations.remove(registration);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.aeterhilrin.helpcachemeetpackager.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 执行模式
+ * 默认使用普通线程池。设置hcmp.execution.virtualThreads=true且运行在Java 21及以上时，
+ * 解析、分段下载、解压和后台任务都在虚拟线程中运行，每个任务一个线程，
+ * 并发数由信号量限制而不是线程池大小。Java 8到20上该设置无效，仍使用普通线程池。
+ *
+ * @author AeterHilrin
+ */
+public final class ExecutionMode {
+    
+    private static final boolean VIRTUAL_THREADS = detectVirtualThreads();
+    
+    private static volatile ExecutorService backgroundExecutor;
+    
+    private ExecutionMode() {
+    }
+    
+    private static boolean detectVirtualThreads() {
+        if (!Boolean.getBoolean("hcmp.execution.virtualThreads")) {
+            return false;
+        }
+        if (!VirtualThreads.isSupported()) {
+            ApplicationLogger.logWarn("当前Java版本不支持虚拟线程（需要Java 21及以上），使用普通线程池");
+            return false;
+        }
+        ApplicationLogger.logInfo("执行模式: 虚拟线程");
+        return true;
+    }
+    
+    /**
+     * 是否使用虚拟线程
+     */
+    public static boolean isVirtualThreads() {
+        return VIRTUAL_THREADS;
+    }
+    
+    /**
+     * 线程工厂：虚拟线程模式下创建虚拟线程，否则使用传入的普通线程工厂
+     * @param prefix 虚拟线程的名称前缀
+     * @param platformFactory 普通模式下的线程工厂
+     */
+    public static ThreadFactory threadFactory(String prefix, ThreadFactory platformFactory) {
+        return VIRTUAL_THREADS ? VirtualThreads.factory(prefix) : platformFactory;
+    }
+    
+    /**
+     * 并发数有上限的执行器
+     * 普通模式下是固定大小的线程池；虚拟线程模式下每个任务一个虚拟线程，用公平信号量限制同时运行的数量
+     * @param prefix 线程名前缀
+     * @param permits 同时运行的任务数上限
+     * @param platformFactory 普通模式下的线程工厂
+     */
+    public static ExecutorService newBoundedExecutor(String prefix, int permits, ThreadFactory platformFactory) {
+        if (VIRTUAL_THREADS) {
+            return new PerTaskExecutor(VirtualThreads.factory(prefix), new Semaphore(Math.max(1, permits), true));
+        }
+        return Executors.newFixedThreadPool(permits, platformFactory);
+    }
+    
+    /**
+     * 并发数没有上限的执行器
+     * 普通模式下是按需创建线程的线程池；虚拟线程模式下每个任务一个虚拟线程
+     * @param prefix 线程名前缀
+     * @param platformFactory 普通模式下的线程工厂
+     */
+    public static ExecutorService newUnboundedExecutor(String prefix, ThreadFactory platformFactory) {
+        if (VIRTUAL_THREADS) {
+            return new PerTaskExecutor(VirtualThreads.factory(prefix), null);
+        }
+        return Executors.newCachedThreadPool(platformFactory);
+    }
+    
+    /**
+     * 异步执行后台任务（网络测试、打包等），普通模式下与CompletableFuture.runAsync相同
+     */
+    public static CompletableFuture<Void> runAsync(Runnable action) {
+        return VIRTUAL_THREADS ? CompletableFuture.runAsync(action, background())
+            : CompletableFuture.runAsync(action);
+    }
+    
+    /**
+     * 异步执行后台任务，普通模式下与CompletableFuture.supplyAsync相同
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        return VIRTUAL_THREADS ? CompletableFuture.supplyAsync(supplier, background())
+            : CompletableFuture.supplyAsync(supplier);
+    }
+    
+    private static ExecutorService background() {
+        if (backgroundExecutor == null) {
+            synchronized (ExecutionMode.class) {
+                if (backgroundExecutor == null) {
+                    backgroundExecutor = new PerTaskExecutor(VirtualThreads.factory("background"), null);
+                }
+            }
+        }
+        return backgroundExecutor;
+    }
+    
+    /**
+     * 每个任务一个线程的执行器，可选用信号量限制同时运行的任务数
+     * 任务在自己的线程中等待信号量，排队的任务不占用平台线程。
+     * 登记任务和检查关闭状态在同一把锁内完成，关闭后不会再有任务漏登记；
+     * shutdownNow中断所有线程，并交还仍在等待名额、尚未开始的任务。
+     */
+    private static final class PerTaskExecutor extends AbstractExecutorService {
+        private final ThreadFactory factory;
+        private final Semaphore permits; // 为null时不限制
+        private final Object lock = new Object();
+        private final Set<Worker> workers = new HashSet<>(); // 由lock保护
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile boolean shutdown;
+        
+        PerTaskExecutor(ThreadFactory factory, Semaphore permits) {
+            this.factory = factory;
+            this.permits = permits;
+        }
+        
+        @Override
+        public void execute(Runnable command) {
+            if (command == null) {
+                throw new NullPointerException();
+            }
+            Worker worker = new Worker(command);
+            worker.thread = factory.newThread(worker);
+            synchronized (lock) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("执行器已关闭");
+                }
+                workers.add(worker);
+            }
+            try {
+                worker.thread.start();
+            } catch (RuntimeException | Error e) {
+                finish(worker);
+                throw e;
+            }
+        }
+        
+        private void finish(Worker worker) {
+            synchronized (lock) {
+                workers.remove(worker);
+                tryTerminate();
+            }
+        }
+        
+        private void tryTerminate() {
+            if (shutdown && workers.isEmpty()) {
+                terminated.countDown();
+            }
+        }
+        
+        @Override
+        public void shutdown() {
+            synchronized (lock) {
+                shutdown = true;
+                tryTerminate();
+            }
+        }
+        
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> pending = new ArrayList<>();
+            synchronized (lock) {
+                shutdown = true;
+                for (Worker worker : workers) {
+                    if (!worker.started) {
+                        worker.cancelled = true;
+                        pending.add(worker.command);
+                    }
+                    worker.thread.interrupt();
+                }
+                tryTerminate();
+            }
+            return pending;
+        }
+        
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+        
+        @Override
+        public boolean isTerminated() {
+            return terminated.getCount() == 0;
+        }
+        
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return terminated.await(timeout, unit);
+        }
+        
+        /**
+         * 单个任务及其线程
+         */
+        private final class Worker implements Runnable {
+            private final Runnable command;
+            private Thread thread;
+            private boolean started; // 已取得名额开始执行，由lock保护
+            private boolean cancelled; // 已由shutdownNow交还，由lock保护
+            
+            Worker(Runnable command) {
+                this.command = command;
+            }
+            
+            @Override
+            public void run() {
+                try {
+                    if (acquire()) {
+                        try {
+                            if (begin()) {
+                                command.run();
+                            }
+                        } finally {
+                            if (permits != null) {
+                                permits.release();
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // 等待名额时被shutdownNow中断，任务已交还给调用方
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finish(this);
+                }
+            }
+            
+            /**
+             * 等待名额
+             * 线程启动前收到的中断可能丢失，所以等待前先检查任务是否已被shutdownNow交还
+             * @return 是否取得名额
+             */
+            private boolean acquire() throws InterruptedException {
+                synchronized (lock) {
+                    if (cancelled) {
+                        return false;
+                    }
+                }
+                if (permits != null) {
+                    permits.acquire();
+                }
+                return true;
+            }
+            
+            private boolean begin() {
+                synchronized (lock) {
+                    if (cancelled) {
+                        return false;
+                    }
+                    started = true;
+                    return true;
+                }
+            }
+        }
+    }
+}
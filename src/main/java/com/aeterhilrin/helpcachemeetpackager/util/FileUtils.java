@@ -260,6 +260,24 @@ public class FileUtils {
         return DATE_FORMAT.format(new Date(timestamp));
     }
     
+    /**
+     * 格式化时长
+     * @param millis 时长（毫秒），小于0表示未知
+     * @return 格式化的时长字符串，如 05:32 或 1:05:32
+     */
+    public static String formatDuration(long millis) {
+        if (millis < 0) {
+            return "--:--";
+        }
+        
+        long seconds = (millis + 999) / 1000;
+        long hours = seconds / 3600;
+        if (hours > 0) {
+            return String.format("%d:%02d:%02d", hours, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%02d:%02d", seconds / 60, seconds % 60);
+    }
+    
     /**
      * 获取当前时间戳字符串
      * @return 当前时间戳字符串
@@ -0,0 +1,331 @@
+package com.aeterhilrin.helpcachemeetpackager.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 小文件的内存暂存
+ * 不超过大小阈值（hcmp.memoryTier.maxFileBytes，默认4MB，0表示关闭）的下载直接保存在内存中，
+ * 打包时从内存解压，临时目录中不产生文件。所有暂存共用一个内存预算（hcmp.memoryTier.budgetBytes，默认64MB），
+ * 超出预算时把最早完成的暂存写入各自的目标文件，腾出的内存给新的下载使用；仍然不够时新的下载改为写入磁盘。
+ *
+ * @author AeterHilrin
+ */
+public class MemoryTier {
+    
+    private static final long DEFAULT_MAX_FILE_BYTES = 4L * 1024 * 1024;
+    private static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    
+    private static final MemoryTier INSTANCE = new MemoryTier();
+    
+    private final long maxFileBytes;
+    private final long budgetBytes;
+    private final Map<Path, Buffer> byPath = new LinkedHashMap<>(); // 目标文件 -> 暂存，按完成顺序
+    private long reservedBytes; // 下载中和已完成的暂存占用的内存
+    
+    /**
+     * 单个文件的内存暂存
+     * 下载期间写入array()，完成后调用seal()登记到目标文件；写入磁盘后从文件读取
+     */
+    public static final class Buffer {
+        private final MemoryTier tier;
+        private final Set<Path> paths = new LinkedHashSet<>(); // 共用同一份内容的目标文件
+        private final int size;
+        private volatile byte[] data;
+        private boolean spilling; // 已被选中写入磁盘，受tier的锁保护
+        
+        private Buffer(MemoryTier tier, Path path, int size) {
+            this.tier = tier;
+            this.paths.add(path);
+            this.size = size;
+            this.data = new byte[size];
+        }
+        
+        /**
+         * 下载写入的数组，长度等于文件大小
+         */
+        public byte[] array() {
+            return data;
+        }
+        
+        public int getSize() {
+            return size;
+        }
+        
+        /**
+         * 内容是否仍在内存中
+         */
+        public boolean isInMemory() {
+            return data != null;
+        }
+        
+        /**
+         * 打开内容，仍在内存中时直接读取数组，已写入磁盘时读取文件
+         */
+        public InputStream openStream() throws IOException {
+            Path path;
+            synchronized (tier) {
+                byte[] current = data;
+                if (current != null) {
+                    return new ByteArrayInputStream(current);
+                }
+                path = paths.iterator().next();
+            }
+            return Files.newInputStream(path);
+        }
+        
+        /**
+         * 下载完成，登记到目标文件，之后可以在内存不足时写入磁盘
+         */
+        public void seal() {
+            synchronized (tier) {
+                for (Path path : paths) {
+                    tier.byPath.put(path, this);
+                }
+            }
+        }
+        
+        /**
+         * 放弃暂存的内容（下载失败或校验失败），释放占用的内存
+         */
+        public void release() {
+            synchronized (tier) {
+                for (Path path : paths) {
+                    tier.byPath.remove(path, this);
+                }
+                if (data != null) {
+                    data = null;
+                    tier.reservedBytes -= size;
+                }
+            }
+        }
+        
+        /**
+         * 把内容写入所有目标文件并释放内存
+         * 写文件时不持有tier的锁，期间内容仍在内存中，find()和openStream()照常使用内存；
+         * 写入期间新共用的目标文件在下一轮写入，被释放的目标文件写完后删除
+         */
+        private void spill() throws IOException {
+            Set<Path> written = new HashSet<>();
+            Path first = null;
+            try {
+                while (true) {
+                    byte[] current;
+                    List<Path> pending = new ArrayList<>();
+                    synchronized (tier) {
+                        current = data;
+                        if (current != null) {
+                            for (Path path : paths) {
+                                if (!written.contains(path)) {
+                                    pending.add(path);
+                                }
+                            }
+                        }
+                        if (current == null || pending.isEmpty()) {
+                            finishSpill(written, current != null);
+                            return;
+                        }
+                    }
+                    
+                    for (Path path : pending) {
+                        Path tempFile = path.resolveSibling(path.getFileName() + ".spill.tmp");
+                        Files.deleteIfExists(tempFile);
+                        if (first == null) {
+                            Files.write(tempFile, current);
+                        } else if (!tryLink(tempFile, first)) {
+                            Files.copy(first, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+                        written.add(path);
+                        if (first == null) {
+                            first = path;
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (tier) {
+                    spilling = false;
+                }
+                throw e;
+            }
+        }
+        
+        /**
+         * 写入完成后更新登记，调用时持有tier的锁
+         * @param written 已写入的目标文件
+         * @param inMemory 写入期间暂存是否仍然有效（没有被release）
+         */
+        private void finishSpill(Set<Path> written, boolean inMemory) {
+            spilling = false;
+            for (Path path : written) {
+                tier.byPath.remove(path, this);
+                if (!inMemory || !paths.contains(path)) {
+                    // 写入期间目标文件已被清理，不留下文件
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        ApplicationLogger.logDebug("删除已释放的暂存文件失败: {} - {}", path, e.getMessage());
+                    }
+                }
+            }
+            if (inMemory) {
+                data = null;
+                tier.reservedBytes -= size;
+            }
+        }
+    }
+    
+    private MemoryTier() {
+        this.maxFileBytes = Math.max(0, Long.getLong("hcmp.memoryTier.maxFileBytes", DEFAULT_MAX_FILE_BYTES));
+        this.budgetBytes = Math.max(0, Long.getLong("hcmp.memoryTier.budgetBytes", DEFAULT_BUDGET_BYTES));
+    }
+    
+    /**
+     * 获取全局共享的内存暂存，多个下载管理器共用同一个预算
+     */
+    public static MemoryTier getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 指定大小的文件是否可以暂存在内存中（只比较阈值，不检查预算）
+     */
+    public boolean accepts(long size) {
+        return size > 0 && size <= maxFileBytes && size <= budgetBytes;
+    }
+    
+    /**
+     * 为下载分配内存暂存
+     * 预算不足时先把最早完成的暂存写入磁盘
+     * @param path 文件的目标位置，内存不足时写入这里
+     * @param size 文件大小
+     * @return 暂存，文件太大或预算不足时返回null（改为写入磁盘）
+     */
+    public Buffer allocate(Path path, long size) {
+        if (!accepts(size)) {
+            return null;
+        }
+        
+        List<Buffer> victims;
+        List<Path> victimPaths = new ArrayList<>();
+        synchronized (this) {
+            if (reservedBytes + size <= budgetBytes) {
+                reservedBytes += size;
+                return new Buffer(this, path, (int) size);
+            }
+            victims = selectSpills(budgetBytes - size);
+            for (Buffer victim : victims) {
+                victimPaths.add(victim.paths.iterator().next());
+            }
+        }
+        
+        // 写磁盘可能很慢，不持有锁，其他下载可以继续分配和查找暂存
+        for (int i = 0; i < victims.size(); i++) {
+            Buffer victim = victims.get(i);
+            Path victimPath = victimPaths.get(i);
+            try {
+                victim.spill();
+                ApplicationLogger.logInfo("内存暂存超过预算，写入磁盘: {} ({} 字节)",
+                    victimPath.getFileName(), victim.size);
+            } catch (IOException e) {
+                ApplicationLogger.logWarn("内存暂存写入磁盘失败: {} - {}", victimPath, e.getMessage());
+            }
+        }
+        
+        synchronized (this) {
+            if (reservedBytes + size > budgetBytes) {
+                // 预算被下载中的暂存占用，或腾出的内存已被其他下载使用
+                return null;
+            }
+            reservedBytes += size;
+            return new Buffer(this, path, (int) size);
+        }
+    }
+    
+    /**
+     * 查找目标文件对应的暂存
+     * @return 暂存，文件不在内存中时返回null
+     */
+    public synchronized Buffer find(Path path) {
+        Buffer buffer = byPath.get(path);
+        return buffer != null && buffer.isInMemory() ? buffer : null;
+    }
+    
+    /**
+     * 让另一个目标文件共用已有的暂存，不复制内容
+     * @return 是否共用成功，来源不在内存中时返回false
+     */
+    public synchronized boolean share(Path source, Path target) {
+        Buffer buffer = find(source);
+        if (buffer == null) {
+            return false;
+        }
+        buffer.paths.add(target);
+        byPath.put(target, buffer);
+        return true;
+    }
+    
+    /**
+     * 释放目录下所有目标文件的暂存，清理临时文件时调用
+     * 与其他目录下的目标文件共用的暂存（例如另一个项目合并的下载）只移除本目录的目标文件
+     */
+    public synchronized void releaseUnder(Path directory) {
+        Path root = directory.toAbsolutePath().normalize();
+        for (Buffer buffer : new ArrayList<>(new LinkedHashSet<>(byPath.values()))) {
+            buffer.paths.removeIf(path -> {
+                if (path.toAbsolutePath().normalize().startsWith(root)) {
+                    byPath.remove(path, buffer);
+                    return true;
+                }
+                return false;
+            });
+            if (buffer.paths.isEmpty()) {
+                buffer.release();
+            }
+        }
+    }
+    
+    /**
+     * 按完成顺序选出需要写入磁盘的暂存，直到占用预计不超过目标值，调用时持有锁
+     * 选中的暂存标记为正在写入，不会被另一个分配重复选中
+     */
+    private List<Buffer> selectSpills(long target) {
+        List<Buffer> victims = new ArrayList<>();
+        long projected = reservedBytes;
+        for (Buffer buffer : new LinkedHashSet<>(byPath.values())) {
+            if (projected <= target) {
+                break;
+            }
+            if (buffer.spilling || buffer.data == null) {
+                continue;
+            }
+            buffer.spilling = true;
+            victims.add(buffer);
+            projected -= buffer.size;
+        }
+        return victims;
+    }
+    
+    /**
+     * 创建硬链接，文件系统不支持时返回false
+     */
+    private static boolean tryLink(Path link, Path existing) {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+}
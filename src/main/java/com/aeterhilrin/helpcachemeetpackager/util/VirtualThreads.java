@@ -0,0 +1,42 @@
+package com.aeterhilrin.helpcachemeetpackager.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 虚拟线程支持
+ * 这是Java 8版本的实现，不支持虚拟线程，线程工厂创建普通的守护线程。
+ * JDK 21及以上构建时，src/main/java21中的同名类会编译到多版本JAR的META-INF/versions/21，
+ * 在Java 21及以上运行时替换这个类。
+ *
+ * @author AeterHilrin
+ */
+public final class VirtualThreads {
+    
+    private VirtualThreads() {
+    }
+    
+    /**
+     * 当前运行环境是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+    
+    /**
+     * 创建线程工厂
+     * 不支持虚拟线程，返回按相同规则命名的平台守护线程，与虚拟线程一样不阻止JVM退出
+     * @param prefix 线程名前缀
+     */
+    public static ThreadFactory factory(String prefix) {
+        ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        AtomicInteger counter = new AtomicInteger(0);
+        return r -> {
+            Thread thread = defaultFactory.newThread(r);
+            thread.setName(prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
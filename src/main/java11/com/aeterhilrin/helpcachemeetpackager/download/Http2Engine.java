@@ -0,0 +1,254 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.ProtocolException;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于java.net.http的HTTP/2引擎
+ * 同一主机的请求在一条连接上多路复用，服务器不支持时自动协商为HTTP/1.1。
+ * Java 11及以上的实现，编译到多版本JAR的META-INF/versions/11，由HttpTransport通过反射加载。
+ *
+ * @author AeterHilrin
+ */
+class Http2Engine implements HttpTransport.HttpEngine {
+    
+    private static final long READ_TIMEOUT_CHECK_MILLIS = 200; // 检查响应体读取超时的间隔
+    
+    // HttpClient不允许手动设置的请求头
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList(
+        "connection", "content-length", "expect", "host", "upgrade"));
+    
+    // 连接超时只能在HttpClient上设置，按整秒分别缓存客户端，所有客户端共用一个线程池
+    private final Map<Long, HttpClient> clients;
+    private final ExecutorService clientExecutor;
+    private final Set<TimedBodyStream> openStreams;
+    
+    Http2Engine() {
+        AtomicInteger counter = new AtomicInteger(0);
+        this.clients = new ConcurrentHashMap<>();
+        this.clientExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "http2-client-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.openStreams = ConcurrentHashMap.newKeySet();
+        
+        ScheduledExecutorService readTimeoutChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "http2-read-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        readTimeoutChecker.scheduleWithFixedDelay(this::checkReadTimeouts,
+            READ_TIMEOUT_CHECK_MILLIS, READ_TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public HttpTransport.Response execute(URL url, String method, Map<String, String> headers,
+                                          int connectTimeout, int readTimeout) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("无效的请求地址: " + url, e);
+        }
+        
+        // 请求超时只覆盖到收到响应头为止，响应体的读取超时由TimedBodyStream负责
+        builder.timeout(Duration.ofMillis(Math.max(1, connectTimeout + readTimeout)));
+        builder.method(method, HttpRequest.BodyPublishers.noBody());
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!RESTRICTED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        
+        HttpResponse<InputStream> response;
+        try {
+            response = clientFor(connectTimeout).send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("请求被中断: " + url);
+        } catch (HttpTimeoutException e) {
+            throw new SocketTimeoutException(e.getMessage());
+        } catch (ConnectException | UnknownHostException e) {
+            throw e;
+        } catch (IOException e) {
+            if (isProtocolFailure(e)) {
+                // 服务器的HTTP/2实现有问题，交给HttpTransport回退到HTTP/1.1
+                throw new HttpTransport.HttpVersionException(e.getMessage(), e);
+            }
+            // 连接被重置等临时错误，由调用方按普通网络错误重试
+            throw e;
+        }
+        
+        URI finalUri = response.uri();
+        InputStream body = response.body();
+        if (readTimeout > 0) {
+            body = new TimedBodyStream(body, readTimeout);
+        }
+        // 关闭响应流即可取消HTTP/2流，无需额外的中止操作
+        return new HttpTransport.Response(response.statusCode(), finalUri.toURL(),
+            response.headers().map(), body, null);
+    }
+    
+    /**
+     * 获取连接超时对应的客户端
+     * 超时向上取整到秒，同一主机的请求基本落在同一个客户端上，仍能共用HTTP/2连接
+     */
+    private HttpClient clientFor(int connectTimeout) {
+        long seconds = Math.max(1, (Math.max(0, connectTimeout) + 999L) / 1000);
+        return clients.computeIfAbsent(seconds, key -> HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(key))
+            .proxy(ProxySelector.getDefault()) // 与HttpURLConnection一致，遵循系统代理设置
+            .executor(clientExecutor)
+            .build());
+    }
+    
+    /**
+     * 是否为HTTP/2协议层的错误
+     * 只有这类错误才说明该主机需要改用HTTP/1.1，连接重置、流被关闭等错误换个版本也不会好
+     */
+    private static boolean isProtocolFailure(IOException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ProtocolException) {
+                return true;
+            }
+            String message = cause.getMessage();
+            if (message != null) {
+                String normalized = message.toLowerCase(Locale.ROOT);
+                if (normalized.contains("protocol_error") || normalized.contains("protocol error")
+                        || normalized.contains("http_1_1_required") || normalized.contains("http/1.1 required")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private void checkReadTimeouts() {
+        long now = System.nanoTime();
+        for (TimedBodyStream stream : openStreams) {
+            stream.checkTimeout(now);
+        }
+    }
+    
+    @Override
+    public String getName() {
+        return "HTTP/2 (java.net.http)";
+    }
+    
+    /**
+     * 带读取超时的响应流
+     * 单次读取超过超时仍未返回时，由检查线程关闭流，阻塞的读取以SocketTimeoutException结束，
+     * 与HttpURLConnection的读取超时行为一致
+     */
+    private final class TimedBodyStream extends FilterInputStream {
+        private final long timeoutNanos;
+        private volatile long readStartedAt; // 0表示当前没有读取
+        private volatile boolean timedOut;
+        
+        TimedBodyStream(InputStream in, int readTimeout) {
+            super(in);
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeout);
+            openStreams.add(this);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            beginRead();
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw translate(e);
+            } finally {
+                readStartedAt = 0;
+            }
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            beginRead();
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw translate(e);
+            } finally {
+                readStartedAt = 0;
+            }
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            beginRead();
+            try {
+                return super.skip(n);
+            } catch (IOException e) {
+                throw translate(e);
+            } finally {
+                readStartedAt = 0;
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            openStreams.remove(this);
+            super.close();
+        }
+        
+        private void beginRead() throws SocketTimeoutException {
+            if (timedOut) {
+                throw new SocketTimeoutException("读取超时");
+            }
+            readStartedAt = System.nanoTime() | 1; // 保证非0
+        }
+        
+        private IOException translate(IOException e) {
+            if (timedOut) {
+                SocketTimeoutException timeout = new SocketTimeoutException(
+                    "读取超时: " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+                timeout.initCause(e);
+                return timeout;
+            }
+            return e;
+        }
+        
+        void checkTimeout(long now) {
+            long startedAt = readStartedAt;
+            if (startedAt != 0 && now - startedAt >= timeoutNanos) {
+                timedOut = true;
+                try {
+                    close();
+                } catch (IOException e) {
+                    // 流已损坏，阻塞的读取同样会返回
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.aeterhilrin.helpcachemeetpackager.util;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 虚拟线程支持
+ * Java 21及以上的实现，编译到多版本JAR的META-INF/versions/21。
+ * 公开的方法必须与src/main/java中的同名类保持一致。
+ *
+ * @author AeterHilrin
+ */
+public final class VirtualThreads {
+    
+    private VirtualThreads() {
+    }
+    
+    /**
+     * 当前运行环境是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+    
+    /**
+     * 创建虚拟线程工厂
+     * @param prefix 线程名前缀
+     */
+    public static ThreadFactory factory(String prefix) {
+        return Thread.ofVirtual().name(prefix + "-", 1).factory();
+    }
+}
@@ -0,0 +1,150 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BandwidthLimiter测试：GCRA限速的速率、按权重分配和运行时取消限速
+ * 限速器是全局单例，每个测试结束后恢复为不限速
+ *
+ * @author AeterHilrin
+ */
+public class BandwidthLimiterTest {
+    
+    private static final int CHUNK = 16 * 1024;
+    
+    private final BandwidthLimiter limiter = BandwidthLimiter.getInstance();
+    
+    @Before
+    public void setUp() {
+        limiter.setBytesPerSecond(0);
+    }
+    
+    @After
+    public void tearDown() {
+        limiter.setBytesPerSecond(0);
+    }
+    
+    @Test
+    public void unlimitedDoesNotWait() {
+        try (BandwidthLimiter.Lease lease = limiter.register(1)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++) {
+                lease.acquire(1024 * 1024);
+            }
+            assertTrue(elapsedMillis(start) < 100);
+            assertEquals(0, lease.getFairShare());
+        }
+    }
+    
+    @Test
+    public void singleStreamIsHeldToRate() {
+        long rate = 2 * 1024 * 1024;
+        limiter.setBytesPerSecond(rate);
+        try (BandwidthLimiter.Lease lease = limiter.register(1)) {
+            long start = System.nanoTime();
+            long total = 0;
+            while (total < rate) {
+                lease.acquire(CHUNK);
+                total += CHUNK;
+            }
+            // 最后一块只需预约，不必等完：约(rate - CHUNK) / rate秒
+            long elapsed = elapsedMillis(start);
+            assertTrue("耗时过短: " + elapsed, elapsed >= 900);
+            assertTrue("耗时过长: " + elapsed, elapsed <= 1500);
+        }
+    }
+    
+    @Test
+    public void fairShareFollowsWeights() {
+        limiter.setBytesPerSecond(1000 * 1000);
+        try (BandwidthLimiter.Lease heavy = limiter.register(3);
+             BandwidthLimiter.Lease light = limiter.register(1)) {
+            assertEquals(750 * 1000, heavy.getFairShare());
+            assertEquals(250 * 1000, light.getFairShare());
+            light.close();
+            assertEquals(1000 * 1000, heavy.getFairShare());
+        }
+    }
+    
+    @Test
+    public void saturatedBandwidthIsSplitByWeight() throws Exception {
+        long rate = 2 * 1024 * 1024;
+        limiter.setBytesPerSecond(rate);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong heavyBytes = new AtomicLong();
+        AtomicLong lightBytes = new AtomicLong();
+        CountDownLatch started = new CountDownLatch(2);
+        
+        try (BandwidthLimiter.Lease heavy = limiter.register(3);
+             BandwidthLimiter.Lease light = limiter.register(1)) {
+            Thread heavyThread = new Thread(() -> transfer(heavy, heavyBytes, running, started));
+            Thread lightThread = new Thread(() -> transfer(light, lightBytes, running, started));
+            heavyThread.start();
+            lightThread.start();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            
+            // 先让两个任务进入饱和状态，再统计一段时间内的字节数
+            Thread.sleep(500);
+            long heavyStart = heavyBytes.get();
+            long lightStart = lightBytes.get();
+            long start = System.nanoTime();
+            Thread.sleep(2000);
+            long heavyDelta = heavyBytes.get() - heavyStart;
+            long lightDelta = lightBytes.get() - lightStart;
+            double seconds = elapsedMillis(start) / 1000.0;
+            
+            running.set(false);
+            limiter.setBytesPerSecond(0);
+            heavyThread.join(5000);
+            lightThread.join(5000);
+            
+            double total = (heavyDelta + lightDelta) / seconds;
+            assertTrue("总速率偏离限速: " + total, total > rate * 0.8 && total < rate * 1.2);
+            double ratio = (double) heavyDelta / Math.max(1, lightDelta);
+            assertTrue("权重3:1的任务速率比为 " + ratio, ratio > 2.0 && ratio < 4.5);
+        }
+    }
+    
+    @Test
+    public void removingLimitReleasesWaitingThread() throws Exception {
+        limiter.setBytesPerSecond(1024 * 1024);
+        try (BandwidthLimiter.Lease lease = limiter.register(1)) {
+            // 第一次预约不等待，但把后续预约推迟约10秒
+            lease.acquire(10L * 1024 * 1024);
+            CountDownLatch done = new CountDownLatch(1);
+            Thread waiter = new Thread(() -> {
+                lease.acquire(CHUNK);
+                done.countDown();
+            });
+            waiter.start();
+            
+            Thread.sleep(200);
+            assertEquals(1, done.getCount());
+            limiter.setBytesPerSecond(0);
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+        }
+    }
+    
+    private static void transfer(BandwidthLimiter.Lease lease, AtomicLong counter,
+                                 AtomicBoolean running, CountDownLatch started) {
+        started.countDown();
+        while (running.get()) {
+            lease.acquire(CHUNK);
+            counter.addAndGet(CHUNK);
+        }
+    }
+    
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
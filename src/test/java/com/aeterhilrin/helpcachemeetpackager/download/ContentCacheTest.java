@@ -0,0 +1,177 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * ContentCache测试：按来源和哈希命中、LRU淘汰和索引持久化
+ *
+ * @author AeterHilrin
+ */
+public class ContentCacheTest {
+    
+    private static final int FILE_SIZE = 1000;
+    
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+    
+    private Path root;
+    private Path work;
+    private ContentCache cache;
+    
+    @Before
+    public void setUp() throws Exception {
+        root = temp.newFolder("cache").toPath();
+        work = temp.newFolder("work").toPath();
+        cache = new ContentCache(root, true);
+    }
+    
+    @Test
+    public void storedFileIsFoundBySourceAndMaterialized() throws Exception {
+        byte[] content = content(1);
+        DownloadTask task = store("https://example.lanzoui.com/a", content);
+        
+        ContentCache.Entry entry = cache.find(task("https://example.lanzoui.com/a"));
+        assertNotNull(entry);
+        assertEquals(task.getSha256(), entry.getSha256());
+        assertEquals(FILE_SIZE, entry.getSize());
+        assertEquals("a.bin", entry.getFileName());
+        
+        Path target = work.resolve("restored.bin");
+        cache.materialize(entry, target);
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+    
+    @Test
+    public void expectedHashMatchesAcrossSources() throws Exception {
+        DownloadTask stored = store("https://example.lanzoui.com/a", content(1));
+        
+        DownloadTask other = task("https://mirror.example.com/other");
+        assertNull(cache.find(other));
+        other.setExpectedSha256(stored.getSha256());
+        assertNotNull(cache.find(other));
+    }
+    
+    @Test
+    public void sourceHitRequiresSameSize() throws Exception {
+        store("https://example.lanzoui.com/a", content(1));
+        
+        DownloadTask changed = task("https://example.lanzoui.com/a");
+        changed.setFileSize(FILE_SIZE + 1);
+        assertNull(cache.find(changed));
+        changed.setFileSize(FILE_SIZE);
+        assertNotNull(cache.find(changed));
+    }
+    
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws Exception {
+        cache.setMaxBytes(3 * FILE_SIZE);
+        store("https://example.lanzoui.com/a", content(1));
+        store("https://example.lanzoui.com/b", content(2));
+        store("https://example.lanzoui.com/c", content(3));
+        assertEquals(3, cache.size());
+        
+        // 使用a之后，最久未使用的是b
+        Thread.sleep(5);
+        cache.materialize(cache.find(task("https://example.lanzoui.com/a")), work.resolve("a.bin"));
+        store("https://example.lanzoui.com/d", content(4));
+        
+        assertEquals(3, cache.size());
+        assertEquals(3 * FILE_SIZE, cache.getTotalBytes());
+        assertNotNull(cache.find(task("https://example.lanzoui.com/a")));
+        assertNull(cache.find(task("https://example.lanzoui.com/b")));
+        assertNotNull(cache.find(task("https://example.lanzoui.com/c")));
+        assertNotNull(cache.find(task("https://example.lanzoui.com/d")));
+    }
+    
+    @Test
+    public void shrinkingLimitEvictsImmediately() throws Exception {
+        store("https://example.lanzoui.com/a", content(1));
+        store("https://example.lanzoui.com/b", content(2));
+        
+        cache.setMaxBytes(FILE_SIZE);
+        assertEquals(1, cache.size());
+        assertNull(cache.find(task("https://example.lanzoui.com/a")));
+        assertNotNull(cache.find(task("https://example.lanzoui.com/b")));
+    }
+    
+    @Test
+    public void indexSurvivesRestart() throws Exception {
+        DownloadTask a = store("https://example.lanzoui.com/a", content(1));
+        store("https://example.lanzoui.com/b", content(2));
+        
+        ContentCache reloaded = new ContentCache(root, true);
+        assertEquals(2, reloaded.size());
+        assertEquals(2 * FILE_SIZE, reloaded.getTotalBytes());
+        ContentCache.Entry entry = reloaded.find(task("https://example.lanzoui.com/a"));
+        assertNotNull(entry);
+        assertEquals(a.getSha256(), entry.getSha256());
+        assertEquals("fast-" + a.getSha256().substring(0, 8), entry.getFastHash());
+        assertEquals("a.bin", entry.getFileName());
+    }
+    
+    @Test
+    public void missingObjectFileIsDroppedFromIndex() throws Exception {
+        DownloadTask a = store("https://example.lanzoui.com/a", content(1));
+        Path object = root.resolve("objects").resolve(a.getSha256().substring(0, 2))
+            .resolve(a.getSha256().substring(2, 4)).resolve(a.getSha256());
+        Files.delete(object);
+        
+        assertNull(cache.find(task("https://example.lanzoui.com/a")));
+        assertEquals(0, cache.size());
+        assertEquals(0, new ContentCache(root, true).size());
+    }
+    
+    @Test
+    public void disabledCacheNeverHits() throws Exception {
+        store("https://example.lanzoui.com/a", content(1));
+        ContentCache disabled = new ContentCache(root, false);
+        assertNull(disabled.find(task("https://example.lanzoui.com/a")));
+    }
+    
+    private DownloadTask store(String url, byte[] content) throws Exception {
+        String name = url.substring(url.lastIndexOf('/') + 1) + ".bin";
+        Path file = work.resolve(name);
+        Files.write(file, content);
+        
+        DownloadTask task = task(url);
+        String sha256 = sha256(content);
+        task.setSha256(sha256);
+        task.setFastHash("fast-" + sha256.substring(0, 8));
+        cache.store(task, file, name);
+        // 条目按毫秒记录使用时间，避免先后加入的条目时间相同
+        Thread.sleep(5);
+        return task;
+    }
+    
+    private static DownloadTask task(String url) {
+        return new DownloadTask(url, "item", 1, null);
+    }
+    
+    private static byte[] content(int seed) {
+        byte[] content = new byte[FILE_SIZE];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+    
+    private static String sha256(byte[] content) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
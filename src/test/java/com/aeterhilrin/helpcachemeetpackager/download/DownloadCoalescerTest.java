@@ -0,0 +1,133 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import com.aeterhilrin.helpcachemeetpackager.model.DownloadTask;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DownloadCoalescer测试：合并相同来源的下载，负责下载的任务失败时由等待的任务接替
+ * 合并器是全局单例，每个测试使用不同的链接
+ *
+ * @author AeterHilrin
+ */
+public class DownloadCoalescerTest {
+    
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+    
+    private final DownloadCoalescer coalescer = DownloadCoalescer.getInstance();
+    
+    @Test
+    public void followersShareSuccessfulLeader() {
+        String url = "https://example.lanzoui.com/share";
+        DownloadTask leader = task(url, "pw");
+        DownloadTask follower = task(url, "pw");
+        
+        assertNull(coalescer.join(leader));
+        // 负责下载的任务再次加入时仍由它负责
+        assertNull(coalescer.join(leader));
+        CompletableFuture<DownloadTask> flight = coalescer.join(follower);
+        assertNotNull(flight);
+        assertFalse(flight.isDone());
+        
+        leader.setStatus(DownloadTask.TaskStatus.COMPLETED);
+        coalescer.finish(leader);
+        assertSame(leader, flight.join());
+    }
+    
+    @Test
+    public void differentPasswordIsNotCoalesced() {
+        String url = "https://example.lanzoui.com/password";
+        DownloadTask first = task(url, "a");
+        DownloadTask second = task(url, "b");
+        try {
+            assertNull(coalescer.join(first));
+            assertNull(coalescer.join(second));
+        } finally {
+            finish(first);
+            finish(second);
+        }
+    }
+    
+    @Test
+    public void followerTakesOverWhenLeaderFails() {
+        String url = "https://example.lanzoui.com/failover";
+        DownloadTask leader = task(url, null);
+        DownloadTask first = task(url, null);
+        DownloadTask second = task(url, null);
+        
+        assertNull(coalescer.join(leader));
+        CompletableFuture<DownloadTask> firstWait = coalescer.join(first);
+        CompletableFuture<DownloadTask> secondWait = coalescer.join(second);
+        assertSame(firstWait, secondWait);
+        
+        // 只有负责下载的任务能结束合并的下载
+        coalescer.finish(first);
+        assertFalse(firstWait.isDone());
+        
+        leader.setStatus(DownloadTask.TaskStatus.FAILED);
+        coalescer.finish(leader);
+        assertNull(firstWait.join());
+        
+        // 等待的任务重新加入，先加入的接替负责下载
+        assertNull(coalescer.join(first));
+        CompletableFuture<DownloadTask> retry = coalescer.join(second);
+        assertNotNull(retry);
+        assertFalse(retry.isDone());
+        
+        first.setStatus(DownloadTask.TaskStatus.COMPLETED);
+        coalescer.finish(first);
+        assertSame(first, retry.join());
+    }
+    
+    @Test
+    public void cancelledLeaderReleasesFollowers() {
+        String url = "https://example.lanzoui.com/cancel";
+        DownloadTask leader = task(url, null);
+        DownloadTask follower = task(url, null);
+        
+        assertNull(coalescer.join(leader));
+        CompletableFuture<DownloadTask> flight = coalescer.join(follower);
+        leader.setStatus(DownloadTask.TaskStatus.CANCELLED);
+        coalescer.finish(leader);
+        
+        assertNull(flight.join());
+        assertNull(coalescer.join(follower));
+        finish(follower);
+    }
+    
+    @Test
+    public void linkOrCopyReplacesTarget() throws Exception {
+        Path source = temp.newFile("source.bin").toPath();
+        Path target = temp.getRoot().toPath().resolve("target.bin");
+        byte[] content = "coalesced".getBytes(StandardCharsets.UTF_8);
+        Files.write(source, content);
+        Files.write(target, "old".getBytes(StandardCharsets.UTF_8));
+        
+        DownloadCoalescer.linkOrCopy(source, target);
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertTrue(Files.exists(source));
+    }
+    
+    private void finish(DownloadTask task) {
+        task.setStatus(DownloadTask.TaskStatus.FAILED);
+        coalescer.finish(task);
+    }
+    
+    private static DownloadTask task(String url, String password) {
+        return new DownloadTask(url, "item", 1, password);
+    }
+}
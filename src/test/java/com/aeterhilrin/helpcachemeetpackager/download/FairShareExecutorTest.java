@@ -0,0 +1,230 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FairShareExecutor测试：通道间轮流执行、按权重分配线程、通道上限和deferred补偿
+ *
+ * @author AeterHilrin
+ */
+public class FairShareExecutorTest {
+    
+    private FairShareExecutor executor;
+    
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+    
+    @Test
+    public void lanesTakeTurns() throws Exception {
+        executor = newExecutor(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        FairShareExecutor.Lane blocker = executor.newLane("blocker");
+        blocker.execute(() -> await(gate));
+        
+        // 唯一的线程被占用时，a先排满4个，b后排4个
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(8);
+        FairShareExecutor.Lane a = executor.newLane("a");
+        FairShareExecutor.Lane b = executor.newLane("b");
+        for (int i = 0; i < 4; i++) {
+            int index = i;
+            a.execute(() -> record(order, "a" + index, done));
+        }
+        for (int i = 0; i < 4; i++) {
+            int index = i;
+            b.execute(() -> record(order, "b" + index, done));
+        }
+        gate.countDown();
+        
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a0", "b0", "a1", "b1", "a2", "b2", "a3", "b3"), order);
+    }
+    
+    @Test
+    public void threadsAreSharedByWeight() throws Exception {
+        executor = newExecutor(3);
+        CountDownLatch release = new CountDownLatch(1);
+        FairShareExecutor.Lane heavy = executor.newLane("heavy");
+        FairShareExecutor.Lane light = executor.newLane("light");
+        heavy.setWeight(2);
+        for (int i = 0; i < 6; i++) {
+            heavy.execute(() -> await(release));
+            light.execute(() -> await(release));
+        }
+        
+        waitUntil(() -> heavy.getRunningCount() + light.getRunningCount() == 3);
+        assertEquals(2, heavy.getRunningCount());
+        assertEquals(1, light.getRunningCount());
+        release.countDown();
+    }
+    
+    @Test
+    public void maxRunningDefersAndLaterReleasesWork() throws Exception {
+        executor = newExecutor(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(3);
+        FairShareExecutor.Lane limited = executor.newLane("limited");
+        limited.setMaxRunning(1);
+        for (int i = 0; i < 3; i++) {
+            limited.execute(() -> {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                await(release);
+                active.decrementAndGet();
+                finished.countDown();
+            });
+        }
+        
+        waitUntil(() -> limited.getRunningCount() == 1 && limited.getQueuedCount() == 2);
+        
+        // 另一个通道不受上限影响，可以使用空闲的线程
+        CountDownLatch otherRan = new CountDownLatch(1);
+        executor.newLane("other").execute(otherRan::countDown);
+        assertTrue(otherRan.await(5, TimeUnit.SECONDS));
+        
+        // 提高上限后，之前跳过的取出被补上
+        limited.setMaxRunning(2);
+        waitUntil(() -> limited.getRunningCount() == 2);
+        assertEquals(1, limited.getQueuedCount());
+        
+        release.countDown();
+        assertTrue("排队中的操作没有被执行", finished.await(5, TimeUnit.SECONDS));
+        assertEquals(2, peak.get());
+        assertEquals(0, limited.getQueuedCount());
+    }
+    
+    @Test
+    public void closeReturnsQueuedActionsInOrder() throws Exception {
+        executor = newExecutor(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.newLane("blocker").execute(() -> await(gate));
+        
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        FairShareExecutor.Lane lane = executor.newLane("closing");
+        for (int i = 0; i < 3; i++) {
+            int index = i;
+            lane.execute(() -> ran.add("q" + index));
+        }
+        
+        List<Runnable> pending = lane.close();
+        assertEquals(3, pending.size());
+        try {
+            lane.execute(() -> ran.add("late"));
+            fail("关闭后提交应被拒绝");
+        } catch (RejectedExecutionException expected) {
+            // 预期
+        }
+        
+        // 线程池中为这些操作准备的取出不再执行任何操作
+        gate.countDown();
+        CountDownLatch drained = new CountDownLatch(1);
+        executor.newLane("probe").execute(drained::countDown);
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+        assertTrue(ran.isEmpty());
+        
+        for (Runnable action : pending) {
+            action.run();
+        }
+        assertEquals(Arrays.asList("q0", "q1", "q2"), ran);
+    }
+    
+    @Test
+    public void comparableActionsRunInTheirOwnOrder() throws Exception {
+        executor = newExecutor(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.newLane("blocker").execute(() -> await(gate));
+        
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(4);
+        FairShareExecutor.Lane lane = executor.newLane("ordered");
+        for (int priority : new int[]{3, 1, 4, 2}) {
+            lane.execute(new Prioritized(priority, () -> {
+                order.add(priority);
+                done.countDown();
+            }));
+        }
+        gate.countDown();
+        
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3, 4), order);
+    }
+    
+    private static FairShareExecutor newExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return new FairShareExecutor(threads, r -> {
+            Thread thread = new Thread(r, "fair-share-test-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    private static void record(List<String> order, String name, CountDownLatch done) {
+        order.add(name);
+        done.countDown();
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void waitUntil(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.holds()) {
+            if (System.nanoTime() > deadline) {
+                fail("等待条件超时");
+            }
+            Thread.sleep(10);
+        }
+    }
+    
+    private interface Condition {
+        boolean holds();
+    }
+    
+    /**
+     * 按优先级比较的操作，数值小的先执行
+     */
+    private static final class Prioritized implements Runnable, Comparable<Prioritized> {
+        private final int priority;
+        private final Runnable action;
+        
+        Prioritized(int priority, Runnable action) {
+            this.priority = priority;
+            this.action = action;
+        }
+        
+        @Override
+        public void run() {
+            action.run();
+        }
+        
+        @Override
+        public int compareTo(Prioritized other) {
+            return Integer.compare(priority, other.priority);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LanzouApiClient测试：API错误状态码的可重试分类
+ *
+ * @author AeterHilrin
+ */
+public class LanzouApiClientTest {
+    
+    @Test
+    public void passwordErrorsArePermanent() {
+        assertTrue(LanzouApiClient.isPermanentApiError(400, "密码错误"));
+        assertTrue(LanzouApiClient.isPermanentApiError(201, "请输入正确的密码"));
+    }
+    
+    @Test
+    public void invalidLinksArePermanent() {
+        assertTrue(LanzouApiClient.isPermanentApiError(400, "文件取消分享了"));
+        assertTrue(LanzouApiClient.isPermanentApiError(500, "链接已失效"));
+        assertTrue(LanzouApiClient.isPermanentApiError(404, ""));
+        assertTrue(LanzouApiClient.isPermanentApiError(410, null));
+    }
+    
+    @Test
+    public void busyRateLimitAndUnknownCodesAreRetryable() {
+        assertFalse(LanzouApiClient.isPermanentApiError(503, "服务繁忙"));
+        assertFalse(LanzouApiClient.isPermanentApiError(429, "请求过于频繁"));
+        assertFalse(LanzouApiClient.isPermanentApiError(-1, "API服务暂时不可用，请稍后重试"));
+        assertFalse(LanzouApiClient.isPermanentApiError(500, "API服务返回错误状态"));
+        assertFalse(LanzouApiClient.isPermanentApiError(400, null));
+    }
+}
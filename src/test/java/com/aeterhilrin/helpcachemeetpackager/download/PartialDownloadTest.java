@@ -0,0 +1,236 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * PartialDownload测试：跨重启续传、续传校验和文件身份检查
+ *
+ * @author AeterHilrin
+ */
+public class PartialDownloadTest {
+    
+    private static final int TOTAL_SIZE = 256 * 1024;
+    
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+    
+    private Path directory;
+    private byte[] content;
+    
+    @Before
+    public void setUp() {
+        directory = temp.getRoot().toPath();
+        content = new byte[TOTAL_SIZE];
+        new Random(7).nextBytes(content);
+    }
+    
+    @Test
+    public void resumesFromCheckpointAfterReopen() throws Exception {
+        String url = "https://example.lanzoui.com/resume";
+        PartialDownload first = PartialDownload.open(directory, url, "pw", "task-1");
+        try {
+            first.reset(TOTAL_SIZE, "\"etag-1\"");
+            writePart(first, 100 * 1024);
+            first.checkpoint(100 * 1024, true);
+        } finally {
+            first.release();
+        }
+        
+        PartialDownload reopened = PartialDownload.open(directory, url, "pw", "task-2");
+        try {
+            assertEquals(first.getPartFile(), reopened.getPartFile());
+            assertTrue(reopened.hasProgress());
+            assertFalse(reopened.isSegmented());
+            assertEquals(100 * 1024, reopened.getValidatedOffset());
+            assertEquals(100 * 1024, reopened.getCompletedBytes());
+            assertEquals(TOTAL_SIZE, reopened.getTotalSize());
+            assertEquals("\"etag-1\"", reopened.getEtag());
+        } finally {
+            reopened.release();
+        }
+    }
+    
+    @Test
+    public void discardsProgressBeyondPartFileLength() throws Exception {
+        String url = "https://example.lanzoui.com/truncated";
+        PartialDownload first = PartialDownload.open(directory, url, null, "task-1");
+        try {
+            first.reset(TOTAL_SIZE, null);
+            writePart(first, 10 * 1024);
+            // 记录的位置超过实际写入的长度（数据未落盘）
+            first.checkpoint(100 * 1024, true);
+        } finally {
+            first.release();
+        }
+        
+        PartialDownload reopened = PartialDownload.open(directory, url, null, "task-2");
+        try {
+            assertFalse(reopened.hasProgress());
+            assertFalse(Files.exists(reopened.getPartFile()));
+        } finally {
+            reopened.release();
+        }
+    }
+    
+    @Test
+    public void concurrentTaskGetsSeparatePartFile() {
+        String url = "https://example.lanzoui.com/shared";
+        PartialDownload first = PartialDownload.open(directory, url, null, "task-1");
+        PartialDownload second = PartialDownload.open(directory, url, null, "task-2");
+        try {
+            assertNotEquals(first.getPartFile(), second.getPartFile());
+            assertTrue(second.getPartFile().getFileName().toString().contains("task-2"));
+        } finally {
+            first.release();
+            second.release();
+        }
+    }
+    
+    @Test
+    public void checkIdentityRejectsChangedFile() throws Exception {
+        PartialDownload partial = PartialDownload.open(directory, "https://example.lanzoui.com/identity", null, "task");
+        try {
+            partial.reset(TOTAL_SIZE, "\"etag-1\"");
+            partial.checkIdentity(TOTAL_SIZE, "\"etag-1\"");
+            partial.checkIdentity(-1, null);
+            
+            expectMismatch(partial, TOTAL_SIZE + 1, "\"etag-1\"");
+            expectMismatch(partial, TOTAL_SIZE, "\"etag-2\"");
+            
+            // 切换镜像后只比较大小
+            partial.forgetEtag();
+            partial.checkIdentity(TOTAL_SIZE, "\"etag-2\"");
+        } finally {
+            partial.release();
+        }
+    }
+    
+    @Test
+    public void verifiesOnlyConfirmedData() throws Exception {
+        PartialDownload partial = PartialDownload.open(directory, "https://example.lanzoui.com/verify", null, "task");
+        try {
+            partial.reset(TOTAL_SIZE, null);
+            partial.checkpoint(200 * 1024, true);
+            assertEquals(0, partial.verifyBytesBefore(PartialDownload.VERIFY_BYTES - 1));
+            assertEquals(PartialDownload.VERIFY_BYTES, partial.verifyBytesBefore(200 * 1024));
+            // 续传位置之前仍有未下载的数据
+            assertEquals(0, partial.verifyBytesBefore(220 * 1024));
+        } finally {
+            partial.release();
+        }
+    }
+    
+    @Test
+    public void verifyTailAcceptsMatchingData() throws Exception {
+        PartialDownload partial = PartialDownload.open(directory, "https://example.lanzoui.com/tail-ok", null, "task");
+        try (FileChannel channel = preparePart(partial, 100 * 1024)) {
+            int length = PartialDownload.VERIFY_BYTES;
+            long position = 100 * 1024;
+            byte[] remote = Arrays.copyOfRange(content, (int) position - length, (int) position + 10);
+            PartialDownload.verifyTail(new ByteArrayInputStream(remote), channel, position, length);
+        } finally {
+            partial.release();
+        }
+    }
+    
+    @Test
+    public void verifyTailRejectsChangedData() throws Exception {
+        PartialDownload partial = PartialDownload.open(directory, "https://example.lanzoui.com/tail-bad", null, "task");
+        try (FileChannel channel = preparePart(partial, 100 * 1024)) {
+            int length = PartialDownload.VERIFY_BYTES;
+            long position = 100 * 1024;
+            byte[] remote = Arrays.copyOfRange(content, (int) position - length, (int) position);
+            remote[length - 1] ^= 1;
+            try {
+                PartialDownload.verifyTail(new ByteArrayInputStream(remote), channel, position, length);
+                fail("数据不一致时应抛出ResumeMismatchException");
+            } catch (PartialDownload.ResumeMismatchException expected) {
+                // 预期
+            }
+        } finally {
+            partial.release();
+        }
+    }
+    
+    @Test
+    public void verifyTailFailsOnShortResponse() throws Exception {
+        PartialDownload partial = PartialDownload.open(directory, "https://example.lanzoui.com/tail-short", null, "task");
+        try (FileChannel channel = preparePart(partial, 100 * 1024)) {
+            int length = PartialDownload.VERIFY_BYTES;
+            byte[] remote = Arrays.copyOfRange(content, 100 * 1024 - length, 100 * 1024 - 1);
+            try {
+                PartialDownload.verifyTail(new ByteArrayInputStream(remote), channel, 100 * 1024, length);
+                fail("响应提前结束时应抛出EOFException");
+            } catch (EOFException expected) {
+                // 预期
+            }
+        } finally {
+            partial.release();
+        }
+    }
+    
+    @Test
+    public void completeMovesPartFileAndDropsMetadata() throws Exception {
+        String url = "https://example.lanzoui.com/complete";
+        PartialDownload partial = PartialDownload.open(directory, url, null, "task");
+        Path target = directory.resolve("file.bin");
+        try {
+            partial.reset(TOTAL_SIZE, null);
+            writePart(partial, TOTAL_SIZE);
+            partial.checkpoint(TOTAL_SIZE, true);
+            partial.complete(target);
+        } finally {
+            partial.release();
+        }
+        
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertFalse(Files.exists(partial.getPartFile()));
+        PartialDownload reopened = PartialDownload.open(directory, url, null, "task");
+        try {
+            assertFalse(reopened.hasProgress());
+        } finally {
+            reopened.release();
+        }
+    }
+    
+    private void writePart(PartialDownload partial, int length) throws Exception {
+        try (FileChannel channel = partial.openChannel()) {
+            channel.write(ByteBuffer.wrap(content, 0, length), 0);
+        }
+    }
+    
+    private FileChannel preparePart(PartialDownload partial, int length) throws Exception {
+        partial.reset(TOTAL_SIZE, null);
+        writePart(partial, length);
+        partial.checkpoint(length, true);
+        return partial.openChannel();
+    }
+    
+    private static void expectMismatch(PartialDownload partial, long size, String etag) {
+        try {
+            partial.checkIdentity(size, etag);
+            fail("文件变化时应抛出ResumeMismatchException");
+        } catch (PartialDownload.ResumeMismatchException expected) {
+            // 预期
+        }
+    }
+}
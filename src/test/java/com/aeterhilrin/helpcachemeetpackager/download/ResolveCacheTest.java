@@ -0,0 +1,202 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ResolveCache测试：有效期、失败结果缓存和磁盘持久化
+ *
+ * @author AeterHilrin
+ */
+public class ResolveCacheTest {
+    
+    private static final String URL = "https://example.lanzoui.com/abc123";
+    
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+    
+    private Path cacheFile;
+    private ResolveCache cache;
+    
+    @Before
+    public void setUp() {
+        cacheFile = temp.getRoot().toPath().resolve("resolve-cache.json");
+        cache = new ResolveCache(cacheFile);
+    }
+    
+    @Test
+    public void successExpiresAfterTtl() throws Exception {
+        cache.setTtl(200, TimeUnit.MILLISECONDS);
+        cache.put(URL, "pw", success());
+        
+        LanzouApiClient.ApiResponse cached = cache.get(URL, "pw");
+        assertNotNull(cached);
+        assertTrue(cached.isSuccess());
+        assertEquals("https://dl.example.com/file.zip", cached.getDirectUrl());
+        assertEquals(1024, cached.getFileSize());
+        
+        Thread.sleep(300);
+        assertNull(cache.get(URL, "pw"));
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    public void deterministicFailureIsCachedForNegativeTtl() throws Exception {
+        cache.setNegativeTtl(200, TimeUnit.MILLISECONDS);
+        cache.put(URL, "wrong", failure(false));
+        
+        LanzouApiClient.ApiResponse cached = cache.get(URL, "wrong");
+        assertNotNull(cached);
+        assertFalse(cached.isSuccess());
+        assertFalse(cached.isRetryable());
+        assertEquals("密码错误", cached.getErrorMessage());
+        
+        Thread.sleep(300);
+        assertNull(cache.get(URL, "wrong"));
+    }
+    
+    @Test
+    public void retryableFailureIsNotCached() {
+        cache.put(URL, "pw", failure(true));
+        assertNull(cache.get(URL, "pw"));
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    public void zeroNegativeTtlDisablesNegativeCaching() {
+        cache.setNegativeTtl(0, TimeUnit.MILLISECONDS);
+        cache.put(URL, "wrong", failure(false));
+        assertNull(cache.get(URL, "wrong"));
+    }
+    
+    @Test
+    public void keyDependsOnPasswordAndTreatsPlaceholderAsEmpty() {
+        cache.put(URL, null, success());
+        assertNotNull(cache.get(URL, "无"));
+        assertNotNull(cache.get(URL, " "));
+        assertNull(cache.get(URL, "other"));
+    }
+    
+    @Test
+    public void resolveCallsResolverOnlyOnMiss() {
+        CountingResolver resolver = new CountingResolver(success());
+        cache.resolve(URL, "pw", "task", resolver);
+        cache.resolve(URL, "pw", "task", resolver);
+        assertEquals(1, resolver.calls.get());
+        assertEquals(1, cache.getHitCount());
+    }
+    
+    @Test
+    public void resolveRetriesRetryableFailures() {
+        CountingResolver resolver = new CountingResolver(failure(true));
+        cache.resolve(URL, "pw", "task", resolver);
+        cache.resolve(URL, "pw", "task", resolver);
+        assertEquals(2, resolver.calls.get());
+    }
+    
+    @Test
+    public void concurrentResolvesShareOneCall() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        LinkResolver slow = new LinkResolver() {
+            @Override
+            public String getName() {
+                return "slow";
+            }
+            
+            @Override
+            public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag) {
+                calls.incrementAndGet();
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return success();
+            }
+        };
+        
+        Thread first = new Thread(() -> cache.resolve(URL, "pw", "a", slow));
+        first.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        
+        LanzouApiClient.ApiResponse[] second = new LanzouApiClient.ApiResponse[1];
+        Thread waiter = new Thread(() -> second[0] = cache.resolve(URL, "pw", "b", slow));
+        waiter.start();
+        // 第二个调用方只能等待进行中的解析
+        Thread.sleep(100);
+        release.countDown();
+        first.join(5000);
+        waiter.join(5000);
+        
+        assertEquals(1, calls.get());
+        assertNotNull(second[0]);
+        assertTrue(second[0].isSuccess());
+    }
+    
+    @Test
+    public void entriesSurviveRestart() {
+        cache.put(URL, "pw", success());
+        cache.put(URL, "wrong", failure(false));
+        cache.flush();
+        
+        ResolveCache reloaded = new ResolveCache(cacheFile);
+        assertEquals(2, reloaded.size());
+        assertTrue(reloaded.get(URL, "pw").isSuccess());
+        assertEquals("密码错误", reloaded.get(URL, "wrong").getErrorMessage());
+    }
+    
+    @Test
+    public void expiredEntriesAreDroppedOnLoad() throws Exception {
+        cache.setTtl(100, TimeUnit.MILLISECONDS);
+        cache.put(URL, "pw", success());
+        cache.flush();
+        Thread.sleep(200);
+        
+        assertEquals(0, new ResolveCache(cacheFile).size());
+    }
+    
+    private static LanzouApiClient.ApiResponse success() {
+        return new LanzouApiClient.ApiResponse(true, "https://dl.example.com/file.zip", "file.zip", 1024, null);
+    }
+    
+    private static LanzouApiClient.ApiResponse failure(boolean retryable) {
+        return new LanzouApiClient.ApiResponse(false, null, null, 0,
+            retryable ? "连接超时" : "密码错误", retryable);
+    }
+    
+    private static class CountingResolver implements LinkResolver {
+        private final LanzouApiClient.ApiResponse response;
+        private final AtomicInteger calls = new AtomicInteger();
+        
+        CountingResolver(LanzouApiClient.ApiResponse response) {
+            this.response = response;
+        }
+        
+        @Override
+        public String getName() {
+            return "counting";
+        }
+        
+        @Override
+        public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag) {
+            calls.incrementAndGet();
+            return response;
+        }
+    }
+}
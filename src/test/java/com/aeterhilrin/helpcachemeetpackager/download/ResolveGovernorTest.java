@@ -0,0 +1,171 @@
+package com.aeterhilrin.helpcachemeetpackager.download;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ResolveGovernor测试：重试、Retry-After、AIMD并发和熔断
+ *
+ * @author AeterHilrin
+ */
+public class ResolveGovernorTest {
+    
+    @After
+    public void tearDown() {
+        System.clearProperty("hcmp.resolver.maxRetries");
+    }
+    
+    @Test
+    public void deterministicFailureIsNotRetried() {
+        ScriptedResolver resolver = new ScriptedResolver(failure(false, 0));
+        ResolveGovernor governor = new ResolveGovernor(resolver);
+        
+        assertFalse(governor.resolve("url", null, "task").isSuccess());
+        assertEquals(1, resolver.calls.get());
+        assertEquals(ResolveGovernor.CircuitState.CLOSED, governor.getCircuitState());
+    }
+    
+    @Test
+    public void retryableFailureHonoursRetryAfter() {
+        System.setProperty("hcmp.resolver.maxRetries", "1");
+        ScriptedResolver resolver = new ScriptedResolver(failure(true, 300), success());
+        ResolveGovernor governor = new ResolveGovernor(resolver);
+        
+        long start = System.nanoTime();
+        assertTrue(governor.resolve("url", null, "task").isSuccess());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        assertEquals(2, resolver.calls.get());
+        assertTrue("重试前应等待Retry-After: " + elapsedMillis, elapsedMillis >= 300);
+    }
+    
+    @Test
+    public void failureHalvesAndSuccessGrowsConcurrency() {
+        System.setProperty("hcmp.resolver.maxRetries", "0");
+        ScriptedResolver resolver = new ScriptedResolver(failure(true, 0), success());
+        ResolveGovernor governor = new ResolveGovernor(resolver);
+        assertEquals(4, governor.getConcurrencyLimit());
+        
+        governor.resolve("url", null, "task");
+        assertEquals(2, governor.getConcurrencyLimit());
+        
+        // 加性增加：每次成功增加1/limit（2 -> 2.5 -> 2.9 -> 3.24）
+        governor.resolve("url", null, "task");
+        governor.resolve("url", null, "task");
+        assertEquals(2, governor.getConcurrencyLimit());
+        governor.resolve("url", null, "task");
+        assertEquals(3, governor.getConcurrencyLimit());
+    }
+    
+    @Test
+    public void concurrentResolvesStayWithinLimit() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        LinkResolver blocking = new LinkResolver() {
+            @Override
+            public String getName() {
+                return "blocking";
+            }
+            
+            @Override
+            public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag) {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    active.decrementAndGet();
+                }
+                return success();
+            }
+        };
+        ResolveGovernor governor = new ResolveGovernor(blocking);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 8; i++) {
+                executor.execute(() -> governor.resolve("url", null, "task"));
+            }
+            Thread.sleep(200);
+            assertEquals(4, peak.get());
+            release.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        assertEquals(4, peak.get());
+    }
+    
+    @Test
+    public void consecutiveFailuresOpenCircuit() {
+        System.setProperty("hcmp.resolver.maxRetries", "0");
+        ScriptedResolver resolver = new ScriptedResolver(failure(true, 0));
+        ResolveGovernor governor = new ResolveGovernor(resolver);
+        List<ResolveGovernor.CircuitState> states = new ArrayList<>();
+        governor.addRetryListener(new ResolveGovernor.RetryListener() {
+            @Override
+            public void onResolveRetry(String taskTag, int attempt, long delayMillis, String reason) {
+            }
+            
+            @Override
+            public void onCircuitStateChanged(ResolveGovernor.CircuitState state) {
+                states.add(state);
+            }
+        });
+        
+        for (int i = 0; i < 4; i++) {
+            governor.resolve("url", null, "task");
+        }
+        assertEquals(ResolveGovernor.CircuitState.CLOSED, governor.getCircuitState());
+        
+        governor.resolve("url", null, "task");
+        assertEquals(ResolveGovernor.CircuitState.OPEN, governor.getCircuitState());
+        assertEquals(1, states.size());
+        assertEquals(ResolveGovernor.CircuitState.OPEN, states.get(0));
+    }
+    
+    private static LanzouApiClient.ApiResponse success() {
+        return new LanzouApiClient.ApiResponse(true, "https://dl.example.com/file.zip", "file.zip", 1024, null);
+    }
+    
+    private static LanzouApiClient.ApiResponse failure(boolean retryable, long retryAfterMillis) {
+        return new LanzouApiClient.ApiResponse(false, null, null, 0, "失败", retryable, retryAfterMillis);
+    }
+    
+    /**
+     * 按顺序返回预设结果的解析器，用完后重复最后一个
+     */
+    private static class ScriptedResolver implements LinkResolver {
+        private final LanzouApiClient.ApiResponse[] responses;
+        private final AtomicInteger calls = new AtomicInteger();
+        
+        ScriptedResolver(LanzouApiClient.ApiResponse... responses) {
+            this.responses = responses;
+        }
+        
+        @Override
+        public String getName() {
+            return "scripted";
+        }
+        
+        @Override
+        public LanzouApiClient.ApiResponse resolve(String lanzouUrl, String password, String taskTag) {
+            int index = calls.getAndIncrement();
+            return responses[Math.min(index, responses.length - 1)];
+        }
+    }
+}
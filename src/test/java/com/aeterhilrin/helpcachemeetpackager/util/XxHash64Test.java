@@ -0,0 +1,93 @@
+package com.aeterhilrin.helpcachemeetpackager.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * XxHash64测试
+ * 期望值为XXH64官方实现的输出
+ *
+ * @author AeterHilrin
+ */
+public class XxHash64Test {
+    
+    @Test
+    public void matchesPublishedVectors() {
+        assertEquals(0xEF46DB3751D8E999L, hash("", 0));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a", 0));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc", 0));
+        assertEquals(0x32DD38952C4BC720L, hash("xxhash", 0));
+        assertEquals(0xB559B98D844E0635L, hash("xxhash", 20141025));
+        // 超过32字节，经过分条带处理
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition", 0));
+    }
+    
+    @Test
+    public void matchesReferenceForLongInput() {
+        byte[] data = longInput();
+        XxHash64 hash = new XxHash64();
+        hash.update(data, 0, data.length);
+        assertEquals(0xE146CB31B65BC21AL, hash.getValue());
+        assertEquals("e146cb31b65bc21a", hash.getHexValue());
+    }
+    
+    @Test
+    public void chunkedUpdatesMatchSingleUpdate() {
+        byte[] data = longInput();
+        Random random = new Random(42);
+        XxHash64 chunked = new XxHash64();
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(data.length - offset, random.nextInt(70));
+            if (random.nextBoolean()) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(length);
+                direct.put(data, offset, length).flip();
+                chunked.update(direct);
+                assertEquals(0, direct.position());
+            } else {
+                chunked.update(data, offset, length);
+            }
+            // 中途取值不影响后续计算
+            chunked.getValue();
+            offset += length;
+        }
+        assertEquals(0xE146CB31B65BC21AL, chunked.getValue());
+    }
+    
+    @Test
+    public void resetStartsOver() {
+        XxHash64 hash = new XxHash64(20141025);
+        byte[] noise = longInput();
+        hash.update(noise, 0, noise.length);
+        hash.reset();
+        byte[] data = "xxhash".getBytes(StandardCharsets.US_ASCII);
+        hash.update(data, 0, data.length);
+        assertEquals(0xB559B98D844E0635L, hash.getValue());
+    }
+    
+    private static long hash(String text, long seed) {
+        byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+        XxHash64 hash = new XxHash64(seed);
+        hash.update(data, 0, data.length);
+        return hash.getValue();
+    }
+    
+    /**
+     * 0x00-0xFF重复4次后接"xyz"，共1027字节
+     */
+    private static byte[] longInput() {
+        byte[] data = new byte[1027];
+        for (int i = 0; i < 1024; i++) {
+            data[i] = (byte) i;
+        }
+        data[1024] = 'x';
+        data[1025] = 'y';
+        data[1026] = 'z';
+        return data;
+    }
+}